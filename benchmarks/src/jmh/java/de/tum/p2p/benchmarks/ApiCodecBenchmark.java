@@ -0,0 +1,72 @@
+package de.tum.p2p.benchmarks;
+
+import de.tum.p2p.proto.message.MessageType;
+import de.tum.p2p.proto.message.onion.forwarding.api.OnionCoverMessage;
+import de.tum.p2p.proto.message.onion.forwarding.api.OnionTunnelDataMessage;
+import de.tum.p2p.proto.message.onion.forwarding.api.OnionTunnelDestroyMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decode throughput of onion API messages as they come out of the API
+ * pipeline's length field frame decoder, i.e. without the length prefix.
+ * API messages are only decoded by the onion, so there is nothing to encode.
+ * <p>
+ * Run with {@code -prof gc} (enabled in build.gradle) to see allocation rates.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ApiCodecBenchmark {
+
+    @Param({"64", "1000"})
+    private int dataBytes;
+
+    private ByteBuffer dataFrame;
+    private ByteBuffer destroyFrame;
+    private ByteBuffer coverFrame;
+
+    @Setup
+    public void setUp() {
+        final int tunnelId = ThreadLocalRandom.current().nextInt();
+
+        final byte[] data = new byte[dataBytes];
+        ThreadLocalRandom.current().nextBytes(data);
+
+        dataFrame = ByteBuffer.allocate(Short.BYTES + Integer.BYTES + dataBytes)
+            .putShort(MessageType.ONION_TUNNEL_DATA.code())
+            .putInt(tunnelId)
+            .put(data);
+        dataFrame.flip();
+
+        destroyFrame = ByteBuffer.allocate(Short.BYTES + Integer.BYTES)
+            .putShort(MessageType.ONION_TUNNEL_DESTROY.code())
+            .putInt(tunnelId);
+        destroyFrame.flip();
+
+        coverFrame = ByteBuffer.allocate(Short.BYTES + Integer.BYTES)
+            .putShort(MessageType.ONION_COVER.code())
+            .putInt(dataBytes);
+        coverFrame.flip();
+    }
+
+    @Benchmark
+    public OnionTunnelDataMessage decodeData() throws Exception {
+        return OnionTunnelDataMessage.fromBytes(dataFrame.duplicate());
+    }
+
+    @Benchmark
+    public OnionTunnelDestroyMessage decodeDestroy() {
+        return OnionTunnelDestroyMessage.fromBytes(destroyFrame.duplicate());
+    }
+
+    @Benchmark
+    public OnionCoverMessage decodeCover() {
+        return OnionCoverMessage.fromBytes(coverFrame.duplicate());
+    }
+}
@@ -0,0 +1,52 @@
+package de.tum.p2p.benchmarks;
+
+import de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many full {@link TunnelDatum} cells per second each {@link DatumIntegrity}
+ * check can protect ({@link #write()}) and verify on the destination ({@link #verify()}).
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DatumIntegrityBenchmark {
+
+    @Param({"NONE", "CRC32", "MD5"})
+    private DatumIntegrity integrity;
+
+    private ByteBuffer payload;
+    private ByteBuffer digest;
+
+    @Setup
+    public void setUp() {
+        final byte[] payloadBytes = new byte[TunnelDatum.PAYLOAD_BYTES];
+        ThreadLocalRandom.current().nextBytes(payloadBytes);
+
+        payload = ByteBuffer.wrap(payloadBytes);
+        digest = ByteBuffer.allocate(DatumIntegrity.MAX_DIGEST_BYTES);
+
+        integrity.write(payload.duplicate(), digest);
+    }
+
+    @Benchmark
+    public ByteBuffer write() {
+        digest.clear();
+        integrity.write(payload.duplicate(), digest);
+
+        return digest;
+    }
+
+    @Benchmark
+    public boolean verify() {
+        digest.clear();
+        return integrity.verify(payload.duplicate(), digest);
+    }
+}
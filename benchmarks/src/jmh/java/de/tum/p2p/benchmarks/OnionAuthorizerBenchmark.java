@@ -0,0 +1,178 @@
+package de.tum.p2p.benchmarks;
+
+import de.tum.p2p.Peer;
+import de.tum.p2p.onion.auth.AesCtrOnionAuthorizer;
+import de.tum.p2p.onion.auth.InMemoryBase64OnionAuthorizer;
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.OnionAuthorizer;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayMessage;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures crypto costs of a relay cell in a tunnel of {@code layers} hops for every
+ * {@link OnionAuthorizer} of the tree that runs in process. {@link #encrypt()} layers a
+ * cell payload at the originator, {@link #decrypt()} peels all its layers hop by hop,
+ * i.e. it is the total relay crypto spent on a cell along the tunnel. Payloads fill
+ * relay cells of {@code cellBytes}. {@code AesCtrKeystream} layers cells with the
+ * tunnel's {@link LayeredKeystream} the way originators do once the tunnel is built.
+ * <p>
+ * Throughput benchmarks report cells/s, {@code *Time} ones report ns/cell, and the gc
+ * profiler (enabled in build.gradle) reports bytes allocated per cell as
+ * {@code gc.alloc.rate.norm}. Nested classes run the same benchmarks with different
+ * amounts of threads sharing the authorizers and sessions, like event loops of an onion do.
+ * The remote Onion Auth client is left out since it needs a running Onion Auth module.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@State(Scope.Benchmark)
+public abstract class OnionAuthorizerBenchmark {
+
+    @Param({"InMemoryBase64", "AesCtr", "AesCtrKeystream"})
+    private String authorizer;
+
+    @Param({"1", "2", "3", "4", "5", "6"})
+    private int layers;
+
+    @Param({"512", "1024", "4096"})
+    private int cellBytes;
+
+    private OnionAuthorizer originator;
+    private List<SessionId> originatorSessionIds;
+    private LayeredKeystream keystream;
+
+    private List<OnionAuthorizer> hops;
+    private List<SessionId> hopSessionIds;
+
+    private byte[] plaintext;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setUp() {
+        originator = createAuthorizer(generateHostkey());
+        originatorSessionIds = new ArrayList<>(layers);
+
+        hops = new ArrayList<>(layers);
+        hopSessionIds = new ArrayList<>(layers);
+
+        for (int i = 0; i < layers; i++) {
+            final KeyPair hopHostkey = generateHostkey();
+            final OnionAuthorizer hop = createAuthorizer(hopHostkey);
+            final Peer hopPeer = Peer.of(InetAddress.getLoopbackAddress(), 1024 + i, hopHostkey.getPublic());
+
+            final ByteBuffer hs1 = originator.sessionFactory().start(hopPeer).join().getValue();
+            final Pair<SessionId, ByteBuffer> hopSessionIdAndHs2 = hop.sessionFactory().responseTo(null, hs1).join();
+
+            hops.add(hop);
+            hopSessionIds.add(hopSessionIdAndHs2.getKey());
+            originatorSessionIds.add(originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join());
+        }
+
+        if ("AesCtrKeystream".equals(authorizer))
+            keystream = originator.layeredKeystream(originatorSessionIds).get();
+
+        plaintext = new byte[TunnelRelayMessage.payloadBytes(cellBytes)];
+        ThreadLocalRandom.current().nextBytes(plaintext);
+
+        ciphertext = originator.encrypt(plaintext, originatorSessionIds).join().bytes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (keystream != null)
+            keystream.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] encrypt() {
+        return layer();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] decrypt() {
+        return peel();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] encryptTime() {
+        return layer();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] decryptTime() {
+        return peel();
+    }
+
+    private byte[] layer() {
+        if (keystream != null) {
+            final byte[] layered = plaintext.clone();
+            keystream.apply(ByteBuffer.wrap(layered));
+
+            return layered;
+        }
+
+        return originator.encrypt(plaintext, originatorSessionIds).join().bytes();
+    }
+
+    private byte[] peel() {
+        byte[] payload = ciphertext;
+        for (int i = 0; i < layers; i++)
+            payload = hops.get(i).decrypt(payload, hopSessionIds.get(i)).join().bytes();
+
+        return payload;
+    }
+
+    private OnionAuthorizer createAuthorizer(KeyPair hostkey) {
+        switch (authorizer) {
+            case "InMemoryBase64":
+                return new InMemoryBase64OnionAuthorizer();
+            case "AesCtr":
+            case "AesCtrKeystream":
+                return new AesCtrOnionAuthorizer(hostkey);
+            default:
+                throw new IllegalArgumentException("Unknown authorizer " + authorizer);
+        }
+    }
+
+    private static KeyPair generateHostkey() {
+        try {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+
+            return keyPairGenerator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Threads(1)
+    public static class OneThread extends OnionAuthorizerBenchmark {
+    }
+
+    @Threads(2)
+    public static class TwoThreads extends OnionAuthorizerBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends OnionAuthorizerBenchmark {
+    }
+}
@@ -0,0 +1,82 @@
+package de.tum.p2p.benchmarks;
+
+import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings;
+import de.tum.p2p.util.ByteBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares costs of {@link CellPadding} strategies padding a single tunnel
+ * cell of {@link TunnelMessage#BYTES} after a payload of {@code payloadBytes}.
+ * {@link #legacyRandPadRemaining()} measures the array based padding used
+ * before {@link CellPadding} was introduced.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PaddingBenchmark {
+
+    @Param({"threadLocalRandom", "keystream", "randomPool"})
+    private String strategy;
+
+    @Param({"heap", "direct"})
+    private String buffer;
+
+    /**
+     * 6 bytes ~ ONION_TUNNEL_RETIRE, 600 bytes ~ half filled datum, 1010 bytes ~ full relay cell
+     */
+    @Param({"6", "600", "1010"})
+    private int payloadBytes;
+
+    private CellPadding padding;
+    private ByteBuf cell;
+    private ByteBuffer legacyCell;
+
+    @Setup
+    public void setUp() {
+        switch (strategy) {
+            case "threadLocalRandom":
+                padding = CellPaddings.threadLocalRandom();
+                break;
+            case "keystream":
+                padding = CellPaddings.keystream();
+                break;
+            case "randomPool":
+                padding = CellPaddings.randomPool();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown padding strategy " + strategy);
+        }
+
+        cell = "direct".equals(buffer)
+            ? PooledByteBufAllocator.DEFAULT.directBuffer(TunnelMessage.BYTES, TunnelMessage.BYTES)
+            : PooledByteBufAllocator.DEFAULT.heapBuffer(TunnelMessage.BYTES, TunnelMessage.BYTES);
+
+        legacyCell = ByteBuffer.allocate(TunnelMessage.BYTES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cell.release();
+    }
+
+    @Benchmark
+    public ByteBuf pad() {
+        cell.writerIndex(payloadBytes);
+        return padding.pad(cell, TunnelMessage.BYTES - payloadBytes);
+    }
+
+    @Benchmark
+    public ByteBuffer legacyRandPadRemaining() {
+        legacyCell.clear().position(payloadBytes);
+        return ByteBuffers.randPadRemaining(legacyCell);
+    }
+}
@@ -0,0 +1,88 @@
+package de.tum.p2p.benchmarks;
+
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RoutingContext} of a relay serving {@code routes} live tunnels.
+ * {@link #lookup()} resolves a route the way every relayed cell does (session id,
+ * next hop), {@link #churn()} builds and retires a tunnel next to the live ones.
+ * Lookups are expected to allocate nothing ({@code gc.alloc.rate.norm}). Nested
+ * classes run the benchmarks with 1 to 8 threads sharing the context, like event
+ * loops of a multi-core relay do.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public abstract class RoutingContextBenchmark {
+
+    @Param({"1000", "100000"})
+    private int routes;
+
+    private RoutingContext routingContext;
+    private TunnelId[] tunnelIds;
+    private Channel nextHop;
+
+    @Setup
+    public void setUp() {
+        routingContext = new RoutingContext();
+        tunnelIds = new TunnelId[routes];
+        nextHop = new EmbeddedChannel();
+
+        for (int i = 0; i < routes; i++) {
+            tunnelIds[i] = TunnelId.wrap(i * 2);
+
+            routingContext.setSessionId(tunnelIds[i], SessionId.wrap(i));
+            routingContext.setNextHop(tunnelIds[i], nextHop);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        routingContext.close();
+    }
+
+    @Benchmark
+    public Channel lookup() {
+        final TunnelId tunnelId = tunnelIds[ThreadLocalRandom.current().nextInt(routes)];
+
+        if (routingContext.sessionId(tunnelId) == null)
+            throw new IllegalStateException("No route of tunnel " + tunnelId);
+
+        return routingContext.nextHop(tunnelId);
+    }
+
+    @Benchmark
+    public boolean churn() {
+        // Odd ids never collide with live routes
+        final TunnelId tunnelId = TunnelId.wrap(ThreadLocalRandom.current().nextInt(routes) * 2 + 1);
+
+        routingContext.setSessionId(tunnelId, SessionId.wrap(tunnelId.raw()));
+        final boolean served = routingContext.serves(tunnelId);
+        routingContext.forget(tunnelId);
+
+        return served;
+    }
+
+    @Threads(1)
+    public static class OneThread extends RoutingContextBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends RoutingContextBenchmark {
+    }
+
+    @Threads(8)
+    public static class EightThreads extends RoutingContextBenchmark {
+    }
+}
@@ -0,0 +1,155 @@
+package de.tum.p2p.benchmarks;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.handler.LinkFrameDecoder;
+import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageDispatcher;
+import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageEncoder;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendedMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelRetireMessage;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelConnect;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayCell;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayMessage;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static de.tum.p2p.proto.message.MessageType.*;
+
+/**
+ * Measures encode and decode throughput of onion to onion tunnel messages passing
+ * the actual pipeline handlers: {@link TunnelMessageEncoder} on the way out and
+ * {@link LinkFrameDecoder} with {@link TunnelMessageDispatcher} on the way in.
+ * Relay payloads are decoded the way {@code TunnelRelayHandler} does it for the last
+ * hop, i.e. without decryption.
+ * <p>
+ * Run with {@code -prof gc} (enabled in build.gradle) to see allocation rates.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TunnelCodecBenchmark {
+
+    private static final int HANDSHAKE_BYTES = 64;
+
+    @Param({"extend", "extended", "retire", "relayDatum", "relayConnect"})
+    private String message;
+
+    private TunnelMessage tunnelMessage;
+
+    private EmbeddedChannel encodingChannel;
+    private EmbeddedChannel decodingChannel;
+    private ByteBuf encodedMessage;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        this.tunnelMessage = createMessage(message);
+
+        encodingChannel = new EmbeddedChannel(new TunnelMessageEncoder(CellPaddings.defaultPadding()));
+
+        decodingChannel = new EmbeddedChannel(new LinkFrameDecoder(), new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_EXTEND, in -> TunnelExtendMessage.fromBytes(in.nioBuffer()),
+                (ctx, msg) -> blackhole.consume(msg))
+            .route(ONION_TUNNEL_EXTENDED, in -> TunnelExtendedMessage.fromBytes(in.nioBuffer()),
+                (ctx, msg) -> blackhole.consume(msg))
+            .route(ONION_TUNNEL_RETIRE, in -> TunnelRetireMessage.fromBytes(in.nioBuffer()),
+                (ctx, msg) -> blackhole.consume(msg))
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom, this::decodeRelayPayload)
+            .build());
+
+        encodedMessage = encode();
+    }
+
+    @TearDown
+    public void tearDown() {
+        encodedMessage.release();
+
+        encodingChannel.finishAndReleaseAll();
+        decodingChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void encode() {
+        final ByteBuf encoded = encode();
+
+        blackhole.consume(encoded.readableBytes());
+        encoded.release();
+    }
+
+    @Benchmark
+    public void decode() {
+        decodingChannel.writeInbound(encodedMessage.retainedDuplicate());
+    }
+
+    private ByteBuf encode() {
+        encodingChannel.writeOutbound(tunnelMessage);
+        return encodingChannel.readOutbound();
+    }
+
+    private void decodeRelayPayload(ChannelHandlerContext ctx, TunnelRelayCell relay) {
+        try {
+            final byte[] payload = ByteBufUtil.getBytes(relay.payloadSlice());
+
+            if ("relayConnect".equals(message))
+                blackhole.consume(TunnelConnect.fromBytes(payload));
+            else
+                blackhole.consume(TunnelDatum.fromBytes(payload));
+        } finally {
+            relay.release();
+        }
+    }
+
+    private static TunnelMessage createMessage(String message) throws Exception {
+        final TunnelId tunnelId = TunnelId.random();
+        final byte[] handshake = randomBytes(HANDSHAKE_BYTES);
+
+        switch (message) {
+            case "extend":
+                return new TunnelExtendMessage(tunnelId, publicKey(), handshake);
+            case "extended":
+                return new TunnelExtendedMessage(tunnelId, handshake);
+            case "retire":
+                return new TunnelRetireMessage(tunnelId);
+            case "relayDatum":
+                return new TunnelRelayMessage(tunnelId,
+                    new TunnelDatum(randomBytes(TunnelDatum.PAYLOAD_BYTES)).bytes());
+            case "relayConnect":
+                return new TunnelRelayMessage(tunnelId,
+                    new TunnelConnect(InetAddress.getLoopbackAddress(), 4242, publicKey(), handshake).bytes());
+            default:
+                throw new IllegalArgumentException("Unknown tunnel message " + message);
+        }
+    }
+
+    private static PublicKey publicKey() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+
+        return keyPairGenerator.generateKeyPair().getPublic();
+    }
+
+    private static byte[] randomBytes(int size) {
+        final byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,573 @@
+package de.tum.p2p.onion.auth;
+
+import de.tum.p2p.Peer;
+import io.netty.buffer.ByteBuf;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.crypto.KeyAgreement;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static de.tum.p2p.util.ByteBuffers.bufferRemainingBytes;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AesCtrOnionAuthorizer} is a length-preserving {@link OnionAuthorizer} that
+ * layers payloads with AES-128 in counter mode. Every onion layer is a plain XOR with
+ * the session's keystream, so a payload keeps its size no matter how many hops the
+ * tunnel has and every hop forwards a full-size cell.
+ * <p>
+ * Session keys are established by an ephemeral ECDH (secp256r1) handshake:
+ * <pre>
+ * HS1 = | INITIATOR SESSION ID | INITIATOR EC PUBLIC KEY (X.509) |
+ * HS2 = | INITIATOR SESSION ID | KEY LENGTH | RESPONDER EC PUBLIC KEY (X.509) | SIGNATURE |
+ * </pre>
+ * The responder signs both ephemeral keys with its hostkey, and the initiator verifies the
+ * signature against the hostkey of the destination the session has been started with, so
+ * a previous hop relaying the handshake can't substitute its own ephemeral key. Sessions
+ * started with no destination must be {@link SessionFactory#assign(SessionId, Peer) assigned}
+ * one before they are confirmed.
+ * <p>
+ * AES key and initial counter block are the halves of SHA-256 of the shared secret.
+ * Session ids are local, i.e. both parties may know the same session under different ids.
+ * <p>
+ * Like Tor's relay crypto, each session keeps a running keystream instead of a per
+ * cell nonce, so no bytes are spent on nonces. Cells must therefore be layered and
+ * peeled in the same order for a session, which holds for tunnels over TCP links.
+ * Initialized ciphers are cached per session and thread by {@link SessionCipherCache},
+ * sessions are kept by {@link SessionRegistry} and may expire once idle.
+ * <p>
+ * Peeled layers are indistinguishable from plaintext, so every {@link Deciphertext}
+ * is reported as a plaintext candidate. Whether it's the last layer is up to routing
+ * and payload integrity checks.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class AesCtrOnionAuthorizer implements OnionAuthorizer {
+
+    private static final String KEY_AGREEMENT_ALG = "ECDH";
+    private static final String KEY_PAIR_ALG = "EC";
+    private static final String CURVE = "secp256r1";
+    private static final String KDF_ALG = "SHA-256";
+    private static final String CIPHER_ALG = "AES";
+    private static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final int KEY_BYTES = 16;
+
+    private static final String RSA_SIGNATURE_ALG = "SHA256withRSA";
+    private static final String EC_SIGNATURE_ALG = "SHA256withECDSA";
+
+    /**
+     * Combined keystream computed at once by {@link #layeredKeystream(List)}, 16 default cells
+     */
+    private static final int KEYSTREAM_CHUNK_BYTES = 16 * 1024;
+
+    /**
+     * Pending and established sessions, they share the same id space
+     */
+    private final SessionRegistry<Session> sessions;
+
+    private final SessionCipherCache cipherCache = new SessionCipherCache(CIPHER_ALG, CIPHER_TRANSFORMATION);
+
+    private final KeystreamPrefetch keystreamPrefetch;
+
+    /**
+     * This peer's hostkey, signs handshakes this peer responds to
+     */
+    private final KeyPair hostkey;
+
+    /**
+     * @param hostkey            this peer's hostkey pair, RSA or EC
+     * @param sessionIdleTimeout time after the last use sessions are forgotten,
+     *                           or {@link SessionRegistry#NO_EXPIRY}
+     * @param keystreamPrefetch  tells how much of {@link #layeredKeystream(List)}s to
+     *                           compute ahead, or {@link KeystreamPrefetch#none()}
+     */
+    public AesCtrOnionAuthorizer(KeyPair hostkey, Duration sessionIdleTimeout, KeystreamPrefetch keystreamPrefetch) {
+        signatureAlgorithm(notNull(notNull(hostkey).getPrivate(), "Hostkey must have a private key"));
+        isTrue(hostkey.getPrivate().getAlgorithm().equals(notNull(hostkey.getPublic()).getAlgorithm()),
+            "Hostkey must be a key pair");
+
+        this.hostkey = hostkey;
+        this.sessions = new SessionRegistry<>(sessionIdleTimeout);
+        this.sessions.onRemoval((sessionId, session) -> cipherCache.forget(sessionId));
+        this.keystreamPrefetch = notNull(keystreamPrefetch);
+    }
+
+    public AesCtrOnionAuthorizer(KeyPair hostkey, Duration sessionIdleTimeout) {
+        this(hostkey, sessionIdleTimeout, KeystreamPrefetch.none());
+    }
+
+    public AesCtrOnionAuthorizer(KeyPair hostkey) {
+        this(hostkey, SessionRegistry.NO_EXPIRY);
+    }
+
+    private SessionFactory sessionFactory = new SessionFactory() {
+        @Override
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> start(Peer destination) {
+            val destinationKey = destination != null ? hostkeyOf(destination) : null;
+
+            val keyPair = generateKeyPair();
+            val sessionId = sessions.register(new Session(keyPair, destinationKey));
+
+            return completedFuture(Pair.of(sessionId, handshake(sessionId, keyPair.getPublic())));
+        }
+
+        @Override
+        public void assign(SessionId sessionId, Peer destination) {
+            val session = sessions.find(sessionId);
+            if (session == null || session.pendingKeyPair.get() == null)
+                throw new IllegalArgumentException("No pending handshake for sessionId = " + sessionId);
+
+            if (!session.destinationKey.compareAndSet(null, hostkeyOf(notNull(destination))))
+                throw new IllegalArgumentException("Session " + sessionId + " has already been assigned a destination");
+        }
+
+        @Override
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, ByteBuffer hs1) {
+            val hs1Buffer = hs1.duplicate();
+
+            val initiatorSessionId = SessionId.wrap(hs1Buffer.getInt());
+            val encodedInitiatorKey = new byte[hs1Buffer.remaining()];
+            hs1Buffer.get(encodedInitiatorKey);
+
+            val keyPair = generateKeyPair();
+            val encodedKey = keyPair.getPublic().getEncoded();
+            val signature = sign(hostkey.getPrivate(), encodedInitiatorKey, encodedKey);
+
+            val sessionId = sessions.register(new Session(null, null));
+            establish(sessionId, agree(keyPair, parseKey(encodedInitiatorKey)));
+
+            return completedFuture(Pair.of(sessionId, signedHandshake(initiatorSessionId, encodedKey, signature)));
+        }
+
+        @Override
+        public CompletableFuture<SessionId> confirm(ByteBuffer hs2) {
+            val hs2Buffer = hs2.duplicate();
+
+            val sessionId = SessionId.wrap(hs2Buffer.getInt());
+            val encodedResponderKey = parseBytes(hs2Buffer, hs2Buffer.getShort() & 0xFFFF);
+            val signature = parseBytes(hs2Buffer, hs2Buffer.remaining());
+
+            val session = sessions.find(sessionId);
+            val keyPair = session != null ? session.pendingKeyPair.getAndSet(null) : null;
+            if (keyPair == null)
+                throw new IllegalArgumentException("No pending handshake for sessionId = " + sessionId);
+
+            // The responder must prove it holds the hostkey of the destination the HS1 has been sent to
+            val destinationKey = session.destinationKey.get();
+            if (destinationKey == null || !verify(destinationKey, signature, keyPair.getPublic().getEncoded(),
+                    encodedResponderKey)) {
+                sessions.remove(sessionId);
+                throw new OnionAuthException("HS2 of session " + sessionId + " isn't signed by the destination's hostkey");
+            }
+
+            establish(sessionId, agree(keyPair, parseKey(encodedResponderKey)));
+            return completedFuture(sessionId);
+        }
+    };
+
+    @Override
+    public SessionFactory sessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Replaces the session factory, e.g. with a {@link PrecomputingSessionFactory}
+     * decorating the current one
+     */
+    public void sessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = notNull(sessionFactory);
+    }
+
+    /**
+     * @return prefetch of layered keystreams, e.g. to observe its hit rate
+     */
+    public KeystreamPrefetch keystreamPrefetch() {
+        return keystreamPrefetch;
+    }
+
+    @Override
+    public CompletableFuture<Ciphertext> encrypt(ByteBuffer plaintext, List<SessionId> sessionIds)
+            throws OnionEncryptionException {
+        val ciphertext = ByteBuffer.wrap(bufferRemainingBytes(plaintext));
+
+        encryptInPlace(ciphertext, sessionIds);
+
+        return completedFuture(Ciphertext.wrapLayered(ciphertext.array(), sessionIds.size()));
+    }
+
+    @Override
+    public CompletableFuture<Deciphertext> decrypt(ByteBuffer ciphertext, SessionId sessionId)
+            throws OnionDecryptionException {
+        val deciphertext = ByteBuffer.wrap(bufferRemainingBytes(ciphertext));
+
+        decryptInPlace(deciphertext, sessionId);
+
+        return completedFuture(Deciphertext.ofPlaintext(deciphertext.array()));
+    }
+
+    @Override
+    public CompletableFuture<List<Ciphertext>> encryptAll(List<ByteBuffer> plaintexts, List<SessionId> sessionIds)
+            throws OnionEncryptionException {
+        val ciphertexts = copyAll(plaintexts);
+
+        encryptAllInPlace(ciphertexts, sessionIds);
+
+        return completedFuture(ciphertexts.stream()
+            .map(ciphertext -> Ciphertext.wrapLayered(ciphertext.array(), sessionIds.size()))
+            .collect(toList()));
+    }
+
+    @Override
+    public CompletableFuture<List<Deciphertext>> decryptAll(List<ByteBuffer> ciphertexts, SessionId sessionId)
+            throws OnionDecryptionException {
+        val deciphertexts = copyAll(ciphertexts);
+
+        decryptAllInPlace(deciphertexts, sessionId);
+
+        return completedFuture(deciphertexts.stream()
+            .map(deciphertext -> Deciphertext.ofPlaintext(deciphertext.array()))
+            .collect(toList()));
+    }
+
+    /**
+     * Layers are applied in place: readable bytes of the plaintext are moved to the
+     * destination, unless it's the plaintext itself, and encrypted there.
+     */
+    @Override
+    public CompletableFuture<ByteBuf> encrypt(ByteBuf plaintext, List<SessionId> sessionIds, ByteBuf destination)
+            throws OnionEncryptionException {
+        if (!layerableInPlace(plaintext, destination))
+            return OnionAuthorizer.super.encrypt(plaintext, sessionIds, destination);
+
+        encryptInPlace(moveReadable(plaintext, destination), sessionIds);
+
+        return completedFuture(destination);
+    }
+
+    @Override
+    public CompletableFuture<List<ByteBuf>> encryptAll(List<ByteBuf> plaintexts, List<SessionId> sessionIds,
+                                                       List<ByteBuf> destinations) throws OnionEncryptionException {
+        isTrue(plaintexts.size() == destinations.size(), "Every plaintext must have a destination");
+
+        for (int i = 0; i < plaintexts.size(); i++) {
+            if (!layerableInPlace(plaintexts.get(i), destinations.get(i)))
+                return OnionAuthorizer.super.encryptAll(plaintexts, sessionIds, destinations);
+        }
+
+        val ciphertexts = new ArrayList<ByteBuffer>(plaintexts.size());
+        for (int i = 0; i < plaintexts.size(); i++)
+            ciphertexts.add(moveReadable(plaintexts.get(i), destinations.get(i)));
+
+        encryptAllInPlace(ciphertexts, sessionIds);
+
+        return completedFuture(destinations);
+    }
+
+    /**
+     * The layer is peeled in place: readable bytes of the ciphertext are moved to the
+     * destination, unless it's the ciphertext itself, and decrypted there.
+     */
+    @Override
+    public CompletableFuture<ByteBuf> decrypt(ByteBuf ciphertext, SessionId sessionId, ByteBuf destination)
+            throws OnionDecryptionException {
+        if (!layerableInPlace(ciphertext, destination))
+            return OnionAuthorizer.super.decrypt(ciphertext, sessionId, destination);
+
+        decryptInPlace(moveReadable(ciphertext, destination), sessionId);
+
+        return completedFuture(destination);
+    }
+
+    @Override
+    public CompletableFuture<List<ByteBuf>> decryptAll(List<ByteBuf> ciphertexts, SessionId sessionId,
+                                                       List<ByteBuf> destinations) throws OnionDecryptionException {
+        isTrue(ciphertexts.size() == destinations.size(), "Every ciphertext must have a destination");
+
+        for (int i = 0; i < ciphertexts.size(); i++) {
+            if (!layerableInPlace(ciphertexts.get(i), destinations.get(i)))
+                return OnionAuthorizer.super.decryptAll(ciphertexts, sessionId, destinations);
+        }
+
+        val deciphertexts = new ArrayList<ByteBuffer>(ciphertexts.size());
+        for (int i = 0; i < ciphertexts.size(); i++)
+            deciphertexts.add(moveReadable(ciphertexts.get(i), destinations.get(i)));
+
+        decryptAllInPlace(deciphertexts, sessionId);
+
+        return completedFuture(destinations);
+    }
+
+    /**
+     * Layers are XORs with session keystreams, so they are combined into a single keystream
+     * that is XORed with payloads in one pass. The order of layers doesn't matter.
+     */
+    @Override
+    public Optional<LayeredKeystream> layeredKeystream(List<SessionId> sessionIds) throws OnionEncryptionException {
+        val layeredSessionIds = new ArrayList<SessionId>(sessionIds);
+
+        try {
+            layeredSessionIds.forEach(this::established);
+
+            return Optional.of(cipherCache.layered(layeredSessionIds, KEYSTREAM_CHUNK_BYTES, keystreamPrefetch,
+                () -> layeredSessionIds.forEach(this::established)));
+        } catch (IllegalArgumentException e) {
+            throw new OnionEncryptionException("Failed to combine keystreams of sessions " + sessionIds, e);
+        }
+    }
+
+    /**
+     * Layers remaining bytes of the buffer with keystreams of all given sessions
+     * in place. The buffer's position and limit are left untouched.
+     *
+     * @param payload    a buffer to encrypt
+     * @param sessionIds sessions of tunnel hops, the first hop first
+     * @throws OnionEncryptionException if any of sessions is unknown or cipher fails
+     */
+    public void encryptInPlace(ByteBuffer payload, List<SessionId> sessionIds) throws OnionEncryptionException {
+        // The innermost layer belongs to the last hop
+        for (int i = sessionIds.size() - 1; i >= 0; i--) {
+            try {
+                cipherCache.apply(established(sessionIds.get(i)), payload);
+            } catch (IllegalArgumentException | GeneralSecurityException e) {
+                throw new OnionEncryptionException("Failed to encrypt payload with session " + sessionIds.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * Peels the session's layer off the remaining bytes of the buffer in place.
+     * The buffer's position and limit are left untouched.
+     *
+     * @param payload   a buffer to decrypt
+     * @param sessionId session of this hop
+     * @throws OnionDecryptionException if the session is unknown or cipher fails
+     */
+    public void decryptInPlace(ByteBuffer payload, SessionId sessionId) throws OnionDecryptionException {
+        try {
+            cipherCache.apply(established(sessionId), payload);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            throw new OnionDecryptionException("Failed to decrypt payload with session " + sessionId, e);
+        }
+    }
+
+    private void encryptAllInPlace(List<ByteBuffer> payloads, List<SessionId> sessionIds)
+            throws OnionEncryptionException {
+        // The innermost layer belongs to the last hop
+        for (int i = sessionIds.size() - 1; i >= 0; i--) {
+            try {
+                cipherCache.applyAll(established(sessionIds.get(i)), payloads);
+            } catch (IllegalArgumentException | GeneralSecurityException e) {
+                throw new OnionEncryptionException("Failed to encrypt payloads with session " + sessionIds.get(i), e);
+            }
+        }
+    }
+
+    private void decryptAllInPlace(List<ByteBuffer> payloads, SessionId sessionId) throws OnionDecryptionException {
+        try {
+            cipherCache.applyAll(established(sessionId), payloads);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            throw new OnionDecryptionException("Failed to decrypt payloads with session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public void forget(SessionId sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /**
+     * Marks the session as used, so that it doesn't expire while in use
+     *
+     * @throws IllegalArgumentException if the session is unknown
+     */
+    private SessionId established(SessionId sessionId) {
+        sessions.get(sessionId);
+        return sessionId;
+    }
+
+    private void establish(SessionId sessionId, byte[] keyMaterial) {
+        cipherCache.register(sessionId, Arrays.copyOfRange(keyMaterial, 0, KEY_BYTES),
+            Arrays.copyOfRange(keyMaterial, KEY_BYTES, keyMaterial.length));
+    }
+
+    /**
+     * @return true if the destination, grown to fit the source, is a single writable
+     * memory region that can be layered in place through an NIO view
+     */
+    private static boolean layerableInPlace(ByteBuf source, ByteBuf destination) {
+        if (destination.isReadOnly())
+            return false;
+
+        if (destination != source)
+            destination.ensureWritable(source.readableBytes());
+
+        return destination.nioBufferCount() == 1;
+    }
+
+    /**
+     * Moves readable bytes of the source to the destination, unless it's the source itself
+     *
+     * @return an NIO view of the moved bytes within the destination
+     */
+    private static ByteBuffer moveReadable(ByteBuf source, ByteBuf destination) {
+        val length = source.readableBytes();
+
+        if (destination != source)
+            destination.writeBytes(source);
+
+        return destination.nioBuffer(destination.writerIndex() - length, length);
+    }
+
+    private static List<ByteBuffer> copyAll(List<ByteBuffer> buffers) {
+        return buffers.stream()
+            .map(buffer -> ByteBuffer.wrap(bufferRemainingBytes(buffer)))
+            .collect(toList());
+    }
+
+    private static ByteBuffer handshake(SessionId sessionId, PublicKey publicKey) {
+        val encodedKey = publicKey.getEncoded();
+
+        val handshake = ByteBuffer.allocate(SessionId.BYTES + encodedKey.length)
+            .putInt(sessionId.raw())
+            .put(encodedKey);
+        handshake.flip();
+
+        return handshake.asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer signedHandshake(SessionId sessionId, byte[] encodedKey, byte[] signature) {
+        val handshake = ByteBuffer.allocate(SessionId.BYTES + Short.BYTES + encodedKey.length + signature.length)
+            .putInt(sessionId.raw())
+            .putShort((short) encodedKey.length)
+            .put(encodedKey)
+            .put(signature);
+        handshake.flip();
+
+        return handshake.asReadOnlyBuffer();
+    }
+
+    private static KeyPair generateKeyPair() {
+        try {
+            val keyPairGenerator = KeyPairGenerator.getInstance(KEY_PAIR_ALG);
+            keyPairGenerator.initialize(new ECGenParameterSpec(CURVE));
+
+            return keyPairGenerator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate ephemeral " + CURVE + " key pair", e);
+        }
+    }
+
+    private static byte[] parseBytes(ByteBuffer handshake, int length) {
+        if (length > handshake.remaining())
+            throw new IllegalArgumentException("Handshake is truncated");
+
+        val bytes = new byte[length];
+        handshake.get(bytes);
+
+        return bytes;
+    }
+
+    private static PublicKey parseKey(byte[] encodedKey) {
+        try {
+            return KeyFactory.getInstance(KEY_PAIR_ALG).generatePublic(new X509EncodedKeySpec(encodedKey));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Failed to parse handshake public key", e);
+        }
+    }
+
+    private static byte[] agree(KeyPair keyPair, PublicKey peerKey) {
+        try {
+            val keyAgreement = KeyAgreement.getInstance(KEY_AGREEMENT_ALG);
+            keyAgreement.init(keyPair.getPrivate());
+            keyAgreement.doPhase(peerKey, true);
+
+            return MessageDigest.getInstance(KDF_ALG).digest(keyAgreement.generateSecret());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Failed to agree on session key", e);
+        }
+    }
+
+    private static PublicKey hostkeyOf(Peer destination) {
+        val destinationKey = notNull(destination.publicKey(), "Destination's hostkey is required to verify HS2");
+        signatureAlgorithm(destinationKey);
+
+        return destinationKey;
+    }
+
+    private static String signatureAlgorithm(Key hostkey) {
+        switch (hostkey.getAlgorithm()) {
+            case "RSA":
+                return RSA_SIGNATURE_ALG;
+            case "EC":
+                return EC_SIGNATURE_ALG;
+            default:
+                throw new IllegalArgumentException("Unsupported hostkey algorithm " + hostkey.getAlgorithm());
+        }
+    }
+
+    private static byte[] sign(PrivateKey hostkey, byte[] initiatorKey, byte[] responderKey) {
+        try {
+            val signature = Signature.getInstance(signatureAlgorithm(hostkey));
+            signature.initSign(hostkey);
+            signature.update(initiatorKey);
+            signature.update(responderKey);
+
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign handshake with the hostkey", e);
+        }
+    }
+
+    private static boolean verify(PublicKey hostkey, byte[] signed, byte[] initiatorKey, byte[] responderKey) {
+        try {
+            val signature = Signature.getInstance(signatureAlgorithm(hostkey));
+            signature.initVerify(hostkey);
+            signature.update(initiatorKey);
+            signature.update(responderKey);
+
+            return signature.verify(signed);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    private static final class Session {
+
+        /**
+         * Initiator's ephemeral key pair until the handshake is confirmed
+         */
+        private final AtomicReference<KeyPair> pendingKeyPair;
+
+        /**
+         * Hostkey of the destination expected to sign HS2, initiator's sessions only
+         */
+        private final AtomicReference<PublicKey> destinationKey;
+
+        private Session(KeyPair pendingKeyPair, PublicKey destinationKey) {
+            this.pendingKeyPair = new AtomicReference<>(pendingKeyPair);
+            this.destinationKey = new AtomicReference<>(destinationKey);
+        }
+    }
+}
@@ -6,13 +6,14 @@ import lombok.val;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.security.PublicKey;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 
 import static de.tum.p2p.util.ByteBuffers.bufferAllBytes;
+import static de.tum.p2p.util.ByteBuffers.bufferRemainingBytes;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.apache.commons.codec.binary.Base64.decodeBase64;
 import static org.apache.commons.codec.binary.Base64.encodeBase64;
@@ -28,21 +29,19 @@ import static org.apache.commons.lang3.Validate.notNull;
  */
 public class InMemoryBase64OnionAuthorizer implements OnionAuthorizer {
 
-    private final List<SessionId> sessionIds = new ArrayList<>();
+    private final SessionRegistry<SessionId> sessions = new SessionRegistry<>();
 
     private SessionFactory sessionFactory = new SessionFactory() {
         @Override
         public CompletableFuture<Pair<SessionId, ByteBuffer>> start(Peer destination) {
-            val randSessionId = randSessionId();
+            val randSessionId = sessions.register(Function.identity());
             val randSessionIdHs1 = sessionIdToHandshake(randSessionId);
 
-            rememberSessionId(randSessionId);
-
             return completedFuture(Pair.of(randSessionId, randSessionIdHs1));
         }
 
         @Override
-        public CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(ByteBuffer hs1) {
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, ByteBuffer hs1) {
             val sessionIdFromHs2 = handshakeToSessionId(hs1);
 
             rememberSessionId(sessionIdFromHs2);
@@ -55,19 +54,15 @@ public class InMemoryBase64OnionAuthorizer implements OnionAuthorizer {
             return completedFuture(handshakeToSessionId(hs2));
         }
 
-        private SessionId randSessionId() {
-            return SessionId.wrap(ThreadLocalRandom.current().nextInt(Short.MAX_VALUE));
-        }
-
         private ByteBuffer sessionIdToHandshake(SessionId sessionId) {
-            val rawSessionIdBuffer = ByteBuffer.allocate(SessionId.BYTES).putShort(sessionId.raw());
+            val rawSessionIdBuffer = ByteBuffer.allocate(SessionId.BYTES).putInt(sessionId.raw());
             rawSessionIdBuffer.clear();
 
             return rawSessionIdBuffer.asReadOnlyBuffer();
         }
 
         private SessionId handshakeToSessionId(ByteBuffer handshake) {
-            return SessionId.wrap(handshake.duplicate().getShort());
+            return SessionId.wrap(handshake.duplicate().getInt());
         }
     };
 
@@ -85,7 +80,7 @@ public class InMemoryBase64OnionAuthorizer implements OnionAuthorizer {
             throws OnionEncryptionException {
         ensureExistingSessions(sessions);
 
-        val plaintextBytes = bufferAllBytes(plaintext);
+        val plaintextBytes = bufferRemainingBytes(plaintext);
 
         if (sessions.size() == 0)
             return completedFuture(Ciphertext.wrapLayered(plaintextBytes, 0));
@@ -129,16 +124,20 @@ public class InMemoryBase64OnionAuthorizer implements OnionAuthorizer {
     }
 
     private void rememberSessionId(SessionId sessionId) {
-        sessionIds.add(sessionId);
+        sessions.register(sessionId, sessionId);
     }
 
     private void ensureExistingSession(SessionId sessionId) {
-        if (!sessionIds.contains(sessionId))
-            throw new IllegalArgumentException("Unknown sessionId = " + sessionId);
+        sessions.get(sessionId);
     }
 
     private void ensureExistingSessions(Collection<SessionId> sessionIds) {
-        if (!this.sessionIds.containsAll(sessionIds))
+        if (!sessions.containsAll(sessionIds))
             throw new IllegalArgumentException("Some sessions id are unknown");
     }
+
+    @Override
+    public void forget(SessionId sessionId) {
+        sessions.remove(sessionId);
+    }
 }
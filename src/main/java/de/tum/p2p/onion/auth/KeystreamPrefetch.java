@@ -0,0 +1,165 @@
+package de.tum.p2p.onion.auth;
+
+import lombok.val;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code KeystreamPrefetch} tells {@link LayeredKeystream}s how many chunks of keystream
+ * to compute ahead of payloads and who computes them, e.g. a pool of background workers
+ * or an event loop that runs tasks in its idle time. A payload that finds its chunk
+ * ready is merely XORed with it, otherwise the chunk is computed on the caller's thread.
+ * <p>
+ * Keystreams sharing the prefetch also share its memory bound: chunks are computed ahead
+ * only as long as the total amount of prefetched bytes stays within the bound, so that
+ * a large amount of tunnels doesn't exhaust the heap.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public final class KeystreamPrefetch {
+
+    private static final KeystreamPrefetch NONE = new KeystreamPrefetch(null, 0, 0);
+
+    private final Executor executor;
+    private final int depth;
+    private final long maxBufferedBytes;
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private KeystreamPrefetch(Executor executor, int depth, long maxBufferedBytes) {
+        this.executor = executor;
+        this.depth = depth;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * @return a prefetch that computes every chunk of keystream on demand
+     */
+    public static KeystreamPrefetch none() {
+        return NONE;
+    }
+
+    /**
+     * @return amount of chunks kept ready per keystream
+     */
+    public int depth() {
+        return depth;
+    }
+
+    public boolean isEnabled() {
+        return depth > 0;
+    }
+
+    /**
+     * @return amount of bytes currently prefetched by all keystreams
+     */
+    public long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * @return amount of chunks found ready by payloads
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return amount of chunks computed on the caller's thread
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return share of chunks found ready by payloads, from 0 to 1
+     */
+    public double hitRate() {
+        val ready = hits();
+        val total = ready + misses();
+
+        return total == 0 ? 0 : (double) ready / total;
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    /**
+     * @return true if {@code bytes} more may be prefetched within the memory bound
+     */
+    boolean reserve(int bytes) {
+        while (true) {
+            val buffered = bufferedBytes.get();
+            if (buffered + bytes > maxBufferedBytes)
+                return false;
+
+            if (bufferedBytes.compareAndSet(buffered, buffered + bytes))
+                return true;
+        }
+    }
+
+    void release(int bytes) {
+        bufferedBytes.addAndGet(-bytes);
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    public static final class Builder {
+
+        private static final int DEFAULT_DEPTH = 2;
+        private static final long DEFAULT_MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+        private Executor executor;
+        private int depth = DEFAULT_DEPTH;
+        private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+
+        /**
+         * @param executor runs computation of chunks ahead, e.g. an event loop or a worker pool
+         */
+        public Builder executor(Executor executor) {
+            this.executor = notNull(executor);
+            return this;
+        }
+
+        /**
+         * @param depth amount of chunks kept ready per keystream
+         */
+        public Builder depth(int depth) {
+            isTrue(depth > 0, "Prefetch depth must be positive");
+
+            this.depth = depth;
+            return this;
+        }
+
+        /**
+         * @param maxBufferedBytes max amount of bytes prefetched by all keystreams together
+         */
+        public Builder maxBufferedBytes(long maxBufferedBytes) {
+            isTrue(maxBufferedBytes > 0, "Prefetch memory bound must be positive");
+
+            this.maxBufferedBytes = maxBufferedBytes;
+            return this;
+        }
+
+        public KeystreamPrefetch build() {
+            notNull(executor, "Prefetch executor must be set");
+
+            return new KeystreamPrefetch(executor, depth, maxBufferedBytes);
+        }
+    }
+}
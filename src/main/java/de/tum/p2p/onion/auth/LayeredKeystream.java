@@ -0,0 +1,57 @@
+package de.tum.p2p.onion.auth;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * {@code LayeredKeystream} applies all onion layers of a tunnel in a single pass
+ * over a payload. It is provided by {@link OnionAuthorizer}s whose layers are XORs
+ * with session keystreams, so that the keystreams of all tunnel's sessions may be
+ * combined in advance and a cell is layered with the combined one.
+ * <p>
+ * A keystream takes over its sessions: once it's obtained, payloads of these sessions
+ * must be layered by the keystream only, otherwise hops fall out of sync. Since XOR
+ * layers are self-inverse, a keystream of a single hop's session peels its layer, too.
+ * <p>
+ * Keystreams may compute their keystream ahead (see {@link KeystreamPrefetch}) and must
+ * be closed once the tunnel is gone, so that prefetched memory is given back.
+ *
+ * @see OnionAuthorizer#layeredKeystream(List)
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public interface LayeredKeystream extends Closeable {
+
+    /**
+     * @return amount of onion layers applied, i.e. amount of sessions
+     */
+    int layers();
+
+    /**
+     * Layers remaining bytes of the payload in place, as if it was encrypted with
+     * {@link OnionAuthorizer#encrypt(ByteBuffer, List)}. The payload's position and
+     * limit are left untouched.
+     *
+     * @param payload a buffer to encrypt
+     * @throws OnionEncryptionException if any of sessions is gone or cipher fails
+     */
+    void apply(ByteBuffer payload) throws OnionEncryptionException;
+
+    /**
+     * Layers payloads in place in the order given
+     *
+     * @param payloads buffers to encrypt
+     * @throws OnionEncryptionException if any of sessions is gone or cipher fails
+     */
+    default void applyAll(List<ByteBuffer> payloads) throws OnionEncryptionException {
+        payloads.forEach(this::apply);
+    }
+
+    /**
+     * Drops keystream computed ahead, the keystream must not be applied afterwards
+     */
+    @Override
+    default void close() {
+    }
+}
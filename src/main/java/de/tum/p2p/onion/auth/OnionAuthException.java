@@ -0,0 +1,24 @@
+package de.tum.p2p.onion.auth;
+
+import de.tum.p2p.onion.OnionException;
+
+/**
+ * Thrown by {@link OnionAuthorizer} in case of problems during session
+ * establishment or communication with a remote Onion Auth module
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class OnionAuthException extends OnionException {
+
+    public OnionAuthException(String message) {
+        super(message);
+    }
+
+    public OnionAuthException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OnionAuthException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -1,11 +1,20 @@
 package de.tum.p2p.onion.auth;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
+import static de.tum.p2p.util.ByteBufs.writeTransformed;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.ArrayUtils.addAll;
+import static org.apache.commons.lang3.Validate.isTrue;
 
 /**
  * {@code OnionAuthorizer} encapsulates authentication and encryption
@@ -55,6 +64,80 @@ public interface OnionAuthorizer {
         return encrypt(ByteBuffer.wrap(plaintext), sessions);
     }
 
+    /**
+     * Encrypts a burst of plaintexts with the same sessions, e.g. chunks of data forwarded
+     * via a tunnel. Plaintexts are encrypted in the order given, i.e. as if {@link #encrypt(ByteBuffer, List)}
+     * was called for each of them one after another. Implementations may override it to
+     * validate sessions and set up ciphers once per burst instead of once per plaintext.
+     *
+     * @param plaintexts plaintexts to encrypt
+     * @param sessions   {@link SessionId}s used for encryption
+     * @return ciphertexts in the order of plaintexts
+     * @throws OnionEncryptionException in case of problems during data encryption
+     */
+    default CompletableFuture<List<Ciphertext>> encryptAll(List<ByteBuffer> plaintexts, List<SessionId> sessions)
+            throws OnionEncryptionException {
+
+        final List<CompletableFuture<Ciphertext>> futureCiphertexts = plaintexts.stream()
+            .map(plaintext -> encrypt(plaintext, sessions))
+            .collect(toList());
+
+        return allOf(futureCiphertexts.toArray(new CompletableFuture[futureCiphertexts.size()]))
+            .thenApply(ignored -> futureCiphertexts.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    /**
+     * Encrypts readable bytes of the plaintext and writes the ciphertext to the destination,
+     * so that pooled or direct buffers of a link are layered without copying them to arrays.
+     * The plaintext's readable bytes are consumed and the ciphertext is written at the
+     * destination's writer index. If the destination is the plaintext itself, its readable
+     * bytes are replaced by the ciphertext, which is done in place by authorizers preserving
+     * length; the buffer then must be able to grow if the ciphertext is longer.
+     * <p>
+     * By default the plaintext is encrypted with {@link #encrypt(ByteBuffer, List)}.
+     *
+     * @param plaintext   a buffer with the plaintext to encrypt
+     * @param sessions    {@link SessionId}s used for encryption
+     * @param destination a buffer to write the ciphertext to, may be the plaintext
+     * @return the destination once the ciphertext is written
+     * @throws OnionEncryptionException in case of problems during data encryption
+     */
+    default CompletableFuture<ByteBuf> encrypt(ByteBuf plaintext, List<SessionId> sessions, ByteBuf destination)
+            throws OnionEncryptionException {
+
+        return encrypt(plaintext.nioBuffer(), sessions)
+            .thenApply(ciphertext -> writeTransformed(plaintext, destination, ciphertext.bytes()));
+    }
+
+    default CompletableFuture<ByteBuf> encrypt(ByteBuf plaintext, List<SessionId> sessions)
+            throws OnionEncryptionException {
+
+        return encrypt(plaintext, sessions, Unpooled.buffer(plaintext.readableBytes()));
+    }
+
+    /**
+     * Encrypts a burst of plaintexts like {@link #encrypt(ByteBuf, List, ByteBuf)} does,
+     * in the order given. Implementations may override it to validate sessions and set up
+     * ciphers once per burst instead of once per plaintext.
+     *
+     * @param plaintexts   buffers with plaintexts to encrypt
+     * @param sessions     {@link SessionId}s used for encryption
+     * @param destinations buffers to write ciphertexts to, one per plaintext
+     * @return destinations once ciphertexts are written
+     * @throws OnionEncryptionException in case of problems during data encryption
+     */
+    default CompletableFuture<List<ByteBuf>> encryptAll(List<ByteBuf> plaintexts, List<SessionId> sessions,
+                                                        List<ByteBuf> destinations) throws OnionEncryptionException {
+        isTrue(plaintexts.size() == destinations.size(), "Every plaintext must have a destination");
+
+        final List<CompletableFuture<ByteBuf>> futureCiphertexts = new ArrayList<>(plaintexts.size());
+        for (int i = 0; i < plaintexts.size(); i++)
+            futureCiphertexts.add(encrypt(plaintexts.get(i), sessions, destinations.get(i)));
+
+        return allOf(futureCiphertexts.toArray(new CompletableFuture[futureCiphertexts.size()]))
+            .thenApply(ignored -> futureCiphertexts.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
     /**
      * Peels away a single layer of encryption made by
      * {@link OnionAuthorizer#encrypt(ByteBuffer, SessionId, SessionId...)}
@@ -77,4 +160,101 @@ public interface OnionAuthorizer {
 
         return decrypt(ByteBuffer.wrap(ciphertext), sessionId);
     }
+
+    /**
+     * Peels away a single layer of encryption of a burst of ciphertexts, e.g. relay cells
+     * of a tunnel read from a link at once. Ciphertexts are decrypted in the order given,
+     * i.e. as if {@link #decrypt(ByteBuffer, SessionId)} was called for each of them one
+     * after another. Implementations may override it to validate the session and set up
+     * ciphers once per burst instead of once per ciphertext.
+     *
+     * @param ciphertexts ciphertexts to decrypt
+     * @param sessionId   a {@link SessionId} used for decryption one layer
+     * @return decrypted ciphertexts in the order of ciphertexts
+     * @throws OnionDecryptionException in case of problems during data decryption
+     */
+    default CompletableFuture<List<Deciphertext>> decryptAll(List<ByteBuffer> ciphertexts, SessionId sessionId)
+            throws OnionDecryptionException {
+
+        final List<CompletableFuture<Deciphertext>> futureDeciphertexts = ciphertexts.stream()
+            .map(ciphertext -> decrypt(ciphertext, sessionId))
+            .collect(toList());
+
+        return allOf(futureDeciphertexts.toArray(new CompletableFuture[futureDeciphertexts.size()]))
+            .thenApply(ignored -> futureDeciphertexts.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    /**
+     * Peels away a single layer of readable bytes of the ciphertext and writes the result
+     * to the destination, like {@link #encrypt(ByteBuf, List, ByteBuf)} does. If the
+     * destination is the ciphertext itself, e.g. a payload region of an inbound frame,
+     * the layer is peeled in place.
+     * <p>
+     * By default the ciphertext is decrypted with {@link #decrypt(ByteBuffer, SessionId)}.
+     *
+     * @param ciphertext  a buffer with the ciphertext to decrypt
+     * @param sessionId   a {@link SessionId} used for decryption one layer
+     * @param destination a buffer to write the result to, may be the ciphertext
+     * @return the destination once the result is written
+     * @throws OnionDecryptionException in case of problems during data decryption
+     */
+    default CompletableFuture<ByteBuf> decrypt(ByteBuf ciphertext, SessionId sessionId, ByteBuf destination)
+            throws OnionDecryptionException {
+
+        return decrypt(ciphertext.nioBuffer(), sessionId)
+            .thenApply(deciphertext -> writeTransformed(ciphertext, destination, deciphertext.bytes()));
+    }
+
+    default CompletableFuture<ByteBuf> decrypt(ByteBuf ciphertext, SessionId sessionId)
+            throws OnionDecryptionException {
+
+        return decrypt(ciphertext, sessionId, Unpooled.buffer(ciphertext.readableBytes()));
+    }
+
+    /**
+     * Peels away a single layer of a burst of ciphertexts like {@link #decrypt(ByteBuf, SessionId, ByteBuf)}
+     * does, in the order given. Implementations may override it to validate the session
+     * and set up ciphers once per burst instead of once per ciphertext.
+     *
+     * @param ciphertexts  buffers with ciphertexts to decrypt
+     * @param sessionId    a {@link SessionId} used for decryption one layer
+     * @param destinations buffers to write results to, one per ciphertext
+     * @return destinations once results are written
+     * @throws OnionDecryptionException in case of problems during data decryption
+     */
+    default CompletableFuture<List<ByteBuf>> decryptAll(List<ByteBuf> ciphertexts, SessionId sessionId,
+                                                        List<ByteBuf> destinations) throws OnionDecryptionException {
+        isTrue(ciphertexts.size() == destinations.size(), "Every ciphertext must have a destination");
+
+        final List<CompletableFuture<ByteBuf>> futureDeciphertexts = new ArrayList<>(ciphertexts.size());
+        for (int i = 0; i < ciphertexts.size(); i++)
+            futureDeciphertexts.add(decrypt(ciphertexts.get(i), sessionId, destinations.get(i)));
+
+        return allOf(futureDeciphertexts.toArray(new CompletableFuture[futureDeciphertexts.size()]))
+            .thenApply(ignored -> futureDeciphertexts.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    /**
+     * Combines layers of the given sessions into a single {@link LayeredKeystream}, so
+     * that encrypting a payload takes one pass over it regardless of the amount of hops.
+     * Once obtained, the keystream must be the only way payloads of these sessions are
+     * encrypted. Authorizers that can't combine layers return nothing by default.
+     *
+     * @param sessions {@link SessionId}s of tunnel's hops, the first hop first
+     * @return a keystream layering payloads with all sessions, if supported
+     * @throws OnionEncryptionException if any of sessions is unknown
+     */
+    default Optional<LayeredKeystream> layeredKeystream(List<SessionId> sessions) throws OnionEncryptionException {
+        return Optional.empty();
+    }
+
+    /**
+     * Releases keys and crypto state of the session once a tunnel using
+     * it is retired. Implementations without per session state may ignore it.
+     *
+     * @param sessionId a {@link SessionId} that is no longer used
+     */
+    default void forget(SessionId sessionId) {
+        // no session state by default
+    }
 }
@@ -0,0 +1,252 @@
+package de.tum.p2p.onion.auth;
+
+import de.tum.p2p.Peer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code PrecomputingSessionFactory} decorates a {@link SessionFactory} of an
+ * {@link OnionAuthorizer} and keeps a bounded pool of started sessions, i.e. ephemeral key pairs and HS1 ready to be sent,
+ * that is refilled by a background thread. Building a tunnel then takes HS1 from the
+ * pool and pays only for the key agreement on {@link #confirm(ByteBuffer)}. Once the
+ * pool is drained, sessions are started by the decorated factory on the caller's thread.
+ * <p>
+ * The decorated factory must produce HS1 that doesn't depend on the destination, like
+ * {@link AesCtrOnionAuthorizer} does, since sessions are started in advance with a
+ * {@code null} destination; a session taken from the pool is then
+ * {@link SessionFactory#assign(SessionId, Peer) assigned} its destination. If the decorated authorizer expires idle sessions, the pool
+ * must not keep sessions for longer, see {@link #PrecomputingSessionFactory(OnionAuthorizer, int, Duration)}.
+ * Sessions dropped from the pool as stale or on {@link #close()} are forgotten by the authorizer.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Slf4j
+public class PrecomputingSessionFactory implements SessionFactory, Closeable {
+
+    public static final Duration NO_MAX_AGE = Duration.ZERO;
+
+    private final OnionAuthorizer onionAuth;
+
+    private final SessionFactory sessionFactory;
+
+    private final BlockingQueue<Precomputed> pool;
+
+    private final long maxAgeNanos;
+
+    private final ExecutorService refiller
+        = Executors.newSingleThreadExecutor(new DefaultThreadFactory("onion-handshakes", true));
+
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder refillNanos = new LongAdder();
+    private volatile long lastRefillNanos;
+
+    /**
+     * @param onionAuth an authorizer whose current session factory starts sessions and
+     *                  that forgets sessions dropped from the pool
+     * @param capacity  amount of sessions kept ready
+     * @param maxAge    time after sessions in the pool are considered stale and
+     *                  dropped, e.g. less than session idle timeout, or {@link #NO_MAX_AGE}
+     */
+    public PrecomputingSessionFactory(OnionAuthorizer onionAuth, int capacity, Duration maxAge) {
+        isTrue(capacity > 0, "Pool of precomputed sessions must have positive capacity");
+
+        this.onionAuth = notNull(onionAuth);
+        this.sessionFactory = notNull(onionAuth.sessionFactory());
+        this.pool = new ArrayBlockingQueue<>(capacity);
+        this.maxAgeNanos = notNull(maxAge).toNanos();
+
+        refill();
+    }
+
+    public PrecomputingSessionFactory(OnionAuthorizer onionAuth, int capacity) {
+        this(onionAuth, capacity, NO_MAX_AGE);
+    }
+
+    @Override
+    public CompletableFuture<Pair<SessionId, ByteBuffer>> start(Peer destination) {
+        val now = System.nanoTime();
+
+        Precomputed precomputed;
+        while ((precomputed = pool.poll()) != null) {
+            if (!precomputed.isStale(now, maxAgeNanos)) {
+                hits.increment();
+                refill();
+
+                try {
+                    sessionFactory.assign(precomputed.sessionId, destination);
+                } catch (RuntimeException e) {
+                    onionAuth.forget(precomputed.sessionId);
+                    throw e;
+                }
+
+                return completedFuture(Pair.of(precomputed.sessionId, precomputed.hs1.duplicate()));
+            }
+
+            onionAuth.forget(precomputed.sessionId);
+        }
+
+        misses.increment();
+        refill();
+
+        return sessionFactory.start(destination);
+    }
+
+    @Override
+    public void assign(SessionId sessionId, Peer destination) {
+        sessionFactory.assign(sessionId, destination);
+    }
+
+    @Override
+    public CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, ByteBuffer hs1) {
+        return sessionFactory.responseTo(sourceKey, hs1);
+    }
+
+    @Override
+    public CompletableFuture<SessionId> confirm(ByteBuffer hs2) {
+        return sessionFactory.confirm(hs2);
+    }
+
+    /**
+     * @return amount of sessions ready to be taken
+     */
+    public int available() {
+        return pool.size();
+    }
+
+    /**
+     * @return amount of sessions taken from the pool
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return amount of sessions started on the caller's thread since the pool was drained
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return share of sessions taken from the pool, from 0 to 1
+     */
+    public double hitRate() {
+        val taken = hits();
+        val total = taken + misses();
+
+        return total == 0 ? 0 : (double) taken / total;
+    }
+
+    /**
+     * @return average time it takes to start a session in background
+     */
+    public Duration averageRefillLatency() {
+        val refills = this.refills.sum();
+
+        return refills == 0 ? Duration.ZERO : Duration.ofNanos(refillNanos.sum() / refills);
+    }
+
+    /**
+     * @return time it took to start the most recent session in background
+     */
+    public Duration lastRefillLatency() {
+        return Duration.ofNanos(lastRefillNanos);
+    }
+
+    private void refill() {
+        if (!refilling.compareAndSet(false, true))
+            return;
+
+        try {
+            refiller.execute(this::fill);
+        } catch (RejectedExecutionException e) {
+            refilling.set(false); // closed
+        }
+    }
+
+    private void fill() {
+        try {
+            while (pool.remainingCapacity() > 0 && !refiller.isShutdown()) {
+                val startedAt = System.nanoTime();
+                val sessionIdAndHs1 = sessionFactory.start(null).join();
+                val finishedAt = System.nanoTime();
+
+                refills.increment();
+                refillNanos.add(finishedAt - startedAt);
+                lastRefillNanos = finishedAt - startedAt;
+
+                if (!pool.offer(new Precomputed(sessionIdAndHs1.getLeft(), sessionIdAndHs1.getRight(), finishedAt))) {
+                    onionAuth.forget(sessionIdAndHs1.getLeft());
+                    break;
+                }
+
+                // Closed while the session was being started
+                if (refiller.isShutdown())
+                    forgetPooled();
+            }
+        } catch (Exception e) {
+            log.warn("Failed to precompute session handshake, the pool will be refilled on next start", e);
+            refilling.set(false);
+            return;
+        }
+
+        refilling.set(false);
+
+        // A session may have been taken after the pool was seen full
+        if (pool.remainingCapacity() > 0)
+            refill();
+    }
+
+    @Override
+    public void close() {
+        refiller.shutdownNow();
+        forgetPooled();
+    }
+
+    private void forgetPooled() {
+        Precomputed precomputed;
+        while ((precomputed = pool.poll()) != null)
+            onionAuth.forget(precomputed.sessionId);
+    }
+
+    private static final class Precomputed {
+
+        private final SessionId sessionId;
+        private final ByteBuffer hs1;
+        private final long createdAt;
+
+        private Precomputed(SessionId sessionId, ByteBuffer hs1, long createdAt) {
+            this.sessionId = sessionId;
+            this.hs1 = hs1;
+            this.createdAt = createdAt;
+        }
+
+        private boolean isStale(long now, long maxAgeNanos) {
+            return maxAgeNanos > 0 && now - createdAt > maxAgeNanos;
+        }
+    }
+}
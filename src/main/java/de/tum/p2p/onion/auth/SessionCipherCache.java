@@ -0,0 +1,465 @@
+package de.tum.p2p.onion.auth;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.experimental.var;
+import lombok.val;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code SessionCipherCache} keeps ready to use counter mode {@link Cipher}s of
+ * sessions, so that onion layers are applied without looking up key material and
+ * initializing a cipher for every cell.
+ * <p>
+ * Every session has a single running keystream. Each {@link #apply(SessionId, ByteBuffer)}
+ * reserves the next range of it, so calls are allowed from any thread and the order of
+ * calls defines the order payloads must be peeled in. Ciphers are cached per session
+ * and per thread (e.g. event loop). A thread applying consecutive ranges of a session
+ * just continues its cipher, otherwise the cipher is re-positioned by a cheap re-init
+ * with the same key (key schedule is kept by the provider).
+ * <p>
+ * Forgotten sessions are evicted from thread caches lazily, next time the thread
+ * uses the cache.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class SessionCipherCache {
+
+    private static final int BLOCK_BYTES = 16;
+
+    private final String algorithm;
+    private final String transformation;
+
+    private final Map<SessionId, SessionKeys> sessionKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Bumped on every forget so that threads know they have to sweep their caches
+     */
+    private final AtomicLong retirements = new AtomicLong();
+
+    private final FastThreadLocal<ThreadCache> threadCaches = new FastThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            return new ThreadCache();
+        }
+    };
+
+    /**
+     * @param algorithm      a block cipher algorithm, e.g. AES
+     * @param transformation a counter mode transformation, e.g. AES/CTR/NoPadding
+     */
+    public SessionCipherCache(String algorithm, String transformation) {
+        this.algorithm = notNull(algorithm);
+        this.transformation = notNull(transformation);
+    }
+
+    public void register(SessionId sessionId, byte[] key, byte[] initialCounter) {
+        isTrue(initialCounter.length == BLOCK_BYTES, "Initial counter must be %d bytes", BLOCK_BYTES);
+
+        sessionKeys.put(notNull(sessionId),
+            new SessionKeys(new SecretKeySpec(key, algorithm), initialCounter.clone()));
+    }
+
+    public boolean contains(SessionId sessionId) {
+        return sessionKeys.containsKey(sessionId);
+    }
+
+    public void forget(SessionId sessionId) {
+        val keys = sessionKeys.remove(sessionId);
+        if (keys == null)
+            return;
+
+        keys.retired = true;
+        retirements.incrementAndGet();
+    }
+
+    /**
+     * XORs remaining bytes of the payload with the next bytes of the session's
+     * keystream in place. The payload's position and limit are left untouched.
+     *
+     * @param sessionId a session of the keystream
+     * @param payload   a buffer to encrypt or decrypt
+     * @throws IllegalArgumentException if the session is unknown
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    public void apply(SessionId sessionId, ByteBuffer payload) throws GeneralSecurityException {
+        val keys = keysOf(sessionId);
+
+        val length = payload.remaining();
+        val offset = keys.keystreamOffset.getAndAdd(length);
+
+        val context = threadCaches.get().context(sessionId, keys);
+        context.seek(offset);
+
+        context.cipher.update(payload.duplicate(), payload.duplicate());
+        context.position = offset + length;
+    }
+
+    /**
+     * XORs remaining bytes of payloads with consecutive ranges of the session's keystream
+     * in place, as if {@link #apply(SessionId, ByteBuffer)} was called for every payload
+     * in order. The session is looked up and the cipher is positioned once for all of them.
+     *
+     * @param sessionId a session of the keystream
+     * @param payloads  buffers to encrypt or decrypt
+     * @throws IllegalArgumentException if the session is unknown
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    public void applyAll(SessionId sessionId, List<ByteBuffer> payloads) throws GeneralSecurityException {
+        val keys = keysOf(sessionId);
+
+        long length = 0;
+        for (val payload : payloads)
+            length += payload.remaining();
+
+        val offset = keys.keystreamOffset.getAndAdd(length);
+
+        val context = threadCaches.get().context(sessionId, keys);
+        context.seek(offset);
+
+        for (val payload : payloads)
+            context.cipher.update(payload.duplicate(), payload.duplicate());
+
+        context.position = offset + length;
+    }
+
+    /**
+     * Creates a keystream that XORs payloads with keystreams of all given sessions
+     * in a single pass. The combined keystream is computed in chunks: every chunk
+     * reserves the next {@code chunkBytes} of each session's keystream, so the
+     * sessions must not be applied otherwise afterwards. Chunks are computed ahead
+     * of payloads as the {@code prefetch} allows, otherwise on demand.
+     *
+     * @param sessionIds sessions to combine
+     * @param chunkBytes amount of combined keystream bytes computed at once
+     * @param prefetch   tells how many chunks to compute ahead and who computes them
+     * @param onRefill   called before every chunk is computed, e.g. to keep sessions alive
+     * @return a combined keystream of the sessions
+     * @throws IllegalArgumentException if any of sessions is unknown
+     */
+    public LayeredKeystream layered(List<SessionId> sessionIds, int chunkBytes, KeystreamPrefetch prefetch,
+                                    Runnable onRefill) {
+        isTrue(chunkBytes > 0, "Keystream chunk must have positive size");
+
+        val keys = new SessionKeys[sessionIds.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = keysOf(sessionIds.get(i));
+
+        return new CombinedKeystream(keys, chunkBytes, notNull(prefetch), notNull(onRefill));
+    }
+
+    private SessionKeys keysOf(SessionId sessionId) {
+        val keys = sessionKeys.get(notNull(sessionId));
+        if (keys == null)
+            throw new IllegalArgumentException("Unknown sessionId = " + sessionId);
+
+        return keys;
+    }
+
+    private final class ThreadCache {
+
+        private final Map<SessionId, CipherContext> contexts = new HashMap<>();
+        private long sweptRetirements;
+
+        private CipherContext context(SessionId sessionId, SessionKeys keys) throws GeneralSecurityException {
+            sweep();
+
+            var context = contexts.get(sessionId);
+            if (context == null || context.keys != keys) {
+                context = new CipherContext(keys, Cipher.getInstance(transformation));
+                contexts.put(sessionId, context);
+            }
+
+            return context;
+        }
+
+        private void sweep() {
+            val currentRetirements = retirements.get();
+            if (currentRetirements == sweptRetirements)
+                return;
+
+            contexts.values().removeIf(context -> context.keys.retired);
+            sweptRetirements = currentRetirements;
+        }
+    }
+
+    /**
+     * Keeps chunks of XOR of session keystreams and hands them out to payloads in order.
+     * Chunks are computed one at a time under the generation lock, either ahead by the
+     * prefetch executor or by a payload that finds no chunk ready, so that they are
+     * queued in the order they reserve ranges of session keystreams.
+     */
+    private final class CombinedKeystream implements LayeredKeystream {
+
+        private final SessionKeys[] keys;
+
+        /**
+         * Guarded by {@link #generation}
+         */
+        private final CipherContext[] contexts;
+
+        private final int chunkBytes;
+        private final KeystreamPrefetch prefetch;
+        private final Runnable onRefill;
+
+        private final Object generation = new Object();
+
+        private final Queue<byte[]> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger readyChunks = new AtomicInteger();
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        /**
+         * A drained chunk to compute the next one in
+         */
+        private final AtomicReference<byte[]> spare = new AtomicReference<>();
+
+        private volatile boolean closed;
+
+        private byte[] chunk;
+        private ByteBuffer chunkBuffer;
+        private int chunkPosition;
+
+        private CombinedKeystream(SessionKeys[] keys, int chunkBytes, KeystreamPrefetch prefetch, Runnable onRefill) {
+            this.keys = keys;
+            this.contexts = new CipherContext[keys.length];
+            this.chunkBytes = chunkBytes;
+            this.prefetch = prefetch;
+            this.onRefill = onRefill;
+
+            prefetchAhead();
+        }
+
+        @Override
+        public int layers() {
+            return keys.length;
+        }
+
+        @Override
+        public synchronized void apply(ByteBuffer payload) throws OnionEncryptionException {
+            if (closed)
+                throw new OnionEncryptionException("Layered keystream has been closed");
+
+            // Absolute big-endian access regardless of the payload's byte order
+            val target = payload.duplicate();
+
+            int index = payload.position();
+            val end = payload.limit();
+
+            while (index < end) {
+                if (chunk == null || chunkPosition == chunkBytes)
+                    nextChunk();
+
+                val length = Math.min(end - index, chunkBytes - chunkPosition);
+                xor(target, index, length);
+
+                index += length;
+                chunkPosition += length;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+
+            // Prefetched chunks are given back to the memory bound
+            synchronized (generation) {
+                while (poll() != null) {
+                    // dropped
+                }
+            }
+        }
+
+        private void xor(ByteBuffer target, int index, int length) {
+            int i = 0;
+            for (; i + Long.BYTES <= length; i += Long.BYTES)
+                target.putLong(index + i, target.getLong(index + i) ^ chunkBuffer.getLong(chunkPosition + i));
+
+            for (; i < length; i++)
+                target.put(index + i, (byte) (target.get(index + i) ^ chunk[chunkPosition + i]));
+        }
+
+        private void nextChunk() throws OnionEncryptionException {
+            if (chunk != null)
+                spare.set(chunk);
+
+            var next = poll();
+            if (next != null) {
+                prefetch.hit();
+            } else {
+                synchronized (generation) {
+                    // A chunk prefetched while waiting for the lock precedes any computed now
+                    next = poll();
+                    if (next != null) {
+                        prefetch.hit();
+                    } else {
+                        next = compute();
+
+                        if (prefetch.isEnabled())
+                            prefetch.miss();
+                    }
+                }
+            }
+
+            chunk = next;
+            chunkBuffer = ByteBuffer.wrap(next);
+            chunkPosition = 0;
+
+            prefetchAhead();
+        }
+
+        private byte[] poll() {
+            val polled = ready.poll();
+            if (polled == null)
+                return null;
+
+            readyChunks.decrementAndGet();
+            prefetch.release(chunkBytes);
+
+            return polled;
+        }
+
+        private void prefetchAhead() {
+            if (!prefetch.isEnabled() || closed || readyChunks.get() >= prefetch.depth())
+                return;
+
+            if (!prefetching.compareAndSet(false, true))
+                return;
+
+            try {
+                prefetch.executor().execute(this::prefetch);
+            } catch (RejectedExecutionException e) {
+                prefetching.set(false); // executor is shut down, chunks are computed on demand
+            }
+        }
+
+        private void prefetch() {
+            try {
+                synchronized (generation) {
+                    while (!closed && readyChunks.get() < prefetch.depth() && prefetch.reserve(chunkBytes)) {
+                        try {
+                            ready.add(compute());
+                            readyChunks.incrementAndGet();
+                        } catch (OnionEncryptionException e) {
+                            prefetch.release(chunkBytes);
+                            return; // fails again on demand, on the caller's thread
+                        }
+                    }
+                }
+            } finally {
+                prefetching.set(false);
+            }
+        }
+
+        /**
+         * Must be called under the generation lock
+         */
+        private byte[] compute() throws OnionEncryptionException {
+            var computed = spare.getAndSet(null);
+            if (computed == null)
+                computed = new byte[chunkBytes];
+
+            try {
+                onRefill.run();
+
+                Arrays.fill(computed, (byte) 0);
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i].retired)
+                        throw new IllegalArgumentException("Keystream session has been forgotten");
+
+                    val offset = keys[i].keystreamOffset.getAndAdd(chunkBytes);
+
+                    if (contexts[i] == null)
+                        contexts[i] = new CipherContext(keys[i], Cipher.getInstance(transformation));
+                    contexts[i].seek(offset);
+
+                    // CTR XORs its input with the keystream, so layers of zeros add up in place
+                    contexts[i].cipher.update(computed, 0, chunkBytes, computed, 0);
+                    contexts[i].position = offset + chunkBytes;
+                }
+
+                return computed;
+            } catch (IllegalArgumentException | GeneralSecurityException e) {
+                throw new OnionEncryptionException("Failed to compute layered keystream", e);
+            }
+        }
+    }
+
+    private static final class CipherContext {
+
+        private final SessionKeys keys;
+        private final Cipher cipher;
+
+        /**
+         * Keystream offset the cipher continues from, -1 if not initialized
+         */
+        private long position = -1;
+
+        private CipherContext(SessionKeys keys, Cipher cipher) {
+            this.keys = keys;
+            this.cipher = cipher;
+        }
+
+        private void seek(long offset) throws GeneralSecurityException {
+            if (position == offset)
+                return;
+
+            cipher.init(Cipher.ENCRYPT_MODE, keys.key, new IvParameterSpec(keys.counterAt(offset / BLOCK_BYTES)));
+
+            val skip = (int) (offset % BLOCK_BYTES);
+            if (skip > 0)
+                cipher.update(new byte[skip]);
+
+            position = offset;
+        }
+    }
+
+    private static final class SessionKeys {
+
+        private final SecretKeySpec key;
+        private final byte[] initialCounter;
+
+        private final AtomicLong keystreamOffset = new AtomicLong();
+
+        private volatile boolean retired;
+
+        private SessionKeys(SecretKeySpec key, byte[] initialCounter) {
+            this.key = key;
+            this.initialCounter = initialCounter;
+        }
+
+        /**
+         * @return big-endian 128 bit sum of initial counter and {@code blocks}
+         */
+        private byte[] counterAt(long blocks) {
+            val counter = initialCounter.clone();
+
+            long carry = blocks;
+            for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+                val sum = (counter[i] & 0xFF) + (carry & 0xFF);
+                counter[i] = (byte) sum;
+                carry = (carry >>> 8) + (sum >>> 8);
+            }
+
+            return counter;
+        }
+    }
+}
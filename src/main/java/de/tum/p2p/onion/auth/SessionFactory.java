@@ -4,6 +4,7 @@ import de.tum.p2p.Peer;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.nio.ByteBuffer;
+import java.security.PublicKey;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -29,20 +30,34 @@ public interface SessionFactory {
      */
     CompletableFuture<Pair<SessionId, ByteBuffer>> start(Peer destination);
 
+    /**
+     * Assigns the destination to a session that has been started in advance, i.e.
+     * with a {@code null} destination. Implementations that authenticate the responder
+     * need its hostkey to verify AUTH SESSION HS2, others may ignore it.
+     *
+     * @param sessionId   a session started with no destination
+     * @param destination destination the session's HS1 is sent to
+     */
+    default void assign(SessionId sessionId, Peer destination) {
+    }
+
     /**
      * Receives a (Alice's) public secret and responses with personal (Bob's)
      * public secret.
      * <p>
      * The method call corresponds to AUTH SESSION INCOMING HS1 that returns
-     * AUTH SESSION HS2's handshake payload form the spec.
+     * AUTH SESSION HS2's handshake payload form the spec. Implementations that
+     * authenticate the initiator, e.g. remote Onion Auth module, need its hostkey
+     * to form AUTH SESSION INCOMING HS1, others may ignore it.
      *
-     * @param hs1 a Handshake 1 payload (Alice's)
+     * @param sourceKey a hostkey of the initiator (Alice)
+     * @param hs1       a Handshake 1 payload (Alice's)
      * @return a Handshake 2 payload (Bob's) and corresponding {@link SessionId}
      */
-    CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(ByteBuffer hs1);
+    CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, ByteBuffer hs1);
 
-    default CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(byte[] hs1) {
-        return responseTo(ByteBuffer.wrap(hs1));
+    default CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, byte[] hs1) {
+        return responseTo(sourceKey, ByteBuffer.wrap(hs1));
     }
 
     /**
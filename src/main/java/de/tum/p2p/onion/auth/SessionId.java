@@ -2,38 +2,35 @@ package de.tum.p2p.onion.auth;
 
 import lombok.EqualsAndHashCode;
 
-import static org.apache.commons.lang3.Validate.notNull;
-
 /**
- * {@code SessionId} an id that is used to identify a tunnel' session
+ * {@code SessionId} an id that is used to identify a tunnel' session.
+ * <p>
+ * Ids are 32 bit wide so that randomly chosen ids of hundreds of thousands
+ * of sessions rarely collide, see {@link SessionRegistry}.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @EqualsAndHashCode
 public class SessionId {
 
-    public static final int BYTES = Short.BYTES;
+    public static final int BYTES = Integer.BYTES;
 
-    private final Short id;
+    private final int id;
 
-    public SessionId(Short id) {
-        this.id = notNull(id);
+    public SessionId(int id) {
+        this.id = id;
     }
 
-    public static SessionId wrap(Short id) {
+    public static SessionId wrap(int id) {
         return new SessionId(id);
     }
 
-    public static SessionId wrap(Integer id) {
-        return new SessionId(id.shortValue());
-    }
-
-    public Short raw() {
+    public int raw() {
         return id;
     }
 
     @Override
     public String toString() {
-        return id.toString();
+        return Integer.toString(id);
     }
 }
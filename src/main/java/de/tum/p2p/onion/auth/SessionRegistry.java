@@ -0,0 +1,237 @@
+package de.tum.p2p.onion.auth;
+
+import lombok.val;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code SessionRegistry} keeps state of sessions an {@link OnionAuthorizer} has
+ * established or is establishing, e.g. pending handshakes or session keys.
+ * <p>
+ * Sessions are kept in a {@link ConcurrentHashMap} keyed by {@link SessionId}s,
+ * which wrap a primitive 32 bit id and are hashed by it, so lookups are O(1) and
+ * lock-free no matter how many sessions are alive, and can be done from any thread
+ * (e.g. all Netty event loops at once). New ids are picked at random and reserved
+ * atomically, so they never collide with ids of live sessions.
+ * <p>
+ * Sessions are removed either explicitly by {@link #remove(SessionId)} or, if an idle
+ * timeout is set, once they haven't been used for longer than the timeout. Expired
+ * sessions are swept by {@link #expire()}, which is also called on registration of
+ * new sessions at most twice per timeout. Removal listeners are notified about
+ * sessions removed either way, e.g. to wipe their keys.
+ *
+ * @param <S> type of session state
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class SessionRegistry<S> {
+
+    /**
+     * Idle timeout of sessions that never expire
+     */
+    public static final Duration NO_EXPIRY = Duration.ZERO;
+
+    private final long idleTimeoutNanos;
+
+    private final Map<SessionId, Entry<S>> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    private volatile BiConsumer<SessionId, S> removalListener = (sessionId, session) -> {};
+
+    /**
+     * @param idleTimeout time after the last use the session is removed, or
+     *                    {@link #NO_EXPIRY} if sessions never expire
+     */
+    public SessionRegistry(Duration idleTimeout) {
+        isTrue(!notNull(idleTimeout).isNegative(), "Idle timeout must not be negative");
+
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    public SessionRegistry() {
+        this(NO_EXPIRY);
+    }
+
+    /**
+     * Sets a listener called with sessions removed explicitly or expired
+     *
+     * @param removalListener a listener of removed sessions
+     */
+    public void onRemoval(BiConsumer<SessionId, S> removalListener) {
+        this.removalListener = notNull(removalListener);
+    }
+
+    /**
+     * Registers a session under a new random id not used by any live session
+     *
+     * @param session session state
+     * @return id of the session
+     */
+    public SessionId register(S session) {
+        notNull(session);
+        return register(sessionId -> session);
+    }
+
+    /**
+     * Registers a session that needs to know its own id under a new random id
+     * not used by any live session. The factory may be called more than once
+     * if ids collide.
+     *
+     * @param sessionFactory creates session state of the given id
+     * @return id of the session
+     */
+    public SessionId register(Function<SessionId, S> sessionFactory) {
+        notNull(sessionFactory);
+        expireIfDue();
+
+        while (true) {
+            val sessionId = SessionId.wrap(ThreadLocalRandom.current().nextInt());
+            if (sessions.containsKey(sessionId))
+                continue;
+
+            if (sessions.putIfAbsent(sessionId, new Entry<>(notNull(sessionFactory.apply(sessionId)))) == null)
+                return sessionId;
+        }
+    }
+
+    /**
+     * Registers a session under the given id, e.g. an id chosen by the other peer.
+     * A session registered under the same id before is replaced.
+     *
+     * @param sessionId id of the session
+     * @param session   session state
+     */
+    public void register(SessionId sessionId, S session) {
+        notNull(sessionId);
+        notNull(session);
+        expireIfDue();
+
+        val replaced = sessions.put(sessionId, new Entry<>(session));
+        if (replaced != null)
+            removalListener.accept(sessionId, replaced.session);
+    }
+
+    /**
+     * @param sessionId id of the session
+     * @return state of the session or null if it's unknown
+     */
+    public S find(SessionId sessionId) {
+        val entry = sessions.get(notNull(sessionId));
+        if (entry == null)
+            return null;
+
+        entry.touch(idleTimeoutNanos);
+        return entry.session;
+    }
+
+    /**
+     * @param sessionId id of the session
+     * @return state of the session
+     * @throws IllegalArgumentException if the session is unknown
+     */
+    public S get(SessionId sessionId) {
+        val session = find(sessionId);
+        if (session == null)
+            throw new IllegalArgumentException("Unknown sessionId = " + sessionId);
+
+        return session;
+    }
+
+    public boolean contains(SessionId sessionId) {
+        return find(sessionId) != null;
+    }
+
+    public boolean containsAll(Collection<SessionId> sessionIds) {
+        for (val sessionId : sessionIds)
+            if (!contains(sessionId))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Removes the session and notifies the removal listener
+     *
+     * @param sessionId id of the session
+     * @return state of the removed session or null if it's unknown
+     */
+    public S remove(SessionId sessionId) {
+        val entry = sessions.remove(notNull(sessionId));
+        if (entry == null)
+            return null;
+
+        removalListener.accept(sessionId, entry.session);
+        return entry.session;
+    }
+
+    /**
+     * Removes sessions that haven't been used for longer than the idle timeout
+     *
+     * @return amount of expired sessions
+     */
+    public int expire() {
+        if (idleTimeoutNanos == 0)
+            return 0;
+
+        val now = System.nanoTime();
+        lastSweep.set(now);
+
+        int expired = 0;
+        for (val session : sessions.entrySet()) {
+            if (now - session.getValue().lastUsed < idleTimeoutNanos)
+                continue;
+
+            // Only the entry seen idle is removed, not one registered concurrently under the same id
+            if (sessions.remove(session.getKey(), session.getValue())) {
+                removalListener.accept(session.getKey(), session.getValue().session);
+                expired++;
+            }
+        }
+
+        return expired;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void expireIfDue() {
+        if (idleTimeoutNanos == 0)
+            return;
+
+        val lastSweepAt = lastSweep.get();
+        if (System.nanoTime() - lastSweepAt < idleTimeoutNanos / 2)
+            return;
+
+        // A single registering thread sweeps, others go on
+        if (lastSweep.compareAndSet(lastSweepAt, System.nanoTime()))
+            expire();
+    }
+
+    private static final class Entry<S> {
+
+        private final S session;
+
+        private volatile long lastUsed = System.nanoTime();
+
+        private Entry(S session) {
+            this.session = session;
+        }
+
+        private void touch(long idleTimeoutNanos) {
+            if (idleTimeoutNanos != 0)
+                lastUsed = System.nanoTime();
+        }
+    }
+}
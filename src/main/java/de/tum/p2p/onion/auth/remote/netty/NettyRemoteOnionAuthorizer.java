@@ -0,0 +1,453 @@
+package de.tum.p2p.onion.auth.remote.netty;
+
+import de.tum.p2p.Peer;
+import de.tum.p2p.onion.auth.Ciphertext;
+import de.tum.p2p.onion.auth.Deciphertext;
+import de.tum.p2p.onion.auth.OnionAuthException;
+import de.tum.p2p.onion.auth.OnionAuthorizer;
+import de.tum.p2p.onion.auth.OnionDecryptionException;
+import de.tum.p2p.onion.auth.OnionEncryptionException;
+import de.tum.p2p.onion.auth.SessionFactory;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.forwarding.OnionInitializationException;
+import de.tum.p2p.proto.message.Message;
+import de.tum.p2p.proto.message.TypedMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthLayerCryptMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthResponseMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionCloseMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionHandshakeMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionIncomingHs1Message;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionStartMessage;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.logging.LogLevel;
+import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import io.netty.util.internal.logging.Slf4JLoggerFactory;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_ERROR;
+import static de.tum.p2p.proto.message.onion.auth.OnionAuthApiMessage.requestIdOf;
+import static de.tum.p2p.util.ByteBufs.safeContent;
+import static de.tum.p2p.util.ByteBuffers.bufferAllBytes;
+import static de.tum.p2p.util.ByteBuffers.bufferRemainingBytes;
+
+/**
+ * The {@code NettyRemoteOnionAuthorizer} implementation acts like a
+ * proxy for a remote {@link OnionAuthorizer}.
+ * <p>
+ * The communication with the remote Onion Auth module is done via a single
+ * persistent TCP connection using {@link de.tum.p2p.proto.message.MessageType}
+ * 600-610. Requests are pipelined: every request gets a unique request id and
+ * is written without waiting for responses to previous requests. Responses are
+ * matched to pending requests by the echoed request id on the event loop, so
+ * no thread is blocked per call no matter how many requests are outstanding.
+ * <p>
+ * The Onion Auth API identifies sessions of both parties by the module's own
+ * session ids, but {@link SessionFactory#confirm(ByteBuffer)} is given HS2 only.
+ * Handshakes are therefore prefixed with the initiator's session id:
+ * <pre>
+ * HS1 = | INITIATOR SESSION ID | AUTH SESSION HS1 PAYLOAD |
+ * HS2 = | INITIATOR SESSION ID | AUTH SESSION HS2 PAYLOAD |
+ * </pre>
+ * Answering HS1 requires initiator's hostkey, see
+ * {@link SessionFactory#responseTo(PublicKey, ByteBuffer)}.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class NettyRemoteOnionAuthorizer implements OnionAuthorizer, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(NettyRemoteOnionAuthorizer.class);
+
+    private static final int FRAME_LENGTH_PREFIX_LENGTH = Message.LENGTH_PREFIX_BYTES;
+
+    static {
+        // Enable Netty to use Sl4j
+        InternalLoggerFactory.setDefaultFactory(Slf4JLoggerFactory.INSTANCE);
+    }
+
+    /**
+     * Requests sent to the remote Onion Auth, waiting for responses
+     */
+    private final Map<Integer, CompletableFuture<byte[]>> pendingRequests = new ConcurrentHashMap<>();
+
+    private final AtomicInteger requestIds = new AtomicInteger();
+
+    private final Channel channel;
+
+    /**
+     * An event loop group created for this authorizer, shut down on close, or
+     * {@code null} if the group has been given by the user
+     */
+    private final EventLoopGroup ownEventLoopExecutors;
+
+    private final Duration requestTimeout;
+
+    private NettyRemoteOnionAuthorizer(Builder builder) {
+        this.ownEventLoopExecutors = builder.eventLoopExecutors == null ? new NioEventLoopGroup() : null;
+
+        val eventLoopExecutors = ownEventLoopExecutors != null ? ownEventLoopExecutors : builder.eventLoopExecutors;
+        try {
+            this.channel = buildRemoteAuthChannel(builder.inetAddress, builder.port, builder.channel,
+                eventLoopExecutors, builder.channelOptions, builder.loggerLevel);
+        } catch (RuntimeException e) {
+            if (ownEventLoopExecutors != null)
+                ownEventLoopExecutors.shutdownGracefully();
+            throw e;
+        }
+
+        this.requestTimeout = builder.requestTimeout;
+    }
+
+    private Channel buildRemoteAuthChannel(InetAddress inetAddress, Integer port,
+                                           Class<? extends Channel> channel, EventLoopGroup eventExecutors,
+                                           Map<ChannelOption, Object> opts, LogLevel logLevel) {
+        log.debug("Initializing remote Onion Auth channel on {}:{}, channel {}, opts {}, logger level {}",
+            inetAddress.getHostAddress(), port, channel.getName(), opts.toString(), logLevel);
+
+        val b = new Bootstrap();
+
+        b.group(eventExecutors)
+            .channel(channel);
+        opts.forEach(b::option);
+
+        b.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) throws Exception {
+                val pipe = ch.pipeline();
+
+                if (logLevel != null)
+                    pipe.addLast(new LoggingHandler(logLevel));
+
+                // ->O Input decoding & processing
+                pipe.addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0,
+                    FRAME_LENGTH_PREFIX_LENGTH, -FRAME_LENGTH_PREFIX_LENGTH, FRAME_LENGTH_PREFIX_LENGTH, true));
+
+                // Completes pending requests with responses
+                pipe.addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+                        val rawResponse = safeContent(msg);
+                        val requestId = requestIdOf(rawResponse);
+
+                        val futureResponse = pendingRequests.remove(requestId);
+                        if (futureResponse == null) {
+                            log.warn("Dropping Onion Auth response to unknown or timed out requestId = {}", requestId);
+                            return;
+                        }
+
+                        futureResponse.complete(rawResponse);
+                    }
+
+                    @Override
+                    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                        failPendingRequests(new OnionAuthException("Remote Onion Auth channel has been closed"));
+                        super.channelInactive(ctx);
+                    }
+
+                    @Override
+                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                        log.error("Failed to process Onion Auth response", cause);
+                    }
+                });
+
+                // <-O Output encoding
+                pipe.addLast(new LengthFieldPrepender(FRAME_LENGTH_PREFIX_LENGTH, true));
+            }
+        });
+
+        try {
+            val chl = b.connect(inetAddress, port).syncUninterruptibly().channel();
+
+            log.info("Remote Onion Auth channel set up on {}:{}", inetAddress.getHostAddress(), port);
+            return chl;
+        } catch (Exception e) {
+            throw new OnionInitializationException("Failed to init remote Onion Auth channel", e);
+        }
+    }
+
+    private final SessionFactory sessionFactory = new SessionFactory() {
+        @Override
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> start(Peer destination) {
+            val requestId = requestIds.incrementAndGet();
+
+            return request(requestId, new AuthSessionStartMessage(requestId, destination.publicKey()))
+                .thenApply(rawResponse -> {
+                    if (isError(rawResponse))
+                        throw new OnionAuthException("Remote Onion Auth failed to start session with " + destination);
+
+                    val hs1Msg = AuthSessionHandshakeMessage.fromBytes(rawResponse);
+                    return Pair.of(hs1Msg.sessionId(), handshake(hs1Msg.sessionId(), hs1Msg.handshake()));
+                });
+        }
+
+        @Override
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, ByteBuffer hs1) {
+            val hs1Buffer = hs1.duplicate();
+            val initiatorSessionId = SessionId.wrap(hs1Buffer.getInt());
+            val hs1Payload = bufferAllBytes(hs1Buffer.slice());
+
+            val requestId = requestIds.incrementAndGet();
+
+            return request(requestId, new AuthSessionIncomingHs1Message(requestId, sourceKey, hs1Payload))
+                .thenApply(rawResponse -> {
+                    if (isError(rawResponse))
+                        throw new OnionAuthException("Remote Onion Auth failed to respond to HS1");
+
+                    val hs2Msg = AuthSessionHandshakeMessage.fromBytes(rawResponse);
+                    return Pair.of(hs2Msg.sessionId(), handshake(initiatorSessionId, hs2Msg.handshake()));
+                });
+        }
+
+        @Override
+        public CompletableFuture<SessionId> confirm(ByteBuffer hs2) {
+            val hs2Buffer = hs2.duplicate();
+            val sessionId = SessionId.wrap(hs2Buffer.getInt());
+            val hs2Payload = bufferAllBytes(hs2Buffer.slice());
+
+            val requestId = requestIds.incrementAndGet();
+            val futureSessionId = new CompletableFuture<SessionId>();
+
+            // AUTH SESSION INCOMING HS2 is not answered
+            send(AuthSessionHandshakeMessage.incomingHs2(sessionId, requestId, hs2Payload)).addListener(transfer -> {
+                if (transfer.isSuccess())
+                    futureSessionId.complete(sessionId);
+                else
+                    futureSessionId.completeExceptionally(
+                        new OnionAuthException("Failed to pass HS2 to remote Onion Auth", transfer.cause()));
+            });
+
+            return futureSessionId;
+        }
+    };
+
+    @Override
+    public SessionFactory sessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Asks the remote Onion Auth to layer the plaintext with given sessions. The
+     * order of layers is up to the remote module.
+     */
+    @Override
+    public CompletableFuture<Ciphertext> encrypt(ByteBuffer plaintext, List<SessionId> sessionIds)
+            throws OnionEncryptionException {
+        val requestId = requestIds.incrementAndGet();
+
+        return request(requestId, AuthLayerCryptMessage.encrypt(requestId, sessionIds, bufferRemainingBytes(plaintext)))
+            .thenApply(rawResponse -> {
+                if (isError(rawResponse))
+                    throw new OnionEncryptionException("Remote Onion Auth failed to encrypt payload with sessions "
+                        + sessionIds);
+
+                return Ciphertext.wrapLayered(AuthResponseMessage.fromBytes(rawResponse).payload(), sessionIds.size());
+            });
+    }
+
+    /**
+     * Asks the remote Onion Auth to peel a layer off. Peeled layers are reported
+     * as plaintext candidates since the API doesn't tell whether it was the last one.
+     */
+    @Override
+    public CompletableFuture<Deciphertext> decrypt(ByteBuffer ciphertext, SessionId sessionId)
+            throws OnionDecryptionException {
+        val requestId = requestIds.incrementAndGet();
+        val sessionIds = Collections.singletonList(sessionId);
+
+        return request(requestId, AuthLayerCryptMessage.decrypt(requestId, sessionIds, bufferRemainingBytes(ciphertext)))
+            .thenApply(rawResponse -> {
+                if (isError(rawResponse))
+                    throw new OnionDecryptionException("Remote Onion Auth failed to decrypt payload with session "
+                        + sessionId);
+
+                return Deciphertext.ofPlaintext(AuthResponseMessage.fromBytes(rawResponse).payload());
+            });
+    }
+
+    @Override
+    public void forget(SessionId sessionId) {
+        if (!channel.isActive())
+            return;
+
+        send(new AuthSessionCloseMessage(sessionId)).addListener(transfer -> {
+            if (!transfer.isSuccess())
+                log.warn("Failed to close session {} on remote Onion Auth", sessionId, transfer.cause());
+        });
+    }
+
+    /**
+     * @return amount of requests waiting for remote Onion Auth to respond
+     */
+    public int pendingRequests() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Sends the request and registers it as pending until a response with
+     * the same request id arrives, the request times out or the channel dies
+     */
+    private CompletableFuture<byte[]> request(int requestId, TypedMessage request) {
+        val futureResponse = new CompletableFuture<byte[]>();
+        pendingRequests.put(requestId, futureResponse);
+
+        val timeout = channel.eventLoop().schedule(() -> {
+            if (pendingRequests.remove(requestId, futureResponse))
+                futureResponse.completeExceptionally(new OnionAuthException(
+                    "Remote Onion Auth didn't respond in defined timeout, requestId = " + requestId));
+        }, requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        futureResponse.whenComplete((response, cause) -> timeout.cancel(false));
+
+        send(request).addListener(transfer -> {
+            if (!transfer.isSuccess() && pendingRequests.remove(requestId, futureResponse))
+                futureResponse.completeExceptionally(new OnionAuthException(
+                    "Failed to send request to remote Onion Auth, requestId = " + requestId, transfer.cause()));
+        });
+
+        return futureResponse;
+    }
+
+    private ChannelFuture send(TypedMessage message) {
+        return channel.writeAndFlush(Unpooled.wrappedBuffer(message.bytes()));
+    }
+
+    private void failPendingRequests(Throwable cause) {
+        pendingRequests.keySet().forEach(requestId -> {
+            val futureResponse = pendingRequests.remove(requestId);
+            if (futureResponse != null)
+                futureResponse.completeExceptionally(cause);
+        });
+    }
+
+    private static boolean isError(byte[] rawResponse) {
+        return TypedMessage.guessType(rawResponse) == AUTH_ERROR;
+    }
+
+    private static ByteBuffer handshake(SessionId initiatorSessionId, byte[] payload) {
+        val handshake = ByteBuffer.allocate(SessionId.BYTES + payload.length)
+            .putInt(initiatorSessionId.raw())
+            .put(payload);
+        handshake.flip();
+
+        return handshake.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.disconnect();
+            this.channel.close().syncUninterruptibly();
+        } catch (Exception e) {
+            log.error("Failed to close remote Onion Auth channel", e);
+            throw new IOException("Failed to close remote Onion Auth channel", e);
+        } finally {
+            if (ownEventLoopExecutors != null)
+                ownEventLoopExecutors.shutdownGracefully();
+        }
+    }
+
+    public static final class Builder {
+
+        private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(2);
+
+        private EventLoopGroup eventLoopExecutors;
+
+        private Class<? extends Channel> channel;
+
+        private Map<ChannelOption, Object> channelOptions;
+
+        private InetAddress inetAddress;
+
+        private int port;
+
+        private Duration requestTimeout;
+
+        private LogLevel loggerLevel;
+
+        public Builder() {
+            this.channel = NioSocketChannel.class;
+            this.channelOptions = new HashMap<ChannelOption, Object>() {{
+                put(ChannelOption.SO_KEEPALIVE, true);
+                put(ChannelOption.TCP_NODELAY, true);
+            }};
+
+            try {
+                this.inetAddress = InetAddress.getByName("localhost");
+            } catch (UnknownHostException e) {
+                // ignore (since it's just a default value
+            }
+
+            this.requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        }
+
+        /**
+         * Sets an event loop group to run the channel on. The group is left running
+         * on {@link NettyRemoteOnionAuthorizer#close()}, unlike the one the authorizer
+         * creates for itself by default.
+         */
+        public Builder eventLoopExecutors(EventLoopGroup serverExecutors) {
+            this.eventLoopExecutors = serverExecutors;
+            return this;
+        }
+
+        public Builder channel(Class<? extends Channel> channel) {
+            this.channel = channel;
+            return this;
+        }
+
+        public Builder channelOptions(ChannelOption option, Object value) {
+            this.channelOptions.put(option, value);
+            return this;
+        }
+
+        public Builder inetAddress(InetAddress inetAddress) {
+            this.inetAddress = inetAddress;
+            return this;
+        }
+
+        public Builder port(Integer port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder loggerLevel(LogLevel loggerLevel) {
+            this.loggerLevel = loggerLevel;
+            return this;
+        }
+
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        public NettyRemoteOnionAuthorizer build() {
+            return new NettyRemoteOnionAuthorizer(this);
+        }
+    }
+}
@@ -55,12 +55,15 @@ public interface OnionForwarder extends Closeable {
      *
      * @param tunnelId a data Tunnel id to be used as a data pipe
      * @param data     to be forwarded
+     * @return a future completed once data has been written to the Tunnel, or completed
+     * exceptionally with {@link OnionDataForwardingException} if it failed to be
+     * encrypted or written
      * @throws OnionDataForwardingException in case of unexpected error during data forwarding
      */
-    void forward(TunnelId tunnelId, ByteBuffer data) throws OnionDataForwardingException;
+    CompletableFuture<Void> forward(TunnelId tunnelId, ByteBuffer data) throws OnionDataForwardingException;
 
-    default void forward(Tunnel tunnel, ByteBuffer data) throws OnionDataForwardingException {
-        forward(tunnel.id(), data);
+    default CompletableFuture<Void> forward(Tunnel tunnel, ByteBuffer data) throws OnionDataForwardingException {
+        return forward(tunnel.id(), data);
     }
 
     /**
@@ -4,11 +4,10 @@ import lombok.EqualsAndHashCode;
 
 import java.util.concurrent.ThreadLocalRandom;
 
-import static org.apache.commons.lang3.Validate.notNull;
-
 /**
  * {@code TunnelId} encapsulates an id that is used to identify a tunnel
- * withing an onion
+ * withing an onion. The id is kept unboxed, so that per-cell lookups
+ * by tunnel id, e.g. in routing tables, don't allocate.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
@@ -17,13 +16,13 @@ public class TunnelId {
 
     public static final int BYTES = Integer.BYTES;
 
-    private final Integer id;
+    private final int id;
 
-    public TunnelId(Integer id) {
-        this.id = notNull(id);
+    public TunnelId(int id) {
+        this.id = id;
     }
 
-    public static TunnelId wrap(Integer id) {
+    public static TunnelId wrap(int id) {
         return new TunnelId(id);
     }
 
@@ -31,12 +30,12 @@ public class TunnelId {
         return TunnelId.wrap(ThreadLocalRandom.current().nextInt(0, Integer.MAX_VALUE));
     }
 
-    public Integer raw() {
+    public int raw() {
         return id;
     }
 
     @Override
     public String toString() {
-        return id.toString();
+        return Integer.toString(id);
     }
 }
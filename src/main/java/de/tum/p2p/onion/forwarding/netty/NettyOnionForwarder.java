@@ -7,17 +7,24 @@ import de.tum.p2p.onion.auth.OnionAuthorizer;
 import de.tum.p2p.onion.auth.SessionId;
 import de.tum.p2p.onion.forwarding.*;
 import de.tum.p2p.onion.forwarding.netty.channel.ClientChannelFactory;
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
 import de.tum.p2p.onion.forwarding.netty.channel.ServerChannelFactory;
+import de.tum.p2p.onion.forwarding.netty.channel.WriteCoalescer;
+import de.tum.p2p.onion.forwarding.netty.context.CryptoContext;
 import de.tum.p2p.onion.forwarding.netty.context.OriginatorContext;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
+import de.tum.p2p.onion.forwarding.netty.context.TunnelDescriptor;
 import de.tum.p2p.proto.RequestId;
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendMessage;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelRetireMessage;
+import de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelConnect;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatumFactory;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayMessage;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
 import de.tum.p2p.rps.RandomPeerSampler;
 import io.netty.channel.*;
 import io.netty.handler.logging.LogLevel;
@@ -94,6 +101,7 @@ public class NettyOnionForwarder implements OnionForwarder {
 
     private final OriginatorContext originatorContext;
     private final RoutingContext routingContext;
+    private final CryptoContext cryptoContext;
 
     private final Channel serverChannel;
     private final ServerChannelFactory serverChannelFactory;
@@ -101,6 +109,8 @@ public class NettyOnionForwarder implements OnionForwarder {
 
     private final OnionEventBus eventBus;
 
+    private final DatumIntegrity datumIntegrity;
+
     private final Peer me;
 
     private NettyOnionForwarder(Builder builder) {
@@ -116,6 +126,7 @@ public class NettyOnionForwarder implements OnionForwarder {
 
         this.originatorContext = builder.originatorContext;
         this.routingContext = builder.routingContext;
+        this.cryptoContext = Validate.notNull(builder.cryptoContext);
 
         this.serverChannelFactory = builder.buildServerChannelFactory();
         this.clientChannelFactory = builder.buildClientChannelFactory();
@@ -133,6 +144,8 @@ public class NettyOnionForwarder implements OnionForwarder {
 
         this.eventBus = new OnionEventBus(builder.eventBus);
 
+        this.datumIntegrity = Validate.notNull(builder.datumIntegrity);
+
         this.me = Peer.of(builder.inetAddress, builder.port, builder.publicKey);
     }
 
@@ -195,7 +208,18 @@ public class NettyOnionForwarder implements OnionForwarder {
 
             log.debug("Tunnel #{} has been persisted withing the onion {}", tunnelId, me.socketAddress());
 
-            originatorContext.appendSession(tunnelId, sessionIds);
+            // Data is layered for all hops in one pass from now on, if the authorizer supports it
+            val keystream = onionAuthorizer.layeredKeystream(sessionIds).orElse(null);
+
+            // The tunnel is published once, with all its hops, and never modified afterwards
+            try {
+                originatorContext.publish(tunnelId, sessionIds, keystream);
+            } catch (RuntimeException e) {
+                if (keystream != null)
+                    keystream.close();
+
+                throw e;
+            }
 
             return Tunnel.of(tunnelId, tunnelPeers.get(tunnelPeers.size() - 1).publicKey(), sessionIds.size());
         });
@@ -221,10 +245,12 @@ public class NettyOnionForwarder implements OnionForwarder {
                     val plainConn = new TunnelConnect(requestId, newHop.address(),
                         newHop.port(), me.publicKey(), bufferAllBytes(handshake1));
 
+                    // Relays are sized for the entry link, all links of the circuit share its cell size
                     futureTunnelExtendReq =
                         new TunnelRelayMessage.Encrypted()
                             .tunnelId(tunnelId)
                             .encrypt(onionAuthorizer, sessionIds)
+                            .cellBytes(Links.cellBytes(originatorContext.entry(tunnelId)))
                             .payload(plainConn)
                             .build();
                 }
@@ -254,17 +280,20 @@ public class NettyOnionForwarder implements OnionForwarder {
 
     @Override
     public void destroyTunnel(TunnelId tunnelId) throws OnionTunnelingException {
-        if (!originatorContext.serves(tunnelId))
+        val tunnel = originatorContext.tunnel(tunnelId);
+        if (tunnel == null)
             throw new OnionTunnelingException("Failed to destroy the tunnel - not found");
 
         val tunnelRetireMsg = new TunnelRetireMessage(tunnelId);
-        originatorContext.entry(tunnelId).writeAndFlush(tunnelRetireMsg)
+        tunnel.entry().writeAndFlush(tunnelRetireMsg)
             .addListener((ChannelFutureListener) transfer -> {
                 if (!transfer.isSuccess())
                     throw new OnionTunnelingException("Failed to sent tunnel retire request " +
                         "to next hop", transfer.cause());
 
+                tunnel.sessionIds().forEach(onionAuthorizer::forget);
                 originatorContext.forget(tunnelId);
+                cryptoContext.forget(tunnelId);
 
                 log.debug("Tunnel {} has been removed from originator context of peer {}",
                     tunnelId, me.socketAddress());
@@ -272,26 +301,48 @@ public class NettyOnionForwarder implements OnionForwarder {
     }
 
     @Override
-    public void forward(TunnelId tunnelId, ByteBuffer data) throws OnionDataForwardingException {
-        if (!originatorContext.serves(tunnelId))
+    public CompletableFuture<Void> forward(TunnelId tunnelId, ByteBuffer data) throws OnionDataForwardingException {
+        val tunnel = originatorContext.tunnel(tunnelId);
+        if (tunnel == null)
             throw new OnionDataForwardingException("Failed to forward data - tunnel not found");
+        if (!tunnel.isBuilt())
+            throw new OnionDataForwardingException("Failed to forward data - tunnel is not built yet");
 
-        val hopsSessionIds = originatorContext.sessionIds(tunnelId);
+        // Data is chunked according to the cell size negotiated with the tunnel's entry peer
+        val cellBytes = Links.cellBytes(tunnel.entry());
 
-        TunnelDatumFactory.ofMany(data).stream()
-            .map(datum -> {
-                return new TunnelRelayMessage.Encrypted()
-                                .tunnelId(tunnelId)
-                                .encrypt(onionAuthorizer, hopsSessionIds)
-                                .payload(datum)
-                                .build();
-            }).forEach(futureDatumRelay -> {
-                futureDatumRelay.thenAccept(encryptedDatum -> {
-                    originatorContext.entry(tunnelId).writeAndFlush(encryptedDatum);
+        val datumChunks = TunnelDatumFactory.ofMany(data, TunnelDatum.payloadBytes(cellBytes), datumIntegrity);
 
-                    log.debug("Datum chuck has been pushed by peer {} via tunnel {}", me.socketAddress(), tunnelId);
-                });
+        val datumRelay = encrypted(tunnelId, tunnel);
+
+        val futureForward = new CompletableFuture<Void>();
+
+        // All chunks are encrypted in one burst, written at once and flushed together,
+        // possibly with chunks of other tunnels sharing the same entry channel. Bursts are
+        // written on the entry's event loop as part of the tunnel's crypto task, so that
+        // concurrent forwards reach the wire in the order of their keystream positions
+        cryptoContext.execute(tunnelId, () -> datumRelay.buildAll(datumChunks), tunnel.entry().eventLoop(),
+            datumRelays -> WriteCoalescer.of(tunnel.entry()).writeAll(datumRelays).addListener(transfer -> {
+                if (!transfer.isSuccess()) {
+                    log.error("Failed to push datum chunks via tunnel {}", tunnelId, transfer.cause());
+                    futureForward.completeExceptionally(new OnionDataForwardingException("Failed to forward data - " +
+                        "write to the tunnel failed", transfer.cause()));
+                    return;
+                }
+
+                log.debug("{} datum chunks have been pushed by peer {} via tunnel {}", datumRelays.size(),
+                    me.socketAddress(), tunnelId);
+                futureForward.complete(null);
+            })).whenComplete((datumRelays, cause) -> {
+                if (cause == null)
+                    return;
+
+                log.error("Failed to encrypt {} datum chunks for tunnel {}", datumChunks.size(), tunnelId, cause);
+                futureForward.completeExceptionally(new OnionDataForwardingException("Failed to forward data - " +
+                    "encryption failed", cause));
             });
+
+        return futureForward;
     }
 
     @Override
@@ -302,13 +353,9 @@ public class NettyOnionForwarder implements OnionForwarder {
 
         rps.sampleNot(me).thenCompose(this::createTunnel)
             .thenAccept(tunnel -> {
-                val hopsSessionIds = originatorContext.sessionIds(tunnel.id());
-
                 val coverDatum = new TunnelDatum(size);
                 val futureCoverDatumRelay =
-                    new TunnelRelayMessage.Encrypted()
-                        .tunnelId(tunnel.id())
-                        .encrypt(onionAuthorizer, hopsSessionIds)
+                    encrypted(tunnel.id(), originatorContext.tunnel(tunnel.id()))
                         .payload(coverDatum)
                         .build();
 
@@ -328,6 +375,21 @@ public class NettyOnionForwarder implements OnionForwarder {
             });
     }
 
+    /**
+     * @return a relay builder layering payloads for all hops of the tunnel, with
+     * the tunnel's combined keystream if there is one, into cells of the tunnel's size
+     */
+    private TunnelRelayMessage.Encrypted encrypted(TunnelId tunnelId, TunnelDescriptor tunnel) {
+        val relay = new TunnelRelayMessage.Encrypted()
+            .tunnelId(tunnelId)
+            .cellBytes(Links.cellBytes(tunnel.entry()));
+
+        if (tunnel.keystream() != null)
+            return relay.encrypt(tunnel.keystream());
+
+        return relay.encrypt(onionAuthorizer, tunnel.sessionIds());
+    }
+
     @Override
     public void addIncomingDataObserver(BiConsumer<TunnelId, ByteBuffer> consumer) {
         eventBus.registerDataListener(consumer);
@@ -360,6 +422,7 @@ public class NettyOnionForwarder implements OnionForwarder {
 
             this.originatorContext.close();
             this.routingContext.close();
+            this.cryptoContext.close();
 
             this.serverChannel.close().syncUninterruptibly();
         } catch (Exception e) {
@@ -392,8 +455,12 @@ public class NettyOnionForwarder implements OnionForwarder {
 
         public OriginatorContext originatorContext = new OriginatorContext();
         private RoutingContext routingContext = new RoutingContext();
+        private CryptoContext cryptoContext = CryptoContext.direct();
 
         private EventBus eventBus = new EventBus();
+        private CellPadding cellPadding;
+        private CellSize preferredCellSize;
+        private DatumIntegrity datumIntegrity = DatumIntegrity.DEFAULT;
         private LogLevel loggerLevel;
 
         public Builder clientBossEventLoop(EventLoopGroup clientBossEventLoop) {
@@ -476,6 +543,58 @@ public class NettyOnionForwarder implements OnionForwarder {
             return this;
         }
 
+        /**
+         * Sets where onion layers of tunnel cells are applied and peeled. Defaults
+         * to a {@link CryptoContext#direct()} one, i.e. Netty's event loops. Use
+         * {@link CryptoContext#offloaded(int, int)} to spread crypto of busy
+         * tunnels over all cores. The context is closed with the forwarder,
+         * so it must not be shared with other forwarders.
+         *
+         * @param cryptoContext crypto context
+         * @return this builder
+         */
+        public Builder cryptoContext(CryptoContext cryptoContext) {
+            this.cryptoContext = cryptoContext;
+            return this;
+        }
+
+        /**
+         * Sets a strategy for padding tunnel cells. Defaults to
+         * {@link de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings#defaultPadding()}
+         *
+         * @param cellPadding padding strategy
+         * @return this builder
+         */
+        public Builder cellPadding(CellPadding cellPadding) {
+            this.cellPadding = cellPadding;
+            return this;
+        }
+
+        /**
+         * Sets a cell size this peer proposes for its links. The actual size of a link
+         * is negotiated with the other peer. Defaults to {@link CellSize#DEFAULT}
+         *
+         * @param preferredCellSize preferred link cell size
+         * @return this builder
+         */
+        public Builder preferredCellSize(CellSize preferredCellSize) {
+            this.preferredCellSize = preferredCellSize;
+            return this;
+        }
+
+        /**
+         * Sets an integrity check of data this peer sends via its tunnels. As a destination,
+         * the peer rejects data protected by a weaker check, so peers of a network must use
+         * the same check or agree to accept a weaker one. Defaults to {@link DatumIntegrity#DEFAULT}
+         *
+         * @param datumIntegrity integrity check
+         * @return this builder
+         */
+        public Builder datumIntegrity(DatumIntegrity datumIntegrity) {
+            this.datumIntegrity = datumIntegrity;
+            return this;
+        }
+
         public Builder loggerLevel(LogLevel loggerLevel) {
             this.loggerLevel = loggerLevel;
             return this;
@@ -499,8 +618,14 @@ public class NettyOnionForwarder implements OnionForwarder {
                 .onionAuthorizer(onionAuthorizer)
                 .routingContext(routingContext)
                 .originatorContext(originatorContext)
-                .eventBus(eventBus);
-
+                .cryptoContext(cryptoContext)
+                .eventBus(eventBus)
+                .datumIntegrity(datumIntegrity);
+
+            if (nonNull(cellPadding))
+                serverChannelFactoryBuilder.cellPadding(cellPadding);
+            if (nonNull(preferredCellSize))
+                serverChannelFactoryBuilder.preferredCellSize(preferredCellSize);
             if (nonNull(loggerLevel))
                 serverChannelFactoryBuilder.loggerLevel(loggerLevel);
 
@@ -524,6 +649,10 @@ public class NettyOnionForwarder implements OnionForwarder {
                 .routingContext(routingContext)
                 .eventBus(eventBus);
 
+            if (nonNull(cellPadding))
+                clientChannelFactoryBuilder.cellPadding(cellPadding);
+            if (nonNull(preferredCellSize))
+                clientChannelFactoryBuilder.preferredCellSize(preferredCellSize);
             if (nonNull(loggerLevel))
                 clientChannelFactoryBuilder.loggerLevel(loggerLevel);
 
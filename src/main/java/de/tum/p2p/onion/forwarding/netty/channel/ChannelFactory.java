@@ -4,12 +4,16 @@ import com.google.common.eventbus.EventBus;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
 import de.tum.p2p.onion.forwarding.netty.context.OriginatorContext;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
-import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageDecoder;
+import de.tum.p2p.onion.forwarding.netty.handler.LinkFrameDecoder;
+import de.tum.p2p.onion.forwarding.netty.handler.LinkHelloReceiver;
+import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageDispatcher;
 import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageEncoder;
-import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
+import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageHandler;
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
+import de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.FixedLengthFrameDecoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.internal.logging.InternalLoggerFactory;
@@ -17,9 +21,10 @@ import io.netty.util.internal.logging.Slf4JLoggerFactory;
 import lombok.val;
 
 import java.io.Closeable;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Consumer;
 
 /**
  * A base class for configuration channel factories
@@ -36,7 +41,10 @@ abstract class ChannelFactory<T extends Channel> implements Closeable {
         InternalLoggerFactory.setDefaultFactory(Slf4JLoggerFactory.INSTANCE);
     }
 
-    protected static final int FRAME_LENGTH = TunnelMessage.BYTES;
+    /**
+     * Cell sizes onions can handle on their links
+     */
+    protected static final Set<CellSize> SUPPORTED_CELL_SIZES = EnumSet.allOf(CellSize.class);
 
     protected EventLoopGroup bossEventLoop;
     protected Class<? extends T> channel;
@@ -47,6 +55,9 @@ abstract class ChannelFactory<T extends Channel> implements Closeable {
     protected RoutingContext routingContext;
     protected EventBus eventBus;
 
+    protected CellPadding cellPadding;
+    protected CellSize preferredCellSize;
+
     protected LogLevel loggerLevel;
 
     /**
@@ -72,13 +83,17 @@ abstract class ChannelFactory<T extends Channel> implements Closeable {
     }
 
     /**
-     * Builds a messaging pipe with prefedined {@link FixedLengthFrameDecoder},
-     * {@link TunnelMessageEncoder} and {@link TunnelMessageDecoder}.
+     * Builds a messaging pipe with prefedined {@link LinkFrameDecoder},
+     * {@link TunnelMessageEncoder}, a {@link LinkHelloReceiver} accepting a link
+     * hello as the first frame only and a single {@link TunnelMessageDispatcher}
+     * that decodes inbound frames and routes them to domain handlers.
      *
-     * @param domainHandlers a pipe configurator
+     * @param helloHandler a sharable handler of the link hello
+     * @param dispatcher   a sharable dispatcher with domain handlers' routes
      * @return configured ChannelInitializer
      */
-    protected ChannelInitializer messagingChannel(Consumer<ChannelPipeline> domainHandlers) {
+    protected ChannelInitializer messagingChannel(TunnelMessageHandler<? super LinkHelloMessage> helloHandler,
+                                                  TunnelMessageDispatcher dispatcher) {
         return new ChannelInitializer<SocketChannel>() {
             @Override
             public void initChannel(SocketChannel ch) throws Exception {
@@ -87,12 +102,11 @@ abstract class ChannelFactory<T extends Channel> implements Closeable {
                 if (loggerLevel != null)
                     pipe.addLast(new LoggingHandler(loggerLevel));
 
-                pipe.addLast(new FixedLengthFrameDecoder(FRAME_LENGTH));
-
-                pipe.addLast(new TunnelMessageEncoder());
-                pipe.addLast(new TunnelMessageDecoder());
+                pipe.addLast(new LinkFrameDecoder());
 
-                domainHandlers.accept(pipe);
+                pipe.addLast(new TunnelMessageEncoder(cellPadding));
+                pipe.addLast(new LinkHelloReceiver(helloHandler));
+                pipe.addLast(dispatcher);
             }
         };
     }
@@ -0,0 +1,231 @@
+package de.tum.p2p.onion.forwarding.netty.channel;
+
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.util.function.UnaryOperator;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code CircuitTable} keeps routes of tunnels entering an onion through a channel,
+ * i.e. it maps the incoming tunnel id to the outgoing channel, the outgoing tunnel
+ * id and the session the tunnel's relays are peeled with. The table is stored as
+ * an attribute of the inbound channel, so a relay finds its whole route with
+ * a single lookup of the raw tunnel id.
+ * <p>
+ * The table is confined to the channel's event loop: lookups must be performed on it
+ * (like relays are), updates issued from other threads (e.g. by completion of
+ * a handshake or a connect) are executed on it in the order they are issued.
+ * It is therefore neither synchronized nor shared with other event loops.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public final class CircuitTable {
+
+    private static final AttributeKey<CircuitTable> CIRCUIT_TABLE
+        = AttributeKey.valueOf(CircuitTable.class, "CIRCUIT_TABLE");
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private final EventLoop eventLoop;
+
+    /**
+     * Open-addressing table of circuits probed linearly, its capacity is
+     * a power of two and at least a quarter of it is always free.
+     * Accessed from channel's event loop only.
+     */
+    private Circuit[] circuits = new Circuit[MIN_CAPACITY];
+    private int size;
+
+    private CircuitTable(Channel channel) {
+        this.eventLoop = notNull(channel).eventLoop();
+    }
+
+    /**
+     * Returns a circuit table of the given channel, creating one if needed
+     *
+     * @param channel an inbound channel of tunnels
+     * @return channel's circuit table
+     */
+    public static CircuitTable of(Channel channel) {
+        val tableAttr = channel.attr(CIRCUIT_TABLE);
+
+        val table = tableAttr.get();
+        if (table != null)
+            return table;
+
+        val newTable = new CircuitTable(channel);
+        val existingTable = tableAttr.setIfAbsent(newTable);
+
+        return existingTable != null ? existingTable : newTable;
+    }
+
+    /**
+     * Looks up a circuit of the tunnel. Must be called from channel's event loop.
+     *
+     * @return circuit of the tunnel or null if there is none
+     */
+    public Circuit get(TunnelId tunnelId) {
+        val circuits = this.circuits;
+        val mask = circuits.length - 1;
+        val rawTunnelId = tunnelId.raw();
+
+        for (int i = indexOf(rawTunnelId, mask); ; i = (i + 1) & mask) {
+            val circuit = circuits[i];
+            if (circuit == null || circuit.tunnelId == rawTunnelId)
+                return circuit;
+        }
+    }
+
+    /**
+     * Sets the session the tunnel's relays are peeled with
+     *
+     * @param nextTunnelId id the onion has assigned to the tunnel, see
+     *                     {@link de.tum.p2p.onion.forwarding.netty.context.RoutingContext#serveIncoming(Channel, TunnelId)}
+     * @param keystream    keystream of the session or null if relays are peeled
+     *                     by {@link de.tum.p2p.onion.auth.OnionAuthorizer}
+     */
+    public void setSession(TunnelId tunnelId, TunnelId nextTunnelId, SessionId sessionId,
+                           LayeredKeystream keystream) {
+        notNull(nextTunnelId);
+        notNull(sessionId);
+
+        update(tunnelId, circuit -> new Circuit(tunnelId.raw(),
+            circuit != null ? circuit.nextHop : null,
+            nextTunnelId.raw(), sessionId, keystream));
+    }
+
+    /**
+     * Sets the channel and the tunnel id the tunnel's relays are propagated with
+     */
+    public void setNextHop(TunnelId tunnelId, Channel nextHop, TunnelId nextTunnelId) {
+        notNull(nextHop);
+        notNull(nextTunnelId);
+
+        update(tunnelId, circuit -> new Circuit(tunnelId.raw(), nextHop, nextTunnelId.raw(),
+            circuit != null ? circuit.sessionId : null,
+            circuit != null ? circuit.keystream : null));
+    }
+
+    public void remove(TunnelId tunnelId) {
+        update(tunnelId, circuit -> null);
+    }
+
+    /**
+     * @return amount of circuits entering via the channel. Must be called
+     * from channel's event loop.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void update(TunnelId tunnelId, UnaryOperator<Circuit> update) {
+        if (eventLoop.inEventLoop()) {
+            doUpdate(tunnelId.raw(), update);
+        } else {
+            eventLoop.execute(() -> doUpdate(tunnelId.raw(), update));
+        }
+    }
+
+    private void doUpdate(int tunnelId, UnaryOperator<Circuit> update) {
+        val mask = circuits.length - 1;
+
+        int i = indexOf(tunnelId, mask);
+        while (circuits[i] != null && circuits[i].tunnelId != tunnelId)
+            i = (i + 1) & mask;
+
+        val circuit = circuits[i];
+        val updated = update.apply(circuit);
+
+        if (updated == null) {
+            if (circuit != null)
+                delete(i);
+
+            return;
+        }
+
+        circuits[i] = updated;
+        if (circuit == null && ++size * 4 > circuits.length * 3)
+            rehash(circuits.length * 2);
+    }
+
+    /**
+     * Removes the circuit at {@code slot} shifting circuits probed past it back,
+     * so that lookups don't need tombstones
+     */
+    private void delete(int slot) {
+        val mask = circuits.length - 1;
+
+        circuits[slot] = null;
+        size--;
+
+        for (int i = (slot + 1) & mask; circuits[i] != null; i = (i + 1) & mask) {
+            val home = indexOf(circuits[i].tunnelId, mask);
+
+            // The circuit may fill the gap unless its home slot lies between the gap and the circuit
+            if (((i - home) & mask) >= ((i - slot) & mask)) {
+                circuits[slot] = circuits[i];
+                circuits[i] = null;
+                slot = i;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        val rehashed = new Circuit[capacity];
+        val mask = capacity - 1;
+
+        for (val circuit : circuits) {
+            if (circuit == null)
+                continue;
+
+            int i = indexOf(circuit.tunnelId, mask);
+            while (rehashed[i] != null)
+                i = (i + 1) & mask;
+
+            rehashed[i] = circuit;
+        }
+
+        circuits = rehashed;
+    }
+
+    private static int indexOf(int tunnelId, int mask) {
+        val hash = tunnelId * GOLDEN_RATIO;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * {@code Circuit} is an immutable route of a tunnel entering via the channel. Tunnel
+     * ids are link-local: {@code tunnelId} is the id used by the previous hop on this
+     * channel, {@code nextTunnelId} is the one assigned by this onion, used on the link
+     * to the next hop and known to {@link de.tum.p2p.onion.forwarding.netty.context.RoutingContext}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Circuit {
+
+        private final int tunnelId;
+
+        private final Channel nextHop;
+        private final int nextTunnelId;
+
+        private final SessionId sessionId;
+        private final LayeredKeystream keystream;
+
+        public boolean hasNextHop() {
+            return nextHop != null;
+        }
+    }
+}
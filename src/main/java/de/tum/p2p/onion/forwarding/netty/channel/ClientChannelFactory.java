@@ -2,12 +2,21 @@ package de.tum.p2p.onion.forwarding.netty.channel;
 
 import com.google.common.eventbus.EventBus;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
+import de.tum.p2p.onion.forwarding.OnionTunnelingException;
 import de.tum.p2p.onion.forwarding.netty.context.OriginatorContext;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
+import de.tum.p2p.onion.forwarding.netty.handler.LinkFrameDecoder;
+import de.tum.p2p.onion.forwarding.netty.handler.LinkHelloResponseHandler;
 import de.tum.p2p.onion.forwarding.netty.handler.TunnelExtendedHandler;
-import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageDecoder;
+import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageDispatcher;
 import de.tum.p2p.onion.forwarding.netty.handler.TunnelMessageEncoder;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendedMessage;
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
+import de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
@@ -20,10 +29,13 @@ import lombok.val;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
+import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_EXTENDED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
@@ -32,17 +44,26 @@ import static org.apache.commons.lang3.Validate.notNull;
  * <p>
  * The {@code ClientChannelFactory}'s pipeline includes:
  * <ul>
- *     <li>{@link TunnelExtendedHandler}</li>
- *     <li>{@link io.netty.handler.codec.FixedLengthFrameDecoder} to discard
- *     missized frames</li>
- *     <li>{@link TunnelMessageDecoder}</li>
+ *     <li>{@link LinkFrameDecoder} to split the stream into cells of
+ *     link's negotiated size</li>
  *     <li>{@link TunnelMessageEncoder}</li>
+ *     <li>{@link de.tum.p2p.onion.forwarding.netty.handler.LinkHelloReceiver} passing
+ *     the first frame, the link hello response, to {@link LinkHelloResponseHandler}</li>
+ *     <li>{@link TunnelMessageDispatcher} routing to {@link TunnelExtendedHandler}</li>
  * </ul>
+ * <p>
+ * Connections are considered established once the link hello exchange negotiating
+ * the link's cell size is over, see {@link de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage}.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 public class ClientChannelFactory extends ChannelFactory<Channel> {
 
+    private static final Duration LINK_HELLO_TIMEOUT = Duration.ofSeconds(2);
+
+    private final LinkHelloResponseHandler helloHandler;
+    private final TunnelMessageDispatcher dispatcher;
+
     protected ClientChannelFactory(Builder builder) {
         this.bossEventLoop = notNull(builder.bossEventLoop);
         this.channel = notNull(builder.channel);
@@ -52,11 +73,34 @@ public class ClientChannelFactory extends ChannelFactory<Channel> {
         this.routingContext = notNull(builder.routingContext);
         this.originatorContext = notNull(builder.originatorContext);
         this.eventBus = notNull(builder.eventBus);
+        this.cellPadding = notNull(builder.cellPadding);
+        this.preferredCellSize = notNull(builder.preferredCellSize);
 
         this.loggerLevel = builder.loggerLevel;
+
+        this.helloHandler = new LinkHelloResponseHandler(SUPPORTED_CELL_SIZES);
+        this.dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_EXTENDED, in -> TunnelExtendedMessage.fromBytes(in.nioBuffer()),
+                new TunnelExtendedHandler(onionAuthorizer, routingContext, eventBus))
+            .build();
     }
 
     public CompletableFuture<Channel> connect(InetSocketAddress socketAddress) {
+        return connect(socketAddress, preferredCellSize);
+    }
+
+    /**
+     * Connects to the onion preferring the given cell size for the link instead of
+     * the factory's preferred one, e.g. the cell size of a circuit the link extends.
+     * The link may still negotiate a smaller size, see {@link CellSize#negotiate}.
+     *
+     * @param socketAddress     onion's address
+     * @param preferredCellSize cell size to prefer for the link
+     * @return a future completed with the channel once its cell size is negotiated
+     */
+    public CompletableFuture<Channel> connect(InetSocketAddress socketAddress, CellSize preferredCellSize) {
+        notNull(preferredCellSize);
+
         val bootstrap = new Bootstrap();
 
         bootstrap
@@ -67,17 +111,47 @@ public class ClientChannelFactory extends ChannelFactory<Channel> {
         channelOptions.forEach(bootstrap::option);
 
         val futureNettyChannel = bootstrap.connect(socketAddress);
-        return toCompletableFuture(futureNettyChannel);
+        return toCompletableFuture(futureNettyChannel).thenCompose(channel -> helloLink(channel, preferredCellSize));
     }
 
     public CompletableFuture<Channel> connect(InetAddress inetAddress, int port) {
         return connect(new InetSocketAddress(inetAddress, port));
     }
 
+    /**
+     * Sends a link hello with supported and preferred cell sizes and awaits
+     * the response with the negotiated one.
+     *
+     * @param channel           a connected link channel
+     * @param preferredCellSize cell size to prefer for the link
+     * @return a future completed with the channel once its cell size is negotiated
+     */
+    private CompletableFuture<Channel> helloLink(Channel channel, CellSize preferredCellSize) {
+        val futureLink = new CompletableFuture<Channel>();
+        Links.awaitHello(channel, futureLink);
+
+        val helloTimeout = channel.eventLoop().schedule(() -> {
+            if (futureLink.completeExceptionally(new OnionTunnelingException("Link hello to " +
+                    channel.remoteAddress() + " has timed out")))
+                channel.close();
+        }, LINK_HELLO_TIMEOUT.toMillis(), MILLISECONDS);
+
+        channel.closeFuture().addListener(closed -> futureLink.completeExceptionally(
+            new OnionTunnelingException("Link to " + channel.remoteAddress() + " closed during hello")));
+
+        futureLink.whenComplete((link, cause) -> helloTimeout.cancel(false));
+
+        channel.writeAndFlush(new LinkHelloMessage(SUPPORTED_CELL_SIZES, preferredCellSize))
+            .addListener(transfer -> {
+                if (!transfer.isSuccess())
+                    futureLink.completeExceptionally(transfer.cause());
+            });
+
+        return futureLink;
+    }
+
     private ChannelInitializer clientPipeline() {
-        return messagingChannel(pipe -> {
-            pipe.addLast(new TunnelExtendedHandler(onionAuthorizer, routingContext, eventBus));
-        });
+        return messagingChannel(helloHandler, dispatcher);
     }
 
     @Override
@@ -91,6 +165,7 @@ public class ClientChannelFactory extends ChannelFactory<Channel> {
         private static final Class<? extends Channel> DEFAULT_CHANNEL = NioSocketChannel.class;
         private static final Map<ChannelOption, Object> DEFAULT_CHANNEL_OPTS = new HashMap<ChannelOption, Object>() {{
             put(ChannelOption.SO_KEEPALIVE, true);
+            put(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
         }};
 
         private EventLoopGroup bossEventLoop = DEFAULT_BOSS_EVENT_LOOP;
@@ -105,6 +180,9 @@ public class ClientChannelFactory extends ChannelFactory<Channel> {
         public OriginatorContext originatorContext;
         private EventBus eventBus;
 
+        private CellPadding cellPadding = CellPaddings.defaultPadding();
+        private CellSize preferredCellSize = CellSize.DEFAULT;
+
         private LogLevel loggerLevel;
 
         public Builder bossEventLoop(EventLoopGroup bossEventLoop) {
@@ -142,6 +220,16 @@ public class ClientChannelFactory extends ChannelFactory<Channel> {
             return this;
         }
 
+        public Builder cellPadding(CellPadding cellPadding) {
+            this.cellPadding = cellPadding;
+            return this;
+        }
+
+        public Builder preferredCellSize(CellSize preferredCellSize) {
+            this.preferredCellSize = preferredCellSize;
+            return this;
+        }
+
         public Builder loggerLevel(LogLevel loggerLevel) {
             this.loggerLevel = loggerLevel;
             return this;
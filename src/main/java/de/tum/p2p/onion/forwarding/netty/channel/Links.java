@@ -0,0 +1,73 @@
+package de.tum.p2p.onion.forwarding.netty.channel;
+
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.val;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code Links} keeps per-link state of channels between onions as channel
+ * attributes, i.e. the cell size negotiated by the link hello exchange.
+ *
+ * @see de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public final class Links {
+
+    private static final AttributeKey<CellSize> CELL_SIZE
+        = AttributeKey.valueOf(Links.class, "CELL_SIZE");
+
+    private static final AttributeKey<CompletableFuture<Channel>> PENDING_HELLO
+        = AttributeKey.valueOf(Links.class, "PENDING_HELLO");
+
+    private Links() {
+        throw new AssertionError("No instance for you");
+    }
+
+    /**
+     * @param channel a link channel
+     * @return cell size of the link or {@link CellSize#DEFAULT} if not negotiated yet
+     */
+    public static CellSize cellSize(Channel channel) {
+        val cellSize = channel.attr(CELL_SIZE).get();
+        return cellSize != null ? cellSize : CellSize.DEFAULT;
+    }
+
+    public static int cellBytes(Channel channel) {
+        return cellSize(channel).bytes();
+    }
+
+    public static void cellSize(Channel channel, CellSize cellSize) {
+        channel.attr(CELL_SIZE).set(notNull(cellSize));
+    }
+
+    /**
+     * Registers a future to be completed once the link hello response arrives
+     *
+     * @param channel   a link channel
+     * @param futureLink a future to complete
+     */
+    static void awaitHello(Channel channel, CompletableFuture<Channel> futureLink) {
+        channel.attr(PENDING_HELLO).set(notNull(futureLink));
+    }
+
+    /**
+     * Completes a future registered via {@link #awaitHello(Channel, CompletableFuture)}
+     *
+     * @param channel a link channel
+     * @return true if there was a pending hello on the channel
+     */
+    public static boolean completeHello(Channel channel) {
+        val futureLink = channel.attr(PENDING_HELLO).getAndSet(null);
+        if (futureLink == null)
+            return false;
+
+        futureLink.complete(channel);
+        return true;
+    }
+}
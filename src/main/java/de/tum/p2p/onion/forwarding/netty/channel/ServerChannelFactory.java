@@ -2,10 +2,22 @@ package de.tum.p2p.onion.forwarding.netty.channel;
 
 import com.google.common.eventbus.EventBus;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
+import de.tum.p2p.onion.forwarding.netty.context.CryptoContext;
 import de.tum.p2p.onion.forwarding.netty.context.OriginatorContext;
+import de.tum.p2p.onion.forwarding.netty.context.ReassemblyContext;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
 import de.tum.p2p.onion.forwarding.netty.handler.*;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelRetireMessage;
+import de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelConnect;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayCell;
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -19,6 +31,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
+import static de.tum.p2p.proto.message.MessageType.*;
 import static de.tum.p2p.util.Nets.localhost;
 import static org.apache.commons.lang3.Validate.notNull;
 
@@ -29,15 +42,19 @@ import static org.apache.commons.lang3.Validate.notNull;
  * <p>
  * The {@code ServerChannelFactory}'s pipeline includes:
  * <ul>
- *     <li>{@link TunnelRetireHandler}</li>
- *     <li>{@link TunnelRelayHandler}</li>
- *     <li>{@link TunnelConnectHandler}</li>
- *     <li>{@link TunnelExtendHandler}</li>
- *     <li>{@link TunnelDatumHandler}</li>
- *     <li>{@link io.netty.handler.codec.FixedLengthFrameDecoder} to discard
- *     missized frames</li>
- *     <li>{@link TunnelMessageDecoder}</li>
+ *     <li>{@link LinkFrameDecoder} to split the stream into cells of
+ *     link's negotiated size</li>
  *     <li>{@link TunnelMessageEncoder}</li>
+ *     <li>{@link LinkHelloReceiver} passing the first frame, the link hello,
+ *     to {@link LinkHelloHandler}</li>
+ *     <li>{@link TunnelMessageDispatcher} routing to:
+ *     <ul>
+ *         <li>{@link TunnelRetireHandler}</li>
+ *         <li>{@link TunnelExtendHandler}</li>
+ *         <li>{@link TunnelRelayHandler}, which in turn dispatches
+ *         plaintext payloads to {@link TunnelConnectHandler} and {@link TunnelDatumHandler}</li>
+ *     </ul>
+ *     </li>
  * </ul>
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
@@ -47,6 +64,10 @@ public class ServerChannelFactory extends ChannelFactory<ServerChannel> {
     private final EventLoopGroup workerEventLoop;
 
     private final ClientChannelFactory clientChannelFactory;
+    private final CryptoContext cryptoContext;
+
+    private final LinkHelloHandler helloHandler;
+    private final TunnelMessageDispatcher dispatcher;
 
     protected ServerChannelFactory(Builder builder) {
         this.bossEventLoop = notNull(builder.bossEventLoop);
@@ -58,10 +79,32 @@ public class ServerChannelFactory extends ChannelFactory<ServerChannel> {
         this.onionAuthorizer = notNull(builder.onionAuthorizer);
         this.clientChannelFactory = notNull(builder.clientChannelFactory);
         this.routingContext = notNull(builder.routingContext);
+        this.cryptoContext = notNull(builder.cryptoContext);
 
         this.eventBus = notNull(builder.eventBus);
+        this.cellPadding = notNull(builder.cellPadding);
+        this.preferredCellSize = notNull(builder.preferredCellSize);
 
         this.loggerLevel = builder.loggerLevel;
+
+        val reassemblyContext = new ReassemblyContext();
+        val datumHandler = new TunnelDatumHandler(eventBus, reassemblyContext, notNull(builder.datumIntegrity));
+        val payloadDispatcher = new TunnelPayloadDispatcher.Builder()
+            .route(ONION_TUNNEL_CONNECT, TunnelConnect::fromBytes,
+                new TunnelConnectHandler(routingContext, clientChannelFactory))
+            .route(ONION_TUNNEL_DATUM, TunnelDatum::fromBytes, datumHandler)
+            .route(ONION_TUNNEL_COVER, TunnelDatum::fromBytes, datumHandler)
+            .build();
+
+        this.helloHandler = new LinkHelloHandler(SUPPORTED_CELL_SIZES, preferredCellSize);
+        this.dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_RETIRE, in -> TunnelRetireMessage.fromBytes(in.nioBuffer()),
+                new TunnelRetireHandler(routingContext, reassemblyContext, cryptoContext, onionAuthorizer))
+            .route(ONION_TUNNEL_EXTEND, in -> TunnelExtendMessage.fromBytes(in.nioBuffer()),
+                new TunnelExtendHandler(routingContext, onionAuthorizer, eventBus))
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom,
+                new TunnelRelayHandler(onionAuthorizer, cryptoContext, cellPadding, payloadDispatcher))
+            .build();
     }
 
     public CompletableFuture<Channel> bind(InetSocketAddress socketAddress) {
@@ -87,14 +130,7 @@ public class ServerChannelFactory extends ChannelFactory<ServerChannel> {
     }
 
     private ChannelInitializer serverPipeline() {
-        return messagingChannel(pipe -> {
-            pipe.addLast(new TunnelRetireHandler(routingContext));
-            pipe.addLast(new TunnelRelayHandler(onionAuthorizer, routingContext));
-            pipe.addLast(new TunnelConnectHandler(routingContext, clientChannelFactory));
-            pipe.addLast(new TunnelExtendHandler(routingContext, onionAuthorizer, eventBus));
-            pipe.addLast(new TunnelDatumHandler(eventBus));
-
-        });
+        return messagingChannel(helloHandler, dispatcher);
     }
 
     @Override
@@ -110,6 +146,7 @@ public class ServerChannelFactory extends ChannelFactory<ServerChannel> {
         private static final Class<? extends ServerChannel> DEFAULT_CHANNEL = NioServerSocketChannel.class;
         private static final Map<ChannelOption, Object> DEFAULT_CHANNEL_OPTS = new HashMap<ChannelOption, Object>() {{
             put(ChannelOption.SO_KEEPALIVE, true);
+            put(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
         }};
 
         private EventLoopGroup bossEventLoop = DEFAULT_BOSS_EVENT_LOOP;
@@ -123,9 +160,14 @@ public class ServerChannelFactory extends ChannelFactory<ServerChannel> {
         private OnionAuthorizer onionAuthorizer;
         private RoutingContext routingContext;
         public OriginatorContext originatorContext;
+        private CryptoContext cryptoContext = CryptoContext.direct();
 
         private EventBus eventBus;
 
+        private CellPadding cellPadding = CellPaddings.defaultPadding();
+        private CellSize preferredCellSize = CellSize.DEFAULT;
+        private DatumIntegrity datumIntegrity = DatumIntegrity.DEFAULT;
+
         private LogLevel loggerLevel;
 
         public Builder bossEventLoop(EventLoopGroup bossEventLoop) {
@@ -168,11 +210,31 @@ public class ServerChannelFactory extends ChannelFactory<ServerChannel> {
             return this;
         }
 
+        public Builder cryptoContext(CryptoContext cryptoContext) {
+            this.cryptoContext = cryptoContext;
+            return this;
+        }
+
         public Builder eventBus(EventBus eventBus) {
             this.eventBus = eventBus;
             return this;
         }
 
+        public Builder cellPadding(CellPadding cellPadding) {
+            this.cellPadding = cellPadding;
+            return this;
+        }
+
+        public Builder preferredCellSize(CellSize preferredCellSize) {
+            this.preferredCellSize = preferredCellSize;
+            return this;
+        }
+
+        public Builder datumIntegrity(DatumIntegrity datumIntegrity) {
+            this.datumIntegrity = datumIntegrity;
+            return this;
+        }
+
         public Builder loggerLevel(LogLevel loggerLevel) {
             this.loggerLevel = loggerLevel;
             return this;
@@ -0,0 +1,167 @@
+package de.tum.p2p.onion.forwarding.netty.channel;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+import lombok.val;
+
+import java.util.Collection;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code WriteCoalescer} batches writes to a channel and issues a single flush per
+ * event loop tick instead of flushing every cell separately. All writers of a channel
+ * (e.g. tunnels sharing the same entry channel) share one coalescer, so their cells
+ * end up in one flush too, which transports turn into a single gathering write.
+ * <p>
+ * Writes are performed on the channel's event loop; the flush is scheduled as the
+ * next task of the event loop, i.e. after all writes already queued to it.
+ * Failed writes fail the returned future and are fired through the channel's
+ * pipeline as {@code exceptionCaught}, so they are never lost silently.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public final class WriteCoalescer {
+
+    private static final AttributeKey<WriteCoalescer> WRITE_COALESCER
+        = AttributeKey.valueOf(WriteCoalescer.class, "WRITE_COALESCER");
+
+    private final Channel channel;
+    private final EventLoop eventLoop;
+
+    private final Runnable flushTask = this::flush;
+
+    /**
+     * Whether the flush has been scheduled but not executed yet.
+     * Accessed from channel's event loop only.
+     */
+    private boolean flushScheduled;
+
+    private WriteCoalescer(Channel channel) {
+        this.channel = notNull(channel);
+        this.eventLoop = channel.eventLoop();
+    }
+
+    /**
+     * Returns a coalescer of the given channel, creating one if needed
+     *
+     * @param channel a channel to write to
+     * @return channel's coalescer
+     */
+    public static WriteCoalescer of(Channel channel) {
+        val coalescerAttr = channel.attr(WRITE_COALESCER);
+
+        val coalescer = coalescerAttr.get();
+        if (coalescer != null)
+            return coalescer;
+
+        val newCoalescer = new WriteCoalescer(channel);
+        val existingCoalescer = coalescerAttr.setIfAbsent(newCoalescer);
+
+        return existingCoalescer != null ? existingCoalescer : newCoalescer;
+    }
+
+    /**
+     * Writes a message to the channel and schedules a flush
+     *
+     * @param msg a message to write
+     * @return a future of the write
+     */
+    public ChannelFuture write(Object msg) {
+        val promise = channel.newPromise();
+
+        if (eventLoop.inEventLoop()) {
+            doWrite(msg, promise);
+        } else {
+            eventLoop.execute(() -> doWrite(msg, promise));
+        }
+
+        return promise;
+    }
+
+    /**
+     * Writes all messages to the channel in iteration order within a single
+     * event loop task and schedules one flush for them
+     *
+     * @param msgs messages to write
+     * @return a future of all writes, failed with the cause of the first write failed
+     */
+    public ChannelFuture writeAll(Collection<?> msgs) {
+        val promise = channel.newPromise();
+
+        if (eventLoop.inEventLoop()) {
+            doWriteAll(msgs, promise);
+        } else {
+            eventLoop.execute(() -> doWriteAll(msgs, promise));
+        }
+
+        return promise;
+    }
+
+    private void doWrite(Object msg, ChannelPromise promise) {
+        channel.write(msg, promise).addListener(firingFailure());
+        scheduleFlush();
+    }
+
+    private void doWriteAll(Collection<?> msgs, ChannelPromise promise) {
+        if (msgs.isEmpty()) {
+            promise.setSuccess();
+            return;
+        }
+
+        val writesListener = new WritesListener(msgs.size(), promise);
+        for (val msg : msgs)
+            channel.write(msg).addListener(writesListener);
+
+        promise.addListener(firingFailure());
+        scheduleFlush();
+    }
+
+    private ChannelFutureListener firingFailure() {
+        return write -> {
+            if (!write.isSuccess())
+                channel.pipeline().fireExceptionCaught(write.cause());
+        };
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        eventLoop.execute(flushTask);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        channel.flush();
+    }
+
+    /**
+     * Completes the promise of a batch of writes once all of them are done.
+     * Notified on channel's event loop only.
+     */
+    private static final class WritesListener implements ChannelFutureListener {
+
+        private final ChannelPromise promise;
+        private int pending;
+
+        private WritesListener(int writes, ChannelPromise promise) {
+            this.pending = writes;
+            this.promise = promise;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture write) {
+            if (!write.isSuccess()) {
+                promise.tryFailure(write.cause());
+            } else if (--pending == 0) {
+                promise.trySuccess();
+            }
+        }
+    }
+}
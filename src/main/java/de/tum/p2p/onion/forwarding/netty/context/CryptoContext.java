@@ -0,0 +1,174 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.val;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code CryptoContext} decides where onion layers of tunnel cells are applied and
+ * peeled. By default ({@link #direct()}) crypto runs on the calling thread, i.e.
+ * on Netty's event loop of the channel the cell came from. A context created with
+ * {@link #offloaded(int, int)} moves crypto to a bounded pool of workers, so that
+ * a busy tunnel does not monopolize an event loop while other cores idle.
+ * <p>
+ * Crypto tasks of a tunnel run one after another in the order they were submitted,
+ * since onion authorizers with running keystreams require cells of a session to be
+ * layered and peeled in order. Cells must reach the wire in that order too, so a task
+ * may come with a completion consuming its result, e.g. writing cells to a channel,
+ * which runs on the given executor as part of the task: the next task of the tunnel
+ * starts only once the completion is over. Tasks of different tunnels run in parallel.
+ * Once the pool's queue is full, submitting threads run tasks themselves, which slows
+ * down reading from links instead of buffering cells without bounds.
+ * <p>
+ * A context keeps per tunnel state and is closed by its owner, so every onion
+ * forwarder gets a context of its own, direct ones included.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class CryptoContext implements Closeable {
+
+    private static final CompletableFuture<Void> DONE = completedFuture(null);
+    private static final Executor INLINE = Runnable::run;
+
+    private final ExecutorService workers;
+
+    /**
+     * The last task submitted for a tunnel, completed once the task and its completion
+     * are over. Removed as soon as the tunnel has no tasks in flight.
+     */
+    private final Map<TunnelId, CompletableFuture<Void>> tunnelTails = new ConcurrentHashMap<>();
+
+    private CryptoContext(ExecutorService workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Creates a context running crypto on the calling thread
+     *
+     * @return a new context with no workers
+     */
+    public static CryptoContext direct() {
+        return new CryptoContext(null);
+    }
+
+    /**
+     * Creates a context running crypto on a dedicated pool of workers
+     *
+     * @param threads       amount of worker threads, e.g. amount of cores
+     * @param queueCapacity amount of tunnel tasks waiting for a free worker
+     *                      before submitters start to run them on their own
+     * @return a context with its own pool of workers
+     */
+    public static CryptoContext offloaded(int threads, int queueCapacity) {
+        isTrue(threads > 0, "At least one crypto worker is required");
+        isTrue(queueCapacity > 0, "Crypto queue capacity must be positive");
+
+        return new CryptoContext(new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), new DefaultThreadFactory("onion-crypto", true),
+            new ThreadPoolExecutor.CallerRunsPolicy()));
+    }
+
+    public boolean isOffloaded() {
+        return workers != null;
+    }
+
+    /**
+     * Runs a crypto task after all tasks previously submitted for the same tunnel
+     *
+     * @param tunnelId a tunnel the task belongs to
+     * @param task     a task, e.g. {@code OnionAuthorizer#decrypt} call
+     * @param <T>      a type of task's result
+     * @return a future completed with task's result
+     */
+    public <T> CompletableFuture<T> execute(TunnelId tunnelId, Supplier<CompletableFuture<T>> task) {
+        return execute(tunnelId, task, INLINE, result -> { });
+    }
+
+    /**
+     * Runs a crypto task after all tasks previously submitted for the same tunnel and
+     * passes its result to {@code completion} on {@code executor}, e.g. the event loop of
+     * the channel cells are written to. The next task of the tunnel starts once the
+     * completion is over, so completions run in the order tasks were submitted. Completions
+     * are run right away if {@code executor} is the event loop the task is completed on.
+     *
+     * @param tunnelId   a tunnel the task belongs to
+     * @param task       a task, e.g. {@code OnionAuthorizer#decrypt} call
+     * @param executor   an executor to run the completion on
+     * @param completion a consumer of task's result
+     * @param <T>        a type of task's result
+     * @return a future completed with task's result once the completion is over, or
+     * exceptionally if either of them failed
+     */
+    public <T> CompletableFuture<T> execute(TunnelId tunnelId, Supplier<CompletableFuture<T>> task,
+                                            Executor executor, Consumer<? super T> completion) {
+        notNull(task);
+        notNull(completion);
+
+        val tail = new CompletableFuture<Void>();
+        val previous = tunnelTails.put(notNull(tunnelId), tail);
+        val start = previous != null ? previous : DONE;
+
+        val futureResult = isOffloaded()
+            ? start.thenComposeAsync(ignored -> task.get(), workers)
+            : start.thenCompose(ignored -> task.get());
+
+        val futureCompleted = futureResult.thenApplyAsync(result -> {
+            completion.accept(result);
+            return result;
+        }, inlineIfInEventLoop(notNull(executor)));
+
+        futureCompleted.whenComplete((result, cause) -> {
+            tunnelTails.remove(tunnelId, tail);
+            tail.complete(null);
+        });
+
+        return futureCompleted;
+    }
+
+    public void forget(TunnelId tunnelId) {
+        tunnelTails.remove(tunnelId);
+    }
+
+    @Override
+    public void close() {
+        tunnelTails.clear();
+
+        if (isOffloaded())
+            workers.shutdown();
+    }
+
+    /**
+     * @return an executor running tasks right away if it's called from the event
+     * loop {@code executor} is, or submitting them to {@code executor} otherwise
+     */
+    private static Executor inlineIfInEventLoop(Executor executor) {
+        if (!(executor instanceof EventExecutor))
+            return executor;
+
+        val eventLoop = (EventExecutor) executor;
+        return command -> {
+            if (eventLoop.inEventLoop()) {
+                command.run();
+            } else {
+                eventLoop.execute(command);
+            }
+        };
+    }
+}
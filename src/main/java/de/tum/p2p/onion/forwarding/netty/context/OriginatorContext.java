@@ -1,16 +1,17 @@
 package de.tum.p2p.onion.forwarding.netty.context;
 
+import de.tum.p2p.onion.auth.LayeredKeystream;
 import de.tum.p2p.onion.auth.SessionId;
 import de.tum.p2p.onion.forwarding.TunnelId;
 import io.netty.channel.Channel;
-import lombok.AllArgsConstructor;
-import lombok.EqualsAndHashCode;
 import lombok.val;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.*;
+import java.util.List;
+import java.util.Set;
 
+import static java.util.stream.Collectors.toSet;
 import static org.apache.commons.lang3.Validate.notEmpty;
 import static org.apache.commons.lang3.Validate.notNull;
 
@@ -18,90 +19,127 @@ import static org.apache.commons.lang3.Validate.notNull;
  * {@code OriginatorContext} holds information about created tunnel
  * and theirs entry {@link Channel} where {@code OnionForwarder} can
  * forward data
+ * <p>
+ * Tunnels are described by immutable {@link TunnelDescriptor}s kept in a
+ * {@link TunnelTable} keyed by raw tunnel ids. A tunnel is registered with its
+ * entry channel as soon as it is connected and published once, with sessions
+ * of all its hops, when it has been built. Data forwarding looks the descriptor
+ * up without locking, boxing or copying and uses it as is.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 public class OriginatorContext implements Closeable {
 
-    private final Map<TunnelId, Tunnel> tunnels = new HashMap<>();
+    private final TunnelTable<TunnelDescriptor> tunnels = new TunnelTable<>();
 
-    public void serve(TunnelId tunnelId, Channel entry, List<SessionId> sessionIds) {
-        if (!tunnels.containsKey(tunnelId)) {
-            tunnels.put(tunnelId, new Tunnel(notNull(entry), sessionIds));
-            return;
-        }
+    /**
+     * Registers a tunnel being built via the {@code entry} channel
+     */
+    public void serve(TunnelId tunnelId, Channel entry) {
+        notNull(entry);
 
-        val oldTunnel = tunnels.get(tunnelId);
-        oldTunnel.sessionIds = notEmpty(sessionIds);
-    }
+        val rawTunnelId = tunnelId.raw();
+        tunnels.update(rawTunnelId, tunnel -> {
+            if (tunnel != null)
+                throw new IllegalArgumentException("Tunnel " + tunnelId + " is already served");
 
-    public void serve(TunnelId tunnelId, Channel entry) {
-        serve(tunnelId, entry, new ArrayList<>());
+            return TunnelDescriptor.building(rawTunnelId, entry);
+        });
     }
 
-    public boolean serves(TunnelId tunnelId) {
-        return tunnels.containsKey(tunnelId);
+    /**
+     * Publishes the built tunnel along with sessions of its hops, so that data can be
+     * forwarded via it. Once set, the keystream must be used for all data sent via
+     * the tunnel. The keystream is closed as soon as the tunnel is forgotten.
+     *
+     * @param sessionIds sessions of all hops, starting with the entry peer
+     * @param keystream  a combined keystream of all sessions, or null if data is
+     *                   layered by {@link de.tum.p2p.onion.auth.OnionAuthorizer}
+     *                   session by session
+     */
+    public void publish(TunnelId tunnelId, List<SessionId> sessionIds, LayeredKeystream keystream) {
+        notEmpty(sessionIds);
+
+        tunnels.update(tunnelId.raw(), tunnel -> {
+            if (tunnel == null)
+                throw new IllegalArgumentException("No tunnel found");
+            if (tunnel.isBuilt())
+                throw new IllegalStateException("Tunnel " + tunnelId + " has already been published");
+
+            return tunnel.built(sessionIds, keystream);
+        });
     }
 
-    public void appendSession(TunnelId tunnelId, SessionId sessionId) {
-        if (tunnels.containsKey(tunnelId))
-            throw new IllegalArgumentException("No tunnel found");
-
-        tunnels.get(tunnelId).sessionIds.add(sessionId);
+    /**
+     * @return a descriptor of the tunnel, or null if there is none
+     */
+    public TunnelDescriptor tunnel(TunnelId tunnelId) {
+        return tunnels.get(tunnelId.raw());
     }
 
-    public void appendSession(TunnelId tunnelId, List<SessionId> sessionIds) {
-        if (!tunnels.containsKey(tunnelId))
-            throw new IllegalArgumentException("No tunnel found");
-
-        tunnels.get(tunnelId).sessionIds.addAll(sessionIds);
+    public boolean serves(TunnelId tunnelId) {
+        return tunnel(tunnelId) != null;
     }
 
     public Channel entry(TunnelId tunnelId) {
-        val tunnel = tunnels.get(tunnelId);
+        val tunnel = tunnel(tunnelId);
         if (tunnel == null)
             return null;
 
-        return tunnel.entry;
+        return tunnel.entry();
     }
 
     public List<SessionId> sessionIds(TunnelId tunnelId) {
-        val tunnel = tunnels.get(tunnelId);
+        val tunnel = tunnel(tunnelId);
         if (tunnel == null)
             return null;
 
-        return tunnel.sessionIds;
+        return tunnel.sessionIds();
     }
 
+    /**
+     * @return a combined keystream of the tunnel, or null if data is layered
+     * by {@link de.tum.p2p.onion.auth.OnionAuthorizer} session by session
+     */
+    public LayeredKeystream keystream(TunnelId tunnelId) {
+        val tunnel = tunnel(tunnelId);
+        if (tunnel == null)
+            return null;
+
+        return tunnel.keystream();
+    }
+
+    /**
+     * @return a snapshot of ids of tunnels served
+     */
     public Set<TunnelId> tunnels() {
-        return tunnels.keySet();
+        return tunnels.entries().stream()
+            .map(tunnel -> TunnelId.wrap(tunnel.tunnelId()))
+            .collect(toSet());
     }
 
     public boolean isEmpty() {
-        return tunnels.isEmpty();
+        return tunnels.size() == 0;
     }
 
     @Override
     public void close() throws IOException {
-        for (val tunnelId : tunnels.keySet()) {
-            forget(tunnelId);
+        for (val tunnel : tunnels.clear()) {
+            closeTunnel(tunnel);
         }
     }
 
     public void forget(TunnelId tunnelId) {
-        val removedTunnel = tunnels.remove(tunnelId);
-        closeTunnel(removedTunnel);
+        val removedTunnel = tunnels.update(tunnelId.raw(), tunnel -> null);
+        if (removedTunnel != null)
+            closeTunnel(removedTunnel);
     }
 
-    private void closeTunnel(Tunnel tunnel) {
-        tunnel.entry.disconnect().syncUninterruptibly();
-        tunnel.entry.close().syncUninterruptibly();
-    }
+    private void closeTunnel(TunnelDescriptor tunnel) {
+        if (tunnel.keystream() != null)
+            tunnel.keystream().close();
 
-    @EqualsAndHashCode
-    @AllArgsConstructor
-    private static final class Tunnel {
-        private Channel entry;
-        private List<SessionId> sessionIds;
+        tunnel.entry().disconnect().syncUninterruptibly();
+        tunnel.entry().close().syncUninterruptibly();
     }
 }
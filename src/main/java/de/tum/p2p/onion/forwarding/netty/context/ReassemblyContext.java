@@ -0,0 +1,260 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.forwarding.OnionDataForwardingException;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import lombok.experimental.var;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code ReassemblyContext} buffers fragments of {@link TunnelDatum}s split by
+ * {@link de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatumFactory}
+ * until all fragments of a message arrived at the destination.
+ * <p>
+ * The buffer is bounded: a tunnel can have at most {@code maxPendingMessages} messages
+ * being reassembled (the oldest one is dropped on overflow), a message can't have more
+ * than {@code maxFragments} fragments and incomplete messages older than {@code timeout}
+ * are evicted. Reassemblies of a tunnel are kept in the order they've started, so
+ * expired ones are evicted from the head whenever a fragment of the tunnel arrives;
+ * tunnels that stopped receiving fragments are swept at most once per timeout.
+ * <p>
+ * Tunnels are reassembled independently: each tunnel's reassemblies are guarded by
+ * their own lock, so event loops receiving data of different tunnels don't contend.
+ * A message's state is dropped as soon as it's complete, dropped or evicted.
+ * <p>
+ * By default messages of up to {@link TunnelDatum#MAX_FRAGMENTS} are accepted,
+ * i.e. anything {@link de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatumFactory}
+ * is allowed to send.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Slf4j
+public class ReassemblyContext {
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 16;
+    public static final int DEFAULT_MAX_FRAGMENTS = TunnelDatum.MAX_FRAGMENTS;
+
+    private final long timeoutNanos;
+    private final int maxPendingMessages;
+    private final int maxFragments;
+
+    private final Map<TunnelId, TunnelReassemblies> reassemblies = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextSweepAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param timeout            positive time incomplete messages are kept for
+     * @param maxPendingMessages amount of messages a tunnel may reassemble at once
+     * @param maxFragments       amount of fragments a message may have
+     */
+    public ReassemblyContext(Duration timeout, int maxPendingMessages, int maxFragments) {
+        isTrue(!notNull(timeout).isNegative() && !timeout.isZero(), "Timeout must be positive");
+        isTrue(maxPendingMessages > 0, "Max pending messages must be positive");
+        isTrue(maxFragments > 0, "Max fragments must be positive");
+
+        this.timeoutNanos = timeout.toNanos();
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxFragments = maxFragments;
+    }
+
+    public ReassemblyContext() {
+        this(DEFAULT_TIMEOUT, DEFAULT_MAX_PENDING_MESSAGES, DEFAULT_MAX_FRAGMENTS);
+    }
+
+    /**
+     * Accepts a datum fragment and returns the original message once the last of its
+     * fragments arrives. Unfragmented datum is returned immediately without copying.
+     *
+     * @param tunnelId a tunnel the datum came from
+     * @param datum    a datum fragment
+     * @return reassembled message data or empty if fragments are still missing
+     * @throws OnionDataForwardingException if the fragment is inconsistent with the
+     *                                      ones received before or the message is too big
+     */
+    public Optional<ByteBuffer> reassemble(TunnelId tunnelId, TunnelDatum datum) {
+        if (!datum.isFragmented())
+            return Optional.of(ByteBuffer.wrap(datum.payload()));
+
+        if (datum.fragmentCount() > maxFragments)
+            throw new OnionDataForwardingException("Failed to reassemble datum - message has " +
+                datum.fragmentCount() + " fragments, max = " + maxFragments);
+
+        val now = System.nanoTime();
+        sweepExpired(now);
+
+        while (true) {
+            val tunnelReassemblies = reassemblies.computeIfAbsent(tunnelId, TunnelReassemblies::new);
+
+            synchronized (tunnelReassemblies) {
+                // Removed once it had nothing left to reassemble, a fresh one is needed
+                if (tunnelReassemblies.removed)
+                    continue;
+
+                return tunnelReassemblies.reassemble(datum, now);
+            }
+        }
+    }
+
+    public void forget(TunnelId tunnelId) {
+        val tunnelReassemblies = reassemblies.remove(tunnelId);
+        if (tunnelReassemblies == null)
+            return;
+
+        synchronized (tunnelReassemblies) {
+            tunnelReassemblies.removed = true;
+            tunnelReassemblies.messages.clear();
+        }
+    }
+
+    /**
+     * @return amount of messages being reassembled across all tunnels
+     */
+    public int pending() {
+        int pending = 0;
+        for (val tunnelReassemblies : reassemblies.values()) {
+            synchronized (tunnelReassemblies) {
+                pending += tunnelReassemblies.messages.size();
+            }
+        }
+
+        return pending;
+    }
+
+    /**
+     * Evicts expired reassemblies of all tunnels, if a timeout passed since the last sweep
+     */
+    private void sweepExpired(long now) {
+        val sweepAt = nextSweepAt.get();
+        if (now - sweepAt < 0 || !nextSweepAt.compareAndSet(sweepAt, now + timeoutNanos))
+            return;
+
+        for (val tunnelReassemblies : reassemblies.values()) {
+            synchronized (tunnelReassemblies) {
+                tunnelReassemblies.evictExpired(now);
+                tunnelReassemblies.removeIfEmpty();
+            }
+        }
+    }
+
+    /**
+     * Messages of a tunnel being reassembled, in the order they've started. Guarded by itself.
+     */
+    private final class TunnelReassemblies {
+
+        private final TunnelId tunnelId;
+        private final LinkedHashMap<Integer, Reassembly> messages = new LinkedHashMap<>();
+
+        private boolean removed;
+
+        private TunnelReassemblies(TunnelId tunnelId) {
+            this.tunnelId = tunnelId;
+        }
+
+        private Optional<ByteBuffer> reassemble(TunnelDatum datum, long now) {
+            evictExpired(now);
+
+            var reassembly = messages.get(datum.messageId());
+            if (reassembly == null) {
+                if (messages.size() >= maxPendingMessages) {
+                    val oldestMessageId = messages.keySet().iterator().next();
+                    messages.remove(oldestMessageId);
+
+                    log.warn("Too many messages are being reassembled in tunnel {}, message {} dropped",
+                        tunnelId, oldestMessageId);
+                }
+
+                reassembly = new Reassembly(datum.fragmentCount(), now);
+                messages.put(datum.messageId(), reassembly);
+            }
+
+            if (!reassembly.accept(datum)) {
+                forget(datum.messageId());
+                throw new OnionDataForwardingException("Failed to reassemble datum - fragment " +
+                    datum.fragmentIndex() + "/" + datum.fragmentCount() + " of message " + datum.messageId() +
+                    " is duplicated or inconsistent");
+            }
+
+            if (!reassembly.isComplete())
+                return Optional.empty();
+
+            forget(datum.messageId());
+            return Optional.of(reassembly.gather());
+        }
+
+        private void evictExpired(long now) {
+            val iterator = messages.entrySet().iterator();
+            while (iterator.hasNext()) {
+                val message = iterator.next();
+                if (now - message.getValue().startedAt < timeoutNanos)
+                    break;
+
+                iterator.remove();
+                log.debug("Reassembly of message {} in tunnel {} has timed out", message.getKey(), tunnelId);
+            }
+        }
+
+        private void forget(int messageId) {
+            messages.remove(messageId);
+            removeIfEmpty();
+        }
+
+        private void removeIfEmpty() {
+            if (!messages.isEmpty() || removed)
+                return;
+
+            removed = true;
+            reassemblies.remove(tunnelId, this);
+        }
+    }
+
+    private static final class Reassembly {
+
+        private final byte[][] fragments;
+        private final long startedAt;
+
+        private int received;
+        private int receivedBytes;
+
+        private Reassembly(int fragmentCount, long startedAt) {
+            this.fragments = new byte[fragmentCount][];
+            this.startedAt = startedAt;
+        }
+
+        private boolean accept(TunnelDatum datum) {
+            if (datum.fragmentCount() != fragments.length || fragments[datum.fragmentIndex()] != null)
+                return false;
+
+            fragments[datum.fragmentIndex()] = datum.payload();
+            received++;
+            receivedBytes += datum.payload().length;
+
+            return true;
+        }
+
+        private boolean isComplete() {
+            return received == fragments.length;
+        }
+
+        private ByteBuffer gather() {
+            val message = ByteBuffer.allocate(receivedBytes);
+            for (val fragment : fragments)
+                message.put(fragment);
+
+            message.flip();
+            return message;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.SessionId;
+import io.netty.channel.Channel;
+
+/**
+ * {@code Route} is an immutable snapshot of a tunnel's route in {@link TunnelTable}.
+ * Updates copy the route, so that relays always see a route as a whole,
+ * never half-updated.
+ * <p>
+ * Tunnel ids are link-local: {@code tunnelId} is the id the relay has assigned to
+ * the tunnel and uses on the next link, {@code prevTunnelId} is the id the previous
+ * hop uses for the tunnel on the previous link.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+final class Route implements TunnelTable.Entry {
+
+    final int tunnelId;
+
+    final Channel next;
+    final Channel prev;
+    final int prevTunnelId;
+    final SessionId sessionId;
+    final LayeredKeystream keystream;
+
+    Route(int tunnelId, Channel next, Channel prev, int prevTunnelId, SessionId sessionId,
+          LayeredKeystream keystream) {
+        this.tunnelId = tunnelId;
+        this.next = next;
+        this.prev = prev;
+        this.prevTunnelId = prevTunnelId;
+        this.sessionId = sessionId;
+        this.keystream = keystream;
+    }
+
+    /**
+     * @return a copy of the route with non null hops and session id replaced
+     */
+    Route with(Channel next, Channel prev, SessionId sessionId) {
+        return new Route(tunnelId,
+            next != null ? next : this.next,
+            prev != null ? prev : this.prev,
+            prevTunnelId,
+            sessionId != null ? sessionId : this.sessionId,
+            keystream);
+    }
+
+    Route withKeystream(LayeredKeystream keystream) {
+        return new Route(tunnelId, next, prev, prevTunnelId, sessionId, keystream);
+    }
+
+    @Override
+    public int tunnelId() {
+        return tunnelId;
+    }
+}
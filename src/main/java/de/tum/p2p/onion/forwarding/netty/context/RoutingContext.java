@@ -1,75 +1,127 @@
 package de.tum.p2p.onion.forwarding.netty.context;
 
+import de.tum.p2p.onion.auth.LayeredKeystream;
 import de.tum.p2p.onion.auth.SessionId;
 import de.tum.p2p.onion.forwarding.TunnelId;
 import io.netty.channel.Channel;
-import lombok.AllArgsConstructor;
-import lombok.EqualsAndHashCode;
+import lombok.experimental.var;
 import lombok.val;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import static org.apache.commons.lang3.ObjectUtils.anyNotNull;
+import static org.apache.commons.lang3.Validate.notNull;
 
 /**
  * {@code RoutingContext} is a routing table of onions and contains
  * previous and next hops {@link Channel}s mapped to corresponding
  * {@link TunnelId}
+ * <p>
+ * Routes are built and retired by handlers running on different event loops
+ * and are looked up by every relayed cell, so the context is thread-safe:
+ * routes are kept in a {@link TunnelTable} keyed by raw tunnel ids, lookups
+ * are lock-free and don't allocate, and every update of a route is atomic.
+ * <p>
+ * Tunnel ids are link-local, i.e. every hop assigns its own id to a tunnel
+ * and uses it on the link to the next hop, so that tunnels of originators
+ * that happen to pick the same id never overwrite each other's routes.
+ * Routes are keyed by ids assigned by this onion, see {@link #serveIncoming(Channel, TunnelId)}.
+ * <p>
+ * Links are shared by tunnels, so the context counts routes using every link
+ * and closes a link only once the last route using it is forgotten.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 public final class RoutingContext implements Closeable {
 
-    private final Map<TunnelId, Route> routes = new HashMap<>();
+    private final TunnelTable<Route> routes = new TunnelTable<>();
+
+    /**
+     * Amount of routes using a link, as previous or next hop
+     */
+    private final ConcurrentMap<Channel, Integer> linkRoutes = new ConcurrentHashMap<>();
 
     public void serve(TunnelId tunnelId, Channel next, Channel prev, SessionId sessionId) {
-        if (!routes.containsKey(tunnelId)) {
-            routes.put(tunnelId, new Route(next, prev, sessionId));
-            return;
+        val rawTunnelId = tunnelId.raw();
+
+        val oldRoute = routes.update(rawTunnelId, route -> linked(route, route == null
+            ? new Route(rawTunnelId, next, prev, rawTunnelId, sessionId, null)
+            : route.with(next, prev, sessionId)));
+
+        if (oldRoute != null) {
+            if (next != null && oldRoute.next != next)
+                unlink(oldRoute.next);
+            if (prev != null && oldRoute.prev != prev)
+                unlink(oldRoute.prev);
         }
+    }
 
-        if (anyNotNull(next, prev, sessionId)) {
-            val oldRoute = routes.get(tunnelId);
-            if (next != null) {
-                oldRoute.next = next;
-            } else if (prev != null) {
-                oldRoute.prev = prev;
-            } else if (sessionId != null) {
-                oldRoute.sessionId = sessionId;
-            }
+    /**
+     * Starts routing a tunnel entering via {@code prev} under {@code prevTunnelId}, the id
+     * the previous hop uses for the tunnel. The onion keeps the previous hop's id for the
+     * route if no other route uses it, otherwise it assigns an unused random id.
+     *
+     * @return id of the route, the tunnel is known by on the link to the next hop
+     */
+    public TunnelId serveIncoming(Channel prev, TunnelId prevTunnelId) {
+        notNull(prev);
+
+        var rawTunnelId = prevTunnelId.raw();
+        while (true) {
+            val candidateTunnelId = rawTunnelId;
+
+            val existingRoute = routes.update(candidateTunnelId, route -> route != null
+                ? route
+                : linked(null, new Route(candidateTunnelId, null, prev, prevTunnelId.raw(), null, null)));
+
+            if (existingRoute == null)
+                return TunnelId.wrap(candidateTunnelId);
+
+            rawTunnelId = TunnelId.random().raw();
         }
     }
 
     public void forget(TunnelId tunnelId) {
-        val removedRoute = routes.remove(tunnelId);
-        closeRoute(removedRoute);
+        val removedRoute = routes.update(tunnelId.raw(), route -> null);
+        if (removedRoute != null)
+            closeRoute(removedRoute);
     }
 
     public boolean serves(TunnelId tunnelId) {
-        return routes.containsKey(tunnelId);
+        return routes.get(tunnelId.raw()) != null;
     }
 
     public boolean hasPrevHop(TunnelId tunnelId) {
-        return routes.containsKey(tunnelId) && routes.get(tunnelId).prev != null;
+        return prevHop(tunnelId) != null;
     }
 
     public Channel prevHop(TunnelId tunnelId) {
-        val route = routes.get(tunnelId);
+        val route = routes.get(tunnelId.raw());
         if (route == null)
             return null;
 
         return route.prev;
     }
 
+    /**
+     * @return id the previous hop uses for the tunnel, or null if there is no route
+     */
+    public TunnelId prevTunnelId(TunnelId tunnelId) {
+        val route = routes.get(tunnelId.raw());
+        if (route == null)
+            return null;
+
+        return TunnelId.wrap(route.prevTunnelId);
+    }
+
     public boolean hasNextHop(TunnelId tunnelId) {
-        return routes.containsKey(tunnelId) && routes.get(tunnelId).next != null;
+        return nextHop(tunnelId) != null;
     }
 
     public Channel nextHop(TunnelId tunnelId) {
-        val route = routes.get(tunnelId);
+        val route = routes.get(tunnelId.raw());
         if (route == null)
             return null;
 
@@ -77,7 +129,7 @@ public final class RoutingContext implements Closeable {
     }
 
     public SessionId sessionId(TunnelId tunnelId) {
-        val route = routes.get(tunnelId);
+        val route = routes.get(tunnelId.raw());
         if (route == null)
             return null;
 
@@ -85,7 +137,7 @@ public final class RoutingContext implements Closeable {
     }
 
     public boolean hasSessionId(TunnelId tunnelId) {
-        return routes.containsKey(tunnelId) && routes.get(tunnelId).sessionId != null;
+        return sessionId(tunnelId) != null;
     }
 
     public void setNextHop(TunnelId tunnelId, Channel next) {
@@ -100,31 +152,93 @@ public final class RoutingContext implements Closeable {
         serve(tunnelId, null, null, sessionId);
     }
 
-    private void closeRoute(Route route) {
-        closeChannel(route.next);
-        closeChannel(route.prev);
+    /**
+     * Remembers a keystream of the tunnel's session, so that relays are peeled
+     * with it from now on. The keystream is closed as soon as the tunnel is
+     * forgotten or another keystream is set.
+     */
+    public void setKeystream(TunnelId tunnelId, LayeredKeystream keystream) {
+        notNull(keystream);
+
+        val oldRoute = routes.update(tunnelId.raw(), route -> {
+            if (route == null)
+                throw new IllegalArgumentException("No route found");
+
+            return route.withKeystream(keystream);
+        });
+
+        if (oldRoute.keystream != null)
+            oldRoute.keystream.close();
     }
 
-    private void closeChannel(Channel channel) {
-        if (channel == null)
+    /**
+     * @return a keystream of the tunnel's session, or null if relays are peeled
+     * by {@link de.tum.p2p.onion.auth.OnionAuthorizer}
+     */
+    public LayeredKeystream keystream(TunnelId tunnelId) {
+        val route = routes.get(tunnelId.raw());
+        if (route == null)
+            return null;
+
+        return route.keystream;
+    }
+
+    /**
+     * @return amount of tunnels routed
+     */
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * @return amount of routes using the link
+     */
+    public int routesVia(Channel link) {
+        return linkRoutes.getOrDefault(link, 0);
+    }
+
+    /**
+     * Counts links of the {@code updated} route that the {@code route} it
+     * replaces didn't use. Called within the update of the route.
+     */
+    private Route linked(Route route, Route updated) {
+        if (updated.next != null && (route == null || route.next != updated.next))
+            linkRoutes.merge(updated.next, 1, Integer::sum);
+        if (updated.prev != null && (route == null || route.prev != updated.prev))
+            linkRoutes.merge(updated.prev, 1, Integer::sum);
+
+        return updated;
+    }
+
+    /**
+     * Uncounts a route using the link and closes the link if it was the last one
+     */
+    private void unlink(Channel link) {
+        if (link == null)
             return;
 
+        val routesLeft = linkRoutes.compute(link, (ignored, count) -> count == null || count <= 1 ? null : count - 1);
+        if (routesLeft == null)
+            closeChannel(link);
+    }
+
+    private void closeRoute(Route route) {
+        if (route.keystream != null)
+            route.keystream.close();
+
+        unlink(route.next);
+        unlink(route.prev);
+    }
+
+    private void closeChannel(Channel channel) {
         channel.disconnect().syncUninterruptibly();
         channel.close().syncUninterruptibly();
     }
 
     @Override
     public void close() throws IOException {
-        for (val tunnelId : routes.keySet()) {
-            forget(tunnelId);
+        for (val route : routes.clear()) {
+            closeRoute(route);
         }
     }
-
-    @EqualsAndHashCode
-    @AllArgsConstructor
-    private static final class Route {
-        private Channel next;
-        private Channel prev;
-        private SessionId sessionId;
-    }
 }
@@ -0,0 +1,102 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.SessionId;
+import io.netty.channel.Channel;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code TunnelDescriptor} is an immutable description of a tunnel created by the
+ * onion: its entry {@link Channel}, sessions of its hops in the order of hops and
+ * a combined {@link LayeredKeystream} of the sessions, if the authorizer provides one.
+ * <p>
+ * A tunnel being built is described by its entry channel only. Once built, the tunnel
+ * is published by {@link OriginatorContext} as a new descriptor, which is never
+ * modified afterwards, so that data can be forwarded via the tunnel from any thread
+ * without locking or copying its sessions.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+public final class TunnelDescriptor implements TunnelTable.Entry {
+
+    private static final SessionId[] NO_SESSIONS = new SessionId[0];
+
+    private final int tunnelId;
+
+    @Getter
+    private final Channel entry;
+
+    private final SessionId[] sessionIds;
+
+    // Read only view of sessionIds handed out to callers
+    private final List<SessionId> sessionIdList;
+
+    /**
+     * A combined keystream of all hops' sessions, or null if data is layered by
+     * {@link de.tum.p2p.onion.auth.OnionAuthorizer} session by session
+     */
+    @Getter
+    private final LayeredKeystream keystream;
+
+    private TunnelDescriptor(int tunnelId, Channel entry, SessionId[] sessionIds, LayeredKeystream keystream) {
+        this.tunnelId = tunnelId;
+        this.entry = notNull(entry);
+        this.sessionIds = sessionIds;
+        this.sessionIdList = Collections.unmodifiableList(Arrays.asList(sessionIds));
+        this.keystream = keystream;
+    }
+
+    /**
+     * @return a descriptor of a tunnel that is being built via {@code entry}
+     */
+    static TunnelDescriptor building(int tunnelId, Channel entry) {
+        return new TunnelDescriptor(tunnelId, entry, NO_SESSIONS, null);
+    }
+
+    /**
+     * @return a descriptor of the tunnel built with the given sessions of its hops
+     */
+    TunnelDescriptor built(List<SessionId> sessionIds, LayeredKeystream keystream) {
+        return new TunnelDescriptor(tunnelId, entry, sessionIds.toArray(new SessionId[sessionIds.size()]),
+            keystream);
+    }
+
+    @Override
+    public int tunnelId() {
+        return tunnelId;
+    }
+
+    public boolean isBuilt() {
+        return sessionIds.length > 0;
+    }
+
+    /**
+     * @return amount of hops the tunnel passes, i.e. amount of layers data is wrapped in
+     */
+    public int hops() {
+        return sessionIds.length;
+    }
+
+    /**
+     * @param hop index of the hop, starting with the entry peer
+     * @return session of the hop
+     */
+    public SessionId sessionId(int hop) {
+        return sessionIds[hop];
+    }
+
+    /**
+     * @return sessions of all hops, starting with the entry peer. The list is read only.
+     */
+    public List<SessionId> sessionIds() {
+        return sessionIdList;
+    }
+}
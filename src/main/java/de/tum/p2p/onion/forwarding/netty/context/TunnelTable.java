@@ -0,0 +1,215 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@code TunnelTable} is a concurrent open-addressing hash table of immutable
+ * per tunnel entries (e.g. {@link Route}s or {@link TunnelDescriptor}s) keyed by
+ * raw {@code int} tunnel ids, so that lookups neither box ids nor allocate.
+ * <p>
+ * Lookups are lock-free and may run on any amount of threads: slots are probed
+ * linearly and hold immutable entries, so a reader sees either the previous or the
+ * updated entry. Updates are rare compared to lookups (tunnels are built and retired,
+ * cells are relayed), so they are serialized by a lock, which makes every update of
+ * an entry atomic. Removed entries leave tombstones behind to keep probe sequences
+ * intact; the table is rehashed into a fresh array once live entries and tombstones
+ * fill 3/4 of it, and the array is swapped only when fully built.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+final class TunnelTable<E extends TunnelTable.Entry> {
+
+    private static final int MIN_CAPACITY = 64;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    private static final Object TOMBSTONE = new Object();
+
+    private final Object updateLock = new Object();
+
+    private volatile AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(MIN_CAPACITY);
+
+    // Guarded by updateLock
+    private int size;
+    private int tombstones;
+
+    /**
+     * @return an entry of the tunnel, or null if there is none
+     */
+    E get(int tunnelId) {
+        val slots = this.slots;
+        val mask = slots.length() - 1;
+
+        for (int i = indexOf(tunnelId, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            val slot = slots.get(i);
+            if (slot == null)
+                return null;
+
+            if (slot != TOMBSTONE && entry(slot).tunnelId() == tunnelId)
+                return entry(slot);
+        }
+
+        return null;
+    }
+
+    /**
+     * Atomically replaces an entry of the tunnel with the one returned by {@code update}.
+     * {@code update} gets the current entry or null if there is none, and returns
+     * the new entry or null to remove it.
+     *
+     * @return the replaced entry or null if there were none
+     */
+    E update(int tunnelId, UnaryOperator<E> update) {
+        synchronized (updateLock) {
+            val slots = this.slots;
+            val mask = slots.length() - 1;
+
+            int free = -1;
+            int i = indexOf(tunnelId, mask);
+            for (int probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                val slot = slots.get(i);
+                if (slot == null)
+                    break;
+
+                if (slot == TOMBSTONE) {
+                    if (free < 0)
+                        free = i;
+                } else if (entry(slot).tunnelId() == tunnelId) {
+                    val entry = entry(slot);
+                    val updated = update.apply(entry);
+                    if (updated != null) {
+                        checkTunnelId(tunnelId, updated);
+                        slots.set(i, updated);
+                    } else {
+                        slots.set(i, TOMBSTONE);
+                        size--;
+                        tombstones++;
+                    }
+
+                    return entry;
+                }
+            }
+
+            val created = update.apply(null);
+            if (created == null)
+                return null;
+
+            checkTunnelId(tunnelId, created);
+            if (free >= 0) {
+                slots.set(free, created);
+                tombstones--;
+            } else {
+                slots.set(i, created);
+            }
+            size++;
+
+            if ((size + tombstones) * 4L > slots.length() * 3L)
+                rehash();
+
+            return null;
+        }
+    }
+
+    /**
+     * @return a snapshot of all entries
+     */
+    List<E> entries() {
+        synchronized (updateLock) {
+            return collect(slots, size);
+        }
+    }
+
+    /**
+     * Removes all entries at once
+     *
+     * @return removed entries
+     */
+    List<E> clear() {
+        synchronized (updateLock) {
+            val removed = collect(slots, size);
+
+            this.slots = new AtomicReferenceArray<>(MIN_CAPACITY);
+            size = 0;
+            tombstones = 0;
+
+            return removed;
+        }
+    }
+
+    int size() {
+        synchronized (updateLock) {
+            return size;
+        }
+    }
+
+    private void rehash() {
+        val slots = this.slots;
+        val rehashed = new AtomicReferenceArray<Object>(capacityFor(size));
+        val mask = rehashed.length() - 1;
+
+        for (int i = 0; i < slots.length(); i++) {
+            val slot = slots.get(i);
+            if (slot == null || slot == TOMBSTONE)
+                continue;
+
+            int j = indexOf(entry(slot).tunnelId(), mask);
+            while (rehashed.get(j) != null)
+                j = (j + 1) & mask;
+
+            rehashed.set(j, slot);
+        }
+
+        tombstones = 0;
+        this.slots = rehashed;
+    }
+
+    private List<E> collect(AtomicReferenceArray<Object> slots, int size) {
+        val entries = new ArrayList<E>(size);
+
+        for (int i = 0; i < slots.length(); i++) {
+            val slot = slots.get(i);
+            if (slot != null && slot != TOMBSTONE)
+                entries.add(entry(slot));
+        }
+
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E entry(Object slot) {
+        return (E) slot;
+    }
+
+    /**
+     * @return power of two capacity that keeps {@code size} entries at most half full
+     */
+    private static int capacityFor(int size) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(size * 2 - 1, 1)) << 1);
+    }
+
+    private static int indexOf(int tunnelId, int mask) {
+        val hash = tunnelId * GOLDEN_RATIO;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static void checkTunnelId(int tunnelId, Entry entry) {
+        if (entry.tunnelId() != tunnelId)
+            throw new IllegalArgumentException("Entry of tunnel " + entry.tunnelId()
+                + " can't be stored for tunnel " + tunnelId);
+    }
+
+    /**
+     * {@code Entry} is an immutable value of the table that knows the tunnel it belongs to
+     */
+    interface Entry {
+
+        /**
+         * @return raw id of the tunnel
+         */
+        int tunnelId();
+    }
+}
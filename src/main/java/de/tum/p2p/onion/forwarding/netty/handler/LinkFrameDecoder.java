@@ -0,0 +1,29 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * {@code LinkFrameDecoder} splits the inbound byte stream into fixed size cells
+ * like {@link io.netty.handler.codec.FixedLengthFrameDecoder} does, but takes the
+ * frame length from the link's negotiated cell size, so that it can change after
+ * the link hello exchange. Frames are emitted as retained slices without copying.
+ *
+ * @see Links#cellSize(io.netty.channel.Channel)
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class LinkFrameDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        int cellBytes = Links.cellBytes(ctx.channel());
+
+        if (in.readableBytes() >= cellBytes)
+            out.add(in.readRetainedSlice(cellBytes));
+    }
+}
@@ -0,0 +1,55 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.OnionTunnelingException;
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
+import de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.apache.commons.lang3.Validate.notEmpty;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code LinkHelloHandler} handles {@link LinkHelloMessage}s received by the
+ * accepting side of a link. It negotiates the cell size, responses with it in
+ * a cell of the current size and switches the link to the negotiated size.
+ *
+ * @see LinkHelloResponseHandler
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Slf4j
+public class LinkHelloHandler implements TunnelMessageHandler<LinkHelloMessage> {
+
+    private final Set<CellSize> supportedCellSizes;
+    private final CellSize preferredCellSize;
+
+    public LinkHelloHandler(Set<CellSize> supportedCellSizes, CellSize preferredCellSize) {
+        this.supportedCellSizes = EnumSet.copyOf(notEmpty(supportedCellSizes));
+        this.preferredCellSize = notNull(preferredCellSize);
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, LinkHelloMessage hello) throws Exception {
+        val cellSize = CellSize.negotiate(supportedCellSizes, preferredCellSize,
+            hello.supportedCellSizes(), hello.cellSize());
+
+        // Encoded synchronously in the current cell size as we are on the channel's event loop
+        ctx.writeAndFlush(new LinkHelloMessage(supportedCellSizes, cellSize))
+            .addListener((ChannelFutureListener) transfer -> {
+                if (!transfer.isSuccess())
+                    throw new OnionTunnelingException("Failed to response to link hello", transfer.cause());
+            });
+
+        Links.cellSize(ctx.channel(), cellSize);
+
+        log.debug("Link {} <- {} switched to {} byte cells", ctx.channel().localAddress(),
+            ctx.channel().remoteAddress(), cellSize.bytes());
+    }
+}
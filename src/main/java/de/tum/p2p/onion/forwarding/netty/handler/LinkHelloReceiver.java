@@ -0,0 +1,65 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TypedTunnelMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.DecoderException;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import static de.tum.p2p.proto.message.MessageType.ONION_LINK_HELLO;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code LinkHelloReceiver} accepts a {@link LinkHelloMessage} as the first frame of
+ * a link only. It passes the first frame to the given hello handler if it is a hello
+ * and removes itself from the pipeline right after, so that the cell size of the link
+ * can't be renegotiated once tunnels are using it. Later frames, including any
+ * further hello, go straight to {@link TunnelMessageDispatcher}, which has no route
+ * for hellos.
+ * <p>
+ * Unlike {@link TunnelMessageHandler}s, the receiver is bound to a single channel.
+ *
+ * @see LinkHelloHandler
+ * @see LinkHelloResponseHandler
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Slf4j
+public class LinkHelloReceiver extends ChannelInboundHandlerAdapter {
+
+    private final TunnelMessageHandler<? super LinkHelloMessage> helloHandler;
+
+    public LinkHelloReceiver(TunnelMessageHandler<? super LinkHelloMessage> helloHandler) {
+        this.helloHandler = notNull(helloHandler);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf) || TypedTunnelMessage.guessType((ByteBuf) msg) != ONION_LINK_HELLO) {
+            log.debug("Link {} <-> {} has started without hello", ctx.channel().localAddress(),
+                ctx.channel().remoteAddress());
+
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        val frame = (ByteBuf) msg;
+        try {
+            final LinkHelloMessage hello;
+            try {
+                hello = LinkHelloMessage.fromBytes(frame.nioBuffer());
+            } catch (RuntimeException e) {
+                throw new DecoderException("Failed to decode link hello", e);
+            }
+
+            helloHandler.handle(ctx, hello);
+        } finally {
+            frame.release();
+            ctx.pipeline().remove(this);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
+import de.tum.p2p.proto.message.onion.forwarding.CellSize;
+import de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.apache.commons.lang3.Validate.notEmpty;
+
+/**
+ * {@code LinkHelloResponseHandler} handles the {@link LinkHelloMessage} response
+ * received by the connecting side of a link. It switches the link to the cell size
+ * chosen by the accepting side and completes the pending link connection.
+ *
+ * @see LinkHelloHandler
+ * @see de.tum.p2p.onion.forwarding.netty.channel.ClientChannelFactory#connect(java.net.InetSocketAddress)
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Slf4j
+public class LinkHelloResponseHandler implements TunnelMessageHandler<LinkHelloMessage> {
+
+    private final Set<CellSize> supportedCellSizes;
+
+    public LinkHelloResponseHandler(Set<CellSize> supportedCellSizes) {
+        this.supportedCellSizes = EnumSet.copyOf(notEmpty(supportedCellSizes));
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, LinkHelloMessage helloResponse) throws Exception {
+        val cellSize = helloResponse.cellSize();
+
+        if (!supportedCellSizes.contains(cellSize)) {
+            log.error("Link {} -> {} has negotiated unsupported cell size {}, closing", ctx.channel().localAddress(),
+                ctx.channel().remoteAddress(), cellSize.bytes());
+            ctx.close();
+            return;
+        }
+
+        Links.cellSize(ctx.channel(), cellSize);
+
+        if (!Links.completeHello(ctx.channel()))
+            log.warn("Unexpected link hello response on {}", ctx.channel().localAddress());
+
+        log.debug("Link {} -> {} switched to {} byte cells", ctx.channel().localAddress(),
+            ctx.channel().remoteAddress(), cellSize.bytes());
+    }
+}
@@ -1,25 +1,33 @@
 package de.tum.p2p.onion.forwarding.netty.handler;
 
 import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.channel.CircuitTable;
 import de.tum.p2p.onion.forwarding.netty.channel.ClientChannelFactory;
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendMessage;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelConnect;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
-import org.apache.commons.lang3.tuple.Pair;
 
 /**
  * {@code TunnelConnectHandler} receives {@link TunnelConnect} payloads revealed
  * from {@code TunnelRelayMessage}, create a {@link TunnelExtendMessage}, connect
  * to the peer to be a new member of the tunnel and forwards the extend request.
+ * The new next hop is added to the tunnel's circuit in the {@link CircuitTable}
+ * of the channel the tunnel enters via, so further relays are propagated to it.
+ * The tunnel is known to the new peer by the id this onion has assigned to it.
+ * <p>
+ * All links of a circuit use the same cell size, the one of the entry link the originator
+ * chunks data for, so relays are never re-framed into cells of another size. The link to
+ * the new peer prefers the cell size of the link the tunnel enters via, and the tunnel
+ * isn't extended if the new peer negotiates a different one.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @Slf4j
-public class TunnelConnectHandler extends SimpleChannelInboundHandler<Pair<TunnelId, TunnelConnect>> {
+public class TunnelConnectHandler implements TunnelPayloadHandler<TunnelConnect> {
 
     private final RoutingContext routingContext;
     private final ClientChannelFactory clientChannelFactory;
@@ -30,13 +38,19 @@ public class TunnelConnectHandler extends SimpleChannelInboundHandler<Pair<Tunne
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, Pair<TunnelId, TunnelConnect> tunnelIdConnect)
-            throws Exception {
-        val tunnelId = tunnelIdConnect.getLeft();
-        val connect = tunnelIdConnect.getRight();
+    public void handle(ChannelHandlerContext ctx, TunnelId tunnelId, TunnelConnect connect) {
+        val circuitCellSize = Links.cellSize(ctx.channel());
+
+        clientChannelFactory.connect(connect.socketDestination(), circuitCellSize).thenAccept(channel -> {
+            if (Links.cellSize(channel) != circuitCellSize) {
+                log.error("Tunnel {} can't be extended to {} - link negotiated {} byte cells, circuit uses {} byte " +
+                    "cells", tunnelId, channel.remoteAddress(), Links.cellBytes(channel), circuitCellSize.bytes());
+                channel.close();
+                return;
+            }
 
-        clientChannelFactory.connect(connect.socketDestination()).thenAccept(channel -> {
             routingContext.setNextHop(tunnelId, channel);
+            CircuitTable.of(ctx.channel()).setNextHop(routingContext.prevTunnelId(tunnelId), channel, tunnelId);
 
             val extendMsg = new TunnelExtendMessage(tunnelId, connect.requestId(),
                 connect.sourceKey(), connect.handshake());
@@ -1,52 +1,57 @@
 package de.tum.p2p.onion.forwarding.netty.handler;
 
 import com.google.common.eventbus.EventBus;
+import de.tum.p2p.onion.forwarding.OnionDataForwardingException;
 import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.context.ReassemblyContext;
 import de.tum.p2p.onion.forwarding.netty.event.TunnelCoverReceived;
 import de.tum.p2p.onion.forwarding.netty.event.TunnelDatumReceived;
+import de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
-import javafx.util.Pair;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-
 /**
- * {@code TunnelConnectHandler} handles plaintext {@link TunnelDatum} received from
+ * {@code TunnelDatumHandler} handles plaintext {@link TunnelDatum} received from
  * unwrapping {@code TunnelRelayMessage} by {@link TunnelRelayHandler}.
  * It checks whether the datum is cover or not and then notify {@code OnionForwarder}'s
- * data listeners.
+ * data listeners. Fragmented data is buffered by {@link ReassemblyContext} and
+ * listeners are notified once per original message.
+ * <p>
+ * Datum protected by a weaker {@link DatumIntegrity} check than the required one is
+ * rejected, since its integrity code may have been downgraded on the way.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @Slf4j
-public class TunnelDatumHandler extends SimpleChannelInboundHandler<Pair<TunnelId, TunnelDatum>> {
+public class TunnelDatumHandler implements TunnelPayloadHandler<TunnelDatum> {
 
     private final EventBus eventBus;
+    private final ReassemblyContext reassemblyContext;
+    private final DatumIntegrity requiredIntegrity;
 
-    public TunnelDatumHandler(EventBus eventBus) {
+    public TunnelDatumHandler(EventBus eventBus, ReassemblyContext reassemblyContext,
+                              DatumIntegrity requiredIntegrity) {
         this.eventBus = eventBus;
+        this.reassemblyContext = reassemblyContext;
+        this.requiredIntegrity = requiredIntegrity;
     }
 
     @Override
-    public boolean acceptInboundMessage(Object msg) throws Exception {
-        return super.acceptInboundMessage(msg);
-    }
-
-    @Override
-    protected void channelRead0(ChannelHandlerContext ctx, Pair<TunnelId, TunnelDatum> tunnelIdDatum) throws Exception {
-        val tunnelId = tunnelIdDatum.getKey();
-        val datum = tunnelIdDatum.getValue();
+    public void handle(ChannelHandlerContext ctx, TunnelId tunnelId, TunnelDatum datum) {
+        if (!datum.integrity().isAtLeast(requiredIntegrity))
+            throw new OnionDataForwardingException("Datum of tunnel " + tunnelId + " is protected by " +
+                datum.integrity() + " check, at least " + requiredIntegrity + " is required");
 
         if (datum.isCover()) {
             eventBus.post(TunnelCoverReceived.from(tunnelId));
             log.debug("Listeners has been notified about incoming cover data");
         } else {
-            eventBus.post(TunnelDatumReceived.of(tunnelId, ByteBuffer.wrap(datum.payload())));
-            log.debug("Listeners has been notified about incoming data {}", Arrays.toString(datum.payload()));
+            reassemblyContext.reassemble(tunnelId, datum).ifPresent(data -> {
+                eventBus.post(TunnelDatumReceived.of(tunnelId, data));
+                log.debug("Listeners has been notified about incoming data of {} bytes", data.remaining());
+            });
         }
     }
 }
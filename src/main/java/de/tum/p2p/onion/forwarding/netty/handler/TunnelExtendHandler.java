@@ -3,25 +3,32 @@ package de.tum.p2p.onion.forwarding.netty.handler;
 import com.google.common.eventbus.EventBus;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
 import de.tum.p2p.onion.forwarding.OnionTunnelingException;
+import de.tum.p2p.onion.forwarding.netty.channel.CircuitTable;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
 import de.tum.p2p.onion.forwarding.netty.event.TunnelExtendReceived;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendMessage;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendedMessage;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
+import static java.util.Collections.singletonList;
+
 /**
  * {@code TunnelExtendHandler} handles incoming {@link TunnelExtendMessage} received
  * by the onion that is requested to be a new peer in the tunnel. The handler generates
  * HS2, forms a {@link TunnelExtendedMessage} and propagates the message up the tunnel.
+ * The onion assigns its own id to the tunnel (see {@link RoutingContext#serveIncoming}),
+ * the previous hop keeps using its id on the link the extend request has arrived via.
+ * The session (and its keystream, if the {@link OnionAuthorizer} provides keystreams) is
+ * kept in the inbound channel's {@link CircuitTable} for {@link TunnelRelayHandler} to peel
+ * relays with, {@link RoutingContext} owns the keystream and closes it with the route.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @Slf4j
-public class TunnelExtendHandler extends SimpleChannelInboundHandler<TunnelExtendMessage> {
+public class TunnelExtendHandler implements TunnelMessageHandler<TunnelExtendMessage> {
 
     private final RoutingContext routingContext;
     private final OnionAuthorizer onionAuth;
@@ -34,30 +41,38 @@ public class TunnelExtendHandler extends SimpleChannelInboundHandler<TunnelExten
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TunnelExtendMessage extendMsg) throws Exception {
-        val tunnelId = extendMsg.tunnelId();
+    public void handle(ChannelHandlerContext ctx, TunnelExtendMessage extendMsg) throws Exception {
+        val prevTunnelId = extendMsg.tunnelId();
         val requestId = extendMsg.requestId();
 
         val hs1 = extendMsg.handshake();
-        val futureSessionIdHs2Pair = onionAuth.sessionFactory().responseTo(hs1);
+        val futureSessionIdHs2Pair = onionAuth.sessionFactory().responseTo(extendMsg.sourceKey(), hs1);
 
         futureSessionIdHs2Pair.thenAccept(sessionIdHs2Pair -> {
             val sessionId = sessionIdHs2Pair.getLeft();
             val hs2 = sessionIdHs2Pair.getRight();
 
-            routingContext.setPrevHop(tunnelId, ctx.channel());
+            val tunnelId = routingContext.serveIncoming(ctx.channel(), prevTunnelId);
             routingContext.setSessionId(tunnelId, sessionId);
 
+            // Relays are peeled with the session's keystream from now on, if the authorizer supports it
+            val keystream = onionAuth.layeredKeystream(singletonList(sessionId)).orElse(null);
+            if (keystream != null)
+                routingContext.setKeystream(tunnelId, keystream);
+
+            // Relays of the tunnel enter via this channel and are routed by its circuit table
+            CircuitTable.of(ctx.channel()).setSession(prevTunnelId, tunnelId, sessionId, keystream);
+
             eventBus.post(TunnelExtendReceived.from(tunnelId));
 
-            val tunnelExtendedMsg = new TunnelExtendedMessage(tunnelId, requestId, hs2);
+            val tunnelExtendedMsg = new TunnelExtendedMessage(prevTunnelId, requestId, hs2);
             ctx.writeAndFlush(tunnelExtendedMsg)
                 .addListener((ChannelFutureListener) transfer -> {
                     if (!transfer.isSuccess())
                         throw new OnionTunnelingException("Failed to response with HS2", transfer.cause());
 
-                    log.debug("Tunnel Extend_ed (ack) has been sent back via tunnel {}, peer = {}", tunnelId,
-                        ctx.channel().remoteAddress());
+                    log.debug("Tunnel Extend_ed (ack) has been sent back via tunnel {} (known as {} by peer = {})",
+                        tunnelId, prevTunnelId, ctx.channel().remoteAddress());
                 });
         });
     }
@@ -8,7 +8,6 @@ import de.tum.p2p.onion.forwarding.netty.event.TunnelExtendedReceived;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelExtendedMessage;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
@@ -16,11 +15,13 @@ import lombok.val;
  * {@code TunnelExtendedHandler} handles ONION_TUNNEL_EXTEND<strong>ED</strong> messages
  * and make sure the message arrive to the first peer which will complete tunnel extension,
  * i.e. the handler will propagate the message down the tunnel till there is a prev hop.
+ * Relays receive the message from their next hop by the id they have assigned to the
+ * tunnel and propagate it with the id the previous hop uses for the tunnel.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @Slf4j
-public class TunnelExtendedHandler extends SimpleChannelInboundHandler<TunnelExtendedMessage> {
+public class TunnelExtendedHandler implements TunnelMessageHandler<TunnelExtendedMessage> {
 
     private final OnionAuthorizer onionAuth;
     private final RoutingContext routingContext;
@@ -33,11 +34,13 @@ public class TunnelExtendedHandler extends SimpleChannelInboundHandler<TunnelExt
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TunnelExtendedMessage tunnelExtendedMsg) throws Exception {
+    public void handle(ChannelHandlerContext ctx, TunnelExtendedMessage tunnelExtendedMsg) throws Exception {
         val tunnelId = tunnelExtendedMsg.tunnelId();
         val requestId = tunnelExtendedMsg.requestId();
 
-        if (!routingContext.hasPrevHop(tunnelId)) {
+        // Routes are keyed by ids this onion has assigned, that the next hop only knows
+        val relayed = routingContext.hasPrevHop(tunnelId) && routingContext.nextHop(tunnelId) == ctx.channel();
+        if (!relayed) {
             log.debug("ONION_TUNNEL_EXTENDED request received by {} from {} with request id = {}",
                 ctx.channel().localAddress(), ctx.channel().remoteAddress(), requestId);
 
@@ -53,8 +56,10 @@ public class TunnelExtendedHandler extends SimpleChannelInboundHandler<TunnelExt
         } else {
             // If 'me' is not a peer who requested tunnel addition, propagate extension request up the tunnel
             val prevKnownTunnelChannel = routingContext.prevHop(tunnelId);
+            val prevTunnelId = routingContext.prevTunnelId(tunnelId);
 
-            prevKnownTunnelChannel.writeAndFlush(tunnelExtendedMsg)
+            prevKnownTunnelChannel.writeAndFlush(new TunnelExtendedMessage(prevTunnelId, requestId,
+                tunnelExtendedMsg.handshake()))
                 .addListener((ChannelFutureListener) transfer -> {
                     if (!transfer.isSuccess())
                         throw new OnionTunnelingException("Failed to propagate extension confirmation " +
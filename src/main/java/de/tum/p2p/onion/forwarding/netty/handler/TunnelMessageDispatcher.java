@@ -0,0 +1,171 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.AttributeKey;
+import lombok.val;
+
+import java.util.function.Function;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code TunnelMessageDispatcher} is a single inbound handler that decodes tunnel
+ * frames and dispatches them to {@link TunnelMessageHandler}s. Routes are kept in
+ * a dense table indexed by message type code, so a frame's route is found with one
+ * array access.
+ * <p>
+ * Every tunnel frame, including relays (see
+ * {@link de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayMessage}),
+ * carries its type right after the tunnel id, so a route is never guessed from other
+ * header fields. Frames with a type code that has no route are propagated further
+ * down the pipeline.
+ * <p>
+ * The inbound frame is released after dispatching, so decoders that need it
+ * longer (e.g. flyweight views) must retain it. The handler the last frame has been
+ * dispatched to is kept in a channel attribute, since it may have batched messages.
+ * It's notified via {@link TunnelMessageHandler#readComplete(ChannelHandlerContext)}
+ * once a read burst is over, or before a frame routed to another handler is dispatched,
+ * so messages batched within a burst are never overtaken by later frames of the burst,
+ * e.g. relays by a retire of their tunnel. Consecutive frames of the same handler, e.g.
+ * a burst of relays, are dispatched without notifications in between. Once the channel
+ * becomes inactive or the dispatcher is removed from its pipeline, the handler is told
+ * to discard what it has batched via {@link TunnelMessageHandler#discard(ChannelHandlerContext)}.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@ChannelHandler.Sharable
+public class TunnelMessageDispatcher extends ChannelInboundHandlerAdapter {
+
+    private static final int TYPE_OFFSET = TunnelId.BYTES;
+
+    /**
+     * A handler the last frame of the current burst has been dispatched to
+     */
+    private static final AttributeKey<TunnelMessageHandler<?>> PENDING_HANDLER
+        = AttributeKey.valueOf(TunnelMessageDispatcher.class, "PENDING_HANDLER");
+
+    private final Route<?>[] routes;
+
+    private TunnelMessageDispatcher(Builder builder) {
+        this.routes = builder.routes.clone();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        val frame = (ByteBuf) msg;
+        val route = routeOf(frame);
+
+        if (route == null) {
+            ctx.fireChannelRead(frame);
+            return;
+        }
+
+        val pendingAttr = ctx.channel().attr(PENDING_HANDLER);
+        val pending = pendingAttr.get();
+
+        try {
+            if (pending != route.handler) {
+                pendingAttr.set(route.handler);
+
+                if (pending != null)
+                    pending.readComplete(ctx);
+            }
+        } finally {
+            try {
+                route.dispatch(ctx, frame);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        try {
+            val pending = ctx.channel().attr(PENDING_HANDLER).getAndSet(null);
+            if (pending != null)
+                pending.readComplete(ctx);
+        } finally {
+            ctx.fireChannelReadComplete();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        try {
+            discard(ctx);
+        } finally {
+            ctx.fireChannelInactive();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        discard(ctx);
+    }
+
+    private void discard(ChannelHandlerContext ctx) {
+        val pending = ctx.channel().attr(PENDING_HANDLER).getAndSet(null);
+        if (pending != null)
+            pending.discard(ctx);
+    }
+
+    private Route<?> routeOf(ByteBuf frame) {
+        if (frame.readableBytes() < TYPE_OFFSET + MessageType.BYTES)
+            return null;
+
+        val code = frame.getShort(frame.readerIndex() + TYPE_OFFSET);
+        if (code < 0 || code >= routes.length)
+            return null;
+
+        return routes[code];
+    }
+
+    private static final class Route<T> {
+
+        private final Function<ByteBuf, T> decoder;
+        private final TunnelMessageHandler<? super T> handler;
+
+        private Route(Function<ByteBuf, T> decoder, TunnelMessageHandler<? super T> handler) {
+            this.decoder = notNull(decoder);
+            this.handler = notNull(handler);
+        }
+
+        private void dispatch(ChannelHandlerContext ctx, ByteBuf frame) throws Exception {
+            final T msg;
+            try {
+                msg = decoder.apply(frame);
+            } catch (RuntimeException e) {
+                throw new DecoderException("Failed to decode tunnel message", e);
+            }
+
+            handler.handle(ctx, msg);
+        }
+    }
+
+    public static final class Builder {
+
+        private final Route<?>[] routes = new Route<?>[MessageType.maxCode() + 1];
+
+        public <T> Builder route(MessageType messageType, Function<ByteBuf, T> decoder,
+                                 TunnelMessageHandler<? super T> handler) {
+            routes[messageType.code()] = new Route<>(decoder, handler);
+            return this;
+        }
+
+        public TunnelMessageDispatcher build() {
+            return new TunnelMessageDispatcher(this);
+        }
+    }
+}
@@ -1,28 +1,48 @@
 package de.tum.p2p.onion.forwarding.netty.handler;
 
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
-import io.netty.buffer.Unpooled;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
-import java.util.List;
+import static org.apache.commons.lang3.Validate.notNull;
 
 /**
- * {@code OnionMessageDecoder} decodes ONION_TUNNEL_* messages from bytes
- * to corresponding message type.
+ * {@code TunnelMessageEncoder} encodes ONION_TUNNEL_* messages to bytes.
+ * <p>
+ * Messages are written directly into a buffer of link's cell size provided
+ * by channel's allocator (pooled direct by default, see channel factories),
+ * so encoding a cell requires no intermediate arrays. The rest of the cell
+ * is filled by the configured {@link CellPadding}.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @Slf4j
-public class TunnelMessageEncoder extends MessageToMessageEncoder<TunnelMessage> {
+public class TunnelMessageEncoder extends MessageToByteEncoder<TunnelMessage> {
+
+    private final CellPadding padding;
+
+    public TunnelMessageEncoder(CellPadding padding) {
+        this.padding = notNull(padding);
+    }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, TunnelMessage msg, List<Object> out) throws Exception {
-        val msgBytes = msg.bytes();
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, TunnelMessage msg, boolean preferDirect)
+            throws Exception {
+        val cellBytes = Links.cellBytes(ctx.channel());
+
+        if (preferDirect)
+            return ctx.alloc().ioBuffer(cellBytes);
 
-        val msgByteBuf = Unpooled.wrappedBuffer(msgBytes);
-        out.add(msgByteBuf);
+        return ctx.alloc().heapBuffer(cellBytes);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, TunnelMessage msg, ByteBuf out) throws Exception {
+        msg.writeTo(out, Links.cellBytes(ctx.channel()), padding);
     }
 }
@@ -0,0 +1,52 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * {@code TunnelMessageHandler} handles decoded tunnel messages of a certain
+ * type routed to it by {@link TunnelMessageDispatcher}.
+ * <p>
+ * Handlers are shared between all channels of a channel factory and therefore
+ * must not keep channel specific state.
+ *
+ * @param <T> type of messages handled
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@FunctionalInterface
+public interface TunnelMessageHandler<T> {
+
+    /**
+     * Handles a message received by the channel of {@code ctx}. Reference counted
+     * messages are owned by the handler and must be released by it.
+     *
+     * @param ctx a context of the dispatching handler
+     * @param msg decoded message
+     * @throws Exception if handling fails, propagated to the pipeline's exceptionCaught
+     */
+    void handle(ChannelHandlerContext ctx, T msg) throws Exception;
+
+    /**
+     * Called after the last of consecutive messages routed to this handler has been
+     * handled, i.e. once the channel of {@code ctx} has been read out, or before a
+     * message routed to another handler is handled. Handlers batching messages of a
+     * burst (in channel attributes) process them here.
+     *
+     * @param ctx a context of the dispatching handler
+     * @throws Exception if handling fails, propagated to the pipeline's exceptionCaught
+     */
+    default void readComplete(ChannelHandlerContext ctx) throws Exception {
+        // nothing batched by default
+    }
+
+    /**
+     * Called once the channel of {@code ctx} has become inactive or the dispatching
+     * handler has been removed from its pipeline while messages routed to this handler
+     * may still be batched. Handlers batching messages of a burst release them here.
+     *
+     * @param ctx a context of the dispatching handler
+     */
+    default void discard(ChannelHandlerContext ctx) {
+        // nothing batched by default
+    }
+}
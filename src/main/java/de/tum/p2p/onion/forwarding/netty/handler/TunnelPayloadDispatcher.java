@@ -0,0 +1,93 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.OnionDataForwardingException;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.MessageType;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.function.Function;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code TunnelPayloadDispatcher} dispatches plaintext relay payloads to
+ * {@link TunnelPayloadHandler}s via a dense table indexed by payload's
+ * message type code, the same way {@link TunnelMessageDispatcher} does
+ * for tunnel frames.
+ *
+ * @see de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayPayload
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Slf4j
+public class TunnelPayloadDispatcher {
+
+    private final Route<?>[] routes;
+
+    private TunnelPayloadDispatcher(Builder builder) {
+        this.routes = builder.routes.clone();
+    }
+
+    /**
+     * Decodes and dispatches plaintext relay payload to its handler
+     *
+     * @param ctx      a context of the dispatching handler
+     * @param tunnelId a tunnel the payload has been received through
+     * @param payload  raw plaintext relay payload
+     * @throws OnionDataForwardingException if payload is of unknown type
+     */
+    public void dispatch(ChannelHandlerContext ctx, TunnelId tunnelId, byte[] payload) {
+        val route = routeOf(payload);
+
+        if (route == null) {
+            log.error("Unknown message type of relay payload from {} after last decrypt round, tunnel {}.",
+                ctx.channel().remoteAddress(), tunnelId);
+            throw new OnionDataForwardingException("Unknown message type of relay payload after last decrypt round");
+        }
+
+        route.dispatch(ctx, tunnelId, payload);
+    }
+
+    private Route<?> routeOf(byte[] payload) {
+        if (payload.length < MessageType.BYTES)
+            return null;
+
+        val code = (short) ((payload[0] << 8) | (payload[1] & 0xFF));
+        if (code < 0 || code >= routes.length)
+            return null;
+
+        return routes[code];
+    }
+
+    private static final class Route<T> {
+
+        private final Function<byte[], T> decoder;
+        private final TunnelPayloadHandler<? super T> handler;
+
+        private Route(Function<byte[], T> decoder, TunnelPayloadHandler<? super T> handler) {
+            this.decoder = notNull(decoder);
+            this.handler = notNull(handler);
+        }
+
+        private void dispatch(ChannelHandlerContext ctx, TunnelId tunnelId, byte[] payload) {
+            handler.handle(ctx, tunnelId, decoder.apply(payload));
+        }
+    }
+
+    public static final class Builder {
+
+        private final Route<?>[] routes = new Route<?>[MessageType.maxCode() + 1];
+
+        public <T> Builder route(MessageType messageType, Function<byte[], T> decoder,
+                                 TunnelPayloadHandler<? super T> handler) {
+            routes[messageType.code()] = new Route<>(decoder, handler);
+            return this;
+        }
+
+        public TunnelPayloadDispatcher build() {
+            return new TunnelPayloadDispatcher(this);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * {@code TunnelPayloadHandler} handles plaintext relay payloads revealed by
+ * {@link TunnelRelayHandler} after the last crypto layer has been peeled, routed
+ * to it by {@link TunnelPayloadDispatcher}.
+ *
+ * @param <T> type of relay payloads handled
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@FunctionalInterface
+public interface TunnelPayloadHandler<T> {
+
+    /**
+     * Handles a relay payload received via tunnel {@code tunnelId}
+     *
+     * @param ctx      a context of the dispatching handler
+     * @param tunnelId a tunnel the payload has been received through
+     * @param payload  decoded relay payload
+     */
+    void handle(ChannelHandlerContext ctx, TunnelId tunnelId, T payload);
+}
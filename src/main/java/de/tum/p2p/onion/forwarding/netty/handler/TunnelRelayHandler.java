@@ -1,24 +1,74 @@
 package de.tum.p2p.onion.forwarding.netty.handler;
 
+import de.tum.p2p.onion.auth.LayeredKeystream;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
-import de.tum.p2p.onion.forwarding.OnionDataForwardingException;
+import de.tum.p2p.onion.auth.SessionId;
 import de.tum.p2p.onion.forwarding.OnionTunnelingException;
-import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
-import de.tum.p2p.proto.message.MessageType;
-import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelConnect;
-import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.channel.CircuitTable;
+import de.tum.p2p.onion.forwarding.netty.channel.CircuitTable.Circuit;
+import de.tum.p2p.onion.forwarding.netty.channel.Links;
+import de.tum.p2p.onion.forwarding.netty.channel.WriteCoalescer;
+import de.tum.p2p.onion.forwarding.netty.context.CryptoContext;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayCell;
 import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayMessage;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.AttributeKey;
+import lombok.experimental.var;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
-import org.apache.commons.lang3.tuple.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static io.netty.buffer.ByteBufUtil.getBytes;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
 
 /**
  * {@code TunnelRelayHandler} performs onion decryption of {@link TunnelRelayMessage}'s
  * {@link de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayPayload}s. As
  * soon as the last layer is peeled out, the payload is extracted and propagated down the
- * Netty's channel so further handlers can process payloads separately.
+ * {@link TunnelPayloadDispatcher} so further handlers can process payloads separately.
+ * <p>
+ * Inbound relays arrive as {@link TunnelRelayCell}s retaining the inbound frame.
+ * Since decryption completes asynchronously, the handler releases each cell
+ * once its decryption round is over.
+ * <p>
+ * Layers are peeled within the inbound frame, i.e. its payload slice is passed to
+ * {@link OnionAuthorizer#decryptAll(List, SessionId, List)} as both the ciphertext and the
+ * destination, so the cell flows from the decoder through the authorizer to the next hop
+ * without intermediate copies. If the tunnel has a next hop, the frame is completed by
+ * {@link TunnelRelayCell#peeledInPlace(int, CellPadding)} and the same buffer is
+ * passed to the next hop channel, bypassing re-serialization and re-padding by the
+ * {@link TunnelMessageEncoder}. Relayed cells are flushed by the next hop's
+ * {@link WriteCoalescer} once per event loop tick. Links of a circuit have the same cell
+ * size (see {@link TunnelConnectHandler}); relays are never re-framed into cells of another
+ * size, a relay whose next hop link has a different cell size is dropped with an error.
+ * <p>
+ * Relays read from a channel at once are collected in a channel attribute until the read
+ * is complete, or until another frame of the read (e.g. a retire) is dispatched, and decrypted
+ * with one {@link OnionAuthorizer#decryptAll(List, SessionId, List)} call per tunnel, so
+ * authorizers set up session ciphers once per burst. Relays still collected when the
+ * channel goes inactive are released. Tunnels having
+ * a session's {@link LayeredKeystream} are peeled with it instead, which is a mere XOR as
+ * long as its keystream has been computed ahead.
+ * <p>
+ * Routes of tunnels are looked up in the inbound channel's {@link CircuitTable}, once per
+ * tunnel and burst, on the channel's own event loop rather than in the onion wide
+ * {@link de.tum.p2p.onion.forwarding.netty.context.RoutingContext}. Tunnel ids are link-local,
+ * so relays are propagated with the id this onion has assigned to the tunnel, i.e. cut-through
+ * frames get their tunnel id header rewritten, and payloads are dispatched with it as well.
+ * <p>
+ * Decryption is run by {@link CryptoContext}, which may offload it from the event loop.
+ * Peeled relays are handed back to the inbound channel's event loop and routed as part of
+ * the tunnel's crypto task, so that bursts of a tunnel leave in the order they were peeled.
  *
  * @see TunnelDatumHandler
  * @see TunnelConnectHandler
@@ -26,57 +76,166 @@ import org.apache.commons.lang3.tuple.Pair;
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
 @Slf4j
-public class TunnelRelayHandler extends SimpleChannelInboundHandler<TunnelRelayMessage> {
+public class TunnelRelayHandler implements TunnelMessageHandler<TunnelRelayCell> {
+
+    private static final AttributeKey<List<TunnelRelayCell>> RELAY_BURST
+        = AttributeKey.valueOf(TunnelRelayHandler.class, "RELAY_BURST");
 
     private final OnionAuthorizer onionAuth;
-    private final RoutingContext routingContext;
+    private final CryptoContext cryptoContext;
+    private final CellPadding padding;
+    private final TunnelPayloadDispatcher payloadDispatcher;
 
-    public TunnelRelayHandler(OnionAuthorizer onionAuth, RoutingContext routingContext) {
+    public TunnelRelayHandler(OnionAuthorizer onionAuth, CryptoContext cryptoContext, CellPadding padding,
+                              TunnelPayloadDispatcher payloadDispatcher) {
         this.onionAuth = onionAuth;
-        this.routingContext = routingContext;
+        this.cryptoContext = cryptoContext;
+        this.padding = padding;
+        this.payloadDispatcher = payloadDispatcher;
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, TunnelRelayCell relay) throws Exception {
+        val burstAttr = ctx.channel().attr(RELAY_BURST);
+
+        var burst = burstAttr.get();
+        if (burst == null) {
+            burst = new ArrayList<>();
+            burstAttr.set(burst);
+        }
+
+        burst.add(relay);
+    }
+
+    @Override
+    public void readComplete(ChannelHandlerContext ctx) throws Exception {
+        val burst = ctx.channel().attr(RELAY_BURST).getAndSet(null);
+        if (burst == null || burst.isEmpty())
+            return;
+
+        // Relays of a tunnel are decrypted together, in the order they have been read
+        val tunnelBursts = new LinkedHashMap<TunnelId, List<TunnelRelayCell>>();
+        for (val relay : burst)
+            tunnelBursts.computeIfAbsent(relay.tunnelId(), tunnelId -> new ArrayList<>()).add(relay);
+
+        val circuitTable = CircuitTable.of(ctx.channel());
+
+        Exception failure = null;
+        for (val tunnelBurst : tunnelBursts.entrySet()) {
+            try {
+                decrypt(ctx, circuitTable.get(tunnelBurst.getKey()), tunnelBurst.getKey(), tunnelBurst.getValue());
+            } catch (Exception e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+
+        if (failure != null)
+            throw failure;
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TunnelRelayMessage relay) throws Exception {
-        val tunnelId = relay.tunnelId();
-        val relayPayload = relay.payload();
+    public void discard(ChannelHandlerContext ctx) {
+        val burst = ctx.channel().attr(RELAY_BURST).getAndSet(null);
+        if (burst == null)
+            return;
 
-        val futureDeciphertext = onionAuth.decrypt(relayPayload, routingContext.sessionId(tunnelId));
+        log.debug("{} relays read by {} from {} have been discarded", burst.size(), ctx.channel().localAddress(),
+            ctx.channel().remoteAddress());
+        burst.forEach(TunnelRelayCell::release);
+    }
 
-        futureDeciphertext.thenAccept(deciphertext -> {
-            val decryptedPayload = deciphertext.bytes();
-            val peeledRelay = relay.peel(decryptedPayload);
+    private void decrypt(ChannelHandlerContext ctx, Circuit circuit, TunnelId tunnelId, List<TunnelRelayCell> relays) {
+        try {
+            if (circuit == null)
+                throw new OnionTunnelingException("No circuit of tunnel " + tunnelId + " enters via "
+                    + ctx.channel().remoteAddress());
 
-            if (!deciphertext.isPlaintext() && !routingContext.hasNextHop(tunnelId))
-                throw new OnionTunnelingException("This onion was supposed to peel last crypto layer, " +
-                    "but not a plaintext returned by onionAuth");
+            val sessionId = circuit.sessionId();
+            val keystream = circuit.keystream();
 
-            if (routingContext.hasNextHop(tunnelId)) {
-                routingContext.nextHop(tunnelId).writeAndFlush(peeledRelay);
-                log.debug("Encrypted relay message has been propagated down the {} tunnel by {} to {}",
-                    tunnelId, ctx.channel().localAddress(), ctx.channel().remoteAddress());
-                return;
+            // Layers are peeled within inbound frames unless they are read only
+            val ciphertexts = relays.stream()
+                .map(TunnelRelayCell::payloadSlice)
+                .collect(toList());
+            val destinations = ciphertexts.stream()
+                .map(ciphertext -> ciphertext.isReadOnly() ? Unpooled.buffer(ciphertext.readableBytes()) : ciphertext)
+                .collect(toList());
+
+            // Peeled relays are propagated within the decryption round, so bursts reach the next hop in keystream order
+            cryptoContext.execute(TunnelId.wrap(circuit.nextTunnelId()), () -> keystream != null
+                ? peel(ciphertexts, destinations, keystream)
+                : onionAuth.decryptAll(ciphertexts, sessionId, destinations), ctx.channel().eventLoop(), peeledPayloads -> {
+                for (int i = 0; i < relays.size(); i++) {
+                    try {
+                        val peeledInFrame = peeledPayloads.get(i) == ciphertexts.get(i);
+                        relay(ctx, circuit, tunnelId, relays.get(i), peeledPayloads.get(i), peeledInFrame);
+                    } catch (RuntimeException e) {
+                        ctx.fireExceptionCaught(e);
+                    }
+                }
+            }).whenComplete((ignored, cause) -> {
+                relays.forEach(TunnelRelayCell::release);
+
+                if (cause != null)
+                    ctx.fireExceptionCaught(cause);
+            });
+        } catch (Exception e) {
+            relays.forEach(TunnelRelayCell::release);
+            throw e;
+        }
+    }
+
+    private static CompletableFuture<List<ByteBuf>> peel(List<ByteBuf> ciphertexts, List<ByteBuf> destinations,
+                                                         LayeredKeystream keystream) {
+        for (int i = 0; i < ciphertexts.size(); i++) {
+            val ciphertext = ciphertexts.get(i);
+            val destination = destinations.get(i);
+            val length = ciphertext.readableBytes();
+
+            if (destination != ciphertext)
+                destination.writeBytes(ciphertext);
+
+            val index = destination.writerIndex() - length;
+            if (destination.nioBufferCount() == 1) {
+                keystream.apply(destination.nioBuffer(index, length));
+            } else {
+                val payload = getBytes(destination, index, length);
+                keystream.apply(ByteBuffer.wrap(payload));
+                destination.setBytes(index, payload);
             }
+        }
 
-            val rawRelayPayload = peeledRelay.payload();
+        return completedFuture(destinations);
+    }
 
-            switch (MessageType.fromBytes(rawRelayPayload)) {
-                case ONION_TUNNEL_COVER:
-                case ONION_TUNNEL_DATUM:
-                    // FIXME: Netty SimpleChannelInboundHandler doesn't recognize generic type parameters
-                    // FIXME: therefore here another Pair tuple imp is used.
-                    ctx.fireChannelRead(new javafx.util.Pair<>(tunnelId, TunnelDatum.fromBytes(rawRelayPayload)));
-                    break;
+    private void relay(ChannelHandlerContext ctx, Circuit circuit, TunnelId tunnelId, TunnelRelayCell relay,
+                       ByteBuf peeledPayload, boolean peeledInFrame) {
+        if (circuit.hasNextHop()) {
+            val nextHopChannel = circuit.nextHop();
+            val nextHop = WriteCoalescer.of(nextHopChannel);
 
-                case ONION_TUNNEL_CONNECT:
-                    ctx.fireChannelRead(Pair.of(tunnelId, TunnelConnect.fromBytes(rawRelayPayload)));
-                    break;
+            // Re-framing the relay into another cell size would desync keystreams of the next hops
+            val cellBytes = relay.content().readableBytes();
+            if (cellBytes != Links.cellBytes(nextHopChannel))
+                throw new OnionTunnelingException("Relay of tunnel " + tunnelId + " can't be propagated - circuit " +
+                    "uses " + cellBytes + " byte cells, next hop link " + Links.cellBytes(nextHopChannel));
 
-                default:
-                    log.error("Unknown message type of relay payload from {} after last decrypt round, tunnel {}.",
-                        ctx.channel().remoteAddress(), tunnelId);
-                    throw new OnionDataForwardingException("Unknown message type of relay payload after last decrypt round");
+            if (peeledInFrame) {
+                // Cut-through: the layer has been peeled within the inbound frame that is sent
+                // as is, the extra reference is released by the next hop channel's outbound
+                nextHop.write(relay.peeledInPlace(peeledPayload.readableBytes(), padding)
+                    .retunnelInPlace(circuit.nextTunnelId())
+                    .content().retain());
+            } else {
+                nextHop.write(relay.peel(getBytes(peeledPayload), TunnelId.wrap(circuit.nextTunnelId())));
             }
-        });
+
+            log.debug("Encrypted relay message has been propagated down the {} tunnel by {} to {}",
+                tunnelId, ctx.channel().localAddress(), ctx.channel().remoteAddress());
+            return;
+        }
+
+        payloadDispatcher.dispatch(ctx, TunnelId.wrap(circuit.nextTunnelId()), getBytes(peeledPayload));
     }
 }
@@ -1,34 +1,59 @@
 package de.tum.p2p.onion.forwarding.netty.handler;
 
+import de.tum.p2p.onion.auth.OnionAuthorizer;
 import de.tum.p2p.onion.forwarding.OnionTunnelingException;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.channel.CircuitTable;
+import de.tum.p2p.onion.forwarding.netty.context.CryptoContext;
+import de.tum.p2p.onion.forwarding.netty.context.ReassemblyContext;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelRetireMessage;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.val;
 
 /**
  * {@code TunnelRetireHandler} handles {@link TunnelRetireMessage} messages
  * and clears {@link RoutingContext} from routes assigned with {@code TunnelId}
- * given in {@code TunnelRetireMessage}.
+ * given in {@code TunnelRetireMessage}, as well as from the {@link CircuitTable}
+ * of the channel the tunnel enters via. Fragments of incomplete messages
+ * received via the tunnel are dropped from {@link ReassemblyContext}, the tunnel's
+ * crypto queue is dropped from {@link CryptoContext} and the tunnel's session is
+ * released by the {@link OnionAuthorizer}. Links of the tunnel are left open
+ * as long as routes of other tunnels use them.
  *
  * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
  */
-public class TunnelRetireHandler extends SimpleChannelInboundHandler<TunnelRetireMessage> {
+public class TunnelRetireHandler implements TunnelMessageHandler<TunnelRetireMessage> {
 
     private final RoutingContext routingContext;
+    private final ReassemblyContext reassemblyContext;
+    private final CryptoContext cryptoContext;
+    private final OnionAuthorizer onionAuthorizer;
 
-    public TunnelRetireHandler(RoutingContext routingContext) {
+    public TunnelRetireHandler(RoutingContext routingContext, ReassemblyContext reassemblyContext,
+                               CryptoContext cryptoContext, OnionAuthorizer onionAuthorizer) {
         this.routingContext = routingContext;
+        this.reassemblyContext = reassemblyContext;
+        this.cryptoContext = cryptoContext;
+        this.onionAuthorizer = onionAuthorizer;
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TunnelRetireMessage tunnelRetireMsg) throws Exception {
-        val tunnelId = tunnelRetireMsg.tunnelId();
+    public void handle(ChannelHandlerContext ctx, TunnelRetireMessage tunnelRetireMsg) throws Exception {
+        val prevTunnelId = tunnelRetireMsg.tunnelId();
+
+        // Ids are link-local, the tunnel is known by the id this onion has assigned to it
+        val circuitTable = CircuitTable.of(ctx.channel());
+        val circuit = circuitTable.get(prevTunnelId);
+        if (circuit == null)
+            throw new OnionTunnelingException("Failed to retire tunnel " + prevTunnelId
+                + " - no circuit enters via " + ctx.channel().remoteAddress());
+
+        val tunnelId = TunnelId.wrap(circuit.nextTunnelId());
 
         if (routingContext.hasNextHop(tunnelId)) {
-            routingContext.nextHop(tunnelId).writeAndFlush(tunnelRetireMsg)
+            routingContext.nextHop(tunnelId).writeAndFlush(new TunnelRetireMessage(tunnelId))
                 .addListener((ChannelFutureListener) transfer -> {
                     if (!transfer.isSuccess())
                         throw new OnionTunnelingException("Failed propagate request " +
@@ -36,6 +61,14 @@ public class TunnelRetireHandler extends SimpleChannelInboundHandler<TunnelRetir
                 });
         }
 
+        val sessionId = routingContext.sessionId(tunnelId);
+
         routingContext.forget(tunnelId);
+        circuitTable.remove(prevTunnelId);
+        reassemblyContext.forget(tunnelId);
+        cryptoContext.forget(tunnelId);
+
+        if (sessionId != null)
+            onionAuthorizer.forget(sessionId);
     }
 }
@@ -3,6 +3,7 @@ package de.tum.p2p.proto.message;
 import lombok.val;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * {@code MessageType} represents a message type used in headers
@@ -26,10 +27,25 @@ public enum MessageType {
     ONION_ERROR(565),
     ONION_COVER(566),
 
+    // ONION AUTH API / TCP
+    AUTH_SESSION_START(600),
+    AUTH_SESSION_HS1(601),
+    AUTH_SESSION_INCOMING_HS1(602),
+    AUTH_SESSION_HS2(603),
+    AUTH_SESSION_INCOMING_HS2(604),
+    AUTH_LAYER_ENCRYPT(605),
+    AUTH_LAYER_DECRYPT(606),
+    AUTH_LAYER_ENCRYPT_RESP(607),
+    AUTH_LAYER_DECRYPT_RESP(608),
+    AUTH_SESSION_CLOSE(609),
+    AUTH_ERROR(610),
+
     // ONION P2P / UDP
+    ONION_LINK_HELLO(574),
     ONION_TUNNEL_EXTEND(575),
     ONION_TUNNEL_CONNECT(577),
     ONION_TUNNEL_EXTENDED(576),
+    ONION_TUNNEL_RELAY(578),
     ONION_TUNNEL_DATUM(580),
     ONION_TUNNEL_COVER(581),
     ONION_TUNNEL_RETIRE(585),
@@ -37,6 +53,26 @@ public enum MessageType {
 
     public static final int BYTES = 2;
 
+    /**
+     * Dense lookup table indexed by type code, so that {@link #fromCode(short)}
+     * is a single array access instead of a linear scan over {@code values()}
+     */
+    private static final MessageType[] BY_CODE;
+
+    static {
+        val types = values();
+
+        int maxCode = 0;
+        for (val type : types)
+            maxCode = Math.max(maxCode, type.code);
+
+        BY_CODE = new MessageType[maxCode + 1];
+        Arrays.fill(BY_CODE, UNKNOWN);
+
+        for (val type : types)
+            BY_CODE[type.code] = type;
+    }
+
     private final short code;
 
     MessageType(Integer code) {
@@ -48,11 +84,17 @@ public enum MessageType {
     }
 
     public static MessageType fromCode(short code) {
-        for (val msgType : MessageType.values())
-            if (msgType.code() == code)
-                return msgType;
+        if (code < 0 || code >= BY_CODE.length)
+            return UNKNOWN;
+
+        return BY_CODE[code];
+    }
 
-        return UNKNOWN;
+    /**
+     * @return the biggest type code among all message types
+     */
+    public static int maxCode() {
+        return BY_CODE.length - 1;
     }
 
     public static MessageType fromBytes(byte[] bytes) {
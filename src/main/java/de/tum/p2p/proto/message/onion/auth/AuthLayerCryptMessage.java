@@ -0,0 +1,113 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.proto.message.MessageType;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_LAYER_DECRYPT;
+import static de.tum.p2p.proto.message.MessageType.AUTH_LAYER_ENCRYPT;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notEmpty;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AuthLayerCryptMessage} asks the Onion Auth module to layer-encrypt
+ * (AUTH LAYER ENCRYPT) or layer-decrypt (AUTH LAYER DECRYPT) a payload with the
+ * given sessions. The module responds with {@link AuthResponseMessage}.
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |  MESG_TYPE  |   RESERVED  |
+ * |---------------------------|
+ * | LAYERS|RSVD |   REQE_ID   |
+ * |---------------------------|
+ * |  REQE_ID    | SESSION_ID1 |
+ * |---------------------------|
+ * | SESSION_IDN |   PAYLOAD   |
+ * |---------------------------|
+ * |      PAYLOAD (CONT..)     |
+ * |---------------------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class AuthLayerCryptMessage extends OnionAuthApiMessage {
+
+    private static final byte[] RESERVED = new byte[Short.BYTES];
+
+    private static final byte[] LAYERS_RESERVED = new byte[Byte.BYTES];
+
+    private static final int MAX_LAYERS = 0xFF;
+
+    @Getter
+    private final int requestId;
+
+    @Getter
+    private final List<SessionId> sessionIds;
+
+    @Getter
+    private final byte[] payload;
+
+    private AuthLayerCryptMessage(MessageType messageType, int requestId, List<SessionId> sessionIds, byte[] payload) {
+        super(messageType, RESERVED.length + Byte.BYTES + LAYERS_RESERVED.length + REQUEST_ID_BYTES
+            + sessionIds.size() * SESSION_ID_BYTES + payload.length);
+
+        notEmpty(sessionIds, "At least one session is required to layer the payload");
+        isTrue(sessionIds.size() <= MAX_LAYERS, "Too many layers, max supported = %d", MAX_LAYERS);
+        noNullElements(sessionIds).forEach(OnionAuthApiMessage::validSessionId);
+
+        this.requestId = requestId;
+        this.sessionIds = Collections.unmodifiableList(new ArrayList<>(sessionIds));
+        this.payload = notNull(payload);
+    }
+
+    public static AuthLayerCryptMessage encrypt(int requestId, List<SessionId> sessionIds, byte[] plaintext) {
+        return new AuthLayerCryptMessage(AUTH_LAYER_ENCRYPT, requestId, sessionIds, plaintext);
+    }
+
+    public static AuthLayerCryptMessage decrypt(int requestId, List<SessionId> sessionIds, byte[] ciphertext) {
+        return new AuthLayerCryptMessage(AUTH_LAYER_DECRYPT, requestId, sessionIds, ciphertext);
+    }
+
+    @Override
+    protected ByteBuffer writeMessage(ByteBuffer typedMessageBuffer) {
+        typedMessageBuffer
+            .put(RESERVED)
+            .put((byte) sessionIds.size())
+            .put(LAYERS_RESERVED)
+            .putInt(requestId);
+
+        sessionIds.forEach(sessionId -> putSessionId(typedMessageBuffer, sessionId));
+
+        return typedMessageBuffer.put(payload);
+    }
+
+    public static AuthLayerCryptMessage fromBytes(byte[] rawTypedMessage) {
+        val messageType = guessType(rawTypedMessage);
+        val rawMessage = untypeAny(rawTypedMessage, AUTH_LAYER_ENCRYPT, AUTH_LAYER_DECRYPT);
+
+        rawMessage.position(RESERVED.length); // skip reserved
+        val parsedLayers = Byte.toUnsignedInt(rawMessage.get());
+        rawMessage.position(rawMessage.position() + LAYERS_RESERVED.length); // skip reserved
+        val parsedRequestId = rawMessage.getInt();
+
+        val parsedSessionIds = new ArrayList<SessionId>(parsedLayers);
+        for (int i = 0; i < parsedLayers; i++)
+            parsedSessionIds.add(getSessionId(rawMessage));
+
+        return new AuthLayerCryptMessage(messageType, parsedRequestId, parsedSessionIds, remainingBytes(rawMessage));
+    }
+}
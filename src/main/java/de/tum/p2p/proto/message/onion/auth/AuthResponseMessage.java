@@ -0,0 +1,95 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.proto.message.MessageType;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_ERROR;
+import static de.tum.p2p.proto.message.MessageType.AUTH_LAYER_DECRYPT_RESP;
+import static de.tum.p2p.proto.message.MessageType.AUTH_LAYER_ENCRYPT_RESP;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AuthResponseMessage} is sent by the Onion Auth module as a response
+ * to {@link AuthLayerCryptMessage}. It represents messages of the same layout:
+ * <ul>
+ * <li>AUTH LAYER ENCRYPT RESP - carries a layer-encrypted payload</li>
+ * <li>AUTH LAYER DECRYPT RESP - carries a layer-decrypted payload</li>
+ * <li>AUTH ERROR - reports failure of any request, carries no payload</li>
+ * </ul>
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |  MESG_TYPE  |   RESERVED  |
+ * |---------------------------|
+ * |  RESERVED   |   REQE_ID   |
+ * |---------------------------|
+ * |  REQE_ID    |   PAYLOAD   |
+ * |---------------------------|
+ * |      PAYLOAD (CONT..)     |
+ * |---------------------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class AuthResponseMessage extends OnionAuthApiMessage {
+
+    private static final byte[] RESERVED = new byte[Integer.BYTES];
+
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    @Getter
+    private final int requestId;
+
+    @Getter
+    private final byte[] payload;
+
+    private AuthResponseMessage(MessageType messageType, int requestId, byte[] payload) {
+        super(messageType, RESERVED.length + REQUEST_ID_BYTES + payload.length);
+
+        this.requestId = requestId;
+        this.payload = notNull(payload);
+    }
+
+    public static AuthResponseMessage encrypted(int requestId, byte[] ciphertext) {
+        return new AuthResponseMessage(AUTH_LAYER_ENCRYPT_RESP, requestId, ciphertext);
+    }
+
+    public static AuthResponseMessage decrypted(int requestId, byte[] plaintext) {
+        return new AuthResponseMessage(AUTH_LAYER_DECRYPT_RESP, requestId, plaintext);
+    }
+
+    public static AuthResponseMessage error(int requestId) {
+        return new AuthResponseMessage(AUTH_ERROR, requestId, NO_PAYLOAD);
+    }
+
+    public boolean isError() {
+        return messageType() == AUTH_ERROR;
+    }
+
+    @Override
+    protected ByteBuffer writeMessage(ByteBuffer typedMessageBuffer) {
+        return typedMessageBuffer
+            .put(RESERVED)
+            .putInt(requestId)
+            .put(payload);
+    }
+
+    public static AuthResponseMessage fromBytes(byte[] rawTypedMessage) {
+        val messageType = guessType(rawTypedMessage);
+        val rawMessage = untypeAny(rawTypedMessage, AUTH_LAYER_ENCRYPT_RESP, AUTH_LAYER_DECRYPT_RESP, AUTH_ERROR);
+
+        rawMessage.position(RESERVED.length); // skip reserved
+        val parsedRequestId = rawMessage.getInt();
+
+        return new AuthResponseMessage(messageType, parsedRequestId, remainingBytes(rawMessage));
+    }
+}
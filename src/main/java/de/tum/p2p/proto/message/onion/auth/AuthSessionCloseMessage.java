@@ -0,0 +1,60 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.onion.auth.SessionId;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_SESSION_CLOSE;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AuthSessionCloseMessage} asks the Onion Auth module to forget the session
+ * and its keys. The message is not answered.
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |  MESG_TYPE  |   RESERVED  |
+ * |---------------------------|
+ * |  SESSION_ID |
+ * |-------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class AuthSessionCloseMessage extends OnionAuthApiMessage {
+
+    private static final byte[] RESERVED = new byte[Short.BYTES];
+
+    @Getter
+    private final SessionId sessionId;
+
+    public AuthSessionCloseMessage(SessionId sessionId) {
+        super(AUTH_SESSION_CLOSE, RESERVED.length + SESSION_ID_BYTES);
+
+        this.sessionId = validSessionId(notNull(sessionId));
+    }
+
+    @Override
+    protected ByteBuffer writeMessage(ByteBuffer typedMessageBuffer) {
+        typedMessageBuffer.put(RESERVED);
+        putSessionId(typedMessageBuffer, sessionId);
+
+        return typedMessageBuffer;
+    }
+
+    public static AuthSessionCloseMessage fromBytes(byte[] rawTypedMessage) {
+        val rawMessage = untype(rawTypedMessage, AUTH_SESSION_CLOSE);
+
+        rawMessage.position(RESERVED.length); // skip reserved
+
+        return new AuthSessionCloseMessage(getSessionId(rawMessage));
+    }
+}
@@ -0,0 +1,99 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.proto.message.MessageType;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_SESSION_HS1;
+import static de.tum.p2p.proto.message.MessageType.AUTH_SESSION_HS2;
+import static de.tum.p2p.proto.message.MessageType.AUTH_SESSION_INCOMING_HS2;
+import static de.tum.p2p.util.Handshakes.notOversizedHadshake;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AuthSessionHandshakeMessage} carries a handshake payload of a session
+ * known by the Onion Auth module. It represents messages of the same layout:
+ * <ul>
+ * <li>AUTH SESSION HS1 - a response to {@link AuthSessionStartMessage}</li>
+ * <li>AUTH SESSION HS2 - a response to {@link AuthSessionIncomingHs1Message}</li>
+ * <li>AUTH SESSION INCOMING HS2 - passes the peer's HS2 to the module, not answered</li>
+ * </ul>
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |  MESG_TYPE  |   RESERVED  |
+ * |---------------------------|
+ * |  SESSION_ID |   REQE_ID   |
+ * |---------------------------|
+ * |  REQE_ID    |   PAYLOAD   |
+ * |---------------------------|
+ * |      PAYLOAD (CONT..)     |
+ * |---------------------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class AuthSessionHandshakeMessage extends OnionAuthApiMessage {
+
+    private static final byte[] RESERVED = new byte[Short.BYTES];
+
+    @Getter
+    private final SessionId sessionId;
+
+    @Getter
+    private final int requestId;
+
+    @Getter
+    private final byte[] handshake;
+
+    private AuthSessionHandshakeMessage(MessageType messageType, SessionId sessionId, int requestId, byte[] handshake) {
+        super(messageType, RESERVED.length + SESSION_ID_BYTES + REQUEST_ID_BYTES + handshake.length);
+
+        this.sessionId = validSessionId(notNull(sessionId));
+        this.requestId = requestId;
+        this.handshake = notOversizedHadshake(handshake);
+    }
+
+    public static AuthSessionHandshakeMessage hs1(SessionId sessionId, int requestId, byte[] handshake) {
+        return new AuthSessionHandshakeMessage(AUTH_SESSION_HS1, sessionId, requestId, handshake);
+    }
+
+    public static AuthSessionHandshakeMessage hs2(SessionId sessionId, int requestId, byte[] handshake) {
+        return new AuthSessionHandshakeMessage(AUTH_SESSION_HS2, sessionId, requestId, handshake);
+    }
+
+    public static AuthSessionHandshakeMessage incomingHs2(SessionId sessionId, int requestId, byte[] handshake) {
+        return new AuthSessionHandshakeMessage(AUTH_SESSION_INCOMING_HS2, sessionId, requestId, handshake);
+    }
+
+    @Override
+    protected ByteBuffer writeMessage(ByteBuffer typedMessageBuffer) {
+        typedMessageBuffer.put(RESERVED);
+        putSessionId(typedMessageBuffer, sessionId);
+
+        return typedMessageBuffer
+            .putInt(requestId)
+            .put(handshake);
+    }
+
+    public static AuthSessionHandshakeMessage fromBytes(byte[] rawTypedMessage) {
+        val messageType = guessType(rawTypedMessage);
+        val rawMessage = untypeAny(rawTypedMessage, AUTH_SESSION_HS1, AUTH_SESSION_HS2, AUTH_SESSION_INCOMING_HS2);
+
+        rawMessage.position(RESERVED.length); // skip reserved
+        val parsedSessionId = getSessionId(rawMessage);
+        val parsedRequestId = rawMessage.getInt();
+        val parsedHandshake = remainingBytes(rawMessage);
+
+        return new AuthSessionHandshakeMessage(messageType, parsedSessionId, parsedRequestId, parsedHandshake);
+    }
+}
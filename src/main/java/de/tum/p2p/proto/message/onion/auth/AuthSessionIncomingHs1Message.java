@@ -0,0 +1,97 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.proto.ProtoException;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_SESSION_INCOMING_HS1;
+import static de.tum.p2p.util.Handshakes.notOversizedHadshake;
+import static de.tum.p2p.util.Keys.parsePublicKey;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AuthSessionIncomingHs1Message} passes HS1 received from a peer willing
+ * to establish a session to the Onion Auth module. The module responds with
+ * {@link AuthSessionHandshakeMessage} of type AUTH SESSION HS2.
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |  MESG_TYPE  |   RESERVED  |
+ * |---------------------------|
+ * |  RESERVED   |   REQE_ID   |
+ * |---------------------------|
+ * |  REQE_ID    |   KEY LEN   |
+ * |---------------------------|
+ * |  SRC KEY    |   PAYLOAD   |
+ * |---------------------------|
+ * |      PAYLOAD (CONT..)     |
+ * |---------------------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class AuthSessionIncomingHs1Message extends OnionAuthApiMessage {
+
+    private static final byte[] RESERVED = new byte[Integer.BYTES];
+
+    private static final int KEY_LENGTH_BYTES = Short.BYTES;
+
+    @Getter
+    private final int requestId;
+
+    @Getter
+    private final PublicKey sourceKey;
+
+    @Getter
+    private final byte[] handshake;
+
+    public AuthSessionIncomingHs1Message(int requestId, PublicKey sourceKey, byte[] handshake) {
+        super(AUTH_SESSION_INCOMING_HS1, RESERVED.length + REQUEST_ID_BYTES + KEY_LENGTH_BYTES
+            + sourceKey.getEncoded().length + handshake.length);
+
+        this.requestId = requestId;
+        this.sourceKey = notNull(sourceKey);
+        this.handshake = notOversizedHadshake(handshake);
+    }
+
+    @Override
+    protected ByteBuffer writeMessage(ByteBuffer typedMessageBuffer) {
+        val encodedSourceKey = sourceKey.getEncoded();
+
+        return typedMessageBuffer
+            .put(RESERVED)
+            .putInt(requestId)
+            .putShort((short) encodedSourceKey.length)
+            .put(encodedSourceKey)
+            .put(handshake);
+    }
+
+    public static AuthSessionIncomingHs1Message fromBytes(byte[] rawTypedMessage) {
+        val rawMessage = untype(rawTypedMessage, AUTH_SESSION_INCOMING_HS1);
+
+        rawMessage.position(RESERVED.length); // skip reserved
+        val parsedRequestId = rawMessage.getInt();
+
+        val rawSourceKey = new byte[Short.toUnsignedInt(rawMessage.getShort())];
+        rawMessage.get(rawSourceKey);
+
+        final PublicKey parsedSourceKey;
+        try {
+            parsedSourceKey = parsePublicKey(rawSourceKey);
+        } catch (InvalidKeySpecException e) {
+            throw new ProtoException("Failed to parse source key of AUTH SESSION INCOMING HS1", e);
+        }
+
+        return new AuthSessionIncomingHs1Message(parsedRequestId, parsedSourceKey, remainingBytes(rawMessage));
+    }
+}
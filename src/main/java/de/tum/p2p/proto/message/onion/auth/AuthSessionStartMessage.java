@@ -0,0 +1,78 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.proto.ProtoException;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+
+import static de.tum.p2p.proto.message.MessageType.AUTH_SESSION_START;
+import static de.tum.p2p.util.Keys.parsePublicKey;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code AuthSessionStartMessage} asks the Onion Auth module to start a new session
+ * with the peer of given hostkey. The module responds with
+ * {@link AuthSessionHandshakeMessage} of type AUTH SESSION HS1.
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |  MESG_TYPE  |   RESERVED  |
+ * |---------------------------|
+ * |  RESERVED   |   REQE_ID   |
+ * |---------------------------|
+ * |  REQE_ID    |   HOSTKEY   |
+ * |---------------------------|
+ * |      HOSTKEY (CONT..)     |
+ * |---------------------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class AuthSessionStartMessage extends OnionAuthApiMessage {
+
+    private static final byte[] RESERVED = new byte[Integer.BYTES];
+
+    @Getter
+    private final int requestId;
+
+    @Getter
+    private final PublicKey hostkey;
+
+    public AuthSessionStartMessage(int requestId, PublicKey hostkey) {
+        super(AUTH_SESSION_START, RESERVED.length + REQUEST_ID_BYTES + hostkey.getEncoded().length);
+
+        this.requestId = requestId;
+        this.hostkey = notNull(hostkey);
+    }
+
+    @Override
+    protected ByteBuffer writeMessage(ByteBuffer typedMessageBuffer) {
+        return typedMessageBuffer
+            .put(RESERVED)
+            .putInt(requestId)
+            .put(hostkey.getEncoded());
+    }
+
+    public static AuthSessionStartMessage fromBytes(byte[] rawTypedMessage) {
+        val rawMessage = untype(rawTypedMessage, AUTH_SESSION_START);
+
+        rawMessage.position(RESERVED.length); // skip reserved
+        val parsedRequestId = rawMessage.getInt();
+
+        val rawHostkey = remainingBytes(rawMessage);
+        try {
+            return new AuthSessionStartMessage(parsedRequestId, parsePublicKey(rawHostkey));
+        } catch (InvalidKeySpecException e) {
+            throw new ProtoException("Failed to parse hostkey of AUTH SESSION START", e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.tum.p2p.proto.message.onion.auth;
+
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.proto.ProtoException;
+import de.tum.p2p.proto.message.MessageType;
+import de.tum.p2p.proto.message.TypedMessage;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static de.tum.p2p.util.TypeLimits.USHRT_MAX;
+import static java.lang.String.format;
+
+/**
+ * {@code OnionAuthApiMessage} is a {@link TypedMessage} exchanged with the remote
+ * Onion Auth module via TCP using {@link MessageType} 600-610.
+ * <p>
+ * Every message that is answered by the Onion Auth module carries a 32 bit request
+ * id that the response echoes, so that many requests may be outstanding on the
+ * same connection. Responses always keep it at the same offset, see
+ * {@link #requestIdOf(byte[])}. Session ids are 16 bit wide on the wire.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public abstract class OnionAuthApiMessage extends TypedMessage {
+
+    protected static final int REQUEST_ID_BYTES = Integer.BYTES;
+
+    protected static final int SESSION_ID_BYTES = Short.BYTES;
+
+    /**
+     * Offset of the request id in responses (HS1, HS2, ENCRYPT/DECRYPT RESP, ERROR)
+     * right after the message type
+     */
+    private static final int RESPONSE_REQUEST_ID_OFFSET = MessageType.BYTES + Integer.BYTES;
+
+    protected OnionAuthApiMessage(MessageType messageType, int msgBodySize) {
+        super(messageType, msgBodySize);
+    }
+
+    /**
+     * Reads a request id of the raw response without parsing the whole message
+     *
+     * @param rawTypedMessage a raw response of the Onion Auth module
+     * @return a request id the response belongs to
+     */
+    public static int requestIdOf(byte[] rawTypedMessage) {
+        if (rawTypedMessage.length < RESPONSE_REQUEST_ID_OFFSET + REQUEST_ID_BYTES)
+            throw new ProtoException("Too short Onion Auth response to contain request id, " +
+                "length = " + rawTypedMessage.length);
+
+        return ByteBuffer.wrap(rawTypedMessage).getInt(RESPONSE_REQUEST_ID_OFFSET);
+    }
+
+    protected static SessionId validSessionId(SessionId sessionId) {
+        val rawSessionId = sessionId.raw();
+
+        if (rawSessionId < 0 || rawSessionId > USHRT_MAX)
+            throw new IllegalArgumentException(format("Onion Auth session ids are 16 bit wide, " +
+                "sessionId = %d doesn't fit", rawSessionId));
+
+        return sessionId;
+    }
+
+    protected static void putSessionId(ByteBuffer buffer, SessionId sessionId) {
+        buffer.putShort((short) sessionId.raw());
+    }
+
+    protected static SessionId getSessionId(ByteBuffer buffer) {
+        return SessionId.wrap(Short.toUnsignedInt(buffer.getShort()));
+    }
+
+    protected static byte[] remainingBytes(ByteBuffer buffer) {
+        val bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Cleans byte array from {@link MessageType} given that it's one of the types
+     * supported by the message
+     */
+    protected static ByteBuffer untypeAny(byte[] rawTypedMessage, MessageType... supportedTypes) {
+        val type = guessType(rawTypedMessage);
+
+        for (val supportedType : supportedTypes)
+            if (supportedType == type)
+                return untype(rawTypedMessage, type);
+
+        throw new ProtoException(format("Failed untype raw typed message. Expected one of %s, given %s",
+            Arrays.toString(supportedTypes), type.name()));
+    }
+}
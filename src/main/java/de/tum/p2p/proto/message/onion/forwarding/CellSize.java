@@ -0,0 +1,88 @@
+package de.tum.p2p.proto.message.onion.forwarding;
+
+import lombok.val;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * {@code CellSize} enumerates sizes of tunnel cells that can be negotiated for
+ * a link between two onions via {@link LinkHelloMessage}. All cells on a link
+ * are padded to the link's uniform cell size.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public enum CellSize {
+    CELL_512(512),
+    CELL_1024(TunnelMessage.BYTES),
+    CELL_4096(4096),
+    CELL_16384(16384);
+
+    /**
+     * A cell size used on links until another one is negotiated
+     */
+    public static final CellSize DEFAULT = CELL_1024;
+
+    private final int bytes;
+
+    CellSize(int bytes) {
+        this.bytes = bytes;
+    }
+
+    public int bytes() {
+        return bytes;
+    }
+
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    public static int mask(Collection<CellSize> cellSizes) {
+        int mask = 0;
+        for (val cellSize : cellSizes)
+            mask |= cellSize.mask();
+
+        return mask;
+    }
+
+    public static Set<CellSize> fromMask(int mask) {
+        val cellSizes = EnumSet.noneOf(CellSize.class);
+        for (val cellSize : values())
+            if ((mask & cellSize.mask()) != 0)
+                cellSizes.add(cellSize);
+
+        return cellSizes;
+    }
+
+    public static Optional<CellSize> fromBytes(int bytes) {
+        for (val cellSize : values())
+            if (cellSize.bytes == bytes)
+                return Optional.of(cellSize);
+
+        return Optional.empty();
+    }
+
+    /**
+     * Picks the biggest cell size supported by both link sides that doesn't exceed
+     * the size any side prefers. Falls back to {@link #DEFAULT} if there is none.
+     *
+     * @param supported     cell sizes supported by this side
+     * @param preferred     cell size preferred by this side
+     * @param peerSupported cell sizes supported by the remote side
+     * @param peerPreferred cell size preferred by the remote side
+     * @return negotiated cell size
+     */
+    public static CellSize negotiate(Set<CellSize> supported, CellSize preferred,
+                                     Set<CellSize> peerSupported, CellSize peerPreferred) {
+        val limit = Math.min(preferred.bytes, peerPreferred.bytes);
+
+        CellSize negotiated = null;
+        for (val cellSize : values())
+            if (cellSize.bytes <= limit && supported.contains(cellSize) && peerSupported.contains(cellSize))
+                negotiated = cellSize;
+
+        return negotiated != null ? negotiated : DEFAULT;
+    }
+}
@@ -0,0 +1,100 @@
+package de.tum.p2p.proto.message.onion.forwarding;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.ProtoException;
+import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+import lombok.val;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import static de.tum.p2p.proto.message.MessageType.ONION_LINK_HELLO;
+import static java.lang.Short.toUnsignedInt;
+import static org.apache.commons.lang3.Validate.notEmpty;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * {@code LinkHelloMessage} is the first message exchanged on a new link between two
+ * onions and is always sent in a cell of {@link CellSize#DEFAULT} size. The connecting
+ * side announces cell sizes it supports and the one it prefers, the accepting side
+ * responses with its supported sizes and the negotiated cell size. Both sides switch
+ * to the negotiated size right after the exchange. A hello is accepted as the first
+ * frame of a link only, so the cell size can't change once the link carries tunnels.
+ * <p>
+ * The message doesn't belong to any tunnel and carries a zero tunnel id.
+ * <p>
+ * Packet structure:
+ * <pre>
+ * |---------------------------|
+ * |      TUNNEL ID (ZERO)     |
+ * |---------------------------|
+ * |  MESG_TYPE  |  SUPPORTED  |
+ * |---------------------------|
+ * |  CELL SIZE  |
+ * |-------------|
+ * </pre>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@Accessors(fluent = true)
+@ToString @EqualsAndHashCode(callSuper = true)
+public class LinkHelloMessage extends TypedTunnelMessage {
+
+    private static final TunnelId LINK_TUNNEL_ID = TunnelId.wrap(0);
+
+    @Getter
+    private final Set<CellSize> supportedCellSizes;
+
+    /**
+     * Preferred cell size in a hello request, negotiated one in a response
+     */
+    @Getter
+    private final CellSize cellSize;
+
+    public LinkHelloMessage(Set<CellSize> supportedCellSizes, CellSize cellSize) {
+        super(LINK_TUNNEL_ID, ONION_LINK_HELLO);
+        this.supportedCellSizes = notEmpty(supportedCellSizes);
+        this.cellSize = notNull(cellSize);
+    }
+
+    public static LinkHelloMessage fromBytes(byte[] bytes) {
+        return fromBytes(ByteBuffer.wrap(bytes));
+    }
+
+    public static LinkHelloMessage fromBytes(ByteBuffer bytes) {
+        try {
+            val bytesBuffer = bytes.duplicate();
+
+            bytesBuffer.getInt(); // tunnel id
+            val messageType = MessageType.fromCode(bytesBuffer.getShort());
+
+            if (messageType != ONION_LINK_HELLO)
+                throw new IllegalArgumentException("Not a ONION_LINK_HELLO message");
+
+            val parsedSupportedCellSizes = CellSize.fromMask(toUnsignedInt(bytesBuffer.getShort()));
+            if (parsedSupportedCellSizes.isEmpty())
+                throw new ProtoException("Failed to parse ONION_LINK_HELLO message - no cell sizes supported");
+
+            val parsedCellBytes = toUnsignedInt(bytesBuffer.getShort());
+            val parsedCellSize = CellSize.fromBytes(parsedCellBytes).orElseThrow(() ->
+                new ProtoException("Failed to parse ONION_LINK_HELLO message - unknown cell size " + parsedCellBytes));
+
+            return new LinkHelloMessage(parsedSupportedCellSizes, parsedCellSize);
+        } catch (BufferUnderflowException | BufferOverflowException e) {
+            throw new ProtoException("Failed to parse ONION_LINK_HELLO message", e);
+        }
+    }
+
+    @Override
+    protected void writeBody(ByteBuf messageBuf) {
+        messageBuf.writeShort(CellSize.mask(supportedCellSizes));
+        messageBuf.writeShort(cellSize.bytes());
+    }
+}
@@ -3,12 +3,11 @@ package de.tum.p2p.proto.message.onion.forwarding;
 import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.proto.RequestId;
 import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 
-import java.nio.ByteBuffer;
-
 /**
  * {@code TraceableTypedTunnelMessage} is traceable version of {@code TypedTunnelMessage},
  * i.e. contains {@code RequestId} used to communication in request-response manner
@@ -53,9 +52,9 @@ public abstract class TraceableTypedTunnelMessage extends TypedTunnelMessage {
     }
 
     @Override
-    protected void writeHeaders(ByteBuffer messageBuffer) {
-        messageBuffer.putInt(tunnelId.raw());
-        messageBuffer.putShort(messageType.code());
-        messageBuffer.putShort(requestId.raw());
+    protected void writeHeaders(ByteBuf messageBuf) {
+        messageBuf.writeInt(tunnelId.raw());
+        messageBuf.writeShort(messageType.code());
+        messageBuf.writeShort(requestId.raw());
     }
 }
@@ -4,6 +4,7 @@ import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.proto.ProtoException;
 import de.tum.p2p.proto.RequestId;
 import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -66,8 +67,12 @@ public class TunnelExtendMessage extends TraceableTypedTunnelMessage {
     }
 
     public static TunnelExtendMessage fromBytes(byte[] bytes) {
+        return fromBytes(ByteBuffer.wrap(bytes));
+    }
+
+    public static TunnelExtendMessage fromBytes(ByteBuffer bytes) {
         try {
-            val bytesBuffer = ByteBuffer.wrap(bytes);
+            val bytesBuffer = bytes.duplicate();
 
             val parsedTunnelId = TunnelId.wrap(bytesBuffer.getInt());
             val messageType = MessageType.fromCode(bytesBuffer.getShort());
@@ -99,12 +104,12 @@ public class TunnelExtendMessage extends TraceableTypedTunnelMessage {
     }
 
     @Override
-    protected void writeBody(ByteBuffer messageBuffer) {
+    protected void writeBody(ByteBuf messageBuf) {
         val sourceKeyBytes = sourceKey.getEncoded();
-        messageBuffer.putShort((short) sourceKeyBytes.length);
-        messageBuffer.put(sourceKeyBytes);
+        messageBuf.writeShort(sourceKeyBytes.length);
+        messageBuf.writeBytes(sourceKeyBytes);
 
-        messageBuffer.putShort((short) handshake.length);
-        messageBuffer.put(handshake);
+        messageBuf.writeShort(handshake.length);
+        messageBuf.writeBytes(handshake);
     }
 }
@@ -4,6 +4,7 @@ import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.proto.ProtoException;
 import de.tum.p2p.proto.RequestId;
 import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
@@ -64,8 +65,12 @@ public class TunnelExtendedMessage extends TraceableTypedTunnelMessage {
     }
 
     public static TunnelExtendedMessage fromBytes(byte[] bytes) {
+        return fromBytes(ByteBuffer.wrap(bytes));
+    }
+
+    public static TunnelExtendedMessage fromBytes(ByteBuffer bytes) {
         try {
-            val bytesBuffer = ByteBuffer.wrap(bytes);
+            val bytesBuffer = bytes.duplicate();
 
             val parsedTunnelId = TunnelId.wrap(bytesBuffer.getInt());
             val messageType = MessageType.fromCode(bytesBuffer.getShort());
@@ -86,8 +91,8 @@ public class TunnelExtendedMessage extends TraceableTypedTunnelMessage {
     }
 
     @Override
-    protected void writeBody(ByteBuffer messageBuffer) {
-        messageBuffer.putShort((short) handshake.length);
-        messageBuffer.put(handshake);
+    protected void writeBody(ByteBuf messageBuf) {
+        messageBuf.writeShort(handshake.length);
+        messageBuf.writeBytes(handshake);
     }
 }
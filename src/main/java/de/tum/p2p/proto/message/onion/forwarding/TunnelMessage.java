@@ -1,22 +1,24 @@
 package de.tum.p2p.proto.message.onion.forwarding;
 
 import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.ProtoException;
 import de.tum.p2p.proto.message.Message;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import lombok.val;
 
-import java.nio.ByteBuffer;
-
-import static de.tum.p2p.util.ByteBuffers.bufferWrittenBytes;
-import static de.tum.p2p.util.ByteBuffers.randPadRemaining;
+import static java.lang.String.format;
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
  * {@code TunnelMessage} is a base message type for Onion 2 Onion communication
  * via tunnels. It contains {@code TunnelId} and is capable of padding payloads
- * results of {@link TunnelMessage#writeBody(ByteBuffer)}
+ * results of {@link TunnelMessage#writeBody(ByteBuf)}
  * <p>
  * Packet structure (abstract):
  * <pre>
@@ -55,25 +57,71 @@ public abstract class TunnelMessage implements Message {
         this.tunnelId = notNull(tunnelId);
     }
 
-    protected void writeHeaders(ByteBuffer messageBuffer) {
-        messageBuffer.putInt(tunnelId.raw());
+    protected void writeHeaders(ByteBuf messageBuf) {
+        messageBuf.writeInt(tunnelId.raw());
     }
 
-    protected abstract void writeBody(ByteBuffer messageBuffer);
+    protected abstract void writeBody(ByteBuf messageBuf);
 
-    @Override
-    public final byte[] bytes() {
-        val msgBytesBuffer = ByteBuffer.allocate(BYTES);
+    /**
+     * Serializes the message into given buffer starting at its writer index
+     * using {@link CellPaddings#defaultPadding()}.
+     *
+     * @param out a buffer to write the message to
+     * @throws ProtoException if headers and body don't fit into {@link #BYTES}
+     * @see #writeTo(ByteBuf, CellPadding)
+     */
+    public final void writeTo(ByteBuf out) {
+        writeTo(out, CellPaddings.defaultPadding());
+    }
 
-        writeHeaders(msgBytesBuffer);
-        writeBody(msgBytesBuffer);
+    /**
+     * Serializes the message into a cell of default {@link #BYTES} size
+     *
+     * @param out     a buffer to write the message to
+     * @param padding a padding strategy to fill the rest of the cell with
+     * @throws ProtoException if headers and body don't fit into {@link #BYTES}
+     * @see #writeTo(ByteBuf, int, CellPadding)
+     */
+    public final void writeTo(ByteBuf out, CellPadding padding) {
+        writeTo(out, BYTES, padding);
+    }
 
-        if (msgBytesBuffer.remaining() == 0)
-            return msgBytesBuffer.array();
+    /**
+     * Serializes the message into given buffer starting at its writer index.
+     * Exactly {@code cellBytes} are written, i.e. headers, body and random padding
+     * that fills the rest of the cell.
+     *
+     * @param out       a buffer to write the message to
+     * @param cellBytes a cell size of the link the message is written to
+     * @param padding   a padding strategy to fill the rest of the cell with
+     * @throws ProtoException if headers and body don't fit into {@code cellBytes}
+     * @see CellSize
+     */
+    public final void writeTo(ByteBuf out, int cellBytes, CellPadding padding) {
+        val msgStartIndex = out.writerIndex();
+
+        try {
+            writeHeaders(out);
+            writeBody(out);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ProtoException("Failed to write tunnel message - buffer capacity exceeded", e);
+        }
+
+        val msgWrittenBytes = out.writerIndex() - msgStartIndex;
+        if (msgWrittenBytes > cellBytes)
+            throw new ProtoException(format("Tunnel message exceeded max cell size. " +
+                "Expected max = %d, actual = %d", cellBytes, msgWrittenBytes));
+
+        padding.pad(out, cellBytes - msgWrittenBytes);
+    }
 
-        val paddedMsgBytesBuffer = randPadRemaining(msgBytesBuffer);
+    @Override
+    public final byte[] bytes() {
+        val msgBuf = Unpooled.buffer(BYTES, BYTES);
+        writeTo(msgBuf);
 
-        return bufferWrittenBytes(paddedMsgBytesBuffer);
+        return msgBuf.array();
     }
 
     @Override
@@ -3,6 +3,7 @@ package de.tum.p2p.proto.message.onion.forwarding;
 import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.proto.ProtoException;
 import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
 import lombok.EqualsAndHashCode;
 import lombok.val;
 
@@ -35,8 +36,12 @@ public class TunnelRetireMessage extends TypedTunnelMessage {
     }
 
     public static TunnelRetireMessage fromBytes(byte[] bytes) {
+        return fromBytes(ByteBuffer.wrap(bytes));
+    }
+
+    public static TunnelRetireMessage fromBytes(ByteBuffer bytes) {
         try {
-            val bytesBuffer = ByteBuffer.wrap(bytes);
+            val bytesBuffer = bytes.duplicate();
 
             val parsedTunnelId = TunnelId.wrap(bytesBuffer.getInt());
             val messageType = MessageType.fromCode(bytesBuffer.getShort());
@@ -51,7 +56,7 @@ public class TunnelRetireMessage extends TypedTunnelMessage {
     }
 
     @Override
-    protected void writeBody(ByteBuffer messageBuffer) {
+    protected void writeBody(ByteBuf messageBuf) {
         // Retire message doesn't carry any additional payload
     }
 }
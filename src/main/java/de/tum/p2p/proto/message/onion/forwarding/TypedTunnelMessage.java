@@ -2,6 +2,7 @@ package de.tum.p2p.proto.message.onion.forwarding;
 
 import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.proto.message.MessageType;
+import io.netty.buffer.ByteBuf;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -54,9 +55,9 @@ public abstract class TypedTunnelMessage extends TunnelMessage {
     }
 
     @Override
-    protected void writeHeaders(ByteBuffer messageBuffer) {
-        messageBuffer.putInt(tunnelId.raw());
-        messageBuffer.putShort(messageType.code());
+    protected void writeHeaders(ByteBuf messageBuf) {
+        messageBuf.writeInt(tunnelId.raw());
+        messageBuf.writeShort(messageType.code());
     }
 
     public static MessageType guessType(byte[] bytes) {
@@ -68,4 +69,11 @@ public abstract class TypedTunnelMessage extends TunnelMessage {
 
         return MessageType.fromCode(bytesBuffer.getShort());
     }
+
+    public static MessageType guessType(ByteBuf byteBuf) {
+        if (byteBuf.readableBytes() < TunnelId.BYTES + MessageType.BYTES)
+            return MessageType.UNKNOWN;
+
+        return MessageType.fromCode(byteBuf.getShort(byteBuf.readerIndex() + TunnelId.BYTES));
+    }
 }
@@ -0,0 +1,147 @@
+package de.tum.p2p.proto.message.onion.forwarding.composite;
+
+import de.tum.p2p.proto.ProtoException;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.val;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * {@code DatumIntegrity} enumerates checksums {@link TunnelDatum} can protect its payload
+ * with. The originator picks one for its tunnels and the code of the chosen checksum
+ * travels along with every datum. The code is not authenticated, onions along the tunnel
+ * may flip it, so the destination doesn't obey it blindly: datum protected by a weaker
+ * check than the one the destination is configured with is rejected (see
+ * {@link #isAtLeast(DatumIntegrity)}), which prevents downgrading MD5 to NONE.
+ * <p>
+ * Checksums are computed over {@link ByteBuffer} views of payloads, without copying
+ * them. Digests are compared in constant time. Checks are declared from the weakest
+ * to the strongest:
+ * <ul>
+ *     <li>{@link #MD5} - 16 bytes, detects deliberate modifications of encrypted payload
+ *     by onions that don't know the plaintext</li>
+ *     <li>{@link #CRC32} - 4 bytes, detects accidental corruption only (e.g. peeled with
+ *     wrong keys) but is several times cheaper</li>
+ *     <li>{@link #NONE} - for authorizers that authenticate payloads on their own</li>
+ * </ul>
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public enum DatumIntegrity {
+
+    NONE(0, 0) {
+        @Override
+        public void write(ByteBuffer payload, ByteBuffer out) {
+            // nothing to compute
+        }
+    },
+
+    CRC32(1, Integer.BYTES) {
+        private final FastThreadLocal<java.util.zip.CRC32> crc32s = new FastThreadLocal<java.util.zip.CRC32>() {
+            @Override
+            protected java.util.zip.CRC32 initialValue() {
+                return new java.util.zip.CRC32();
+            }
+        };
+
+        @Override
+        public void write(ByteBuffer payload, ByteBuffer out) {
+            val crc32 = crc32s.get();
+            crc32.reset();
+            crc32.update(payload);
+
+            out.putInt((int) crc32.getValue());
+        }
+    },
+
+    MD5(2, 16) {
+        private final FastThreadLocal<MessageDigest> md5s = new FastThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() throws NoSuchAlgorithmException {
+                return MessageDigest.getInstance("MD5");
+            }
+        };
+
+        @Override
+        public void write(ByteBuffer payload, ByteBuffer out) {
+            val md5 = md5s.get();
+            md5.update(payload);
+
+            out.put(md5.digest());
+        }
+    };
+
+    /**
+     * An integrity check {@link TunnelDatum}s are created with unless specified otherwise
+     */
+    public static final DatumIntegrity DEFAULT = MD5;
+
+    /**
+     * The longest digest of all checksums
+     */
+    public static final int MAX_DIGEST_BYTES = 16;
+
+    private final byte code;
+    private final int digestBytes;
+
+    DatumIntegrity(int code, int digestBytes) {
+        this.code = (byte) code;
+        this.digestBytes = digestBytes;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public int digestBytes() {
+        return digestBytes;
+    }
+
+    /**
+     * @param required the weakest check acceptable
+     * @return true if this check is as strong as {@code required} or stronger
+     */
+    public boolean isAtLeast(DatumIntegrity required) {
+        return compareTo(required) >= 0;
+    }
+
+    public static DatumIntegrity fromCode(byte code) {
+        for (val integrity : values())
+            if (integrity.code == code)
+                return integrity;
+
+        throw new ProtoException("Unknown datum integrity check " + code);
+    }
+
+    /**
+     * Checks the digest of payload's remaining bytes against {@code expectedDigest}'s
+     * next {@link #digestBytes()} bytes. Positions of both buffers are advanced.
+     *
+     * @param payload        payload to compute digest of
+     * @param expectedDigest a buffer holding received digest
+     * @return true if digests match
+     */
+    public boolean verify(ByteBuffer payload, ByteBuffer expectedDigest) {
+        if (digestBytes == 0)
+            return true;
+
+        val actualDigest = ByteBuffer.allocate(digestBytes);
+        write(payload, actualDigest);
+
+        val receivedDigest = new byte[digestBytes];
+        expectedDigest.get(receivedDigest);
+
+        return MessageDigest.isEqual(actualDigest.array(), receivedDigest);
+    }
+
+    /**
+     * Computes a digest of payload's remaining bytes and puts it into {@code out}.
+     * Positions of {@code payload} and {@code out} are advanced.
+     *
+     * @param payload payload to compute digest of
+     * @param out     a buffer to put the digest to
+     */
+    public abstract void write(ByteBuffer payload, ByteBuffer out);
+}
@@ -2,6 +2,7 @@ package de.tum.p2p.proto.message.onion.forwarding.composite;
 
 import de.tum.p2p.proto.ProtoException;
 import de.tum.p2p.proto.message.MessageType;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -14,8 +15,8 @@ import java.util.concurrent.ThreadLocalRandom;
 
 import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_COVER;
 import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_DATUM;
-import static java.util.Objects.deepEquals;
-import static org.apache.commons.codec.digest.DigestUtils.md5;
+import static java.lang.Short.toUnsignedInt;
+import static org.apache.commons.lang3.Validate.isTrue;
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
@@ -26,14 +27,28 @@ import static org.apache.commons.lang3.Validate.notNull;
  * The TunnelDatum can be either of type ONION_TUNNEL_DATUM or ONION_TUNNEL_COVER
  * so that the destination peer can distinguish fake cover from real data.
  * <p>
+ * Data bigger than a single datum can carry is fragmented by {@link TunnelDatumFactory}.
+ * Every fragment carries an id of the message it belongs to, its index within the
+ * message and the total amount of fragments so that the destination can reassemble
+ * the original message. Datum carrying the whole message has a fragment count of 1.
+ * <p>
+ * The payload is protected by a {@link DatumIntegrity} check chosen by the originator.
+ * The digest length depends on the check, e.g. 16 bytes for MD5 and none for NONE.
+ * <p>
  * Payload structure:
  * <pre>
  * |---------------------------|
  * |  DATUM/CVR  |    PSIZE    |
  * |---------------------------|
+ * |         MESSAGE ID        |
+ * |---------------------------|
+ * |  FRAG INDEX | FRAG COUNT  |
+ * |---------------------------|
+ * | INTEGR |
+ * |---------------------------|
  * |          PAYLOAD          |
  * |---------------------------|
- * |         MD5  HASH         |
+ * |     DIGEST (OPTIONAL)     |
  * |---------------------------|
  * </pre>
  *
@@ -43,36 +58,84 @@ import static org.apache.commons.lang3.Validate.notNull;
 @EqualsAndHashCode(callSuper = true)
 public class TunnelDatum extends TunnelRelayPayload {
 
-    private static final int HASH_LENGTH = 16; // md5
-
     /**
      * A size of metadata this message carries
      */
     public static final int META_BYTES = TunnelRelayPayload.META_BYTES
-        + Short.SIZE    // payload size
-        + HASH_LENGTH;  // hash length
+        + Short.SIZE        // payload size
+        + Integer.BYTES     // message id
+        + Short.BYTES * 2   // fragment index and count
+        + Byte.BYTES        // integrity check
+        + DatumIntegrity.MAX_DIGEST_BYTES;
+
+    /**
+     * Max amount of fragments a message can be split into. Destinations don't
+     * reassemble messages of more fragments, although the header could count
+     * up to 0xFFFF of them.
+     */
+    public static final int MAX_FRAGMENTS = 1024;
 
     /**
      * Amount of bytes that are free to use for data (max - meta)
+     * in cells of default size
      */
-    public static final int PAYLOAD_BYTES = BYTES - META_BYTES;
+    public static final int PAYLOAD_BYTES = payloadBytes(TunnelMessage.BYTES);
+
+    @Getter
+    private final int messageId;
+
+    @Getter
+    private final int fragmentIndex;
+
+    @Getter
+    private final int fragmentCount;
+
+    @Getter
+    private final DatumIntegrity integrity;
 
     @Getter
     private final byte[] payload;
 
-    private TunnelDatum(MessageType messageType, byte[] payload) {
+    private TunnelDatum(MessageType messageType, int messageId, int fragmentIndex, int fragmentCount,
+                        DatumIntegrity integrity, byte[] payload) {
         super(ensureDatumOrCoverMessageType(messageType));
+
+        isTrue(fragmentCount > 0 && fragmentCount <= MAX_FRAGMENTS,
+            "Fragment count must be in [1, %d]", MAX_FRAGMENTS);
+        isTrue(fragmentIndex >= 0 && fragmentIndex < fragmentCount,
+            "Fragment index must be in [0, fragmentCount)");
+
+        this.messageId = messageId;
+        this.fragmentIndex = fragmentIndex;
+        this.fragmentCount = fragmentCount;
+        this.integrity = notNull(integrity);
         this.payload = notNull(payload);
     }
 
+    /**
+     * Creates a datum carrying a fragment of a bigger message
+     *
+     * @param messageId     id of the message the fragment belongs to
+     * @param fragmentIndex index of the fragment within the message
+     * @param fragmentCount total amount of message fragments
+     * @param integrity     integrity check to protect payload with
+     * @param payload       fragment data
+     */
+    public TunnelDatum(int messageId, int fragmentIndex, int fragmentCount, DatumIntegrity integrity,
+                       byte[] payload) {
+        this(ONION_TUNNEL_DATUM, messageId, fragmentIndex, fragmentCount, integrity, payload);
+    }
+
+    public TunnelDatum(int messageId, int fragmentIndex, int fragmentCount, byte[] payload) {
+        this(messageId, fragmentIndex, fragmentCount, DatumIntegrity.DEFAULT, payload);
+    }
+
     public TunnelDatum(byte[] payload) {
-        super(ONION_TUNNEL_DATUM);
-        this.payload = notNull(payload);
+        this(ONION_TUNNEL_DATUM, 0, 0, 1, DatumIntegrity.DEFAULT, payload);
     }
 
     public TunnelDatum(int coverSize) {
-        super(ONION_TUNNEL_COVER);
-        this.payload = generateCoverPayload(coverSize);
+        this(ONION_TUNNEL_COVER, 0, 0, 1, DatumIntegrity.DEFAULT, generateCoverPayload(coverSize));
     }
 
     public static TunnelDatum fromBytes(byte[] bytes) {
@@ -82,26 +145,51 @@ public class TunnelDatum extends TunnelRelayPayload {
             val parsedMessageType = MessageType.fromCode(bytesBuffer.getShort());
 
             val payloadSize = bytesBuffer.getShort();
-            val parsedPayload = new byte[payloadSize];
-            bytesBuffer.get(parsedPayload);
 
-            val parsedPayloadHash = new byte[HASH_LENGTH];
-            bytesBuffer.get(parsedPayloadHash);
+            val parsedMessageId = bytesBuffer.getInt();
+            val parsedFragmentIndex = toUnsignedInt(bytesBuffer.getShort());
+            val parsedFragmentCount = toUnsignedInt(bytesBuffer.getShort());
+            val parsedIntegrity = DatumIntegrity.fromCode(bytesBuffer.get());
 
-            if (!deepEquals(md5(parsedPayload), parsedPayloadHash))
-                throw new ProtoException(ONION_TUNNEL_DATUM.name() + " MD5 hash check failed");
+            // Checksum is verified over a view of the payload, it's copied once verified only
+            val payloadView = (ByteBuffer) bytesBuffer.slice().limit(payloadSize);
+            bytesBuffer.position(bytesBuffer.position() + payloadSize);
 
-            return new TunnelDatum(parsedMessageType, parsedPayload);
+            if (!parsedIntegrity.verify(payloadView.duplicate(), bytesBuffer))
+                throw new ProtoException(ONION_TUNNEL_DATUM.name() + " " + parsedIntegrity + " check failed");
+
+            val parsedPayload = new byte[payloadSize];
+            payloadView.get(parsedPayload);
+
+            return new TunnelDatum(parsedMessageType, parsedMessageId, parsedFragmentIndex,
+                parsedFragmentCount, parsedIntegrity, parsedPayload);
+        } catch (IllegalArgumentException e) {
+            throw new ProtoException("Failed to parse ONION_TUNNEL_DATUM/ONION_TUNNEL_COVER message - " +
+                e.getMessage(), e);
         } catch (BufferUnderflowException | BufferOverflowException e) {
             throw new ProtoException("Failed to parse ONION_TUNNEL_DATUM/ONION_TUNNEL_COVER message", e);
         }
     }
 
+    /**
+     * Amount of data bytes a datum can carry in cells of the given size
+     *
+     * @param cellBytes a cell size of a link
+     * @return max datum payload size
+     */
+    public static int payloadBytes(int cellBytes) {
+        return TunnelRelayMessage.payloadBytes(cellBytes) - META_BYTES;
+    }
+
     @Override
     protected void writePayload(ByteBuffer messageBuffer) {
         messageBuffer.putShort((short) payload.length);
+        messageBuffer.putInt(messageId);
+        messageBuffer.putShort((short) fragmentIndex);
+        messageBuffer.putShort((short) fragmentCount);
+        messageBuffer.put(integrity.code());
         messageBuffer.put(payload);
-        messageBuffer.put(md5(payload));
+        integrity.write(ByteBuffer.wrap(payload), messageBuffer);
     }
 
     public boolean isCover() {
@@ -112,6 +200,10 @@ public class TunnelDatum extends TunnelRelayPayload {
         return messageType == ONION_TUNNEL_DATUM;
     }
 
+    public boolean isFragmented() {
+        return fragmentCount > 1;
+    }
+
     private static byte[] generateCoverPayload(int size) {
         if (size > PAYLOAD_BYTES)
             throw new IllegalArgumentException("Cover data cannot exceed max payload size = " + PAYLOAD_BYTES);
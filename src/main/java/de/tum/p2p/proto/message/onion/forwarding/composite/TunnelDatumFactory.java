@@ -5,17 +5,18 @@ import lombok.val;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.concurrent.ThreadLocalRandom;
 
-import static de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayPayload.PAYLOAD_BYTES;
 import static java.lang.Integer.min;
 import static java.lang.Math.ceil;
-import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.Validate.isTrue;
 
 /**
  * {@code TunnelDatumPayloadFactory} used to create {@link TunnelDatum}
  * that may be of size bigger then {@code TunnelDatumPayload} can carry. Therefore
  * this factory allows to partition the data and create multiple datum messages.
+ * All partitions share a random message id and are indexed so that the destination
+ * can reassemble them back into the original data.
  *
  * @see TunnelDatum
  *
@@ -24,24 +25,49 @@ import static java.util.stream.Collectors.toList;
 public class TunnelDatumFactory {
 
     public static List<TunnelDatum> ofMany(ByteBuffer data) {
-        return partitions(data).map(TunnelDatum::new).collect(toList());
+        return ofMany(data, TunnelDatum.PAYLOAD_BYTES);
     }
 
-    private static Stream<byte[]> partitions(ByteBuffer dataBuffer) {
-        val dataBufferDupe = dataBuffer.duplicate();
+    /**
+     * Partitions the data into datum messages carrying at most {@code maxPayloadBytes}
+     * each, e.g. {@link TunnelDatum#payloadBytes(int)} of the link's cell size.
+     *
+     * @param data            data to partition
+     * @param maxPayloadBytes max amount of data per datum
+     * @return datum messages
+     */
+    public static List<TunnelDatum> ofMany(ByteBuffer data, int maxPayloadBytes) {
+        return ofMany(data, maxPayloadBytes, DatumIntegrity.DEFAULT);
+    }
+
+    /**
+     * Partitions the data into datum messages carrying at most {@code maxPayloadBytes}
+     * each protected by the given integrity check
+     *
+     * @param data            data to partition
+     * @param maxPayloadBytes max amount of data per datum
+     * @param integrity       integrity check of datum payloads
+     * @return datum messages
+     */
+    public static List<TunnelDatum> ofMany(ByteBuffer data, int maxPayloadBytes, DatumIntegrity integrity) {
+        val dataBufferDupe = data.duplicate();
+
+        val partitionAmount = (int) ceil((double) dataBufferDupe.remaining() / maxPayloadBytes);
+        isTrue(partitionAmount <= TunnelDatum.MAX_FRAGMENTS, "Data is too big to be fragmented, " +
+            "max = %d bytes", (long) TunnelDatum.MAX_FRAGMENTS * maxPayloadBytes);
 
-        val partitionAmount = (int) ceil((double) dataBufferDupe.remaining() / PAYLOAD_BYTES);
+        val messageId = ThreadLocalRandom.current().nextInt();
 
-        val partitions = new ArrayList<byte[]>(partitionAmount);
+        val partitions = new ArrayList<TunnelDatum>(partitionAmount);
         for (int i = 0; i < partitionAmount; i++) {
-            val payloadSize = min(dataBufferDupe.remaining(), PAYLOAD_BYTES);
+            val payloadSize = min(dataBufferDupe.remaining(), maxPayloadBytes);
 
             val payload = new byte[payloadSize];
             dataBufferDupe.get(payload);
 
-            partitions.add(payload);
+            partitions.add(new TunnelDatum(messageId, i, partitionAmount, integrity, payload));
         }
 
-        return partitions.stream();
+        return partitions;
     }
 }
@@ -0,0 +1,242 @@
+package de.tum.p2p.proto.message.onion.forwarding.composite;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.ProtoException;
+import de.tum.p2p.proto.message.MessageType;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPadding;
+import de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import lombok.val;
+
+import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_RELAY;
+import static io.netty.buffer.ByteBufUtil.getBytes;
+
+/**
+ * {@code TunnelRelayCell} is a flyweight, reference-counted view of an inbound
+ * {@link TunnelRelayMessage} frame. Unlike {@link TunnelRelayMessage#fromBytes(byte[])}
+ * it does not copy the frame, but reads the tunnel id and relay payload directly from
+ * the underlying (usually pooled) {@link ByteBuf}.
+ * <p>
+ * The cell holds a reference to the frame it has been created from and must be
+ * released by whoever consumes it last (see {@link io.netty.util.ReferenceCounted}).
+ * Slices returned by {@link #payloadSlice()} share this reference and are valid only
+ * until the cell is released.
+ * <p>
+ * Relays can peel a crypto layer of the cell in place with {@link #peelInPlace(byte[], CellPadding)},
+ * or decrypt {@link #payloadSlice()} in place and complete it with {@link #peeledInPlace(int, CellPadding)},
+ * rewriting only the length and payload region of the frame, and forward the very same
+ * buffer to the next hop (cut-through forwarding). Since tunnel ids are link-local, the
+ * tunnel id header is rewritten to the next link's id by {@link #retunnelInPlace(int)}.
+ *
+ * @see TunnelRelayMessage
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public class TunnelRelayCell extends DefaultByteBufHolder {
+
+    private static final int TUNNEL_ID_OFFSET = 0;
+    private static final int TYPE_OFFSET = TUNNEL_ID_OFFSET + TunnelId.BYTES;
+    private static final int PSIZE_OFFSET = TYPE_OFFSET + MessageType.BYTES;
+    private static final int PAYLOAD_OFFSET = PSIZE_OFFSET + Short.BYTES;
+
+    public TunnelRelayCell(ByteBuf cell) {
+        super(cell);
+    }
+
+    /**
+     * Validates relay cell's frame and wraps its retained slice into {@code TunnelRelayCell}.
+     * The frame is retained once, the cell owns that reference and must be released.
+     *
+     * @param frame inbound relay message frame
+     * @return a cell sharing content and reference count with {@code frame}
+     * @throws ProtoException if frame is too short to contain a relay message or isn't one
+     */
+    public static TunnelRelayCell retainedFrom(ByteBuf frame) {
+        val readable = frame.readableBytes();
+
+        if (readable < PAYLOAD_OFFSET)
+            throw new ProtoException("Failed to parse tunnel relay cell - frame is too short");
+
+        val messageType = MessageType.fromCode(frame.getShort(frame.readerIndex() + TYPE_OFFSET));
+        if (messageType != ONION_TUNNEL_RELAY)
+            throw new ProtoException("Failed to parse tunnel relay cell - not a ONION_TUNNEL_RELAY frame, " +
+                "but " + messageType);
+
+        val psize = frame.getUnsignedShort(frame.readerIndex() + PSIZE_OFFSET);
+        if (psize > readable - PAYLOAD_OFFSET)
+            throw new ProtoException("Failed to parse tunnel relay cell - payload size exceeds frame. " +
+                "Expected max = " + (readable - PAYLOAD_OFFSET) + ", actual = " + psize);
+
+        return new TunnelRelayCell(frame.retainedSlice());
+    }
+
+    public TunnelId tunnelId() {
+        return TunnelId.wrap(content().getInt(content().readerIndex() + TUNNEL_ID_OFFSET));
+    }
+
+    public int payloadLength() {
+        return content().getUnsignedShort(content().readerIndex() + PSIZE_OFFSET);
+    }
+
+    /**
+     * Returns a slice of the relay payload that shares content and reference
+     * count with this cell, i.e. no bytes are copied.
+     *
+     * @return relay payload slice
+     */
+    public ByteBuf payloadSlice() {
+        return content().slice(content().readerIndex() + PAYLOAD_OFFSET, payloadLength());
+    }
+
+    /**
+     * Copies this cell's content into an unpooled {@link TunnelRelayMessage}
+     *
+     * @return relay message with a copy of this cell's payload
+     */
+    public TunnelRelayMessage toMessage() {
+        return new TunnelRelayMessage(tunnelId(), getBytes(payloadSlice()));
+    }
+
+    public TunnelRelayMessage peel(byte[] peeledPayload) {
+        return new TunnelRelayMessage(tunnelId(), peeledPayload);
+    }
+
+    /**
+     * @param peeledPayload payload with one crypto layer removed
+     * @param nextTunnelId  id of the tunnel on the link the relay is propagated with
+     * @return relay message to propagate to the next hop
+     */
+    public TunnelRelayMessage peel(byte[] peeledPayload, TunnelId nextTunnelId) {
+        return new TunnelRelayMessage(nextTunnelId, peeledPayload);
+    }
+
+    /**
+     * Rewrites the tunnel id header of this cell's frame, e.g. to the id the tunnel
+     * has on the link the cell is propagated with
+     *
+     * @param tunnelId raw id of the tunnel
+     * @return this cell
+     * @throws ProtoException if the frame is read only
+     */
+    public TunnelRelayCell retunnelInPlace(int tunnelId) {
+        if (content().isReadOnly())
+            throw new ProtoException("Failed to rewrite tunnel id of relay cell in place - frame is read only");
+
+        content().setInt(content().readerIndex() + TUNNEL_ID_OFFSET, tunnelId);
+
+        return this;
+    }
+
+    /**
+     * Checks whether a peeled payload of the given length can be written back to this
+     * cell's frame, i.e. the frame is writable and has enough room for the payload.
+     *
+     * @param peeledPayloadLength length of the peeled payload
+     * @return true if {@link #peelInPlace(byte[], CellPadding)} can be applied
+     */
+    public boolean canPeelInPlace(int peeledPayloadLength) {
+        val frame = content();
+
+        return !frame.isReadOnly() && peeledPayloadLength <= frame.readableBytes() - PAYLOAD_OFFSET;
+    }
+
+    public TunnelRelayCell peelInPlace(byte[] peeledPayload) {
+        return peelInPlace(peeledPayload, CellPaddings.defaultPadding());
+    }
+
+    /**
+     * Replaces the relay payload of this cell with {@code peeledPayload} in place.
+     * The tunnel id header is kept, the payload size is rewritten and the rest of
+     * the frame after the new payload is padded with random bytes, so that the frame
+     * keeps its length and can be sent as is.
+     *
+     * @param peeledPayload payload with one crypto layer removed
+     * @param padding       a padding strategy to fill the rest of the frame with
+     * @return this cell
+     * @throws ProtoException if payload doesn't fit the frame or the frame is read only
+     */
+    public TunnelRelayCell peelInPlace(byte[] peeledPayload, CellPadding padding) {
+        if (!canPeelInPlace(peeledPayload.length))
+            throw new ProtoException("Failed to peel relay cell in place - frame is read only or " +
+                "payload is too big. Expected max = " + (content().readableBytes() - PAYLOAD_OFFSET) +
+                ", actual = " + peeledPayload.length);
+
+        content().setBytes(content().readerIndex() + PAYLOAD_OFFSET, peeledPayload);
+
+        return peeledInPlace(peeledPayload.length, padding);
+    }
+
+    /**
+     * Completes peeling of a layer that has already been written over the relay payload
+     * of this cell, e.g. by decrypting {@link #payloadSlice()} in place: the payload size
+     * is rewritten and the rest of the frame after the peeled payload is padded.
+     *
+     * @param peeledPayloadLength length of the peeled payload at the start of the payload region
+     * @param padding             a padding strategy to fill the rest of the frame with
+     * @return this cell
+     * @throws ProtoException if payload doesn't fit the frame or the frame is read only
+     */
+    public TunnelRelayCell peeledInPlace(int peeledPayloadLength, CellPadding padding) {
+        if (!canPeelInPlace(peeledPayloadLength))
+            throw new ProtoException("Failed to peel relay cell in place - frame is read only or " +
+                "payload is too big. Expected max = " + (content().readableBytes() - PAYLOAD_OFFSET) +
+                ", actual = " + peeledPayloadLength);
+
+        val frame = content();
+        val frameEnd = frame.writerIndex();
+        val payloadIndex = frame.readerIndex() + PAYLOAD_OFFSET;
+
+        frame.setShort(frame.readerIndex() + PSIZE_OFFSET, peeledPayloadLength);
+
+        val paddingIndex = payloadIndex + peeledPayloadLength;
+        frame.writerIndex(paddingIndex);
+        padding.pad(frame, frameEnd - paddingIndex);
+
+        return this;
+    }
+
+    @Override
+    public TunnelRelayCell copy() {
+        return (TunnelRelayCell) super.copy();
+    }
+
+    @Override
+    public TunnelRelayCell duplicate() {
+        return (TunnelRelayCell) super.duplicate();
+    }
+
+    @Override
+    public TunnelRelayCell retainedDuplicate() {
+        return (TunnelRelayCell) super.retainedDuplicate();
+    }
+
+    @Override
+    public TunnelRelayCell replace(ByteBuf content) {
+        return new TunnelRelayCell(content);
+    }
+
+    @Override
+    public TunnelRelayCell retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public TunnelRelayCell retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public TunnelRelayCell touch() {
+        super.touch();
+        return this;
+    }
+
+    @Override
+    public TunnelRelayCell touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+}
@@ -1,10 +1,15 @@
 package de.tum.p2p.proto.message.onion.forwarding.composite;
 
+import de.tum.p2p.onion.auth.LayeredKeystream;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
 import de.tum.p2p.onion.auth.SessionId;
 import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.proto.ProtoException;
+import de.tum.p2p.proto.message.MessageType;
 import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TypedTunnelMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -17,6 +22,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_RELAY;
+import static io.netty.buffer.ByteBufUtil.getBytes;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.Validate.notNull;
 
 /**
@@ -24,12 +33,17 @@ import static org.apache.commons.lang3.Validate.notNull;
  * {@link TunnelRelayPayload} that are peeled out on each round of
  * tunnel building or datum forwarding.
  * <p>
+ * Relay messages are typed like any other tunnel message, so that a payload size
+ * is never mistaken for a message type of a frame.
+ * <p>
  * Packet structure:
  * <pre>
  * |---------------------------|
  * |         TUNNEL ID         |
  * |---------------------------|
- * |    PSIZE    |  R_PAYLOAD  |
+ * |  MESG_TYPE  |    PSIZE    |
+ * |---------------------------|
+ * |       RELAY PAYLOAD       |
  * |---------------------------|
  * |   RELAY PAYLOAD(CONT..)   |
  * |---------------------------|
@@ -42,18 +56,20 @@ import static org.apache.commons.lang3.Validate.notNull;
  */
 @Accessors(fluent = true)
 @EqualsAndHashCode(callSuper = true)
-public class TunnelRelayMessage extends TunnelMessage {
+public class TunnelRelayMessage extends TypedTunnelMessage {
 
     /**
      * A size of metadata this message carries
      */
     public static final int META_BYTES = TunnelMessage.META_BYTES
+        + MessageType.BYTES
         + Short.SIZE;   // payload size
 
     /**
      * Amount of bytes that are free to use by child classes (max - meta)
+     * in cells of default size
      */
-    public static final int PAYLOAD_BYTES = BYTES - META_BYTES;
+    public static final int PAYLOAD_BYTES = payloadBytes(BYTES);
 
     @Getter
     private final byte[] payload;
@@ -62,8 +78,8 @@ public class TunnelRelayMessage extends TunnelMessage {
         this(tunnelId, payload.bytes());
     }
 
-    TunnelRelayMessage(TunnelId tunnelId, byte[] payload) {
-        super(tunnelId);
+    public TunnelRelayMessage(TunnelId tunnelId, byte[] payload) {
+        super(tunnelId, ONION_TUNNEL_RELAY);
         this.payload = notNull(payload);
     }
 
@@ -72,6 +88,10 @@ public class TunnelRelayMessage extends TunnelMessage {
             val bytesBuffer = ByteBuffer.wrap(bytes);
 
             val parsedTunnelId = TunnelId.wrap(bytesBuffer.getInt());
+            val messageType = MessageType.fromCode(bytesBuffer.getShort());
+
+            if (messageType != ONION_TUNNEL_RELAY)
+                throw new IllegalArgumentException("Not a ONION_TUNNEL_RELAY message");
 
             val parsedPsize = bytesBuffer.getShort();
             val parsedPayload = new byte[parsedPsize];
@@ -83,14 +103,21 @@ public class TunnelRelayMessage extends TunnelMessage {
         }
     }
 
-    @Override
-    protected void writeBody(ByteBuffer messageBuffer) {
-        if (payload.length > PAYLOAD_BYTES)
-            throw new ProtoException("Failed to bytefy Relay Message - Payload is too big. " +
-                "Expected max = " + PAYLOAD_BYTES + ", actual = " + payload.length);
+    /**
+     * Amount of bytes relay payload can occupy in cells of the given size
+     *
+     * @param cellBytes a cell size of a link
+     * @return max relay payload size
+     */
+    public static int payloadBytes(int cellBytes) {
+        return cellBytes - META_BYTES;
+    }
 
-        messageBuffer.putShort((short) payload.length);
-        messageBuffer.put(payload);
+    @Override
+    protected void writeBody(ByteBuf messageBuf) {
+        // Payload size is validated against the link's cell size by writeTo
+        messageBuf.writeShort(payload.length);
+        messageBuf.writeBytes(payload);
     }
 
     public TunnelRelayMessage peel(byte[] peeledPayload) {
@@ -107,6 +134,10 @@ public class TunnelRelayMessage extends TunnelMessage {
 
         private List<SessionId> sessionIds;
 
+        private LayeredKeystream keystream;
+
+        private int cellBytes = BYTES;
+
         public Encrypted tunnelId(TunnelId tunnelId) {
             this.tunnelId = tunnelId;
             return this;
@@ -129,10 +160,94 @@ public class TunnelRelayMessage extends TunnelMessage {
             return this;
         }
 
+        /**
+         * Layers payloads with the tunnel's combined keystream in a single pass
+         * instead of encrypting them with {@link OnionAuthorizer}
+         *
+         * @param keystream a keystream of all tunnel's sessions
+         * @return this builder
+         */
+        public Encrypted encrypt(LayeredKeystream keystream) {
+            this.keystream = keystream;
+            return this;
+        }
+
+        /**
+         * Sets a cell size of the link the relay message is going to be sent
+         * through, which limits the size of the payload. Defaults to {@link #BYTES}.
+         *
+         * @param cellBytes link's cell size
+         * @return this builder
+         */
+        public Encrypted cellBytes(int cellBytes) {
+            this.cellBytes = cellBytes;
+            return this;
+        }
+
         public CompletableFuture<TunnelRelayMessage> build() {
-            return onionAuthorizer.encrypt(payload.bytes(), sessionIds).thenApply(ciphertext -> {
-                return new TunnelRelayMessage(tunnelId, ciphertext.bytes());
+            if (keystream != null) {
+                val layeredPayload = payload.bytes(payloadBytes(cellBytes));
+                keystream.apply(ByteBuffer.wrap(layeredPayload));
+
+                return completedFuture(new TunnelRelayMessage(tunnelId, layeredPayload));
+            }
+
+            val plaintext = Unpooled.wrappedBuffer(payload.bytes(payloadBytes(cellBytes)));
+
+            return onionAuthorizer.encrypt(plaintext, sessionIds, destinationOf(plaintext)).thenApply(ciphertext -> {
+                return new TunnelRelayMessage(tunnelId, arrayOf(ciphertext));
             });
         }
+
+        /**
+         * Builds relay messages of a burst of payloads sent via the same tunnel with
+         * a single {@link OnionAuthorizer#encryptAll(List, List, List)} call, or with the
+         * keystream if one is set. The payload
+         * set by {@link #payload(TunnelRelayPayload)}, if any, is ignored.
+         *
+         * @param payloads payloads in the order they are going to be sent
+         * @return relay messages in the order of payloads
+         */
+        public CompletableFuture<List<TunnelRelayMessage>> buildAll(List<? extends TunnelRelayPayload> payloads) {
+            val plaintexts = payloads.stream()
+                .map(payload -> ByteBuffer.wrap(payload.bytes(payloadBytes(cellBytes))))
+                .collect(toList());
+
+            if (keystream != null) {
+                keystream.applyAll(plaintexts);
+
+                return completedFuture(plaintexts.stream()
+                    .map(layeredPayload -> new TunnelRelayMessage(tunnelId, layeredPayload.array()))
+                    .collect(toList()));
+            }
+
+            val plaintextBufs = plaintexts.stream()
+                .map(Unpooled::wrappedBuffer)
+                .collect(toList());
+            val destinations = plaintextBufs.stream()
+                .map(Encrypted::destinationOf)
+                .collect(toList());
+
+            return onionAuthorizer.encryptAll(plaintextBufs, sessionIds, destinations).thenApply(ciphertexts -> {
+                return ciphertexts.stream()
+                    .map(ciphertext -> new TunnelRelayMessage(tunnelId, arrayOf(ciphertext)))
+                    .collect(toList());
+            });
+        }
+
+        /**
+         * A growable heap buffer fitting the plaintext, so that ciphertexts of length
+         * preserving authorizers fill its backing array exactly
+         */
+        private static ByteBuf destinationOf(ByteBuf plaintext) {
+            return Unpooled.buffer(plaintext.readableBytes());
+        }
+
+        /**
+         * @return the backing array of the ciphertext if it's filled exactly, its copy otherwise
+         */
+        private static byte[] arrayOf(ByteBuf ciphertext) {
+            return getBytes(ciphertext, ciphertext.readerIndex(), ciphertext.readableBytes(), false);
+        }
     }
 }
@@ -1,11 +1,13 @@
 package de.tum.p2p.proto.message.onion.forwarding.composite;
 
+import de.tum.p2p.proto.ProtoException;
 import de.tum.p2p.proto.message.MessageType;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import lombok.val;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 import static de.tum.p2p.util.ByteBuffers.bufferWrittenBytes;
@@ -52,13 +54,30 @@ public abstract class TunnelRelayPayload {
     protected abstract void writePayload(ByteBuffer messageBuffer);
 
     public byte[] bytes() {
-        val msgBytesBuffer = ByteBuffer.allocate(BYTES);
+        return bytes(BYTES);
+    }
+
+    /**
+     * Serializes the payload to be carried by relay messages whose payload
+     * may not exceed {@code maxBytes}, e.g. in cells of jumbo links.
+     *
+     * @param maxBytes max size of the serialized payload
+     * @return serialized payload
+     * @throws ProtoException if the payload exceeds {@code maxBytes}
+     * @see TunnelRelayMessage#payloadBytes(int)
+     */
+    public byte[] bytes(int maxBytes) {
+        val msgBytesBuffer = ByteBuffer.allocate(maxBytes);
 
-        // META_BYTES
-        msgBytesBuffer.putShort(messageType.code());
+        try {
+            // META_BYTES
+            msgBytesBuffer.putShort(messageType.code());
 
-        // PAYLOAD_BYTES from childs
-        writePayload(msgBytesBuffer);
+            // PAYLOAD_BYTES from childs
+            writePayload(msgBytesBuffer);
+        } catch (BufferOverflowException e) {
+            throw new ProtoException("Failed to bytefy relay payload - payload exceeds " + maxBytes + " bytes", e);
+        }
 
         return bufferWrittenBytes(msgBytesBuffer);
     }
@@ -0,0 +1,27 @@
+package de.tum.p2p.proto.message.onion.forwarding.padding;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * {@code CellPadding} is a strategy that fills the unused trailing part of
+ * fixed size tunnel cells with pseudo random bytes, so that short messages
+ * (e.g. ONION_TUNNEL_RETIRE) are indistinguishable from full data cells.
+ *
+ * @see CellPaddings
+ * @see de.tum.p2p.proto.message.onion.forwarding.TunnelMessage#writeTo(ByteBuf, CellPadding)
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+@FunctionalInterface
+public interface CellPadding {
+
+    /**
+     * Writes {@code length} padding bytes to the given buffer starting
+     * at its writer index. The writer index is increased by {@code length}.
+     *
+     * @param cell   a buffer to pad
+     * @param length amount of padding bytes to write
+     * @return padded buffer
+     */
+    ByteBuf pad(ByteBuf cell, int length);
+}
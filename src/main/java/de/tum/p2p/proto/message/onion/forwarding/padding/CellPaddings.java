@@ -0,0 +1,54 @@
+package de.tum.p2p.proto.message.onion.forwarding.padding;
+
+/**
+ * {@code CellPaddings} provides available {@link CellPadding} strategies
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+public final class CellPaddings {
+
+    private static final CellPadding DEFAULT = keystream();
+
+    private CellPaddings() {
+        throw new AssertionError("No instance for you");
+    }
+
+    /**
+     * Padding used by tunnel messages if no other is configured
+     *
+     * @return a default padding strategy
+     */
+    public static CellPadding defaultPadding() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a padding that generates every byte with {@link java.util.concurrent.ThreadLocalRandom}
+     */
+    public static CellPadding threadLocalRandom() {
+        return ThreadLocalRandomPadding.INSTANCE;
+    }
+
+    /**
+     * @return a padding that writes per-thread AES/CTR keystream into cells
+     */
+    public static CellPadding keystream() {
+        return new KeystreamPadding();
+    }
+
+    /**
+     * @return a padding that copies bytes from per-event-loop pre-generated random pools
+     */
+    public static CellPadding randomPool() {
+        return randomPool(RandomPoolPadding.DEFAULT_POOL_BYTES, RandomPoolPadding.DEFAULT_REUSES);
+    }
+
+    /**
+     * @param poolBytes size of a random pool of each event loop
+     * @param reuses    amount of times a pool is served before being regenerated
+     * @return a padding that copies bytes from per-event-loop pre-generated random pools
+     */
+    public static CellPadding randomPool(int poolBytes, int reuses) {
+        return new RandomPoolPadding(poolBytes, reuses);
+    }
+}
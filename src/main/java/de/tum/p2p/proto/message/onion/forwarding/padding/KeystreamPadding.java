@@ -0,0 +1,100 @@
+package de.tum.p2p.proto.message.onion.forwarding.padding;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.val;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * {@code KeystreamPadding} pads cells with AES/CTR keystream. Each thread owns
+ * a cipher initialized with a random key and IV, so padding costs a single
+ * (hardware accelerated) encryption of zeroes per block with no per-cell RNG
+ * calls and no allocations.
+ * <p>
+ * The keystream is written straight into the cell's backing array for heap
+ * buffers. For direct buffers it goes through a per-thread scratch array that
+ * is reused across cells.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+final class KeystreamPadding implements CellPadding {
+
+    private static final String KEYSTREAM_CIPHER = "AES/CTR/NoPadding";
+    private static final String KEYSTREAM_KEY_ALGORITHM = "AES";
+    private static final int KEYSTREAM_KEY_BITS = 128;
+    private static final int KEYSTREAM_IV_BYTES = 16;
+
+    private static final int CHUNK_BYTES = 4096;
+
+    /**
+     * A source of zeroes encrypted to keystream. Is never written to.
+     */
+    private static final byte[] ZEROES = new byte[CHUNK_BYTES];
+
+    private final FastThreadLocal<Keystream> keystreams = new FastThreadLocal<Keystream>() {
+        @Override
+        protected Keystream initialValue() throws Exception {
+            return new Keystream();
+        }
+    };
+
+    @Override
+    public ByteBuf pad(ByteBuf cell, int length) {
+        cell.ensureWritable(length);
+
+        val keystream = keystreams.get();
+
+        int remaining = length;
+        while (remaining > 0) {
+            val chunk = Math.min(remaining, CHUNK_BYTES);
+            keystream.writeTo(cell, chunk);
+            remaining -= chunk;
+        }
+
+        return cell;
+    }
+
+    private static final class Keystream {
+
+        private final Cipher cipher;
+        private final byte[] scratch = new byte[CHUNK_BYTES];
+
+        private Keystream() {
+            try {
+                val random = new SecureRandom();
+
+                val keyGenerator = KeyGenerator.getInstance(KEYSTREAM_KEY_ALGORITHM);
+                keyGenerator.init(KEYSTREAM_KEY_BITS, random);
+
+                val iv = new byte[KEYSTREAM_IV_BYTES];
+                random.nextBytes(iv);
+
+                this.cipher = Cipher.getInstance(KEYSTREAM_CIPHER);
+                this.cipher.init(Cipher.ENCRYPT_MODE, keyGenerator.generateKey(), new IvParameterSpec(iv));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to initialize " + KEYSTREAM_CIPHER + " padding keystream", e);
+            }
+        }
+
+        private void writeTo(ByteBuf cell, int length) {
+            try {
+                if (cell.hasArray()) {
+                    val writerIndex = cell.writerIndex();
+                    cipher.update(ZEROES, 0, length, cell.array(), cell.arrayOffset() + writerIndex);
+                    cell.writerIndex(writerIndex + length);
+                } else {
+                    cipher.update(ZEROES, 0, length, scratch, 0);
+                    cell.writeBytes(scratch, 0, length);
+                }
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("Failed to generate padding keystream", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.tum.p2p.proto.message.onion.forwarding.padding;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.val;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+
+/**
+ * {@code RandomPoolPadding} copies padding from a pool of pre-generated random
+ * bytes. Each event loop (thread) owns its own pool, so no synchronization is
+ * needed. The pool is served from a moving offset, re-positioned randomly on
+ * wrap around, and regenerated completely after it has been served
+ * {@code reuses} times over.
+ * <p>
+ * This is the cheapest strategy (a plain memory copy per cell), but padding
+ * bytes do repeat across cells within a pool's lifetime. Use {@link KeystreamPadding}
+ * if that is undesirable.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+final class RandomPoolPadding implements CellPadding {
+
+    static final int DEFAULT_POOL_BYTES = 64 * 1024;
+    static final int DEFAULT_REUSES = 8;
+
+    private final int poolBytes;
+    private final int reuses;
+
+    private final FastThreadLocal<RandomPool> pools = new FastThreadLocal<RandomPool>() {
+        @Override
+        protected RandomPool initialValue() throws Exception {
+            return new RandomPool();
+        }
+    };
+
+    RandomPoolPadding(int poolBytes, int reuses) {
+        isTrue(poolBytes > 0, "Random pool size must be positive");
+        isTrue(reuses > 0, "Random pool reuses must be positive");
+
+        this.poolBytes = poolBytes;
+        this.reuses = reuses;
+    }
+
+    @Override
+    public ByteBuf pad(ByteBuf cell, int length) {
+        pools.get().writeTo(cell, length);
+        return cell;
+    }
+
+    private final class RandomPool {
+
+        private final byte[] pool = new byte[poolBytes];
+
+        private int offset;
+        private int wraps;
+
+        private RandomPool() {
+            regenerate();
+        }
+
+        private void writeTo(ByteBuf cell, int length) {
+            int remaining = length;
+            while (remaining > 0) {
+                if (offset == poolBytes)
+                    wrap();
+
+                val chunk = Math.min(remaining, poolBytes - offset);
+                cell.writeBytes(pool, offset, chunk);
+
+                offset += chunk;
+                remaining -= chunk;
+            }
+        }
+
+        private void wrap() {
+            if (++wraps >= reuses) {
+                regenerate();
+            } else {
+                offset = ThreadLocalRandom.current().nextInt(poolBytes);
+            }
+        }
+
+        private void regenerate() {
+            ThreadLocalRandom.current().nextBytes(pool);
+            offset = 0;
+            wraps = 0;
+        }
+    }
+}
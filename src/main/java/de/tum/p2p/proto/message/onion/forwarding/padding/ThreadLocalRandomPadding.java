@@ -0,0 +1,24 @@
+package de.tum.p2p.proto.message.onion.forwarding.padding;
+
+import io.netty.buffer.ByteBuf;
+
+import static de.tum.p2p.util.ByteBufs.randPad;
+
+/**
+ * {@code ThreadLocalRandomPadding} generates each padding byte anew with
+ * {@link java.util.concurrent.ThreadLocalRandom}. Simple, but the most
+ * expensive strategy for cells with small payloads.
+ *
+ * @author Illia Ovchynnikov &lt;illia.ovchynnikov@gmail.com&gt;
+ */
+final class ThreadLocalRandomPadding implements CellPadding {
+
+    static final ThreadLocalRandomPadding INSTANCE = new ThreadLocalRandomPadding();
+
+    private ThreadLocalRandomPadding() {}
+
+    @Override
+    public ByteBuf pad(ByteBuf cell, int length) {
+        return randPad(cell, length);
+    }
+}
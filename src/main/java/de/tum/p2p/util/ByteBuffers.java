@@ -33,6 +33,20 @@ public final class ByteBuffers {
         return bytes;
     }
 
+    /**
+     * Returns remaining bytes of given ByteBuffer, i.e. from its position
+     * to its limit, leaving the position untouched
+     *
+     * @param byteBuffer source of bytes
+     * @return a byte array of [byteBuffer.position(), byteBuffer.limit()] size
+     */
+    public static byte[] bufferRemainingBytes(ByteBuffer byteBuffer) {
+        val bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+
+        return bytes;
+    }
+
     /**
      * Returns a byte array that contains all bytes consumed from given
      * ByteBuffer, i.e. from 0 to current position.
@@ -2,6 +2,9 @@ package de.tum.p2p.util;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import lombok.val;
+
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * {@code ByteBufs} contains util methods for Netty's {@link ByteBuf}ers
@@ -17,4 +20,47 @@ public final class ByteBufs {
     public static byte[] safeContent(ByteBuf byteBuf) {
         return Unpooled.copiedBuffer(byteBuf).array();
     }
+
+    /**
+     * Writes the result of transforming readable bytes of {@code source}, e.g. their
+     * ciphertext, to {@code destination}. If the destination is the source itself, its
+     * readable bytes are replaced by the result, otherwise the source's readable bytes
+     * are skipped and the result is written at the destination's writer index.
+     *
+     * @param source      a buffer whose readable bytes have been transformed
+     * @param destination a buffer to write the result to, may be the source
+     * @param result      transformed bytes
+     * @return destination
+     */
+    public static ByteBuf writeTransformed(ByteBuf source, ByteBuf destination, byte[] result) {
+        if (destination == source) {
+            source.writerIndex(source.readerIndex());
+        } else {
+            source.skipBytes(source.readableBytes());
+        }
+
+        return destination.writeBytes(result);
+    }
+
+    /**
+     * Writes {@code length} <strong>random</strong> bytes to given byteBuf
+     * starting at its writer index. Random values are written directly
+     * to the buffer word by word, no intermediate arrays are allocated.
+     *
+     * @param byteBuf to pad
+     * @param length  amount of random bytes to write
+     * @return padded buffer
+     */
+    public static ByteBuf randPad(ByteBuf byteBuf, int length) {
+        val random = ThreadLocalRandom.current();
+
+        int remaining = length;
+        for (; remaining >= Long.BYTES; remaining -= Long.BYTES)
+            byteBuf.writeLong(random.nextLong());
+
+        for (; remaining > 0; remaining--)
+            byteBuf.writeByte(random.nextInt());
+
+        return byteBuf;
+    }
 }
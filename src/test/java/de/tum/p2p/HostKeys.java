@@ -0,0 +1,26 @@
+package de.tum.p2p;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+public final class HostKeys {
+
+    private static final String HOSTKEY_ALG = "RSA";
+    private static final int HOSTKEY_BITS = 2048;
+
+    private HostKeys() {
+        throw new AssertionError("No instance for you");
+    }
+
+    public static KeyPair randHostkey() {
+        try {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(HOSTKEY_ALG);
+            keyPairGenerator.initialize(HOSTKEY_BITS);
+
+            return keyPairGenerator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package de.tum.p2p;
 
 import lombok.val;
 
+import java.security.PublicKey;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -28,6 +29,10 @@ public final class Peers {
         return Peer.of(localhost(), randUnprivilegedPort(), testPublicKey());
     }
 
+    public static Peer randLocalPeer(PublicKey hostkey) {
+        return Peer.of(localhost(), randUnprivilegedPort(), hostkey);
+    }
+
     public static List<Peer> randLocalPeers(int amount) {
         return randUnprivilegedPort(amount)
             .mapToObj(randPort -> Peer.of(localhost(), randPort, testPublicKey()))
@@ -0,0 +1,291 @@
+package de.tum.p2p.onion.auth;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.experimental.var;
+import lombok.val;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static de.tum.p2p.HostKeys.randHostkey;
+import static de.tum.p2p.Peers.randLocalPeer;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class AesCtrOnionAuthorizerTest {
+
+    private static final int HOPS = 4;
+    private static final int CELLS = 5;
+    private static final int KEYSTREAM_CELLS = 40;
+    private static final long PREFETCH_MAX_BUFFERED_BYTES = 4 * 16 * 1024;
+
+    @Test
+    public void encryptsAndDecryptsMultiLayeredPlaintextPreservingLength() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+
+        val originatorSessionIds = new ArrayList<SessionId>(HOPS);
+        val hops = new ArrayList<AesCtrOnionAuthorizer>(HOPS);
+        val hopSessionIds = new ArrayList<SessionId>(HOPS);
+
+        for (int i = 0; i < HOPS; i++) {
+            val hopHostkey = randHostkey();
+            val hop = new AesCtrOnionAuthorizer(hopHostkey);
+
+            val hs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join().getValue();
+            val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join();
+            val originatorSessionId = originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join();
+
+            hops.add(hop);
+            hopSessionIds.add(hopSessionIdAndHs2.getKey());
+            originatorSessionIds.add(originatorSessionId);
+        }
+
+        // Keystreams run on, so every next cell is layered differently
+        for (int cell = 0; cell < CELLS; cell++) {
+            val plaintext = randPayload();
+
+            var payload = originator.encrypt(plaintext, originatorSessionIds).join().bytesBuffer();
+            assertEquals(plaintext.remaining(), payload.remaining());
+            assertNotEquals(plaintext, payload);
+
+            for (int i = 0; i < HOPS; i++) {
+                payload = hops.get(i).decrypt(payload, hopSessionIds.get(i)).join().bytesBuffer();
+                assertEquals(plaintext.remaining(), payload.remaining());
+            }
+
+            assertEquals(plaintext, payload);
+        }
+    }
+
+    @Test
+    public void encryptsInPlace() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val hopHostkey = randHostkey();
+        val hop = new AesCtrOnionAuthorizer(hopHostkey);
+
+        val hs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join().getValue();
+        val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join();
+        val originatorSessionId = originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join();
+
+        val plaintext = randPayload();
+        val payload = ByteBuffer.allocateDirect(plaintext.remaining()).put(plaintext.duplicate());
+        payload.flip();
+
+        originator.encryptInPlace(payload, singletonList(originatorSessionId));
+        assertNotEquals(plaintext, payload);
+
+        hop.decryptInPlace(payload, hopSessionIdAndHs2.getKey());
+        assertEquals(plaintext, payload);
+    }
+
+    @Test
+    public void layersByteBufsInPlace() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val hopHostkey = randHostkey();
+        val hop = new AesCtrOnionAuthorizer(hopHostkey);
+
+        val hs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join().getValue();
+        val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join();
+        val originatorSessionId = originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join();
+
+        val plaintexts = new ArrayList<ByteBuffer>(CELLS);
+        val payloads = new ArrayList<ByteBuf>(CELLS);
+        for (int cell = 0; cell < CELLS; cell++) {
+            val plaintext = randPayload();
+            plaintexts.add(plaintext);
+            payloads.add(PooledByteBufAllocator.DEFAULT.directBuffer().writeBytes(plaintext.duplicate()));
+        }
+
+        try {
+            originator.encryptAll(payloads, singletonList(originatorSessionId), payloads).join();
+            for (int cell = 0; cell < CELLS; cell++)
+                assertNotEquals(plaintexts.get(cell), payloads.get(cell).nioBuffer());
+
+            val peeled = hop.decryptAll(payloads, hopSessionIdAndHs2.getKey(), payloads).join();
+            for (int cell = 0; cell < CELLS; cell++) {
+                assertSame(payloads.get(cell), peeled.get(cell));
+                assertEquals(plaintexts.get(cell), peeled.get(cell).nioBuffer());
+            }
+        } finally {
+            payloads.forEach(ByteBuf::release);
+        }
+    }
+
+    @Test
+    public void encryptsBurstsCompatiblyWithSingleCells() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val hopHostkey = randHostkey();
+        val hop = new AesCtrOnionAuthorizer(hopHostkey);
+
+        val hs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join().getValue();
+        val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join();
+        val originatorSessionId = originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join();
+
+        val plaintexts = new ArrayList<ByteBuffer>(CELLS);
+        for (int cell = 0; cell < CELLS; cell++)
+            plaintexts.add(randPayload());
+
+        // A burst encrypted at once is peeled cell by cell
+        val ciphertexts = originator.encryptAll(plaintexts, singletonList(originatorSessionId)).join();
+        assertEquals(CELLS, ciphertexts.size());
+        for (int cell = 0; cell < CELLS; cell++) {
+            val deciphertext = hop.decrypt(ciphertexts.get(cell), hopSessionIdAndHs2.getKey()).join();
+            assertEquals(plaintexts.get(cell), deciphertext.bytesBuffer());
+        }
+
+        // Cells encrypted one by one are peeled at once
+        val cellCiphertexts = new ArrayList<ByteBuffer>(CELLS);
+        for (val plaintext : plaintexts)
+            cellCiphertexts.add(originator.encrypt(plaintext, singletonList(originatorSessionId)).join().bytesBuffer());
+
+        val deciphertexts = hop.decryptAll(cellCiphertexts, hopSessionIdAndHs2.getKey()).join();
+        for (int cell = 0; cell < CELLS; cell++)
+            assertEquals(plaintexts.get(cell), deciphertexts.get(cell).bytesBuffer());
+    }
+
+    @Test
+    public void layersAllHopsInOnePassCompatiblyWithHops() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+
+        val originatorSessionIds = new ArrayList<SessionId>(HOPS);
+        val hops = new ArrayList<AesCtrOnionAuthorizer>(HOPS);
+        val hopSessionIds = new ArrayList<SessionId>(HOPS);
+
+        for (int i = 0; i < HOPS; i++) {
+            val hopHostkey = randHostkey();
+            val hop = new AesCtrOnionAuthorizer(hopHostkey);
+
+            val hs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join().getValue();
+            val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join();
+
+            hops.add(hop);
+            hopSessionIds.add(hopSessionIdAndHs2.getKey());
+            originatorSessionIds.add(originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join());
+        }
+
+        val keystream = originator.layeredKeystream(originatorSessionIds).get();
+        assertEquals(HOPS, keystream.layers());
+
+        // Enough cells to run over more than one precomputed chunk of keystream
+        for (int cell = 0; cell < KEYSTREAM_CELLS; cell++) {
+            val plaintext = randPayload();
+            var payload = ByteBuffer.allocate(plaintext.remaining()).put(plaintext.duplicate());
+            payload.flip();
+
+            keystream.apply(payload);
+            assertNotEquals(plaintext, payload);
+
+            for (int i = 0; i < HOPS; i++)
+                payload = hops.get(i).decrypt(payload, hopSessionIds.get(i)).join().bytesBuffer();
+
+            assertEquals(plaintext, payload);
+        }
+    }
+
+    @Test
+    public void prefetchesKeystreamsWithinMemoryBound() {
+        val prefetch = new KeystreamPrefetch.Builder()
+            .executor(Runnable::run)
+            .depth(2)
+            .maxBufferedBytes(PREFETCH_MAX_BUFFERED_BYTES)
+            .build();
+
+        val originator = new AesCtrOnionAuthorizer(randHostkey(), SessionRegistry.NO_EXPIRY, prefetch);
+        val hopHostkey = randHostkey();
+        val hop = new AesCtrOnionAuthorizer(hopHostkey, SessionRegistry.NO_EXPIRY, prefetch);
+
+        val hs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join().getValue();
+        val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join();
+        val originatorSessionId = originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join();
+
+        val keystream = originator.layeredKeystream(singletonList(originatorSessionId)).get();
+        val hopKeystream = hop.layeredKeystream(singletonList(hopSessionIdAndHs2.getKey())).get();
+
+        for (int cell = 0; cell < KEYSTREAM_CELLS; cell++) {
+            val plaintext = randPayload();
+            val payload = ByteBuffer.allocate(plaintext.remaining()).put(plaintext.duplicate());
+            payload.flip();
+
+            keystream.apply(payload);
+            assertNotEquals(plaintext, payload);
+
+            // A keystream of the hop's session peels its layer
+            hopKeystream.apply(payload);
+            assertEquals(plaintext, payload);
+
+            assertTrue(prefetch.bufferedBytes() <= PREFETCH_MAX_BUFFERED_BYTES);
+        }
+
+        // Chunks are computed by the prefetch executor right as previous ones are taken
+        assertEquals(0, prefetch.misses());
+        assertTrue(prefetch.hits() > 0);
+        assertEquals(1.0, prefetch.hitRate(), 0);
+
+        keystream.close();
+        hopKeystream.close();
+        assertEquals(0, prefetch.bufferedBytes());
+    }
+
+    @Test(expected = OnionEncryptionException.class)
+    public void rejectsUnconfirmedSessions() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val pendingSessionId = originator.sessionFactory().start(randLocalPeer(randHostkey().getPublic()))
+            .join().getKey();
+
+        originator.encryptInPlace(randPayload(), singletonList(pendingSessionId));
+    }
+
+    @Test
+    public void rejectsHandshakesNotSignedByDestination() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val destination = randLocalPeer(randHostkey().getPublic());
+
+        // A previous hop relaying HS1 responds on its own instead of the destination
+        val impostor = new AesCtrOnionAuthorizer(randHostkey());
+
+        val sessionIdAndHs1 = originator.sessionFactory().start(destination).join();
+        val impostorHs2 = impostor.sessionFactory().responseTo(mock(PublicKey.class), sessionIdAndHs1.getValue())
+            .join().getValue();
+
+        try {
+            originator.sessionFactory().confirm(impostorHs2).join();
+            fail("HS2 signed by another hostkey has been confirmed");
+        } catch (OnionAuthException e) {
+            // expected
+        }
+
+        try {
+            originator.encryptInPlace(randPayload(), singletonList(sessionIdAndHs1.getKey()));
+            fail("Session of a rejected handshake is still known");
+        } catch (OnionEncryptionException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = OnionAuthException.class)
+    public void rejectsHandshakesOfSessionsWithoutDestination() {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val hop = new AesCtrOnionAuthorizer(randHostkey());
+
+        val hs1 = originator.sessionFactory().start(null).join().getValue();
+        val hs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), hs1).join().getValue();
+
+        originator.sessionFactory().confirm(hs2);
+    }
+
+    private static ByteBuffer randPayload() {
+        val payload = new byte[1000];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        return ByteBuffer.wrap(payload);
+    }
+}
@@ -2,12 +2,17 @@ package de.tum.p2p.onion.auth;
 
 import de.tum.p2p.Peer;
 import lombok.val;
+import io.netty.buffer.Unpooled;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.security.PublicKey;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
@@ -25,7 +30,7 @@ public class InMemoryBase64OnionAuthorizerTest {
         val auth1SessionIdAndHs1 = auth1sessionFactory.start(mock(Peer.class)).join();
         val auth1Auth2Hs1 = auth1SessionIdAndHs1.getValue();
 
-        val auth2SessionIdAndHs2 = auth2sessionFactory.responseTo(auth1Auth2Hs1).join();
+        val auth2SessionIdAndHs2 = auth2sessionFactory.responseTo(mock(PublicKey.class), auth1Auth2Hs1).join();
         val auth2SessionId = auth2SessionIdAndHs2.getKey();
         val auth2Auth1Hs2 = auth2SessionIdAndHs2.getValue();
 
@@ -40,7 +45,7 @@ public class InMemoryBase64OnionAuthorizerTest {
         val auth2 = new InMemoryBase64OnionAuthorizer();
 
         val auth1Auth2Hs1 = auth1.sessionFactory().start(mock(Peer.class)).join().getValue();
-        val sessionId = auth2.sessionFactory().responseTo(auth1Auth2Hs1).join().getKey();
+        val sessionId = auth2.sessionFactory().responseTo(mock(PublicKey.class), auth1Auth2Hs1).join().getKey();
 
         val plaintext = randPayload();
 
@@ -51,6 +56,28 @@ public class InMemoryBase64OnionAuthorizerTest {
         assertTrue(deciphertext.isPlaintext());
     }
 
+    @Test
+    public void encryptsReadableBytesOfByteBufsAndDecryptsThemInPlace() {
+        val auth1 = new InMemoryBase64OnionAuthorizer();
+        val auth2 = new InMemoryBase64OnionAuthorizer();
+
+        val auth1Auth2Hs1 = auth1.sessionFactory().start(mock(Peer.class)).join().getValue();
+        val sessionId = auth2.sessionFactory().responseTo(mock(PublicKey.class), auth1Auth2Hs1).join().getKey();
+
+        val plaintext = randPayload();
+
+        // Bytes around the readable ones must not get into the ciphertext
+        val plaintextBuf = Unpooled.buffer().writeInt(0).writeBytes(plaintext.duplicate()).writeInt(0);
+        plaintextBuf.skipBytes(Integer.BYTES).writerIndex(plaintextBuf.writerIndex() - Integer.BYTES);
+
+        val ciphertextBuf = auth1.encrypt(plaintextBuf, singletonList(sessionId)).join();
+        assertFalse(plaintextBuf.isReadable());
+
+        val peeledBuf = auth2.decrypt(ciphertextBuf, sessionId, ciphertextBuf).join();
+        assertSame(ciphertextBuf, peeledBuf);
+        assertEquals(plaintext, peeledBuf.nioBuffer());
+    }
+
     private static ByteBuffer randPayload() {
         val payload = new byte[Byte.SIZE];
         ThreadLocalRandom.current().nextBytes(payload);
@@ -0,0 +1,175 @@
+package de.tum.p2p.onion.auth;
+
+import de.tum.p2p.Peer;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static de.tum.p2p.HostKeys.randHostkey;
+import static de.tum.p2p.Peers.randLocalPeer;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrecomputingSessionFactoryTest {
+
+    private static final int POOL_CAPACITY = 4;
+    private static final long AWAIT_MILLIS = 5_000;
+
+    @Test
+    public void servesPrecomputedHandshakesThatCanBeConfirmed() throws Exception {
+        val originator = new AesCtrOnionAuthorizer(randHostkey());
+        val hopHostkey = randHostkey();
+        val hop = new AesCtrOnionAuthorizer(hopHostkey);
+
+        try (val precomputing = new PrecomputingSessionFactory(originator, POOL_CAPACITY)) {
+            originator.sessionFactory(precomputing);
+            await(() -> precomputing.available() == POOL_CAPACITY);
+
+            // Precomputed sessions are assigned the destination whose hostkey signs HS2
+            val sessionIdAndHs1 = originator.sessionFactory().start(randLocalPeer(hopHostkey.getPublic())).join();
+            val hopSessionIdAndHs2 = hop.sessionFactory().responseTo(mock(PublicKey.class), sessionIdAndHs1.getValue()).join();
+            val originatorSessionId = originator.sessionFactory().confirm(hopSessionIdAndHs2.getValue()).join();
+
+            assertEquals(sessionIdAndHs1.getKey(), originatorSessionId);
+            assertEquals(1, precomputing.hits());
+            assertEquals(0, precomputing.misses());
+            assertTrue(precomputing.averageRefillLatency().toNanos() > 0);
+
+            val plaintext = new byte[64];
+            ThreadLocalRandom.current().nextBytes(plaintext);
+
+            val ciphertext = originator.encrypt(plaintext, originatorSessionId).join();
+            val deciphertext = hop.decrypt(ciphertext, hopSessionIdAndHs2.getKey()).join();
+            assertEquals(ByteBuffer.wrap(plaintext), deciphertext.bytesBuffer());
+
+            await(() -> precomputing.available() == POOL_CAPACITY);
+        }
+    }
+
+    @Test
+    public void startsSessionsInlineOnceDrained() throws Exception {
+        val refillAllowed = new CountDownLatch(1);
+        val sessionFactory = new CountingSessionFactory(refillAllowed);
+
+        try (val precomputing = new PrecomputingSessionFactory(authorizerOf(sessionFactory), 1)) {
+            val destination = mock(Peer.class);
+
+            precomputing.start(destination).join();
+            assertSame(destination, sessionFactory.lastDestination);
+            assertEquals(0, precomputing.hits());
+            assertEquals(1, precomputing.misses());
+
+            refillAllowed.countDown();
+            await(() -> precomputing.available() == 1);
+
+            precomputing.start(destination).join();
+            assertEquals(1, precomputing.hits());
+            assertEquals(0.5, precomputing.hitRate(), 0);
+        }
+    }
+
+    @Test
+    public void dropsStaleHandshakes() throws Exception {
+        val sessionFactory = new CountingSessionFactory(new CountDownLatch(0));
+        val onionAuth = authorizerOf(sessionFactory);
+
+        try (val precomputing = new PrecomputingSessionFactory(onionAuth, 1, Duration.ofMillis(1))) {
+            await(() -> precomputing.available() == 1);
+            Thread.sleep(10);
+
+            val destination = mock(Peer.class);
+            precomputing.start(destination).join();
+
+            assertSame(destination, sessionFactory.lastDestination);
+            assertEquals(1, precomputing.misses());
+            verify(onionAuth, times(1)).forget(SessionId.wrap(1));
+        }
+    }
+
+    @Test
+    public void forgetsPooledSessionsOnClose() throws Exception {
+        val onionAuth = authorizerOf(new CountingSessionFactory(new CountDownLatch(0)));
+
+        val precomputing = new PrecomputingSessionFactory(onionAuth, POOL_CAPACITY);
+        await(() -> precomputing.available() == POOL_CAPACITY);
+
+        precomputing.close();
+
+        assertEquals(0, precomputing.available());
+        for (int i = 1; i <= POOL_CAPACITY; i++)
+            verify(onionAuth, times(1)).forget(SessionId.wrap(i));
+    }
+
+    private static OnionAuthorizer authorizerOf(SessionFactory sessionFactory) {
+        val onionAuth = mock(OnionAuthorizer.class);
+        when(onionAuth.sessionFactory()).thenReturn(sessionFactory);
+
+        return onionAuth;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        val deadline = System.currentTimeMillis() + AWAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Condition not met in " + AWAIT_MILLIS + " ms");
+
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Remembers destinations of inline starts, background starts wait for the latch
+     */
+    private static final class CountingSessionFactory implements SessionFactory {
+
+        private final CountDownLatch refillAllowed;
+
+        private volatile Peer lastDestination;
+
+        private final AtomicInteger sessionIds = new AtomicInteger();
+
+        private CountingSessionFactory(CountDownLatch refillAllowed) {
+            this.refillAllowed = refillAllowed;
+        }
+
+        @Override
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> start(Peer destination) {
+            if (destination == null) {
+                try {
+                    refillAllowed.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                lastDestination = destination;
+            }
+
+            return completedFuture(Pair.of(SessionId.wrap(sessionIds.incrementAndGet()), ByteBuffer.allocate(0)));
+        }
+
+        @Override
+        public CompletableFuture<Pair<SessionId, ByteBuffer>> responseTo(PublicKey sourceKey, ByteBuffer hs1) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<SessionId> confirm(ByteBuffer hs2) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
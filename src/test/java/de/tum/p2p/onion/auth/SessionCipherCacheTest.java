@@ -0,0 +1,82 @@
+package de.tum.p2p.onion.auth;
+
+import lombok.val;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SessionCipherCacheTest {
+
+    private static final String ALGORITHM = "AES";
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
+    private static final SessionId SESSION_ID = SessionId.wrap(42);
+
+    @Test
+    public void continuesKeystreamAcrossThreadsAndUnalignedPayloads() throws Exception {
+        val key = randBytes(16);
+        val initialCounter = randBytes(16);
+        initialCounter[15] = (byte) 0xFF; // forces counter carry
+
+        val cipherCache = new SessionCipherCache(ALGORITHM, TRANSFORMATION);
+        cipherCache.register(SESSION_ID, key, initialCounter);
+
+        val payloadSizes = new int[]{7, 33, 16, 1, 100, 5};
+        val payloads = new byte[payloadSizes.length][];
+        for (int i = 0; i < payloadSizes.length; i++)
+            payloads[i] = randBytes(payloadSizes[i]);
+
+        val expected = new byte[payloads.length][];
+        val referenceCipher = Cipher.getInstance(TRANSFORMATION);
+        referenceCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, ALGORITHM), new IvParameterSpec(initialCounter));
+        for (int i = 0; i < payloads.length; i++)
+            expected[i] = referenceCipher.update(payloads[i]);
+
+        // Every other payload is encrypted by another thread, so both have to seek
+        for (int i = 0; i < payloads.length; i++) {
+            val payload = ByteBuffer.wrap(payloads[i]);
+
+            if (i % 2 == 0) {
+                cipherCache.apply(SESSION_ID, payload);
+            } else {
+                val thread = new Thread(() -> {
+                    try {
+                        cipherCache.apply(SESSION_ID, payload);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                thread.start();
+                thread.join();
+            }
+
+            assertArrayEquals(expected[i], payloads[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForgottenSession() throws Exception {
+        val cipherCache = new SessionCipherCache(ALGORITHM, TRANSFORMATION);
+        cipherCache.register(SESSION_ID, randBytes(16), randBytes(16));
+        cipherCache.apply(SESSION_ID, ByteBuffer.wrap(randBytes(16)));
+
+        cipherCache.forget(SESSION_ID);
+        assertFalse(cipherCache.contains(SESSION_ID));
+
+        cipherCache.apply(SESSION_ID, ByteBuffer.wrap(randBytes(16)));
+    }
+
+    private static byte[] randBytes(int size) {
+        val bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+
+        return bytes;
+    }
+}
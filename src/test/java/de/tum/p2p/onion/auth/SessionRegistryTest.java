@@ -0,0 +1,96 @@
+package de.tum.p2p.onion.auth;
+
+import lombok.val;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRegistryTest {
+
+    private static final int THREADS = 4;
+    private static final int SESSIONS_PER_THREAD = 25_000;
+
+    @Test
+    public void registersHundredThousandConcurrentSessionsUnderDistinctIds() throws Exception {
+        val sessions = new SessionRegistry<Integer>();
+        val sessionIds = ConcurrentHashMap.<SessionId>newKeySet();
+
+        val start = new CountDownLatch(1);
+        val threads = new ArrayList<Thread>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            val thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                for (int i = 0; i < SESSIONS_PER_THREAD; i++) {
+                    val sessionId = sessions.register(i);
+                    sessionIds.add(sessionId);
+                    assertEquals(i, (int) sessions.get(sessionId));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (val thread : threads)
+            thread.join();
+
+        assertEquals(THREADS * SESSIONS_PER_THREAD, sessionIds.size());
+        assertEquals(THREADS * SESSIONS_PER_THREAD, sessions.size());
+        assertTrue(sessions.containsAll(sessionIds));
+    }
+
+    @Test
+    public void notifiesAboutRemovedSessions() {
+        val sessions = new SessionRegistry<String>();
+        final List<SessionId> removedSessionIds = new ArrayList<>();
+        sessions.onRemoval((sessionId, session) -> removedSessionIds.add(sessionId));
+
+        val sessionId = sessions.register("session");
+        assertEquals("session", sessions.remove(sessionId));
+
+        assertFalse(sessions.contains(sessionId));
+        assertNull(sessions.remove(sessionId));
+        assertEquals(1, removedSessionIds.size());
+        assertEquals(sessionId, removedSessionIds.get(0));
+    }
+
+    @Test
+    public void expiresIdleSessionsOnly() throws Exception {
+        val sessions = new SessionRegistry<String>(Duration.ofMillis(200));
+        final Set<SessionId> removedSessionIds = ConcurrentHashMap.newKeySet();
+        sessions.onRemoval((sessionId, session) -> removedSessionIds.add(sessionId));
+
+        val idleSessionId = sessions.register("idle");
+        val usedSessionId = sessions.register("used");
+
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(50);
+            sessions.get(usedSessionId);
+        }
+
+        assertEquals(1, sessions.expire());
+        assertFalse(sessions.contains(idleSessionId));
+        assertTrue(sessions.contains(usedSessionId));
+        assertTrue(removedSessionIds.contains(idleSessionId));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSessions() {
+        new SessionRegistry<String>().get(SessionId.wrap(42));
+    }
+}
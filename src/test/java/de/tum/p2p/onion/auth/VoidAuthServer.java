@@ -0,0 +1,168 @@
+package de.tum.p2p.onion.auth;
+
+import de.tum.p2p.proto.message.Message;
+import de.tum.p2p.proto.message.TypedMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthLayerCryptMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthResponseMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionCloseMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionHandshakeMessage;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionIncomingHs1Message;
+import de.tum.p2p.proto.message.onion.auth.AuthSessionStartMessage;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+import io.netty.util.internal.logging.Slf4JLoggerFactory;
+import lombok.val;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.tum.p2p.util.ByteBufs.safeContent;
+import static de.tum.p2p.util.TypeLimits.USHRT_MAX;
+
+/**
+ * Stands in for the Onion Auth module. HS1 of a started session carries a random
+ * key that the peer's session adopts on INCOMING HS1, so that sessions of both
+ * parties share it. Layers are XORs with session keys. This test imp DOESN'T
+ * AUTHENTICATE ANYONE and uses own message definitions of Onion Auth API.
+ */
+public class VoidAuthServer implements Closeable {
+
+    private static final int FRAME_LENGTH_PREFIX_LENGTH = Message.LENGTH_PREFIX_BYTES;
+
+    private static final int KEY_BYTES = 16;
+
+    static {
+        // Enable Netty to use Sl4j
+        InternalLoggerFactory.setDefaultFactory(Slf4JLoggerFactory.INSTANCE);
+    }
+
+    private final Map<SessionId, byte[]> sessionKeys = new ConcurrentHashMap<>();
+
+    private final AtomicInteger sessionIds = new AtomicInteger();
+
+    private final NioEventLoopGroup bossGroup = new NioEventLoopGroup();
+    private final NioEventLoopGroup workerGroup = new NioEventLoopGroup();
+
+    private Channel channel;
+
+    public VoidAuthServer(InetAddress inetAddress, int port) {
+        this.channel = buildServerChannel(inetAddress, port);
+    }
+
+    private Channel buildServerChannel(InetAddress inetAddress, int port) {
+        val b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                public void initChannel(SocketChannel ch) throws Exception {
+                    ch.pipeline()
+                        .addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0,
+                            FRAME_LENGTH_PREFIX_LENGTH, -FRAME_LENGTH_PREFIX_LENGTH, FRAME_LENGTH_PREFIX_LENGTH, true))
+                        .addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+                                val response = respondTo(safeContent(msg));
+                                if (response != null)
+                                    ctx.writeAndFlush(Unpooled.wrappedBuffer(response.bytes()));
+                            }
+                        })
+                        .addLast(new LengthFieldPrepender(FRAME_LENGTH_PREFIX_LENGTH, true));
+                }
+            });
+
+        return b.bind(inetAddress, port).syncUninterruptibly().channel();
+    }
+
+    private TypedMessage respondTo(byte[] rawRequest) {
+        switch (TypedMessage.guessType(rawRequest)) {
+            case AUTH_SESSION_START: {
+                val startMsg = AuthSessionStartMessage.fromBytes(rawRequest);
+                val key = new byte[KEY_BYTES];
+                ThreadLocalRandom.current().nextBytes(key);
+
+                return AuthSessionHandshakeMessage.hs1(register(key), startMsg.requestId(), key);
+            }
+            case AUTH_SESSION_INCOMING_HS1: {
+                val hs1Msg = AuthSessionIncomingHs1Message.fromBytes(rawRequest);
+
+                return AuthSessionHandshakeMessage.hs2(register(hs1Msg.handshake()), hs1Msg.requestId(), new byte[0]);
+            }
+            case AUTH_SESSION_INCOMING_HS2:
+                return null; // initiator's session already knows the key
+            case AUTH_LAYER_ENCRYPT: {
+                val encryptMsg = AuthLayerCryptMessage.fromBytes(rawRequest);
+                val ciphertext = xor(encryptMsg.payload(), encryptMsg.sessionIds());
+
+                return ciphertext == null ? AuthResponseMessage.error(encryptMsg.requestId())
+                                          : AuthResponseMessage.encrypted(encryptMsg.requestId(), ciphertext);
+            }
+            case AUTH_LAYER_DECRYPT: {
+                val decryptMsg = AuthLayerCryptMessage.fromBytes(rawRequest);
+                val plaintext = xor(decryptMsg.payload(), decryptMsg.sessionIds());
+
+                return plaintext == null ? AuthResponseMessage.error(decryptMsg.requestId())
+                                         : AuthResponseMessage.decrypted(decryptMsg.requestId(), plaintext);
+            }
+            case AUTH_SESSION_CLOSE:
+                sessionKeys.remove(AuthSessionCloseMessage.fromBytes(rawRequest).sessionId());
+                return null;
+            default:
+                throw new IllegalArgumentException("Unsupported Onion Auth request");
+        }
+    }
+
+    private SessionId register(byte[] key) {
+        val sessionId = SessionId.wrap(sessionIds.incrementAndGet() & USHRT_MAX);
+        sessionKeys.put(sessionId, key);
+
+        return sessionId;
+    }
+
+    private byte[] xor(byte[] payload, List<SessionId> sessionIds) {
+        val layered = payload.clone();
+
+        for (val sessionId : sessionIds) {
+            val key = sessionKeys.get(sessionId);
+            if (key == null)
+                return null;
+
+            for (int i = 0; i < layered.length; i++)
+                layered[i] ^= key[i % key.length];
+        }
+
+        return layered;
+    }
+
+    public int sessions() {
+        return sessionKeys.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.close().syncUninterruptibly();
+            this.bossGroup.shutdownGracefully();
+            this.workerGroup.shutdownGracefully();
+        } catch (Exception e) {
+            throw new IOException("Failed to close channel", e);
+        }
+    }
+}
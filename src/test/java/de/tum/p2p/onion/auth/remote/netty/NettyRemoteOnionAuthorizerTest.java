@@ -0,0 +1,130 @@
+package de.tum.p2p.onion.auth.remote.netty;
+
+import de.tum.p2p.onion.auth.Ciphertext;
+import de.tum.p2p.onion.auth.OnionEncryptionException;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.auth.VoidAuthServer;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static de.tum.p2p.Peers.randPeer;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NettyRemoteOnionAuthorizerTest {
+
+    private static final InetAddress AUTH_SERVER_HOST;
+    private static final int AUTH_SERVER_PORT = 9990;
+
+    private static final int OUTSTANDING_REQUESTS = 2_000;
+
+    static {
+        try {
+            AUTH_SERVER_HOST = InetAddress.getByName("localhost");
+        } catch (UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void establishesSessionAndPeelsLayerOfOriginator() throws Exception {
+        try (val voidAuthServer = new VoidAuthServer(AUTH_SERVER_HOST, AUTH_SERVER_PORT);
+             val originatorAuth = remoteAuth();
+             val hopAuth = remoteAuth()) {
+
+            val sessionIds = establishSession(originatorAuth, hopAuth);
+
+            val plaintext = randBytes(1024);
+            val ciphertext = originatorAuth.encrypt(plaintext, sessionIds.getLeft()).join();
+            val deciphertext = hopAuth.decrypt(ciphertext, sessionIds.getRight()).join();
+
+            assertEquals(1, ciphertext.layers());
+            assertArrayEquals(plaintext, deciphertext.bytes());
+        }
+    }
+
+    @Test
+    public void pipelinesManyOutstandingRequestsOverOneConnection() throws Exception {
+        try (val voidAuthServer = new VoidAuthServer(AUTH_SERVER_HOST, AUTH_SERVER_PORT);
+             val originatorAuth = remoteAuth();
+             val hopAuth = remoteAuth()) {
+
+            val sessionIds = establishSession(originatorAuth, hopAuth);
+
+            val plaintexts = new ArrayList<byte[]>(OUTSTANDING_REQUESTS);
+            val futureCiphertexts = new ArrayList<CompletableFuture<Ciphertext>>(OUTSTANDING_REQUESTS);
+            for (int i = 0; i < OUTSTANDING_REQUESTS; i++) {
+                val plaintext = randBytes(ThreadLocalRandom.current().nextInt(1, 512));
+                plaintexts.add(plaintext);
+                futureCiphertexts.add(originatorAuth.encrypt(plaintext, sessionIds.getLeft()));
+            }
+
+            allOf(futureCiphertexts.toArray(new CompletableFuture[futureCiphertexts.size()])).join();
+            assertEquals(0, originatorAuth.pendingRequests());
+
+            for (int i = 0; i < OUTSTANDING_REQUESTS; i++) {
+                val deciphertext = hopAuth.decrypt(futureCiphertexts.get(i).join(), sessionIds.getRight()).join();
+                assertArrayEquals(plaintexts.get(i), deciphertext.bytes());
+            }
+        }
+    }
+
+    @Test
+    public void failsRequestsRejectedByRemoteAuth() throws Exception {
+        try (val voidAuthServer = new VoidAuthServer(AUTH_SERVER_HOST, AUTH_SERVER_PORT);
+             val originatorAuth = remoteAuth()) {
+
+            try {
+                originatorAuth.encrypt(randBytes(16), SessionId.wrap(42)).join();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof OnionEncryptionException);
+                assertEquals(0, originatorAuth.pendingRequests());
+                return;
+            }
+
+            throw new AssertionError("Encryption with unknown session must fail");
+        }
+    }
+
+    private static NettyRemoteOnionAuthorizer remoteAuth() {
+        return new NettyRemoteOnionAuthorizer.Builder()
+            .inetAddress(AUTH_SERVER_HOST)
+            .port(AUTH_SERVER_PORT)
+            .build();
+    }
+
+    private static Pair<SessionId, SessionId> establishSession(NettyRemoteOnionAuthorizer originatorAuth,
+                                                               NettyRemoteOnionAuthorizer hopAuth) {
+        val originator = randPeer();
+        val hop = randPeer();
+
+        val sessionIdAndHs1 = originatorAuth.sessionFactory().start(hop).join();
+        val hs1 = sessionIdAndHs1.getRight();
+
+        val hs1Bytes = new byte[hs1.remaining()];
+        hs1.duplicate().get(hs1Bytes);
+
+        val hopSessionIdAndHs2 = hopAuth.sessionFactory().responseTo(originator.publicKey(), hs1Bytes).join();
+        val originatorSessionId = originatorAuth.sessionFactory().confirm(hopSessionIdAndHs2.getRight()).join();
+
+        assertEquals(sessionIdAndHs1.getLeft(), originatorSessionId);
+        return Pair.of(originatorSessionId, hopSessionIdAndHs2.getLeft());
+    }
+
+    private static byte[] randBytes(int size) {
+        val bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+
+        return bytes;
+    }
+}
@@ -1,27 +1,41 @@
 package de.tum.p2p.onion.forwarding.netty;
 
 import de.tum.p2p.Peer;
+import de.tum.p2p.onion.auth.AesCtrOnionAuthorizer;
 import de.tum.p2p.onion.auth.InMemoryBase64OnionAuthorizer;
+import de.tum.p2p.onion.auth.KeystreamPrefetch;
 import de.tum.p2p.onion.auth.OnionAuthorizer;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.auth.SessionRegistry;
 import de.tum.p2p.onion.forwarding.TunnelId;
 import de.tum.p2p.onion.forwarding.netty.context.OriginatorContext;
 import de.tum.p2p.onion.forwarding.netty.context.RoutingContext;
 import de.tum.p2p.rps.InMemoryRandomPeerSampler;
 import de.tum.p2p.rps.RandomPeerSampler;
+import io.netty.buffer.ByteBuf;
 import lombok.val;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.PublicKey;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
+import static de.tum.p2p.HostKeys.randHostkey;
 import static de.tum.p2p.Peers.randLocalPeers;
+import static de.tum.p2p.util.Nets.localhost;
+import static de.tum.p2p.util.Nets.randUnprivilegedPort;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -29,6 +43,9 @@ import static org.mockito.Mockito.*;
 @SuppressWarnings("ALL")
 public class NettyOnionForwarderTest {
 
+    private static final int AES_CTR_DATA = 30;
+    private static final int AES_CTR_MAX_DATA_BYTES = 4096;
+
     private List<Peer> randomPeers;
     private RandomPeerSampler rps;
 
@@ -96,8 +113,8 @@ public class NettyOnionForwarderTest {
         verify(peer1auth.sessionFactory(), times(1)).start(peer3);
         verify(peer1auth.sessionFactory(), times(2)).confirm(any(byte[].class));
 
-        verify(peer2auth.sessionFactory(), times(1)).responseTo(any(byte[].class));
-        verify(peer3auth.sessionFactory(), times(1)).responseTo(any(byte[].class));
+        verify(peer2auth.sessionFactory(), times(1)).responseTo(any(PublicKey.class), any(ByteBuffer.class));
+        verify(peer3auth.sessionFactory(), times(1)).responseTo(any(PublicKey.class), any(ByteBuffer.class));
 
         // Verify routes
         assertEquals(peer2.socketAddress(), peer1OriginContext.entry(p1p3Tunnel.id()).remoteAddress());
@@ -428,6 +445,114 @@ public class NettyOnionForwarderTest {
             fail("Cover didn't arrive on time");
     }
 
+    @Test
+    public void forwardsDataThroughTwoHopsWithAesCtr() throws Exception {
+        forwardsDataThroughHopsWithAesCtr(1, KeystreamPrefetch.none());
+    }
+
+    @Test
+    public void forwardsDataThroughThreeHopsWithAesCtr() throws Exception {
+        forwardsDataThroughHopsWithAesCtr(2, KeystreamPrefetch.none());
+    }
+
+    @Test
+    public void forwardsDataThroughThreeHopsWithPrefetchedAesCtrKeystreams() throws Exception {
+        val prefetchExecutor = Executors.newSingleThreadExecutor();
+
+        try {
+            val prefetch = new KeystreamPrefetch.Builder()
+                .executor(prefetchExecutor)
+                .depth(2)
+                .build();
+
+            forwardsDataThroughHopsWithAesCtr(2, prefetch);
+
+            assertTrue(prefetch.hits() > 0);
+        } finally {
+            prefetchExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Builds a tunnel of length-preserving AES-CTR layers, so that intermediate hops peel
+     * relays with their session keystreams within inbound frames and cut them through to
+     * the next hop. Data arrives intact and in order only as long as keystreams of the
+     * originator and all hops stay in sync over many cells.
+     */
+    private void forwardsDataThroughHopsWithAesCtr(int intermediateHops, KeystreamPrefetch prefetch)
+            throws Exception {
+        val peerCount = intermediateHops + 2;
+
+        val hostkeys = new ArrayList<KeyPair>(peerCount);
+        val peers = new ArrayList<Peer>(peerCount);
+        randUnprivilegedPort(peerCount).forEach(port -> {
+            final KeyPair hostkey = randHostkey();
+
+            hostkeys.add(hostkey);
+            peers.add(Peer.of(localhost(), port, hostkey.getPublic()));
+        });
+
+        val aesCtrRps = new InMemoryRandomPeerSampler(peers);
+
+        val auths = new ArrayList<OnionAuthorizer>(peerCount);
+        val onions = new ArrayList<NettyOnionForwarder>(peerCount);
+        try {
+            for (int i = 0; i < peerCount; i++) {
+                val auth = spy(new AesCtrOnionAuthorizer(hostkeys.get(i), SessionRegistry.NO_EXPIRY, prefetch));
+                auths.add(auth);
+
+                onions.add(new NettyOnionForwarder.Builder()
+                    .port(peers.get(i).port())
+                    .onionAuthorizer(auth)
+                    .randomPeerSampler(aesCtrRps)
+                    .publicKey(peers.get(i).publicKey())
+                    .intermediateHops(intermediateHops)
+                    .listen());
+            }
+
+            val originatorOnion = onions.get(0);
+            val destinationOnion = onions.get(peerCount - 1);
+
+            val tunnel = originatorOnion.createTunnel(peers.get(peerCount - 1)).join();
+            assertEquals(intermediateHops + 1, tunnel.hops());
+
+            val sentData = new ArrayList<byte[]>(AES_CTR_DATA);
+            for (int i = 0; i < AES_CTR_DATA; i++) {
+                val data = new byte[1 + ThreadLocalRandom.current().nextInt(AES_CTR_MAX_DATA_BYTES)];
+                ThreadLocalRandom.current().nextBytes(data);
+
+                sentData.add(data);
+            }
+
+            val receivedData = new CopyOnWriteArrayList<byte[]>();
+            val lock = new CountDownLatch(AES_CTR_DATA);
+            destinationOnion.addIncomingDataObserver((tunnelId, byteBuffer) -> {
+                receivedData.add(byteBuffer.array());
+                lock.countDown();
+            });
+
+            // Forwards are layered and sent in order, every next one further down the keystreams
+            for (val data : sentData)
+                originatorOnion.forward(tunnel, ByteBuffer.wrap(data));
+
+            if (!lock.await(Duration.ofSeconds(5).toMillis(), TimeUnit.MILLISECONDS))
+                fail("Only " + receivedData.size() + " of " + AES_CTR_DATA + " data arrived on time");
+
+            for (int i = 0; i < AES_CTR_DATA; i++)
+                assertArrayEquals(sentData.get(i), receivedData.get(i));
+
+            // Hops peel relays with keystreams of their sessions rather than the authorizer's ciphers
+            for (val hopAuth : auths.subList(1, peerCount)) {
+                verify(hopAuth, atLeastOnce()).layeredKeystream(anyListOf(SessionId.class));
+                verify(hopAuth, never()).decryptAll(anyListOf(ByteBuf.class), any(SessionId.class),
+                    anyListOf(ByteBuf.class));
+            }
+        } finally {
+            for (val onion : onions)
+                onion.close();
+        }
+    }
+
     private static OnionAuthorizer spiedInMemoryBase64OnionAuthorizer() {
         val auth = spy(new InMemoryBase64OnionAuthorizer());
         auth.sessionFactory(spy(auth.sessionFactory()));
@@ -0,0 +1,79 @@
+package de.tum.p2p.onion.forwarding.netty.channel;
+
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.val;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class CircuitTableTest {
+
+    private static final int TUNNELS = 1_000;
+
+    @Test
+    public void isSharedByChannelHandlers() {
+        val channel = new EmbeddedChannel();
+
+        assertSame(CircuitTable.of(channel), CircuitTable.of(channel));
+        assertEquals(0, CircuitTable.of(channel).size());
+    }
+
+    @Test
+    public void mapsIncomingTunnelToOutgoingChannelTunnelAndSession() {
+        val inbound = new EmbeddedChannel();
+        val outbound = new EmbeddedChannel();
+        val circuitTable = CircuitTable.of(inbound);
+
+        val tunnelId = TunnelId.wrap(42);
+        val nextTunnelId = TunnelId.wrap(24);
+        val sessionId = SessionId.wrap(7);
+        val keystream = mock(LayeredKeystream.class);
+
+        circuitTable.setSession(tunnelId, nextTunnelId, sessionId, keystream);
+        assertFalse(circuitTable.get(tunnelId).hasNextHop());
+
+        circuitTable.setNextHop(tunnelId, outbound, nextTunnelId);
+
+        val circuit = circuitTable.get(tunnelId);
+        assertEquals(tunnelId.raw(), circuit.tunnelId());
+        assertTrue(circuit.hasNextHop());
+        assertSame(outbound, circuit.nextHop());
+        assertEquals(nextTunnelId.raw(), circuit.nextTunnelId());
+        assertEquals(sessionId, circuit.sessionId());
+        assertSame(keystream, circuit.keystream());
+
+        circuitTable.remove(tunnelId);
+        assertNull(circuitTable.get(tunnelId));
+    }
+
+    @Test
+    public void keepsCircuitsReachableWhileTunnelsComeAndGo() {
+        val circuitTable = CircuitTable.of(new EmbeddedChannel());
+
+        // Enough tunnels to grow the table, removing every other one shifts colliding circuits back
+        for (int tunnelId = 0; tunnelId < TUNNELS; tunnelId++)
+            circuitTable.setSession(TunnelId.wrap(tunnelId), TunnelId.wrap(tunnelId), SessionId.wrap(tunnelId), null);
+
+        for (int tunnelId = 1; tunnelId < TUNNELS; tunnelId += 2)
+            circuitTable.remove(TunnelId.wrap(tunnelId));
+
+        assertEquals(TUNNELS / 2, circuitTable.size());
+        for (int tunnelId = 0; tunnelId < TUNNELS; tunnelId++) {
+            val circuit = circuitTable.get(TunnelId.wrap(tunnelId));
+
+            if (tunnelId % 2 == 0) {
+                assertEquals(SessionId.wrap(tunnelId), circuit.sessionId());
+            } else {
+                assertNull(circuit);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.tum.p2p.onion.forwarding.netty.channel;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class WriteCoalescerTest {
+
+    @Test
+    public void flushesAllWritesOfTickOnce() {
+        val flushes = new AtomicInteger();
+        val channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(ChannelHandlerContext ctx) throws Exception {
+                flushes.incrementAndGet();
+                super.flush(ctx);
+            }
+        });
+
+        val coalescer = WriteCoalescer.of(channel);
+        assertSame(coalescer, WriteCoalescer.of(channel));
+
+        coalescer.writeAll(asList("chunk1", "chunk2"));
+        WriteCoalescer.of(channel).write("chunk3");
+
+        assertNull(channel.readOutbound());
+        assertEquals(0, flushes.get());
+
+        channel.runPendingTasks();
+
+        assertEquals(1, flushes.get());
+        assertEquals("chunk1", channel.readOutbound());
+        assertEquals("chunk2", channel.readOutbound());
+        assertEquals("chunk3", channel.readOutbound());
+    }
+
+    @Test
+    public void reportsFailedWritesOfBatch() {
+        val failure = new IllegalStateException("Cell exceeds link's cell size");
+        val channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                if ("oversized".equals(msg)) {
+                    promise.setFailure(failure);
+                    return;
+                }
+
+                super.write(ctx, msg, promise);
+            }
+        });
+
+        val writes = WriteCoalescer.of(channel).writeAll(asList("chunk1", "oversized", "chunk2"));
+        channel.runPendingTasks();
+
+        assertFalse(writes.isSuccess());
+        assertSame(failure, writes.cause());
+
+        try {
+            channel.checkException();
+            fail("Failed write hasn't been fired through the pipeline");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CryptoContextTest {
+
+    private static final int TUNNELS = 8;
+    private static final int TASKS_PER_TUNNEL = 500;
+
+    @Test
+    public void runsDirectTasksOnCallingThread() {
+        val caller = Thread.currentThread();
+
+        val futureThread = CryptoContext.direct().execute(TunnelId.random(),
+            () -> completedFuture(Thread.currentThread()));
+
+        assertTrue(futureThread.isDone());
+        assertSame(caller, futureThread.join());
+    }
+
+    @Test
+    public void keepsTunnelsOfDirectContextsApart() {
+        val tunnelId = TunnelId.random();
+        val pending = new CompletableFuture<Integer>();
+
+        val cryptoContext = CryptoContext.direct();
+        val futureFirst = cryptoContext.execute(tunnelId, () -> pending);
+
+        // Closing another forwarder's context must not drop the tunnel's pending task
+        CryptoContext.direct().close();
+
+        val futureNext = cryptoContext.execute(tunnelId, () -> completedFuture(43));
+        assertFalse(futureNext.isDone());
+
+        pending.complete(42);
+        assertEquals(42, (int) futureFirst.join());
+        assertEquals(43, (int) futureNext.join());
+    }
+
+    @Test
+    public void keepsOrderOfTasksWithinTunnel() {
+        try (CryptoContext cryptoContext = CryptoContext.offloaded(4, 16)) {
+            val tunnelIds = new ArrayList<TunnelId>(TUNNELS);
+            val executionOrders = new ArrayList<List<Integer>>(TUNNELS);
+            for (int i = 0; i < TUNNELS; i++) {
+                tunnelIds.add(TunnelId.random());
+                executionOrders.add(new CopyOnWriteArrayList<>());
+            }
+
+            val futures = new ArrayList<CompletableFuture<Integer>>();
+            for (int task = 0; task < TASKS_PER_TUNNEL; task++) {
+                for (int i = 0; i < TUNNELS; i++) {
+                    val taskNumber = task;
+                    val executionOrder = executionOrders.get(i);
+
+                    futures.add(cryptoContext.execute(tunnelIds.get(i), () -> {
+                        executionOrder.add(taskNumber);
+                        return completedFuture(taskNumber);
+                    }));
+                }
+            }
+
+            allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+
+            for (val executionOrder : executionOrders) {
+                assertEquals(TASKS_PER_TUNNEL, executionOrder.size());
+                for (int task = 0; task < TASKS_PER_TUNNEL; task++)
+                    assertEquals(task, (int) executionOrder.get(task));
+            }
+        }
+    }
+
+    @Test
+    public void handsOverResultsToGivenExecutor() {
+        val handOvers = new AtomicInteger();
+        final Executor eventLoop = task -> {
+            handOvers.incrementAndGet();
+            task.run();
+        };
+
+        try (CryptoContext cryptoContext = CryptoContext.offloaded(2, 4)) {
+            val completions = new ArrayList<Integer>();
+            val futureResult = cryptoContext.execute(TunnelId.random(), () -> completedFuture(42),
+                eventLoop, completions::add);
+
+            assertEquals(42, (int) futureResult.join());
+            assertEquals(1, handOvers.get());
+            assertEquals(singletonList(42), completions);
+        }
+    }
+
+    @Test
+    public void keepsOrderOfCompletionsWithinTunnel() {
+        val eventLoop = Executors.newSingleThreadExecutor();
+
+        try (CryptoContext cryptoContext = CryptoContext.offloaded(4, 16)) {
+            val tunnelIds = new ArrayList<TunnelId>(TUNNELS);
+            val completionOrders = new ArrayList<List<Integer>>(TUNNELS);
+            for (int i = 0; i < TUNNELS; i++) {
+                tunnelIds.add(TunnelId.random());
+                completionOrders.add(new CopyOnWriteArrayList<>());
+            }
+
+            val futures = new ArrayList<CompletableFuture<Integer>>();
+            for (int task = 0; task < TASKS_PER_TUNNEL; task++) {
+                for (int i = 0; i < TUNNELS; i++) {
+                    val taskNumber = task;
+
+                    // Tasks complete on their own, later ones may be done before earlier ones
+                    futures.add(cryptoContext.execute(tunnelIds.get(i),
+                        () -> CompletableFuture.supplyAsync(() -> taskNumber), eventLoop, completionOrders.get(i)::add));
+                }
+            }
+
+            allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+
+            for (val completionOrder : completionOrders) {
+                assertEquals(TASKS_PER_TUNNEL, completionOrder.size());
+                for (int task = 0; task < TASKS_PER_TUNNEL; task++)
+                    assertEquals(task, (int) completionOrder.get(task));
+            }
+        } finally {
+            eventLoop.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsFailedCompletions() {
+        val tunnelId = TunnelId.random();
+        val failure = new IllegalStateException();
+
+        val futureFailed = CryptoContext.direct().execute(tunnelId, () -> completedFuture(42),
+            Runnable::run, result -> { throw failure; });
+        val futureNext = CryptoContext.direct().execute(tunnelId, () -> completedFuture(43));
+
+        assertTrue(futureFailed.isCompletedExceptionally());
+        assertEquals(43, (int) futureNext.join());
+    }
+}
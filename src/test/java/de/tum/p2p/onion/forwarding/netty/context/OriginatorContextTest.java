@@ -0,0 +1,95 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class OriginatorContextTest {
+
+    private static final List<SessionId> SESSION_IDS = asList(SessionId.wrap(1), SessionId.wrap(2), SessionId.wrap(3));
+
+    @Test
+    public void publishesBuiltTunnelOnce() {
+        val originatorContext = new OriginatorContext();
+        val tunnelId = TunnelId.random();
+        val entry = new EmbeddedChannel();
+        val keystream = mock(LayeredKeystream.class);
+
+        originatorContext.serve(tunnelId, entry);
+
+        val building = originatorContext.tunnel(tunnelId);
+        assertSame(entry, building.entry());
+        assertFalse(building.isBuilt());
+        assertEquals(0, building.hops());
+
+        val sessionIds = new ArrayList<SessionId>(SESSION_IDS);
+        originatorContext.publish(tunnelId, sessionIds, keystream);
+
+        // Sessions are copied on publishing, so that the descriptor never changes afterwards
+        sessionIds.clear();
+
+        val built = originatorContext.tunnel(tunnelId);
+        assertTrue(built.isBuilt());
+        assertEquals(SESSION_IDS.size(), built.hops());
+        assertEquals(SESSION_IDS, built.sessionIds());
+        assertEquals(SESSION_IDS.get(0), built.sessionId(0));
+        assertSame(entry, built.entry());
+        assertSame(keystream, built.keystream());
+
+        // The descriptor already looked up is left as is
+        assertFalse(building.isBuilt());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void exposesReadOnlySessions() {
+        val originatorContext = new OriginatorContext();
+        val tunnelId = TunnelId.random();
+
+        originatorContext.serve(tunnelId, new EmbeddedChannel());
+        originatorContext.publish(tunnelId, SESSION_IDS, null);
+
+        originatorContext.sessionIds(tunnelId).add(SessionId.wrap(4));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsRepublishing() {
+        val originatorContext = new OriginatorContext();
+        val tunnelId = TunnelId.random();
+
+        originatorContext.serve(tunnelId, new EmbeddedChannel());
+        originatorContext.publish(tunnelId, SESSION_IDS, null);
+        originatorContext.publish(tunnelId, SESSION_IDS, null);
+    }
+
+    @Test
+    public void closesEntryAndKeystreamOfForgottenTunnels() {
+        val originatorContext = new OriginatorContext();
+        val tunnelId = TunnelId.random();
+        val entry = new EmbeddedChannel();
+        val keystream = mock(LayeredKeystream.class);
+
+        originatorContext.serve(tunnelId, entry);
+        originatorContext.publish(tunnelId, SESSION_IDS, keystream);
+        originatorContext.forget(tunnelId);
+
+        assertNull(originatorContext.tunnel(tunnelId));
+        assertTrue(originatorContext.isEmpty());
+        assertFalse(entry.isOpen());
+        verify(keystream).close();
+    }
+}
@@ -0,0 +1,138 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.forwarding.OnionDataForwardingException;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatumFactory;
+import lombok.val;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReassemblyContextTest {
+
+    private static final int DATA_BYTES = TunnelDatum.PAYLOAD_BYTES * 5 + 42;
+
+    @Test
+    public void reassemblesShuffledFragmentsIntoOriginalData() {
+        val reassemblyContext = new ReassemblyContext();
+        val tunnelId = TunnelId.random();
+
+        val data = randomData();
+        val fragments = new ArrayList<TunnelDatum>(TunnelDatumFactory.ofMany(data));
+        Collections.shuffle(fragments);
+
+        Optional<ByteBuffer> reassembled = Optional.empty();
+        for (val fragment : fragments) {
+            assertFalse(reassembled.isPresent());
+            reassembled = reassemblyContext.reassemble(tunnelId, fragment);
+        }
+
+        assertTrue(reassembled.isPresent());
+        assertEquals(data, reassembled.get());
+        assertEquals(0, reassemblyContext.pending());
+    }
+
+    @Test
+    public void reassemblesBiggestMessageSendersMayFragment() {
+        val reassemblyContext = new ReassemblyContext();
+        val tunnelId = TunnelId.random();
+
+        val fragmentBytes = 16;
+        val data = ByteBuffer.allocate(TunnelDatum.MAX_FRAGMENTS * fragmentBytes);
+        ThreadLocalRandom.current().nextBytes(data.array());
+
+        val fragments = TunnelDatumFactory.ofMany(data, fragmentBytes);
+        assertEquals(TunnelDatum.MAX_FRAGMENTS, fragments.size());
+
+        Optional<ByteBuffer> reassembled = Optional.empty();
+        for (val fragment : fragments)
+            reassembled = reassemblyContext.reassemble(tunnelId, fragment);
+
+        assertEquals(data, reassembled.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToFragmentMessagesDestinationsDrop() {
+        val fragmentBytes = 16;
+        TunnelDatumFactory.ofMany(ByteBuffer.allocate(TunnelDatum.MAX_FRAGMENTS * fragmentBytes + 1), fragmentBytes);
+    }
+
+    @Test
+    public void passesUnfragmentedDatumThrough() {
+        val reassemblyContext = new ReassemblyContext();
+
+        val datum = new TunnelDatum(new byte[] {1, 2, 3});
+        val reassembled = reassemblyContext.reassemble(TunnelId.random(), datum);
+
+        assertEquals(ByteBuffer.wrap(datum.payload()), reassembled.get());
+    }
+
+    @Test
+    public void evictsExpiredReassemblies() throws Exception {
+        val reassemblyContext = new ReassemblyContext(Duration.ofMillis(1), 16, 1024);
+        val tunnelId = TunnelId.random();
+
+        val fragments = TunnelDatumFactory.ofMany(randomData());
+        reassemblyContext.reassemble(tunnelId, fragments.get(0));
+        Thread.sleep(10);
+
+        // Previous reassembly is expired by now, so the message can never be completed
+        for (val fragment : fragments.subList(1, fragments.size()))
+            assertFalse(reassemblyContext.reassemble(tunnelId, fragment).isPresent());
+    }
+
+    @Test
+    public void sweepsExpiredReassembliesOfIdleTunnels() throws Exception {
+        val reassemblyContext = new ReassemblyContext(Duration.ofMillis(1), 16, 1024);
+
+        reassemblyContext.reassemble(TunnelId.random(), TunnelDatumFactory.ofMany(randomData()).get(0));
+        Thread.sleep(10);
+        reassemblyContext.reassemble(TunnelId.random(), TunnelDatumFactory.ofMany(randomData()).get(0));
+
+        assertEquals(1, reassemblyContext.pending());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroTimeout() {
+        new ReassemblyContext(Duration.ZERO, 16, 1024);
+    }
+
+    @Test
+    public void dropsOldestReassemblyOnOverflow() {
+        val reassemblyContext = new ReassemblyContext(Duration.ofMinutes(1), 2, 1024);
+        val tunnelId = TunnelId.random();
+
+        for (int i = 0; i < 3; i++)
+            reassemblyContext.reassemble(tunnelId, TunnelDatumFactory.ofMany(randomData()).get(0));
+
+        assertEquals(2, reassemblyContext.pending());
+    }
+
+    @Test(expected = OnionDataForwardingException.class)
+    public void rejectsDuplicatedFragments() {
+        val reassemblyContext = new ReassemblyContext();
+        val tunnelId = TunnelId.random();
+
+        val fragment = TunnelDatumFactory.ofMany(randomData()).get(0);
+
+        reassemblyContext.reassemble(tunnelId, fragment);
+        reassemblyContext.reassemble(tunnelId, fragment);
+    }
+
+    private static ByteBuffer randomData() {
+        val data = new byte[DATA_BYTES];
+        ThreadLocalRandom.current().nextBytes(data);
+
+        return ByteBuffer.wrap(data);
+    }
+}
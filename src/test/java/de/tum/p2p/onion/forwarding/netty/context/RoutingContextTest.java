@@ -0,0 +1,171 @@
+package de.tum.p2p.onion.forwarding.netty.context;
+
+import de.tum.p2p.onion.auth.LayeredKeystream;
+import de.tum.p2p.onion.auth.SessionId;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class RoutingContextTest {
+
+    private static final int THREADS = 8;
+    private static final int TUNNELS_PER_THREAD = 5_000;
+
+    @Test
+    public void updatesRouteHopByHop() {
+        val routingContext = new RoutingContext();
+        val tunnelId = TunnelId.random();
+        val prev = new EmbeddedChannel();
+        val next = new EmbeddedChannel();
+        val sessionId = SessionId.wrap(42);
+
+        routingContext.setPrevHop(tunnelId, prev);
+        routingContext.setSessionId(tunnelId, sessionId);
+        routingContext.setNextHop(tunnelId, next);
+
+        assertTrue(routingContext.serves(tunnelId));
+        assertSame(prev, routingContext.prevHop(tunnelId));
+        assertSame(next, routingContext.nextHop(tunnelId));
+        assertEquals(sessionId, routingContext.sessionId(tunnelId));
+
+        routingContext.forget(tunnelId);
+
+        assertFalse(routingContext.serves(tunnelId));
+        assertNull(routingContext.nextHop(tunnelId));
+        assertFalse(prev.isOpen());
+        assertFalse(next.isOpen());
+    }
+
+    @Test
+    public void closesLinksOnceNoRouteUsesThem() {
+        val routingContext = new RoutingContext();
+        val link = new EmbeddedChannel();
+        val next = new EmbeddedChannel();
+        val otherNext = new EmbeddedChannel();
+
+        // Two tunnels enter via the same link
+        val tunnelId = routingContext.serveIncoming(link, TunnelId.random());
+        val otherTunnelId = routingContext.serveIncoming(link, TunnelId.random());
+        routingContext.setNextHop(tunnelId, next);
+        routingContext.setNextHop(otherTunnelId, otherNext);
+
+        assertEquals(2, routingContext.routesVia(link));
+
+        routingContext.forget(tunnelId);
+
+        assertTrue(link.isOpen());
+        assertFalse(next.isOpen());
+        assertTrue(otherNext.isOpen());
+        assertEquals(1, routingContext.routesVia(link));
+
+        routingContext.forget(otherTunnelId);
+
+        assertFalse(link.isOpen());
+        assertFalse(otherNext.isOpen());
+        assertEquals(0, routingContext.routesVia(link));
+    }
+
+    @Test
+    public void assignsOwnTunnelIdsToTunnelsOfDifferentLinks() {
+        val routingContext = new RoutingContext();
+        val prevTunnelId = TunnelId.random();
+        val link = new EmbeddedChannel();
+        val otherLink = new EmbeddedChannel();
+
+        // Originators behind different links happen to pick the same id
+        val tunnelId = routingContext.serveIncoming(link, prevTunnelId);
+        val otherTunnelId = routingContext.serveIncoming(otherLink, prevTunnelId);
+
+        assertEquals(prevTunnelId, tunnelId);
+        assertNotEquals(tunnelId, otherTunnelId);
+
+        assertSame(link, routingContext.prevHop(tunnelId));
+        assertSame(otherLink, routingContext.prevHop(otherTunnelId));
+        assertEquals(prevTunnelId, routingContext.prevTunnelId(tunnelId));
+        assertEquals(prevTunnelId, routingContext.prevTunnelId(otherTunnelId));
+    }
+
+    @Test
+    public void closesReplacedAndForgottenKeystreams() {
+        val routingContext = new RoutingContext();
+        val tunnelId = TunnelId.random();
+        val keystream = mock(LayeredKeystream.class);
+        val nextKeystream = mock(LayeredKeystream.class);
+
+        routingContext.setSessionId(tunnelId, SessionId.wrap(42));
+        routingContext.setKeystream(tunnelId, keystream);
+        routingContext.setKeystream(tunnelId, nextKeystream);
+
+        verify(keystream).close();
+        assertSame(nextKeystream, routingContext.keystream(tunnelId));
+
+        routingContext.forget(tunnelId);
+        verify(nextKeystream).close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsKeystreamsOfUnknownTunnels() {
+        new RoutingContext().setKeystream(TunnelId.random(), mock(LayeredKeystream.class));
+    }
+
+    @Test
+    public void servesAndForgetsTunnelsConcurrently() throws Exception {
+        val routingContext = new RoutingContext();
+        val executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            // Every thread builds and retires its own tunnels while looking up the others',
+            // so the table is rehashed a few times under concurrent lookups
+            val futures = new ArrayList<CompletableFuture<Void>>(THREADS);
+            for (int thread = 0; thread < THREADS; thread++) {
+                val firstTunnelId = thread * TUNNELS_PER_THREAD;
+
+                futures.add(runAsync(() -> {
+                    for (int i = 0; i < TUNNELS_PER_THREAD; i++) {
+                        val tunnelId = TunnelId.wrap(firstTunnelId + i);
+                        val sessionId = SessionId.wrap(firstTunnelId + i);
+
+                        routingContext.setSessionId(tunnelId, sessionId);
+                        assertEquals(sessionId, routingContext.sessionId(tunnelId));
+
+                        val othersTunnelId = TunnelId.wrap((firstTunnelId + TUNNELS_PER_THREAD + i)
+                            % (THREADS * TUNNELS_PER_THREAD));
+                        val othersSessionId = routingContext.sessionId(othersTunnelId);
+                        if (othersSessionId != null)
+                            assertEquals(othersTunnelId.raw(), othersSessionId.raw());
+
+                        if (i % 2 == 1)
+                            routingContext.forget(tunnelId);
+                    }
+                }, executor));
+            }
+
+            allOf(futures.toArray(new CompletableFuture[futures.size()])).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(THREADS * TUNNELS_PER_THREAD / 2, routingContext.size());
+        for (int tunnelId = 0; tunnelId < THREADS * TUNNELS_PER_THREAD; tunnelId++)
+            assertEquals(tunnelId % 2 == 0, routingContext.serves(TunnelId.wrap(tunnelId)));
+
+        routingContext.close();
+        assertEquals(0, routingContext.size());
+    }
+}
@@ -0,0 +1,64 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.onion.forwarding.LinkHelloMessage;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelRetireMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+import static de.tum.p2p.proto.message.onion.forwarding.CellSize.CELL_1024;
+import static de.tum.p2p.proto.message.onion.forwarding.CellSize.CELL_4096;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LinkHelloReceiverTest {
+
+    private static final LinkHelloMessage HELLO = new LinkHelloMessage(EnumSet.of(CELL_1024, CELL_4096), CELL_4096);
+
+    @Test
+    public void acceptsHelloAsFirstFrameOnly() {
+        val hellos = new ArrayList<LinkHelloMessage>();
+        val channel = new EmbeddedChannel(new LinkHelloReceiver((ctx, hello) -> hellos.add(hello)));
+
+        val helloFrame = Unpooled.wrappedBuffer(HELLO.bytes());
+        val renegotiatingFrame = Unpooled.wrappedBuffer(HELLO.bytes());
+        channel.writeInbound(helloFrame, renegotiatingFrame);
+
+        assertEquals(1, hellos.size());
+        assertEquals(HELLO, hellos.get(0));
+        assertEquals(0, helloFrame.refCnt());
+        assertNull(channel.pipeline().get(LinkHelloReceiver.class));
+
+        // Left for the dispatcher, which has no route for hellos
+        ByteBuf inbound = channel.readInbound();
+        assertEquals(renegotiatingFrame, inbound);
+        inbound.release();
+    }
+
+    @Test
+    public void ignoresHelloAfterOtherFrames() {
+        val hellos = new ArrayList<LinkHelloMessage>();
+        val channel = new EmbeddedChannel(new LinkHelloReceiver((ctx, hello) -> hellos.add(hello)));
+
+        val retireFrame = Unpooled.wrappedBuffer(new TunnelRetireMessage(TunnelId.random()).bytes());
+        val helloFrame = Unpooled.wrappedBuffer(HELLO.bytes());
+        channel.writeInbound(retireFrame, helloFrame);
+
+        assertEquals(0, hellos.size());
+        assertNull(channel.pipeline().get(LinkHelloReceiver.class));
+
+        ByteBuf inbound = channel.readInbound();
+        assertEquals(retireFrame, inbound);
+        inbound.release();
+
+        inbound = channel.readInbound();
+        assertEquals(helloFrame, inbound);
+        inbound.release();
+    }
+}
@@ -0,0 +1,58 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import de.tum.p2p.onion.forwarding.OnionDataForwardingException;
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.onion.forwarding.netty.context.ReassemblyContext;
+import de.tum.p2p.onion.forwarding.netty.event.TunnelDatumReceived;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelDatum;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity.CRC32;
+import static de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity.MD5;
+import static de.tum.p2p.proto.message.onion.forwarding.composite.DatumIntegrity.NONE;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class TunnelDatumHandlerTest {
+
+    @Test(expected = OnionDataForwardingException.class)
+    public void rejectsDatumOfDowngradedIntegrity() {
+        val handler = new TunnelDatumHandler(new EventBus(), new ReassemblyContext(), MD5);
+
+        handler.handle(mock(ChannelHandlerContext.class), TunnelId.random(),
+            new TunnelDatum(42, 0, 1, NONE, new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    public void acceptsDatumOfRequiredOrStrongerIntegrity() {
+        val eventBus = new EventBus();
+        val received = new DatumListener();
+        eventBus.register(received);
+
+        val handler = new TunnelDatumHandler(eventBus, new ReassemblyContext(), CRC32);
+
+        handler.handle(mock(ChannelHandlerContext.class), TunnelId.random(),
+            new TunnelDatum(42, 0, 1, CRC32, new byte[] {1, 2, 3}));
+        handler.handle(mock(ChannelHandlerContext.class), TunnelId.random(),
+            new TunnelDatum(43, 0, 1, MD5, new byte[] {1, 2, 3}));
+
+        assertEquals(2, received.events.size());
+    }
+
+    public static final class DatumListener {
+
+        private final List<TunnelDatumReceived> events = new ArrayList<>();
+
+        @Subscribe
+        public void onDatum(TunnelDatumReceived event) {
+            events.add(event);
+        }
+    }
+}
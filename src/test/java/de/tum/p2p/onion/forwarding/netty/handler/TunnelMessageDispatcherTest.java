@@ -0,0 +1,192 @@
+package de.tum.p2p.onion.forwarding.netty.handler;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelRetireMessage;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayCell;
+import de.tum.p2p.proto.message.onion.forwarding.composite.TunnelRelayMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_RELAY;
+import static de.tum.p2p.proto.message.MessageType.ONION_TUNNEL_RETIRE;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class TunnelMessageDispatcherTest {
+
+    @Test
+    public void dispatchesFramesByTypeCode() {
+        val retires = new ArrayList<TunnelRetireMessage>();
+        val relays = new ArrayList<TunnelRelayMessage>();
+
+        val dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_RETIRE, in -> TunnelRetireMessage.fromBytes(in.nioBuffer()),
+                (ctx, msg) -> retires.add(msg))
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom, (ctx, cell) -> {
+                try {
+                    relays.add(cell.toMessage());
+                } finally {
+                    cell.release();
+                }
+            }).build();
+
+        val channel = new EmbeddedChannel(dispatcher);
+
+        val retire = new TunnelRetireMessage(TunnelId.random());
+        val relay = new TunnelRelayMessage(TunnelId.random(), new byte[] {1, 2, 3});
+
+        val retireFrame = Unpooled.wrappedBuffer(retire.bytes());
+        val relayFrame = Unpooled.wrappedBuffer(relay.bytes());
+
+        channel.writeInbound(retireFrame, relayFrame);
+
+        assertEquals(1, retires.size());
+        assertEquals(retire, retires.get(0));
+
+        assertEquals(1, relays.size());
+        assertEquals(relay, relays.get(0));
+
+        assertEquals(0, retireFrame.refCnt());
+        assertEquals(0, relayFrame.refCnt());
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void neverMistakesRelayPayloadSizeForType() {
+        val relays = new ArrayList<TunnelRelayMessage>();
+
+        val dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_RETIRE, in -> TunnelRetireMessage.fromBytes(in.nioBuffer()),
+                (ctx, msg) -> fail("Relay dispatched as " + msg))
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom, (ctx, cell) -> {
+                try {
+                    relays.add(cell.toMessage());
+                } finally {
+                    cell.release();
+                }
+            }).build();
+
+        val channel = new EmbeddedChannel(dispatcher);
+
+        // Payload size equals the code of ONION_TUNNEL_RETIRE
+        val relay = new TunnelRelayMessage(TunnelId.random(), new byte[ONION_TUNNEL_RETIRE.code()]);
+        channel.writeInbound(Unpooled.wrappedBuffer(relay.bytes()));
+
+        assertEquals(1, relays.size());
+        assertEquals(relay, relays.get(0));
+    }
+
+    @Test
+    public void propagatesUnroutedFrames() {
+        val channel = new EmbeddedChannel(new TunnelMessageDispatcher.Builder().build());
+
+        val relayFrame = Unpooled.wrappedBuffer(new TunnelRelayMessage(TunnelId.random(), new byte[1]).bytes());
+        channel.writeInbound(relayFrame);
+
+        assertSame(relayFrame, channel.readInbound());
+        relayFrame.release();
+    }
+
+    @Test
+    public void completesBatchesBeforeFramesOfOtherHandlers() {
+        val handled = new ArrayList<String>();
+        val batching = new BatchingHandler(handled);
+
+        val dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_RETIRE, in -> TunnelRetireMessage.fromBytes(in.nioBuffer()),
+                (ctx, msg) -> handled.add("retire"))
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom, batching).build();
+
+        val channel = new EmbeddedChannel(dispatcher);
+
+        val relayFrame = Unpooled.wrappedBuffer(new TunnelRelayMessage(TunnelId.random(), new byte[1]).bytes());
+        val retireFrame = Unpooled.wrappedBuffer(new TunnelRetireMessage(TunnelId.random()).bytes());
+        channel.writeInbound(relayFrame, retireFrame);
+
+        assertEquals(asList("relay", "retire"), handled);
+        assertEquals(0, relayFrame.refCnt());
+    }
+
+    @Test
+    public void completesOnlyHandlersWithPendingBatches() {
+        val batching = new BatchingHandler(new ArrayList<>());
+
+        val dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_RETIRE, in -> TunnelRetireMessage.fromBytes(in.nioBuffer()), (ctx, msg) -> { })
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom, batching).build();
+
+        val channel = new EmbeddedChannel(dispatcher);
+
+        // Consecutive relays are batched together and completed once
+        channel.writeInbound(relayFrame(), relayFrame(), relayFrame());
+        assertEquals(1, batching.completions);
+
+        // A burst with no relays leaves the relay handler alone
+        channel.writeInbound(Unpooled.wrappedBuffer(new TunnelRetireMessage(TunnelId.random()).bytes()));
+        assertEquals(1, batching.completions);
+    }
+
+    @Test
+    public void discardsBatchesOfInactiveChannels() {
+        val batching = new BatchingHandler(new ArrayList<>());
+        val dispatcher = new TunnelMessageDispatcher.Builder()
+            .route(ONION_TUNNEL_RELAY, TunnelRelayCell::retainedFrom, batching).build();
+
+        val channel = new EmbeddedChannel(dispatcher);
+
+        val relayFrame = Unpooled.wrappedBuffer(new TunnelRelayMessage(TunnelId.random(), new byte[1]).bytes());
+        channel.pipeline().fireChannelRead(relayFrame);
+
+        assertEquals(1, batching.batch.size());
+        assertEquals(1, relayFrame.refCnt());
+
+        channel.close();
+
+        assertTrue(batching.batch.isEmpty());
+        assertEquals(0, relayFrame.refCnt());
+    }
+
+    private static ByteBuf relayFrame() {
+        return Unpooled.wrappedBuffer(new TunnelRelayMessage(TunnelId.random(), new byte[1]).bytes());
+    }
+
+    private static final class BatchingHandler implements TunnelMessageHandler<TunnelRelayCell> {
+
+        private final List<String> handled;
+        private final List<TunnelRelayCell> batch = new ArrayList<>();
+
+        private int completions;
+
+        private BatchingHandler(List<String> handled) {
+            this.handled = handled;
+        }
+
+        @Override
+        public void handle(ChannelHandlerContext ctx, TunnelRelayCell cell) {
+            batch.add(cell);
+        }
+
+        @Override
+        public void readComplete(ChannelHandlerContext ctx) {
+            completions++;
+            batch.forEach(cell -> {
+                handled.add("relay");
+                cell.release();
+            });
+            batch.clear();
+        }
+
+        @Override
+        public void discard(ChannelHandlerContext ctx) {
+            batch.forEach(TunnelRelayCell::release);
+            batch.clear();
+        }
+    }
+}
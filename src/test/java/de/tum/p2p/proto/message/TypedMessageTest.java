@@ -38,6 +38,15 @@ public class TypedMessageTest {
         });
     }
 
+    @Test
+    public void guessesUnknownTypeForUnassignedCodes() throws Exception {
+        for (val code : new short[] {-1, 1, (short) (MessageType.maxCode() + 1), Short.MAX_VALUE}) {
+            val rawTypedMsg = ByteBuffer.allocate(MessageType.BYTES).putShort(code).array();
+
+            assertEquals(MessageType.UNKNOWN, guessType(rawTypedMsg));
+        }
+    }
+
     @Test(expected = ProtoException.class)
     public void validatesUndersizedMessagesDuringByting() {
         val msgBodyValue = ThreadLocalRandom.current().nextInt();
@@ -0,0 +1,58 @@
+package de.tum.p2p.proto.message.onion.forwarding;
+
+import de.tum.p2p.onion.forwarding.TunnelId;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.val;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static de.tum.p2p.proto.message.onion.forwarding.CellSize.*;
+import static de.tum.p2p.proto.message.onion.forwarding.padding.CellPaddings.defaultPadding;
+import static de.tum.p2p.util.ByteBufs.safeContent;
+import static org.junit.Assert.assertEquals;
+
+public class LinkHelloMessageTest {
+
+    @Test
+    public void convertBackAndForthCorrectly() {
+        val msg = new LinkHelloMessage(EnumSet.of(CELL_1024, CELL_4096), CELL_4096);
+
+        val parsedMsg = LinkHelloMessage.fromBytes(msg.bytes());
+
+        assertEquals(msg.supportedCellSizes(), parsedMsg.supportedCellSizes());
+        assertEquals(msg.cellSize(), parsedMsg.cellSize());
+    }
+
+    @Test
+    public void negotiatesBiggestCommonCellSizeWithinPreferred() {
+        val all = EnumSet.allOf(CellSize.class);
+
+        assertEquals(CELL_4096, negotiate(all, CELL_16384, all, CELL_4096));
+        assertEquals(CELL_1024, negotiate(all, CELL_16384, EnumSet.of(CELL_512, CELL_1024), CELL_16384));
+        assertEquals(CELL_512, negotiate(all, CELL_512, all, CELL_16384));
+        assertEquals(DEFAULT, negotiate(EnumSet.of(CELL_4096), CELL_4096, EnumSet.of(CELL_16384), CELL_16384));
+    }
+
+    @Test
+    public void roundTripsCellSizeMasks() {
+        val cellSizes = EnumSet.of(CELL_512, CELL_16384);
+
+        assertEquals(cellSizes, fromMask(mask(cellSizes)));
+    }
+
+    @Test
+    public void writesJumboCellsOfGivenSize() {
+        val msg = new TunnelRetireMessage(TunnelId.random());
+        val msgBuf = PooledByteBufAllocator.DEFAULT.directBuffer(CELL_4096.bytes());
+
+        try {
+            msg.writeTo(msgBuf, CELL_4096.bytes(), defaultPadding());
+            assertEquals(CELL_4096.bytes(), msgBuf.readableBytes());
+
+            assertEquals(msg.tunnelId(), TunnelRetireMessage.fromBytes(safeContent(msgBuf)).tunnelId());
+        } finally {
+            msgBuf.release();
+        }
+    }
+}
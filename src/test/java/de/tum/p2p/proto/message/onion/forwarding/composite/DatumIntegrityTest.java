@@ -0,0 +1,60 @@
+package de.tum.p2p.proto.message.onion.forwarding.composite;
+
+import de.tum.p2p.proto.ProtoException;
+import lombok.val;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(Parameterized.class)
+public class DatumIntegrityTest {
+
+    // type, psize, message id, fragment index and count, integrity
+    private static final int PAYLOAD_OFFSET = 2 + 2 + 4 + 2 + 2 + 1;
+
+    @Parameterized.Parameters
+    public static Collection<DatumIntegrity> data() {
+        return Arrays.asList(DatumIntegrity.values());
+    }
+
+    private DatumIntegrity integrity;
+
+    public DatumIntegrityTest(DatumIntegrity integrity) {
+        this.integrity = integrity;
+    }
+
+    @Test
+    public void convertBackAndForthCorrectly() {
+        val datum = new TunnelDatum(42, 0, 1, integrity, randomPayload());
+
+        val parsedDatum = TunnelDatum.fromBytes(datum.bytes());
+
+        assertEquals(integrity, parsedDatum.integrity());
+        assertArrayEquals(datum.payload(), parsedDatum.payload());
+    }
+
+    @Test(expected = ProtoException.class)
+    public void detectsCorruptedPayload() {
+        assumeTrue(integrity != DatumIntegrity.NONE);
+
+        val datumBytes = new TunnelDatum(42, 0, 1, integrity, randomPayload()).bytes();
+        datumBytes[PAYLOAD_OFFSET] ^= 1;
+
+        TunnelDatum.fromBytes(datumBytes);
+    }
+
+    private static byte[] randomPayload() {
+        val payload = new byte[TunnelDatum.PAYLOAD_BYTES];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        return payload;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Collection;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 @RunWith(Parameterized.class)
 public class TunnelDatumTest {
@@ -24,7 +25,10 @@ public class TunnelDatumTest {
         for (int i = 0; i < TEST_RUNS; i++) {
             if (ThreadLocalRandom.current().nextBoolean())
                 data.add(new TunnelDatum(Double.SIZE));
-            else {
+            else if (ThreadLocalRandom.current().nextBoolean()) {
+                ThreadLocalRandom.current().nextBytes(randPayload);
+                data.add(new TunnelDatum(ThreadLocalRandom.current().nextInt(), i, TEST_RUNS, randPayload));
+            } else {
                 ThreadLocalRandom.current().nextBytes(randPayload);
                 data.add(new TunnelDatum(randPayload));
             }
@@ -46,5 +50,8 @@ public class TunnelDatumTest {
         val parsedPayload = TunnelDatum.fromBytes(payloadBytes);
 
         assertArrayEquals(payload.payload(), parsedPayload.payload());
+        assertEquals(payload.messageId(), parsedPayload.messageId());
+        assertEquals(payload.fragmentIndex(), parsedPayload.fragmentIndex());
+        assertEquals(payload.fragmentCount(), parsedPayload.fragmentCount());
     }
 }
@@ -1,6 +1,8 @@
 package de.tum.p2p.proto.message.onion.forwarding.composite;
 
 import de.tum.p2p.onion.forwarding.TunnelId;
+import de.tum.p2p.proto.message.onion.forwarding.TunnelMessage;
+import io.netty.buffer.PooledByteBufAllocator;
 import lombok.val;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -10,6 +12,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static de.tum.p2p.util.ByteBufs.safeContent;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -46,4 +49,98 @@ public class TunnelRelayMessageTest {
         assertEquals(msg.tunnelId(), parsedMsg.tunnelId());
         assertArrayEquals(msg.payload(), parsedMsg.payload());
     }
+
+    @Test
+    public void writesToPooledByteBufCorrectly() {
+        val msgBuf = PooledByteBufAllocator.DEFAULT.directBuffer(TunnelMessage.BYTES);
+
+        try {
+            msg.writeTo(msgBuf);
+            assertEquals(TunnelMessage.BYTES, msgBuf.readableBytes());
+
+            val parsedMsg = TunnelRelayMessage.fromBytes(safeContent(msgBuf));
+
+            assertEquals(msg.tunnelId(), parsedMsg.tunnelId());
+            assertArrayEquals(msg.payload(), parsedMsg.payload());
+        } finally {
+            msgBuf.release();
+        }
+    }
+
+    @Test
+    public void viewsPooledByteBufAsRelayCellWithoutCopying() {
+        val msgBuf = PooledByteBufAllocator.DEFAULT.directBuffer(TunnelMessage.BYTES);
+
+        try {
+            msg.writeTo(msgBuf);
+
+            val cell = TunnelRelayCell.retainedFrom(msgBuf);
+            assertEquals(2, msgBuf.refCnt());
+
+            try {
+                assertEquals(msg.tunnelId(), cell.tunnelId());
+                assertEquals(msg.payload().length, cell.payloadLength());
+                assertArrayEquals(msg.payload(), safeContent(cell.payloadSlice()));
+                assertEquals(msg, cell.toMessage());
+            } finally {
+                cell.release();
+            }
+
+            assertEquals(1, msgBuf.refCnt());
+        } finally {
+            msgBuf.release();
+        }
+    }
+
+    @Test
+    public void peelsRelayCellInPlace() {
+        val msgBuf = PooledByteBufAllocator.DEFAULT.directBuffer(TunnelMessage.BYTES);
+
+        try {
+            msg.writeTo(msgBuf);
+
+            val peeledPayload = new byte[msg.payload().length / 2];
+            ThreadLocalRandom.current().nextBytes(peeledPayload);
+
+            val cell = TunnelRelayCell.retainedFrom(msgBuf);
+            try {
+                cell.peelInPlace(peeledPayload);
+            } finally {
+                cell.release();
+            }
+
+            assertEquals(TunnelMessage.BYTES, msgBuf.readableBytes());
+
+            val parsedMsg = TunnelRelayMessage.fromBytes(safeContent(msgBuf));
+
+            assertEquals(msg.tunnelId(), parsedMsg.tunnelId());
+            assertArrayEquals(peeledPayload, parsedMsg.payload());
+        } finally {
+            msgBuf.release();
+        }
+    }
+
+    @Test
+    public void retunnelsRelayCellInPlace() {
+        val msgBuf = PooledByteBufAllocator.DEFAULT.directBuffer(TunnelMessage.BYTES);
+
+        try {
+            msg.writeTo(msgBuf);
+
+            val nextTunnelId = TunnelId.random();
+            val cell = TunnelRelayCell.retainedFrom(msgBuf);
+            try {
+                assertEquals(nextTunnelId, cell.retunnelInPlace(nextTunnelId.raw()).tunnelId());
+            } finally {
+                cell.release();
+            }
+
+            val parsedMsg = TunnelRelayMessage.fromBytes(safeContent(msgBuf));
+
+            assertEquals(nextTunnelId, parsedMsg.tunnelId());
+            assertArrayEquals(msg.payload(), parsedMsg.payload());
+        } finally {
+            msgBuf.release();
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package de.tum.p2p.proto.message.onion.forwarding.padding;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import lombok.val;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(Parameterized.class)
+public class CellPaddingTest {
+
+    private static final int PADDING_BYTES = 10_000;
+
+    @Parameterized.Parameters
+    public static Collection<CellPadding> data() {
+        return Arrays.asList(
+            CellPaddings.threadLocalRandom(),
+            CellPaddings.keystream(),
+            CellPaddings.randomPool(),
+            CellPaddings.randomPool(128, 2)
+        );
+    }
+
+    private CellPadding padding;
+
+    public CellPaddingTest(CellPadding padding) {
+        this.padding = padding;
+    }
+
+    @Test
+    public void padsHeapBuffersByExactAmountOfBytes() {
+        padsByExactAmountOfBytes(Unpooled.buffer(PADDING_BYTES + 1));
+    }
+
+    @Test
+    public void padsDirectBuffersByExactAmountOfBytes() {
+        padsByExactAmountOfBytes(PooledByteBufAllocator.DEFAULT.directBuffer(PADDING_BYTES + 1));
+    }
+
+    private void padsByExactAmountOfBytes(ByteBuf cell) {
+        try {
+            cell.writeByte(0);
+            padding.pad(cell, PADDING_BYTES);
+
+            assertEquals(PADDING_BYTES + 1, cell.readableBytes());
+
+            val padded = new byte[PADDING_BYTES];
+            cell.getBytes(1, padded);
+            assertFalse(Arrays.equals(new byte[PADDING_BYTES], padded));
+        } finally {
+            cell.release();
+        }
+    }
+}